@@ -0,0 +1,83 @@
+package plugin.referral.db;
+
+import plugin.referral.others.ReferralCodeGenerator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This class generates the data set shared by the benchmarks: players with unique ids and referral codes,
+ * and a referral forest where each player was invited by a random older player, some players having no inviter.
+ * The data set only depends on its size, so runs of different versions work on the same data.
+ */
+final class BenchmarkData {
+
+    // Number of distinct codes, 36^8
+    private static final long CODE_SPACE = 2_821_109_907_456L;
+
+    // Share of the players who joined without being invited
+    private static final double ROOT_RATIO = 0.05;
+
+    final String[] usernames;
+    final UUID[] uuids;
+    final String[] codes;
+    final long[] packedCodes;
+
+    // Index of the inviter of each player, -1 for the players who were not invited
+    final int[] inviters;
+
+    /**
+     * Constructor for the BenchmarkData class.
+     *
+     * @param players The number of players.
+     */
+    BenchmarkData(int players) {
+        Random random = new Random(players);
+        usernames = new String[players];
+        uuids = new UUID[players];
+        codes = new String[players];
+        packedCodes = new long[players];
+        inviters = new int[players];
+
+        Set<Long> used = new HashSet<>();
+        for (int i = 0; i < players; i++) {
+            usernames[i] = "player" + i;
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+            long packed;
+            do {
+                packed = random.nextLong(CODE_SPACE);
+            } while (!used.add(packed));
+            packedCodes[i] = packed;
+            codes[i] = ReferralCodeGenerator.encode(packed);
+            inviters[i] = i == 0 || random.nextDouble() < ROOT_RATIO ? -1 : random.nextInt(i);
+        }
+    }
+
+    /**
+     * @return The players, as referrals ready to be stored.
+     */
+    List<NewReferral> referrals() {
+        List<NewReferral> referrals = new ArrayList<>(usernames.length);
+        for (int i = 0; i < usernames.length; i++) {
+            referrals.add(new NewReferral(uuids[i], usernames[i], codes[i]));
+        }
+        return referrals;
+    }
+
+    /**
+     * @return The invitations of the referral forest.
+     */
+    List<Invitation> invitations() {
+        List<Invitation> invitations = new ArrayList<>(usernames.length);
+        for (int i = 0; i < usernames.length; i++) {
+            if (inviters[i] >= 0) {
+                invitations.add(new Invitation(usernames[inviters[i]], usernames[i]));
+            }
+        }
+        return invitations;
+    }
+}
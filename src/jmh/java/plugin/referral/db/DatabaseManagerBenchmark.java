@@ -0,0 +1,346 @@
+package plugin.referral.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the DatabaseManager operations against the embedded local storage, in a temporary directory.
+ * The storage is seeded with the shared data set and the in-memory indexes are loaded, like at startup.
+ * Asynchronous operations are measured until their future completes.
+ * <p>
+ * The DatabaseManager is a singleton whose executor is shut down with it, so every trial must run in its own fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabaseManagerBenchmark {
+
+    @Param("100000")
+    public int players;
+
+    @Param("false")
+    public boolean syncWrites;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    // Number of players kept in the session cache, as if they were online
+    private static final int ONLINE_PLAYERS = 200;
+
+    private final DatabaseManager database = DatabaseManager.getInstance();
+    private final AtomicLong sequence = new AtomicLong();
+    private BenchmarkData data;
+    private Path directory;
+
+    /**
+     * Seeds the storage with the data set and loads the in-memory indexes.
+     *
+     * @throws Exception If the storage cannot be created or seeded.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        data = new BenchmarkData(players);
+        directory = Files.createTempDirectory("referral-benchmark");
+        Logger logger = Logger.getLogger("referral-benchmark");
+
+        LocalStorage storage = new LocalStorage(new File(directory.toFile(), "referrals.log"), syncWrites, logger);
+        storage.open();
+        storage.insertReferrals(data.referrals());
+        storage.insertInvitations(data.invitations(), false);
+        storage.close();
+
+        database.configure(new LocalStorage(new File(directory.toFile(), "referrals.log"), syncWrites, logger),
+                new WriteBehindSettings(writeBehind, 10_000, 100, 5, 2_000), null, logger);
+        database.warmUpCodeIndex();
+        database.refreshLeaderboard();
+        database.loadReferralGraph();
+        for (int i = 0; i < ONLINE_PLAYERS; i++) {
+            database.preloadPlayer(data.uuids[i], data.usernames[i]);
+        }
+    }
+
+    /**
+     * Shuts the DatabaseManager down and deletes the storage.
+     *
+     * @throws IOException If the temporary directory cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Reads the code of a player from the storage.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public String getReferralCode() throws SQLException {
+        return database.getReferralCode(randomUsername());
+    }
+
+    /**
+     * Reads the code of a player who is not online.
+     */
+    @Benchmark
+    public String getReferralCodeAsync() {
+        return database.getReferralCodeAsync(data.usernames[ONLINE_PLAYERS + randomIndex(players - ONLINE_PLAYERS)]).join();
+    }
+
+    /**
+     * Reads the code of an online player, answered from the session cache.
+     */
+    @Benchmark
+    public String getReferralCodeAsyncOnline() {
+        return database.getReferralCodeAsync(data.usernames[randomIndex(ONLINE_PLAYERS)]).join();
+    }
+
+    /**
+     * Reads the first page of the invitees of a player.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public List<String> getInvitesPage() throws SQLException {
+        return database.getInvitesPage(randomUsername(), null, 10);
+    }
+
+    /**
+     * Reads the first page of the invitees of a player, asynchronously.
+     */
+    @Benchmark
+    public List<String> getInvitesPageAsync() {
+        return database.getInvitesPageAsync(randomUsername(), null, 10).join();
+    }
+
+    /**
+     * Reads the invite count of a player.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public int getInviteCount() throws SQLException {
+        return database.getInviteCount(randomUsername());
+    }
+
+    /**
+     * Reads the invite count of a player who is not online.
+     */
+    @Benchmark
+    public int getInviteCountAsync() {
+        return database.getInviteCountAsync(data.usernames[ONLINE_PLAYERS + randomIndex(players - ONLINE_PLAYERS)]).join();
+    }
+
+    /**
+     * Checks whether a player invited another one.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public boolean isAlreadyInvited() throws SQLException {
+        return database.isAlreadyInvited(randomUsername(), randomUsername());
+    }
+
+    /**
+     * Checks whether a player invited another one, asynchronously.
+     */
+    @Benchmark
+    public boolean isAlreadyInvitedAsync() {
+        return database.isAlreadyInvitedAsync(randomUsername(), randomUsername()).join();
+    }
+
+    /**
+     * Registers an invitation between two random players, most pairs being new.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public RegistrationOutcome registerInvitation() throws SQLException {
+        return database.registerInvitation(randomUsername(), randomUsername());
+    }
+
+    /**
+     * Registers an invitation between two random players, through the write-behind buffer when it is enabled.
+     */
+    @Benchmark
+    public RegistrationOutcome registerInvitationAsync() {
+        return database.registerInvitationAsync(randomUsername(), randomUsername()).join();
+    }
+
+    /**
+     * Registers a new player.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public RegistrationOutcome registerReferral() throws SQLException {
+        return database.registerReferral(UUID.randomUUID(), nextNewUsername());
+    }
+
+    /**
+     * Registers a new player, through the write-behind buffer when it is enabled.
+     */
+    @Benchmark
+    public RegistrationOutcome registerReferralAsync() {
+        return database.registerReferralAsync(UUID.randomUUID(), nextNewUsername()).join();
+    }
+
+    /**
+     * Loads the data of a player logging in.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public void preloadPlayer() throws SQLException {
+        int index = randomIndex(players);
+        database.preloadPlayer(data.uuids[index], data.usernames[index]);
+    }
+
+    /**
+     * Finds the owner of a code, answered from the code index.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    public String findCodeOwner() throws SQLException {
+        return database.findCodeOwner(data.codes[randomIndex(players)]);
+    }
+
+    /**
+     * Finds the owner of a code asynchronously, answered from the code index.
+     */
+    @Benchmark
+    public String findCodeOwnerAsync() {
+        return database.findCodeOwnerAsync(data.codes[randomIndex(players)]).join();
+    }
+
+    /**
+     * Redeems the code of a random player.
+     */
+    @Benchmark
+    public Redemption redeemReferralCodeAsync() {
+        return database.redeemReferralCodeAsync(randomUsername(), data.codes[randomIndex(players)]).join();
+    }
+
+    /**
+     * Reads the top 10 inviters.
+     */
+    @Benchmark
+    public List<LeaderboardEntry> getTopInviters() {
+        return database.getTopInviters(10);
+    }
+
+    /**
+     * Reads the rank of an inviter.
+     */
+    @Benchmark
+    public int getInviterRank() {
+        return database.getInviterRank(randomUsername());
+    }
+
+    /**
+     * Walks up the referral chain of a player.
+     */
+    @Benchmark
+    public List<String> getUpline() {
+        return database.getUpline(randomUsername(), 5);
+    }
+
+    /**
+     * Counts the players below a player, level by level.
+     */
+    @Benchmark
+    public int[] getDownlineLevels() {
+        return database.getDownlineLevels(randomUsername(), 5);
+    }
+
+    /**
+     * Counts the downline of a player within the depth shown by /referralTree.
+     */
+    @Benchmark
+    public int getDownlineSize() {
+        return database.getDownlineSize(randomUsername(), 10);
+    }
+
+    /**
+     * Reloads the invitation graph from the storage.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int loadReferralGraph() throws SQLException {
+        return database.loadReferralGraph();
+    }
+
+    /**
+     * Reconciles the leaderboard with the storage.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int refreshLeaderboard() throws SQLException {
+        return database.refreshLeaderboard();
+    }
+
+    /**
+     * Reloads every code into the code index.
+     *
+     * @throws SQLException If the storage fails.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int warmUpCodeIndex() throws SQLException {
+        return database.warmUpCodeIndex();
+    }
+
+    /**
+     * @return The username of a random player of the data set.
+     */
+    private String randomUsername() {
+        return data.usernames[randomIndex(players)];
+    }
+
+    /**
+     * @return A username that has never been registered.
+     */
+    private String nextNewUsername() {
+        return "new" + sequence.incrementAndGet();
+    }
+
+    /**
+     * @param bound The exclusive upper bound.
+     * @return A random index below the bound.
+     */
+    private static int randomIndex(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+}
@@ -0,0 +1,176 @@
+package plugin.referral.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the in-memory structures answering lookups without querying the database:
+ * the session cache, the referral code index, the index of known players, the leaderboard and the invitation graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LookupStructuresBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int players;
+
+    // Depth of the referral chains walked by the graph benchmarks
+    private static final int DEPTH = 5;
+
+    private BenchmarkData data;
+    private ReferralCache cache;
+    private ReferralCodeIndex codeIndex;
+    private KnownPlayerIndex knownPlayers;
+    private UsernamePrefixIndex usernames;
+    private InviteLeaderboard leaderboard;
+    private ReferralGraph graph;
+
+    /**
+     * Fills every structure with the whole data set, the cache holding every player as if they were all online.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new BenchmarkData(players);
+        cache = new ReferralCache();
+        codeIndex = new ReferralCodeIndex();
+        knownPlayers = new KnownPlayerIndex();
+        usernames = new UsernamePrefixIndex();
+        leaderboard = new InviteLeaderboard();
+        graph = new ReferralGraph();
+
+        Map<String, Integer> counts = new HashMap<>();
+        ReferralGraph.Builder builder = new ReferralGraph.Builder();
+        for (Invitation invitation : data.invitations()) {
+            counts.merge(invitation.inviter(), 1, Integer::sum);
+            builder.add(invitation.inviter(), invitation.invitee());
+        }
+        for (int i = 0; i < players; i++) {
+            cache.load(data.usernames[i], data.codes[i], counts.getOrDefault(data.usernames[i], 0));
+            codeIndex.put(data.packedCodes[i], data.usernames[i]);
+            knownPlayers.add(data.usernames[i]);
+        }
+        knownPlayers.markLoaded();
+        usernames.load(List.of(data.usernames));
+        leaderboard.merge(counts);
+        graph.load(builder);
+    }
+
+    /**
+     * Reads the session of an online player.
+     */
+    @Benchmark
+    public ReferralCache.Session cacheGet() {
+        return cache.get(data.usernames[randomPlayer()]);
+    }
+
+    /**
+     * Finds the owner of a code.
+     */
+    @Benchmark
+    public String codeIndexGet() {
+        return codeIndex.get(data.packedCodes[randomPlayer()]);
+    }
+
+    /**
+     * Finds the owner of codes from four threads, the index being guarded by a read-write lock.
+     */
+    @Benchmark
+    @Threads(4)
+    public String codeIndexGetContended() {
+        return codeIndex.get(data.packedCodes[randomPlayer()]);
+    }
+
+    /**
+     * Checks a registered username against the index of known players.
+     */
+    @Benchmark
+    public boolean knownPlayerHit() {
+        return knownPlayers.mightBeRegistered(data.usernames[randomPlayer()]);
+    }
+
+    /**
+     * Checks a username that does not belong to any player, as when an invitee name is mistyped.
+     */
+    @Benchmark
+    public boolean knownPlayerMiss() {
+        return knownPlayers.mightBeRegistered("typo" + randomPlayer());
+    }
+
+    /**
+     * Completes the first three letters of a registered username, as the tab completion of /invite does.
+     */
+    @Benchmark
+    public List<String> usernameComplete() {
+        return usernames.complete(data.usernames[randomPlayer()].substring(0, 3), 50, key -> false);
+    }
+
+    /**
+     * Reads the top 10 inviters.
+     */
+    @Benchmark
+    public List<LeaderboardEntry> leaderboardTop() {
+        return leaderboard.top(10);
+    }
+
+    /**
+     * Reads the rank of an inviter.
+     */
+    @Benchmark
+    public int leaderboardRank() {
+        return leaderboard.rank(data.usernames[randomPlayer()]);
+    }
+
+    /**
+     * Records a new invitation in the leaderboard.
+     */
+    @Benchmark
+    public void leaderboardIncrement() {
+        leaderboard.increment(data.usernames[randomPlayer()]);
+    }
+
+    /**
+     * Walks up the referral chain of a player.
+     */
+    @Benchmark
+    public List<String> graphUpline() {
+        return graph.upline(data.usernames[randomPlayer()], DEPTH);
+    }
+
+    /**
+     * Counts the players below a player, level by level.
+     */
+    @Benchmark
+    public int[] graphDownlineLevels() {
+        return graph.downlineLevels(data.usernames[randomPlayer()], DEPTH);
+    }
+
+    /**
+     * Counts the whole subtree of the first player, the largest one of the data set.
+     */
+    @Benchmark
+    public int graphSubtreeOfRoot() {
+        return graph.downlineSize(data.usernames[0], Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The index of a random player of the data set.
+     */
+    private int randomPlayer() {
+        return ThreadLocalRandom.current().nextInt(players);
+    }
+}
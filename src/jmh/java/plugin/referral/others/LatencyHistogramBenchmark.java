@@ -0,0 +1,63 @@
+package plugin.referral.others;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the latency histogram, which records every operation of the plugin:
+ * the cost of a record, single-threaded and under contention, and of reading a percentile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LatencyHistogramBenchmark {
+
+    private LatencyHistogram histogram;
+
+    /**
+     * Fills the histogram with latencies spread between 1 microsecond and 1 second.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        histogram = new LatencyHistogram();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(random.nextLong(1_000, 1_000_000_000));
+        }
+    }
+
+    /**
+     * Records a latency.
+     */
+    @Benchmark
+    public void record() {
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000, 10_000_000));
+    }
+
+    /**
+     * Records latencies from four threads sharing the histogram.
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(ThreadLocalRandom.current().nextLong(1_000, 10_000_000));
+    }
+
+    /**
+     * Reads the 99th percentile, as done by the stats command and the metrics endpoint.
+     */
+    @Benchmark
+    public long percentile() {
+        return histogram.percentileNanos(0.99);
+    }
+}
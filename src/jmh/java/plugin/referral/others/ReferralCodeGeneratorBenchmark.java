@@ -0,0 +1,112 @@
+package plugin.referral.others;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the referral code generator: handing out pre-generated codes, single-threaded and under contention,
+ * and converting codes between their packed and text forms. Run with the gc profiler to see the allocation per code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReferralCodeGeneratorBenchmark {
+
+    @Param("1024")
+    public int blockSize;
+
+    private ExecutorService refiller;
+    private ReferralCodeGenerator generator;
+    private String code;
+    private long packed;
+
+    /**
+     * Creates the generator, refilled on a background thread like in the plugin.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        refiller = Executors.newSingleThreadExecutor();
+        generator = new ReferralCodeGenerator(blockSize, refiller);
+        code = ReferralCodeGenerator.randomCode();
+        packed = ReferralCodeGenerator.decode(code);
+    }
+
+    /**
+     * Stops the refilling thread.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        refiller.shutdownNow();
+    }
+
+    /**
+     * Takes a packed code from the pre-generated block.
+     */
+    @Benchmark
+    public long nextPacked() {
+        return generator.nextPacked();
+    }
+
+    /**
+     * Takes packed codes from four threads sharing the generator.
+     */
+    @Benchmark
+    @Threads(4)
+    public long nextPackedContended() {
+        return generator.nextPacked();
+    }
+
+    /**
+     * Takes a code and turns it into text, as done on every registration.
+     */
+    @Benchmark
+    public String nextCode() {
+        return generator.nextCode();
+    }
+
+    /**
+     * Takes codes as text from four threads sharing the generator.
+     */
+    @Benchmark
+    @Threads(4)
+    public String nextCodeContended() {
+        return generator.nextCode();
+    }
+
+    /**
+     * Generates a code outside of the pre-generated blocks.
+     */
+    @Benchmark
+    public String randomCode() {
+        return ReferralCodeGenerator.randomCode();
+    }
+
+    /**
+     * Turns a packed code into text.
+     */
+    @Benchmark
+    public String encode() {
+        return ReferralCodeGenerator.encode(packed);
+    }
+
+    /**
+     * Parses a code typed by a player.
+     */
+    @Benchmark
+    public long decode() {
+        return ReferralCodeGenerator.decode(code);
+    }
+}
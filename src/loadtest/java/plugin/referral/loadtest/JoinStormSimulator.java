@@ -0,0 +1,419 @@
+package plugin.referral.loadtest;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.commands.CheckInvitesCommand;
+import plugin.referral.commands.GetReferralCommand;
+import plugin.referral.commands.InviteCommand;
+import plugin.referral.commands.TimedCommandExecutor;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.Invitation;
+import plugin.referral.db.LocalStorage;
+import plugin.referral.db.NewReferral;
+import plugin.referral.db.ReferralStorage;
+import plugin.referral.db.WriteBehindSettings;
+import plugin.referral.events.PlayerJoinListener;
+import plugin.referral.events.PlayerSessionListener;
+import plugin.referral.others.CommandRateLimiter;
+import plugin.referral.others.LatencyHistogram;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+import plugin.referral.others.ReferralCodeGenerator;
+import plugin.referral.others.RewardDrainer;
+import plugin.referral.others.RewardSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * This class simulates a join storm, such as the one following a restart, without a server:
+ * the real listeners and commands of the plugin are driven by simulated players on a simulated main thread,
+ * against the embedded storage, optionally made to behave like a remote database.
+ * <p>
+ * Every player connects at a random time within the join window, which runs the pre-login and join listeners
+ * and then "/getReferral", and then performs a number of actions drawn from the mix, waiting for the reply to each.
+ * The report gives the throughput, the latency of each action until its reply, the time the main thread was blocked
+ * in each tick, and the metrics recorded by the plugin itself.
+ */
+public final class JoinStormSimulator {
+
+    // Message sent by the commands and listeners when the database fails
+    private static final String ERROR_REPLY = "An error occurred";
+
+    private final SimulationOptions options;
+    private final Logger logger = Logger.getLogger("referral-loadtest");
+    private final Map<SimulationOptions.Action, OperationMetrics> actions = new EnumMap<>(SimulationOptions.Action.class);
+    private final List<SimulatedPlayer> players = new ArrayList<>();
+
+    private SimulatedServer server;
+    private PlayerSessionListener sessionListener;
+    private PlayerJoinListener joinListener;
+    private CommandExecutor inviteCommand;
+    private CommandExecutor getReferralCommand;
+    private CommandExecutor checkInvitesCommand;
+
+    /**
+     * Constructor for the JoinStormSimulator class.
+     *
+     * @param options The settings of the simulation.
+     */
+    JoinStormSimulator(SimulationOptions options) {
+        this.options = options;
+        for (SimulationOptions.Action action : SimulationOptions.Action.values()) {
+            actions.put(action, Metrics.getInstance().operation("simulation." + action.getName()));
+        }
+    }
+
+    /**
+     * Runs a simulation with the settings given on the command line, and prints its report.
+     *
+     * @param args The settings, as "--name=value" arguments.
+     * @throws Exception If the simulation cannot be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        SimulationOptions options;
+        try {
+            options = SimulationOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(SimulationOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        new JoinStormSimulator(options).run();
+    }
+
+    /**
+     * Seeds the storage, runs the simulation and prints the report.
+     *
+     * @throws Exception If the simulation cannot be set up.
+     */
+    void run() throws Exception {
+        logger.setLevel(Level.WARNING);
+        Path directory = Files.createTempDirectory("referral-loadtest");
+        try {
+            setUp(new File(directory.toFile(), "referrals.log"));
+            long elapsed = simulate();
+            printReport(elapsed);
+        } finally {
+            DatabaseManager.getInstance().shutdown();
+            if (server != null) {
+                server.stop();
+            }
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Creates the players, seeds the storage with the ones already registered, and sets up the plugin
+     * the way it is enabled on a server.
+     *
+     * @param file The file of the embedded storage.
+     * @throws Exception If the storage cannot be seeded or configured.
+     */
+    private void setUp(File file) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<NewReferral> registered = new ArrayList<>();
+        List<Invitation> invitations = new ArrayList<>();
+        for (int i = 0; i < options.players(); i++) {
+            SimulatedPlayer player = new SimulatedPlayer("player" + i, UUID.randomUUID());
+            players.add(player);
+            if (random.nextDouble() < options.registeredRatio()) {
+                if (!registered.isEmpty()) {
+                    invitations.add(new Invitation(registered.get(random.nextInt(registered.size())).username(), player.getName()));
+                }
+                registered.add(new NewReferral(player.getUniqueId(), player.getName(), ReferralCodeGenerator.randomCode()));
+            }
+        }
+
+        LocalStorage seed = new LocalStorage(file, false, logger);
+        seed.open();
+        seed.insertReferrals(registered);
+        seed.insertInvitations(invitations, false);
+        seed.close();
+
+        ReferralStorage storage = new LocalStorage(file, options.syncWrites(), logger);
+        if (options.roundTripMicros() > 0) {
+            storage = new RemoteStorageStandIn(storage, options.roundTripMicros(), options.connections(), 5_000);
+        }
+
+        server = new SimulatedServer(options.tickMillis(), logger);
+        server.start();
+        Metrics.getInstance().setPrimaryThreadCheck(server::isPrimaryThread);
+
+        DatabaseManager database = DatabaseManager.getInstance();
+        database.configure(storage, new WriteBehindSettings(options.writeBehind(), 10_000, 100, 50, 2_000), null, logger);
+        CompletableFuture.allOf(database.warmUpCodeIndexAsync(), database.refreshLeaderboardAsync(),
+                database.loadReferralGraphAsync()).join();
+        database.markReady();
+
+        Plugin plugin = server.getPlugin();
+        // Commands are not rate limited, so that every simulated action reaches the database
+        sessionListener = new PlayerSessionListener(plugin, new CommandRateLimiter(Map.of()));
+        // The rewards are read from the outbox on joins and invitations, but not delivered: the drainer is not started
+        RewardDrainer rewards = new RewardDrainer(plugin, new RewardSettings(List.of(), "", 2000, 10, 200));
+        joinListener = new PlayerJoinListener(plugin, rewards);
+        inviteCommand = new TimedCommandExecutor("invite", new InviteCommand(plugin, rewards));
+        getReferralCommand = new TimedCommandExecutor("getReferral", new GetReferralCommand(plugin));
+        checkInvitesCommand = new TimedCommandExecutor("checkInvites", new CheckInvitesCommand(plugin));
+        System.out.println("Seeded " + registered.size() + " registered players and " + invitations.size() + " invitations.");
+    }
+
+    /**
+     * Runs every player on its own virtual thread and waits for all of them.
+     *
+     * @return The duration of the simulation, in nanoseconds.
+     */
+    private long simulate() {
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SimulatedPlayer player : players) {
+                executor.execute(() -> simulatePlayer(player));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Connects a player at a random time within the join window, performs its actions and disconnects it.
+     *
+     * @param player The player.
+     */
+    private void simulatePlayer(SimulatedPlayer player) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            Thread.sleep(options.joinWindowMillis() > 0 ? random.nextLong(options.joinWindowMillis()) : 0);
+            join(player);
+            for (int i = 0; i < options.actionsPerPlayer(); i++) {
+                if (options.thinkMillis() > 0) {
+                    Thread.sleep((long) (-Math.log(1 - random.nextDouble()) * options.thinkMillis()));
+                }
+                SimulationOptions.Action action = options.pickAction(random);
+                switch (action) {
+                    case JOIN -> {
+                        quit(player);
+                        join(player);
+                    }
+                    case INVITE -> command(action, player, inviteCommand, players.get(random.nextInt(players.size())).getName());
+                    case GET_REFERRAL -> command(action, player, getReferralCommand);
+                    case CHECK_INVITES -> command(action, player, checkInvitesCommand);
+                }
+            }
+            quit(player);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Connects a player: the pre-login listener runs on the player's thread, like on a login thread,
+     * then the join listener runs on the main thread, then the player asks for their code.
+     * The latency is measured from the pre-login until the code is received.
+     *
+     * @param player The player.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void join(SimulatedPlayer player) throws InterruptedException {
+        long start = System.nanoTime();
+        sessionListener.onPlayerPreLogin(new AsyncPlayerPreLoginEvent(player.getName(), InetAddress.getLoopbackAddress(), player.getUniqueId(), false));
+        boolean joined = waitFor(server.call(() -> {
+            player.setOnline(true);
+            joinListener.onPlayerJoin(new PlayerJoinEvent(player.getPlayer(), null));
+        }));
+        String reply = joined ? send(player, getReferralCommand, "getReferral") : null;
+        record(SimulationOptions.Action.JOIN, start, reply);
+    }
+
+    /**
+     * Disconnects a player.
+     *
+     * @param player The player.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void quit(SimulatedPlayer player) throws InterruptedException {
+        waitFor(server.call(() -> {
+            player.setOnline(false);
+            sessionListener.onPlayerQuit(new PlayerQuitEvent(player.getPlayer(), null));
+        }));
+    }
+
+    /**
+     * Runs a command for a player and records its latency until the reply.
+     *
+     * @param action   The action being performed.
+     * @param player   The player.
+     * @param executor The executor of the command.
+     * @param args     The command arguments.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void command(SimulationOptions.Action action, SimulatedPlayer player, CommandExecutor executor, String... args)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        record(action, start, send(player, executor, action.getName(), args));
+    }
+
+    /**
+     * Runs a command for a player on the main thread and waits for the reply.
+     *
+     * @param player   The player.
+     * @param executor The executor of the command.
+     * @param name     The name of the command.
+     * @param args     The command arguments.
+     * @return The reply, or null if none was received in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private String send(SimulatedPlayer player, CommandExecutor executor, String name, String... args) throws InterruptedException {
+        CompletableFuture<String> reply = player.expectReply();
+        Command command = new Command(name) {
+            @Override
+            public boolean execute(CommandSender sender, String label, String[] arguments) {
+                return executor.onCommand(sender, this, label, arguments);
+            }
+        };
+        server.call(() -> executor.onCommand(player.getPlayer(), command, name, args));
+        return await(reply);
+    }
+
+    /**
+     * Waits for a reply, up to the reply timeout.
+     *
+     * @param reply The future completed with the reply.
+     * @return The reply, or null if none was received in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private String await(CompletableFuture<String> reply) throws InterruptedException {
+        try {
+            return reply.get(options.replyTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a task run on the main thread, up to the reply timeout.
+     *
+     * @param task The future completed once the task has run.
+     * @return true if the task ran successfully in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private boolean waitFor(CompletableFuture<Void> task) throws InterruptedException {
+        try {
+            task.get(options.replyTimeoutMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records an action, failed if no reply was received or the reply reports a database error.
+     *
+     * @param action The action.
+     * @param start  The start of the action, from System.nanoTime.
+     * @param reply  The reply, or null if none was received.
+     */
+    private void record(SimulationOptions.Action action, long start, String reply) {
+        actions.get(action).record(System.nanoTime() - start, reply == null || reply.startsWith(ERROR_REPLY));
+    }
+
+    /**
+     * Prints the throughput, the latency of each action, the blocking of the main thread and the plugin metrics.
+     *
+     * @param elapsed The duration of the simulation, in nanoseconds.
+     */
+    private void printReport(long elapsed) {
+        long total = actions.values().stream().mapToLong(OperationMetrics::getCalls).sum();
+        double seconds = elapsed / 1_000_000_000.0;
+        System.out.printf(Locale.ROOT, "%d players, %d actions in %.1fs: %.1f actions/s%n",
+                options.players(), total, seconds, total / seconds);
+
+        System.out.println();
+        System.out.println("Action: calls / failed - p50 / p99 / max (until the reply)");
+        for (OperationMetrics action : actions.values()) {
+            printOperation(action);
+        }
+
+        LatencyHistogram ticks = server.getTickBusy();
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Main thread: %d ticks, busy %.2f%% of the time, %d ticks over %dms%n",
+                ticks.getCount(), 100.0 * ticks.getSumNanos() / elapsed, server.getOverruns(), options.tickMillis());
+        System.out.println("Busy time per tick: p50 " + millis(ticks.percentileNanos(0.5))
+                + " / p99 " + millis(ticks.percentileNanos(0.99)) + " / max " + millis(ticks.getMaxNanos()));
+        List<OperationMetrics> operations = Metrics.getInstance().getOperations().stream()
+                .filter(operation -> !operation.getName().startsWith("simulation."))
+                .toList();
+        System.out.println("Blocking database calls made on the main thread: "
+                + operations.stream().mapToLong(OperationMetrics::getMainThreadCalls).sum());
+
+        System.out.println();
+        System.out.println("Plugin operation: calls / errors / main thread - p50 / p99 / max");
+        for (OperationMetrics operation : operations) {
+            printOperation(operation);
+        }
+    }
+
+    /**
+     * Prints the counters and latencies of an operation.
+     *
+     * @param operation The operation.
+     */
+    private static void printOperation(OperationMetrics operation) {
+        LatencyHistogram latency = operation.getLatency();
+        String counters = operation.getName().startsWith("simulation.")
+                ? operation.getCalls() + " / " + operation.getErrors()
+                : operation.getCalls() + " / " + operation.getErrors() + " / " + operation.getMainThreadCalls();
+        System.out.println("  " + operation.getName() + ": " + counters
+                + " - " + millis(latency.percentileNanos(0.5))
+                + " / " + millis(latency.percentileNanos(0.99))
+                + " / " + millis(latency.getMaxNanos()));
+    }
+
+    /**
+     * Formats a duration in milliseconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * Deletes a directory and its content.
+     *
+     * @param directory The directory.
+     * @throws IOException If a file cannot be deleted.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package plugin.referral.loadtest;
+
+import plugin.referral.db.Invitation;
+import plugin.referral.db.InvitationBucket;
+import plugin.referral.db.LeaderboardEntry;
+import plugin.referral.db.NewReferral;
+import plugin.referral.db.PendingReward;
+import plugin.referral.db.PoolStats;
+import plugin.referral.db.ReferralStorage;
+import plugin.referral.db.RegistrationOutcome;
+import plugin.referral.db.StatsGranularity;
+import plugin.referral.db.StoredPlayer;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This class makes a local storage behave like a remote database: every call holds one of a limited number
+ * of connections, like the connection pool does, and waits for a network round trip before running.
+ * It lets the simulator reproduce the queueing of a restart without a database server.
+ */
+final class RemoteStorageStandIn implements ReferralStorage {
+
+    private final ReferralStorage storage;
+    private final Duration roundTrip;
+    private final int connections;
+    private final Semaphore pool;
+    private final long connectionTimeoutMillis;
+
+    /**
+     * Constructor for the RemoteStorageStandIn class.
+     *
+     * @param storage                 The storage actually holding the data.
+     * @param roundTripMicros         The latency added to every call, in microseconds.
+     * @param connections             The number of calls that can run at once.
+     * @param connectionTimeoutMillis How long a call waits for a connection before failing.
+     */
+    RemoteStorageStandIn(ReferralStorage storage, long roundTripMicros, int connections, long connectionTimeoutMillis) {
+        this.storage = storage;
+        this.roundTrip = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+        this.connections = connections;
+        this.pool = new Semaphore(connections, true);
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+    }
+
+    @Override
+    public void open() throws SQLException {
+        storage.open();
+    }
+
+    @Override
+    public String getReferralCode(String username) throws SQLException {
+        return call(() -> storage.getReferralCode(username));
+    }
+
+    @Override
+    public StoredPlayer loadPlayer(UUID uuid, String username) throws SQLException {
+        return call(() -> storage.loadPlayer(uuid, username));
+    }
+
+    @Override
+    public List<String> getInvitesPage(String inviter, String after, int limit) throws SQLException {
+        return call(() -> storage.getInvitesPage(inviter, after, limit));
+    }
+
+    @Override
+    public int getInviteCount(String inviter) throws SQLException {
+        return call(() -> storage.getInviteCount(inviter));
+    }
+
+    @Override
+    public boolean isAlreadyInvited(String inviter, String invitee) throws SQLException {
+        return call(() -> storage.isAlreadyInvited(inviter, invitee));
+    }
+
+    @Override
+    public RegistrationOutcome insertInvitation(String inviter, String invitee) throws SQLException {
+        return call(() -> storage.insertInvitation(inviter, invitee));
+    }
+
+    @Override
+    public RegistrationOutcome[] insertInvitations(List<Invitation> batch, boolean rewarded) throws SQLException {
+        return call(() -> storage.insertInvitations(batch, rewarded));
+    }
+
+    @Override
+    public List<PendingReward> getPendingRewards(Collection<String> players, int limit) throws SQLException {
+        return call(() -> storage.getPendingRewards(players, limit));
+    }
+
+    @Override
+    public void deleteRewards(Collection<Long> ids) throws SQLException {
+        call(() -> {
+            storage.deleteRewards(ids);
+            return null;
+        });
+    }
+
+    @Override
+    public RegistrationOutcome insertReferral(UUID uuid, String username, String referralCode) throws SQLException {
+        return call(() -> storage.insertReferral(uuid, username, referralCode));
+    }
+
+    @Override
+    public RegistrationOutcome[] insertReferrals(List<NewReferral> batch) throws SQLException {
+        return call(() -> storage.insertReferrals(batch));
+    }
+
+    @Override
+    public String findCodeOwner(String referralCode) throws SQLException {
+        return call(() -> storage.findCodeOwner(referralCode));
+    }
+
+    @Override
+    public void forEachReferral(BiConsumer<String, String> consumer) throws SQLException {
+        call(() -> {
+            storage.forEachReferral(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachPlayer(Consumer<NewReferral> consumer) throws SQLException {
+        call(() -> {
+            storage.forEachPlayer(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachInviteCount(ObjIntConsumer<String> consumer) throws SQLException {
+        call(() -> {
+            storage.forEachInviteCount(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachInvitation(BiConsumer<String, String> consumer) throws SQLException {
+        call(() -> {
+            storage.forEachInvitation(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, long from, long to) throws SQLException {
+        return call(() -> storage.getInvitationCounts(granularity, from, to));
+    }
+
+    @Override
+    public List<LeaderboardEntry> getTopInviters(StatsGranularity granularity, long from, long to, int limit) throws SQLException {
+        return call(() -> storage.getTopInviters(granularity, from, to, limit));
+    }
+
+    /**
+     * The connections are reported like the ones of the real pool.
+     */
+    @Override
+    public PoolStats getPoolStats() {
+        int idle = pool.availablePermits();
+        return new PoolStats(connections - idle, idle, pool.getQueueLength());
+    }
+
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+    /**
+     * Runs a call while holding a connection, after the round trip latency.
+     *
+     * @param call The call to run.
+     * @param <T>  The type of the result.
+     * @return The result of the call.
+     * @throws SQLException If no connection is available in time, or the call fails.
+     */
+    private <T> T call(StorageCall<T> call) throws SQLException {
+        try {
+            if (!pool.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Timed out waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+        try {
+            Thread.sleep(roundTrip);
+            return call.call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database.", e);
+        } finally {
+            pool.release();
+        }
+    }
+
+    /**
+     * A storage call that may throw an SQLException.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T call() throws SQLException;
+    }
+}
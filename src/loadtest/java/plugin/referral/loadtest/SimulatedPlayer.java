@@ -0,0 +1,85 @@
+package plugin.referral.loadtest;
+
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is a simulated player. It stands in for the Bukkit Player given to the listeners and commands,
+ * and hands the first message it receives after an action to whoever is waiting for the reply.
+ */
+final class SimulatedPlayer {
+
+    private final String name;
+    private final UUID uuid;
+    private final Player player;
+    private volatile boolean online;
+    private volatile CompletableFuture<String> reply = new CompletableFuture<>();
+
+    /**
+     * Constructor for the SimulatedPlayer class.
+     *
+     * @param name The username of the player.
+     * @param uuid The unique id of the player.
+     */
+    SimulatedPlayer(String name, UUID uuid) {
+        this.name = name;
+        this.uuid = uuid;
+        this.player = SimulatedServer.proxy(Player.class, Map.of(
+                "getName", args -> name,
+                "getDisplayName", args -> name,
+                "getUniqueId", args -> uuid,
+                "isOnline", args -> online,
+                "isOp", args -> false,
+                "hasPermission", args -> false,
+                "sendMessage", args -> {
+                    if (args.length == 1 && args[0] instanceof String message) {
+                        reply.complete(message);
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * @return The username of the player.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return The unique id of the player.
+     */
+    UUID getUniqueId() {
+        return uuid;
+    }
+
+    /**
+     * @return The Bukkit player given to the listeners and commands.
+     */
+    Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Marks the player as connected or not.
+     *
+     * @param online Whether the player is connected.
+     */
+    void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    /**
+     * Starts waiting for the reply to an action. Must be called before the action is sent.
+     *
+     * @return A future completed with the next message received by the player.
+     */
+    CompletableFuture<String> expectReply() {
+        CompletableFuture<String> next = new CompletableFuture<>();
+        reply = next;
+        return next;
+    }
+}
@@ -0,0 +1,185 @@
+package plugin.referral.loadtest;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import plugin.referral.others.LatencyHistogram;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class stands in for the server: a main thread running ticks of fixed length, and just enough of the
+ * Server, BukkitScheduler and Plugin interfaces for the listeners and commands of the plugin.
+ * Like the Bukkit scheduler, a task handed to the main thread runs at the start of the next tick.
+ * The time each tick spends running tasks is recorded, so the simulation shows how long the main thread is blocked.
+ */
+final class SimulatedServer {
+
+    private final long tickNanos;
+    private final Logger logger;
+    private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final Thread mainThread;
+    private final LatencyHistogram tickBusy = new LatencyHistogram();
+    private final LongAdder overruns = new LongAdder();
+    private final Server server;
+    private final Plugin plugin;
+    private volatile boolean running;
+
+    /**
+     * Constructor for the SimulatedServer class. The main thread is not started yet.
+     *
+     * @param tickMillis The length of a tick.
+     * @param logger     The logger of the plugin.
+     */
+    SimulatedServer(long tickMillis, Logger logger) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.logger = logger;
+        this.mainThread = new Thread(this::tickLoop, "Server thread");
+
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class, Map.of(
+                "runTask", args -> {
+                    tasks.add((Runnable) args[1]);
+                    return null;
+                }));
+        this.server = proxy(Server.class, Map.of(
+                "isPrimaryThread", args -> isPrimaryThread(),
+                "getScheduler", args -> scheduler,
+                "getLogger", args -> logger,
+                "getName", args -> "SimulatedServer"));
+        this.plugin = proxy(Plugin.class, Map.of(
+                "isEnabled", args -> running,
+                "getServer", args -> server,
+                "getLogger", args -> logger,
+                "getName", args -> "referral"));
+    }
+
+    /**
+     * Starts the main thread.
+     */
+    void start() {
+        running = true;
+        mainThread.start();
+    }
+
+    /**
+     * Stops the main thread once the current tick is over. The tasks still queued are dropped.
+     *
+     * @throws InterruptedException If interrupted while waiting for the main thread.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        mainThread.join();
+    }
+
+    /**
+     * @return The plugin whose logger and scheduler the listeners and commands use.
+     */
+    Plugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * @return true if the current thread is the simulated main thread.
+     */
+    boolean isPrimaryThread() {
+        return Thread.currentThread() == mainThread;
+    }
+
+    /**
+     * Runs a task on the main thread at the next tick.
+     *
+     * @param task The task.
+     * @return A future completed once the task has run, exceptionally if it threw.
+     */
+    CompletableFuture<Void> call(Runnable task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tasks.add(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * @return The time each tick spent running tasks.
+     */
+    LatencyHistogram getTickBusy() {
+        return tickBusy;
+    }
+
+    /**
+     * @return The number of ticks that ran longer than their length.
+     */
+    long getOverruns() {
+        return overruns.sum();
+    }
+
+    /**
+     * Runs the ticks until the server is stopped. Each tick runs the tasks queued before it started,
+     * then sleeps for the rest of its length.
+     */
+    private void tickLoop() {
+        List<Runnable> batch = new ArrayList<>();
+        while (running) {
+            long start = System.nanoTime();
+            tasks.drainTo(batch);
+            for (Runnable task : batch) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.log(Level.WARNING, "Task failed on the main thread", e);
+                }
+            }
+            batch.clear();
+
+            long busy = System.nanoTime() - start;
+            tickBusy.record(busy);
+            if (busy > tickNanos) {
+                overruns.increment();
+            } else {
+                LockSupport.parkNanos(tickNanos - busy);
+            }
+        }
+    }
+
+    /**
+     * Implements an interface with the given methods. Any other method throws UnsupportedOperationException,
+     * so the simulation fails loudly if the plugin starts relying on a part of the API that is not simulated.
+     *
+     * @param type    The interface.
+     * @param methods The implementation of each supported method, keyed by name and taking the call arguments.
+     * @param <T>     The type of the interface.
+     * @return The implementation.
+     */
+    static <T> T proxy(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        InvocationHandler handler = (self, method, args) -> {
+            Function<Object[], Object> implementation = methods.get(method.getName());
+            if (implementation != null) {
+                return implementation.apply(args != null ? args : new Object[0]);
+            }
+            return switch (method.getName()) {
+                case "equals" -> self == args[0];
+                case "hashCode" -> System.identityHashCode(self);
+                case "toString" -> "Simulated" + type.getSimpleName();
+                default -> throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName() + " is not simulated.");
+            };
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,198 @@
+package plugin.referral.loadtest;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * This record holds the settings of a simulation, read from "--name=value" command line arguments.
+ *
+ * @param players               The number of simulated players.
+ * @param registeredRatio       The share of the players who already have a referral code, as after a restart.
+ * @param joinWindowMillis      The time over which the players connect.
+ * @param actionsPerPlayer      The number of actions of each player after they joined.
+ * @param thinkMillis           The mean pause of a player between two actions.
+ * @param mix                   The relative weight of each action.
+ * @param roundTripMicros       The latency added to every database call, 0 to use the embedded storage as it is.
+ * @param connections           The number of database calls that can run at once when a latency is added.
+ * @param syncWrites            Whether the embedded storage syncs every write to the disk.
+ * @param writeBehind           Whether registrations are buffered and written in batches.
+ * @param tickMillis            The length of a server tick.
+ * @param replyTimeoutMillis    How long a player waits for the reply to an action before giving up.
+ */
+record SimulationOptions(int players,
+                         double registeredRatio,
+                         long joinWindowMillis,
+                         int actionsPerPlayer,
+                         long thinkMillis,
+                         Map<Action, Integer> mix,
+                         long roundTripMicros,
+                         int connections,
+                         boolean syncWrites,
+                         boolean writeBehind,
+                         long tickMillis,
+                         long replyTimeoutMillis) {
+
+    static final String USAGE = """
+            Usage: loadTest [--name=value ...]
+              --players=500              simulated players
+              --registered-ratio=0.9     share of the players who already have a referral code
+              --join-window-millis=5000  time over which the players connect
+              --actions=20               actions of each player after they joined
+              --think-millis=200         mean pause between two actions
+              --mix=join:5,invite:25,getReferral:35,checkInvites:35
+                                         relative weight of each action, join being a reconnection
+              --round-trip-micros=0      latency added to every database call, to stand in for a remote database
+              --connections=10           database calls running at once when a latency is added
+              --sync-writes=false        sync every write of the embedded storage to the disk
+              --write-behind=false       buffer registrations and write them in batches
+              --tick-millis=50           length of a server tick
+              --reply-timeout-millis=10000
+                                         how long a player waits for a reply""";
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If a setting is out of range.
+     */
+    SimulationOptions {
+        if (players < 2 || actionsPerPlayer < 0 || joinWindowMillis < 0 || thinkMillis < 0
+                || registeredRatio < 0 || registeredRatio > 1 || roundTripMicros < 0 || connections < 1
+                || tickMillis < 1 || replyTimeoutMillis < 1) {
+            throw new IllegalArgumentException("A setting is out of range.");
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The action mix must have at least one positive weight.");
+        }
+        mix = new EnumMap<>(mix);
+    }
+
+    /**
+     * Reads the settings from the command line arguments, using the defaults for the missing ones.
+     *
+     * @param args The command line arguments.
+     * @return The settings.
+     * @throws IllegalArgumentException If an argument is malformed, unknown or out of range.
+     */
+    static SimulationOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Malformed argument: " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        try {
+            SimulationOptions options = new SimulationOptions(
+                    Integer.parseInt(take(values, "players", "500")),
+                    Double.parseDouble(take(values, "registered-ratio", "0.9")),
+                    Long.parseLong(take(values, "join-window-millis", "5000")),
+                    Integer.parseInt(take(values, "actions", "20")),
+                    Long.parseLong(take(values, "think-millis", "200")),
+                    parseMix(take(values, "mix", "join:5,invite:25,getReferral:35,checkInvites:35")),
+                    Long.parseLong(take(values, "round-trip-micros", "0")),
+                    Integer.parseInt(take(values, "connections", "10")),
+                    Boolean.parseBoolean(take(values, "sync-writes", "false")),
+                    Boolean.parseBoolean(take(values, "write-behind", "false")),
+                    Long.parseLong(take(values, "tick-millis", "50")),
+                    Long.parseLong(take(values, "reply-timeout-millis", "10000")));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown settings: " + values.keySet());
+            }
+            return options;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed number: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Picks an action according to the mix.
+     *
+     * @param random The random source.
+     * @return The action.
+     */
+    Action pickAction(RandomGenerator random) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int pick = random.nextInt(total);
+        for (Map.Entry<Action, Integer> weight : mix.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("The action mix is empty.");
+    }
+
+    /**
+     * Removes a setting from the arguments that have not been read yet.
+     *
+     * @param values       The arguments that have not been read yet.
+     * @param name         The name of the setting.
+     * @param defaultValue The value used when the setting is missing.
+     * @return The value of the setting.
+     */
+    private static String take(Map<String, String> values, String name, String defaultValue) {
+        String value = values.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Reads an action mix such as "join:5,invite:25".
+     *
+     * @param text The action mix.
+     * @return The weight of each action.
+     */
+    private static Map<Action, Integer> parseMix(String text) {
+        Map<Action, Integer> mix = new EnumMap<>(Action.class);
+        for (String part : text.split(",")) {
+            String[] weight = part.split(":");
+            if (weight.length != 2 || Integer.parseInt(weight[1].trim()) < 0) {
+                throw new IllegalArgumentException("Malformed action weight: " + part);
+            }
+            mix.put(Action.fromName(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+        }
+        return mix;
+    }
+
+    /**
+     * An action of a simulated player.
+     */
+    enum Action {
+        JOIN("join"),
+        INVITE("invite"),
+        GET_REFERRAL("getReferral"),
+        CHECK_INVITES("checkInvites");
+
+        private final String name;
+
+        Action(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The name of the action, as used in the mix and in the report.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the action with a name, ignoring case.
+         *
+         * @param name The name of the action.
+         * @return The action.
+         * @throws IllegalArgumentException If no action has that name.
+         */
+        static Action fromName(String name) {
+            for (Action action : values()) {
+                if (action.name.equalsIgnoreCase(name)) {
+                    return action;
+                }
+            }
+            throw new IllegalArgumentException("Unknown action: " + name);
+        }
+    }
+}
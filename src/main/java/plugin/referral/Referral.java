@@ -1,36 +1,249 @@
 package plugin.referral;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import plugin.referral.commands.CheckInvitesCommand;
 import plugin.referral.commands.GetReferralCommand;
 import plugin.referral.events.PlayerJoinListener;
+import plugin.referral.events.PlayerSessionListener;
 import plugin.referral.others.ConfigurationFile;
 import plugin.referral.commands.InviteCommand;
+import plugin.referral.commands.InviteTabCompleter;
+import plugin.referral.commands.RateLimitedCommandExecutor;
+import plugin.referral.commands.ReadyCommandExecutor;
+import plugin.referral.commands.ListInvitesCommand;
+import plugin.referral.commands.RedeemCommand;
+import plugin.referral.commands.ReferralTopCommand;
+import plugin.referral.commands.ReferralTreeCommand;
+import plugin.referral.commands.ReferralAdminCommand;
+import plugin.referral.commands.TimedCommandExecutor;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.others.ChangeLogFollower;
+import plugin.referral.others.CommandRateLimiter;
+import plugin.referral.others.MainThreadExecutor;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.MetricsHttpServer;
+import plugin.referral.others.RewardDrainer;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public final class Referral extends JavaPlugin {
+
+    // Interval between two replays of the writes journaled while the database was unreachable, every 5 seconds
+    private static final long JOURNAL_REPLAY_TICKS = 100L;
+
+    // Local metrics endpoint, null when disabled
+    private MetricsHttpServer metricsServer;
+
+    // Per-player rate limits of the commands, none until the configuration is read
+    private CommandRateLimiter rateLimiter = new CommandRateLimiter(Map.of());
+
+    // Delivery of the invitation rewards, started once the plugin is ready
+    private RewardDrainer rewardDrainer;
+
+    // Reader of the writes of the other servers sharing the database, started once the plugin is ready
+    private ChangeLogFollower changeLogFollower;
+
     @Override
     public void onEnable() {
+        Metrics.getInstance().setPrimaryThreadCheck(getServer()::isPrimaryThread);
+        ConfigurationFile config = new ConfigurationFile(this);
         try {
-            ConfigurationFile config = new ConfigurationFile(this);
-            config.configureDatabase();
-        } catch (SQLException e) {
-            getLogger().severe("Errore di connessione al database durante l'abilitazione del plugin Referral.");
-            getServer().getPluginManager().disablePlugin(this);
+            rateLimiter = new CommandRateLimiter(config.getRateLimits());
+            rewardDrainer = new RewardDrainer(this, config.getRewardSettings());
+            changeLogFollower = config.createChangeLogFollower();
+            startMetricsServer(config.getMetricsPort());
+            finishStartup(config.configureDatabaseAsync(), config.getLeaderboardReconcileSeconds());
         } catch (Exception e) {
             getLogger().severe("Errore imprevisto durante l'abilitazione del plugin Referral.");
             getServer().getPluginManager().disablePlugin(this);
+            // Nothing is registered on a disabled plugin, whose reward drainer may not exist
+            return;
+        }
+
+        registerCommand("getReferral", new GetReferralCommand(this), true);
+        registerCommand("invite", new InviteCommand(this, rewardDrainer), true);
+        getCommand("invite").setTabCompleter(new InviteTabCompleter());
+        registerCommand("checkInvites", new CheckInvitesCommand(this), true);
+        registerCommand("redeem", new RedeemCommand(this, rewardDrainer), true);
+        registerCommand("listInvites", new ListInvitesCommand(this), true);
+        registerCommand("referralTop", new ReferralTopCommand(), true);
+        registerCommand("referralTree", new ReferralTreeCommand(), true);
+        registerCommand("referral", new ReferralAdminCommand(this, config.getImportChunkSize()), false);
+        getServer().getPluginManager().registerEvents(new PlayerJoinListener(this, rewardDrainer), this);
+        getServer().getPluginManager().registerEvents(new PlayerSessionListener(this, rateLimiter), this);
+    }
+
+    /**
+     * Sets the executor of a command, recording how long the command takes
+     * and rejecting the calls of players who exceed its rate limit, if it has one.
+     *
+     * @param name      The name of the command, as declared in plugin.yml.
+     * @param executor  The executor of the command.
+     * @param needsData Whether the command reads referral data, and must wait for the plugin to be ready.
+     */
+    private void registerCommand(String name, CommandExecutor executor, boolean needsData) {
+        if (rateLimiter.isLimited(name)) {
+            executor = new RateLimitedCommandExecutor(name, executor, rateLimiter);
+        }
+        if (needsData) {
+            executor = new ReadyCommandExecutor(executor);
+        }
+        getCommand(name).setExecutor(new TimedCommandExecutor(name, executor));
+    }
+
+    /**
+     * Finishes the startup in the background, so that the server does not wait for the database.
+     * Once the storage is open and its schema verified, the data of the players already online, after a reload,
+     * is loaded, then the readiness gate is opened, the in-memory indexes are loaded, the rewards start being delivered,
+     * the writes journaled while the database was unreachable start being replayed and the change log starts being followed.
+     * If the storage cannot be opened, the plugin is disabled.
+     *
+     * @param configured       The future completed once the storage is open.
+     * @param reconcileSeconds The interval between two reconciliations of the leaderboard, 0 to disable them.
+     */
+    private void finishStartup(CompletableFuture<Void> configured, long reconcileSeconds) {
+        Map<UUID, String> onlinePlayers = new HashMap<>();
+        for (Player player : getServer().getOnlinePlayers()) {
+            onlinePlayers.put(player.getUniqueId(), player.getName());
         }
 
-        getCommand("getReferral").setExecutor(new GetReferralCommand(this));
-        getCommand("invite").setExecutor(new InviteCommand(this));
-        getCommand("checkInvites").setExecutor(new CheckInvitesCommand(this));
-        getServer().getPluginManager().registerEvents(new PlayerJoinListener(this), this);
+        configured.thenCompose(ignored -> preloadPlayers(onlinePlayers)).whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                getLogger().severe("Errore di connessione al database durante l'abilitazione del plugin Referral: " + cause.getMessage());
+                getServer().getPluginManager().disablePlugin(this);
+                return;
+            }
+            DatabaseManager.getInstance().markReady();
+            getLogger().info("Referral plugin ready, " + onlinePlayers.size() + " online players loaded.");
+            warmUpIndexes();
+            scheduleLeaderboardReconciliation(reconcileSeconds);
+            rewardDrainer.start();
+            scheduleJournalReplay();
+            changeLogFollower.start();
+        }, new MainThreadExecutor(this));
     }
 
+    /**
+     * Loads the referral data of the given players in the background. Players whose data cannot be loaded
+     * are reported and left to the database fallback of the commands.
+     *
+     * @param players The usernames of the players, keyed by unique id.
+     * @return A future completed once every player has been handled.
+     */
+    private CompletableFuture<Void> preloadPlayers(Map<UUID, String> players) {
+        CompletableFuture<?>[] preloads = players.entrySet().stream()
+                .map(player -> DatabaseManager.getInstance().preloadPlayerAsync(player.getKey(), player.getValue())
+                        .exceptionally(error -> {
+                            getLogger().warning("Unable to preload referral data for player " + player.getValue() + ": " + error.getMessage());
+                            return null;
+                        }))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(preloads);
+    }
+
+    /**
+     * Starts the local metrics endpoint. A port that cannot be bound is reported without disabling the plugin.
+     *
+     * @param port The port of the endpoint, 0 if it is disabled.
+     */
+    private void startMetricsServer(int port) {
+        if (port <= 0) {
+            return;
+        }
+        try {
+            metricsServer = new MetricsHttpServer(port);
+            metricsServer.start();
+            getLogger().info("Metrics endpoint listening on http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            getLogger().warning("Unable to start the metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the in-memory indexes in the background, so that they do not delay the server startup.
+     * Until they are loaded, lookups fall back to the database.
+     */
+    private void warmUpIndexes() {
+        DatabaseManager.getInstance().warmUpCodeIndexAsync().whenComplete((codes, error) -> {
+            if (error != null) {
+                getLogger().warning("Unable to load the referral code index: " + error.getMessage());
+            } else {
+                getLogger().info("Referral code index loaded: " + codes + " codes.");
+            }
+        });
+        DatabaseManager.getInstance().refreshLeaderboardAsync().whenComplete((inviters, error) -> {
+            if (error != null) {
+                getLogger().warning("Unable to load the leaderboard: " + error.getMessage());
+            } else {
+                getLogger().info("Leaderboard loaded: " + inviters + " inviters.");
+            }
+        });
+        DatabaseManager.getInstance().loadReferralGraphAsync().whenComplete((invitations, error) -> {
+            if (error != null) {
+                getLogger().warning("Unable to load the referral graph: " + error.getMessage());
+            } else {
+                getLogger().info("Referral graph loaded: " + invitations + " invitations.");
+            }
+        });
+    }
+
+    /**
+     * Periodically reconciles the leaderboard with the database in the background,
+     * to pick up the invitations registered by other servers sharing the same database.
+     *
+     * @param intervalSeconds The interval between two reconciliations, 0 to disable them.
+     */
+    private void scheduleLeaderboardReconciliation(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        long intervalTicks = intervalSeconds * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                DatabaseManager.getInstance().refreshLeaderboard();
+            } catch (SQLException e) {
+                getLogger().warning("Unable to reconcile the leaderboard: " + e.getMessage());
+            }
+        }, intervalTicks, intervalTicks);
+    }
+
+    /**
+     * Periodically replays in the background the writes journaled while the database was unreachable,
+     * including the ones left by a previous run. Nothing is replayed while the database is still unreachable.
+     */
+    private void scheduleJournalReplay() {
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                int replayed = DatabaseManager.getInstance().replayJournal();
+                if (replayed > 0) {
+                    getLogger().info("Replayed " + replayed + " journaled writes.");
+                }
+            } catch (SQLException e) {
+                getLogger().warning("Unable to replay the journaled writes: " + e.getMessage());
+            }
+        }, 0L, JOURNAL_REPLAY_TICKS);
+    }
 
     @Override
     public void onDisable() {
-        // Plugin shutdown logic
+        if (rewardDrainer != null) {
+            rewardDrainer.stop();
+        }
+        if (changeLogFollower != null) {
+            changeLogFollower.stop();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+        DatabaseManager.getInstance().shutdown();
     }
 }
@@ -5,10 +5,10 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import plugin.referral.db.DatabaseManager;
-import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.others.MainThreadExecutor;
 
-import java.sql.SQLException;
-import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 /**
@@ -18,19 +18,24 @@ public class CheckInvitesCommand implements CommandExecutor {
 
     private final Logger logger;
 
+    // Executor used to reply to the player from the main thread
+    private final Executor mainThread;
+
     /**
      * Constructor for the CheckInvitesCommand class.
-     * Initializes the logger using the plugin instance.
+     * Initializes the logger and the main thread executor using the plugin instance.
      *
-     * @param plugin The instance of the main plugin class to access the logger.
+     * @param plugin The instance of the main plugin class to access the logger and the scheduler.
      */
-    public CheckInvitesCommand(JavaPlugin plugin) {
+    public CheckInvitesCommand(Plugin plugin) {
         this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
     }
 
     /**
      * Handles the "/checkInvites" command.
-     * Retrieves the list of players invited by the user and sends it to them.
+     * Retrieves the number of players invited by the user and sends it to them from the main thread.
+     * The count of an online player is served from memory.
      *
      * @param sender  The entity that executed the command.
      * @param command The command that was executed.
@@ -43,20 +48,21 @@ public class CheckInvitesCommand implements CommandExecutor {
         if (sender instanceof Player player) {
             String inviterName = player.getName();
 
-            try {
-                List<String> invites = DatabaseManager.getInstance().getInvites(inviterName);
+            DatabaseManager.getInstance().getInviteCountAsync(inviterName).whenCompleteAsync((inviteCount, error) -> {
+                if (error != null) {
+                    player.sendMessage("An error occurred while checking your invites. Please contact the staff.");
+                    logger.severe("Error checking invites for player " + inviterName + ": " + error.getMessage());
+                    return;
+                }
 
-                if (invites.isEmpty()) {
+                if (inviteCount == 0) {
                     player.sendMessage("You haven't invited any players yet.");
                 } else {
-                    player.sendMessage("You have invited the following players: " + invites.size());
+                    player.sendMessage("You have invited the following players: " + inviteCount);
                 }
 
-                logger.info("Player " + inviterName + " checked their invites. Total invites: " + invites.size());
-            } catch (SQLException e) {
-                player.sendMessage("An error occurred while checking your invites. Please contact the staff.");
-                logger.severe("Error checking invites for player " + inviterName + ": " + e.getMessage());
-            }
+                logger.info("Player " + inviterName + " checked their invites. Total invites: " + inviteCount);
+            }, mainThread);
             return true;
         }
         return false;
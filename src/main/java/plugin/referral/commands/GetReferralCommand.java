@@ -5,9 +5,10 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import plugin.referral.db.DatabaseManager;
-import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.others.MainThreadExecutor;
 
-import java.sql.SQLException;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 /**
@@ -17,23 +18,27 @@ import java.util.logging.Logger;
  */
 public class GetReferralCommand implements CommandExecutor {
 
-    // Reference to the JavaPlugin's logger
+    // Reference to the plugin's logger
     private final Logger logger;
 
+    // Executor used to reply to the player from the main thread
+    private final Executor mainThread;
+
     /**
      * Constructor for the GetReferralCommand class.
-     * Initializes the logger using the plugin instance.
+     * Initializes the logger and the main thread executor using the plugin instance.
      *
-     * @param plugin The instance of the main plugin class to access the logger.
+     * @param plugin The instance of the main plugin class to access the logger and the scheduler.
      */
-    public GetReferralCommand(JavaPlugin plugin) {
+    public GetReferralCommand(Plugin plugin) {
         this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
     }
 
     /**
      * Handles the referral command execution.
-     * Retrieves the player's referral code from the database and sends it to the player.
-     * Logs any database errors encountered.
+     * Retrieves the player's referral code from the database asynchronously and sends it to the player
+     * from the main thread. Logs any database errors encountered.
      *
      * @param sender  The entity that executed the command.
      * @param command The command that was executed.
@@ -46,17 +51,16 @@ public class GetReferralCommand implements CommandExecutor {
         if (sender instanceof Player player) {
             String playerName = player.getName();
 
-            try {
-                String referralCode = DatabaseManager.getInstance().getReferralCode(playerName);
-                if (referralCode != null) {
+            DatabaseManager.getInstance().getReferralCodeAsync(playerName).whenCompleteAsync((referralCode, error) -> {
+                if (error != null) {
+                    player.sendMessage("An error occurred while executing the command. Please contact the staff.");
+                    logger.severe("Error retrieving referral code for player " + playerName + ": " + error.getMessage());
+                } else if (referralCode != null) {
                     player.sendMessage("Your referral code is: " + referralCode);
                 } else {
                     player.sendMessage("Unable to retrieve your referral code. Try reconnecting to the server.");
                 }
-            } catch (SQLException e) {
-                player.sendMessage("An error occurred while executing the command. Please contact the staff.");
-                logger.severe("Error retrieving referral code for player " + playerName + ": " + e.getMessage());
-            }
+            }, mainThread);
             return true;
         }
         return false;
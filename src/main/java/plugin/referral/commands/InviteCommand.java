@@ -5,9 +5,12 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import plugin.referral.db.DatabaseManager;
-import org.bukkit.plugin.java.JavaPlugin;
+import plugin.referral.db.RegistrationOutcome;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.others.MainThreadExecutor;
+import plugin.referral.others.RewardDrainer;
 
-import java.sql.SQLException;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 /**
@@ -18,19 +21,33 @@ public class InviteCommand implements CommandExecutor {
 
     private final Logger logger;
 
+    // Executor used to reply to the player from the main thread
+    private final Executor mainThread;
+
+    // Delivery of the rewards, told when the inviter earns one
+    private final RewardDrainer rewards;
+
     /**
      * Constructor for the InviteCommand class.
-     * Initializes the logger using the plugin instance.
+     * Initializes the logger and the main thread executor using the plugin instance.
      *
-     * @param plugin The instance of the main plugin class to access the logger.
+     * @param plugin  The instance of the main plugin class to access the logger and the scheduler.
+     * @param rewards The delivery of the rewards earned by the inviters.
      */
-    public InviteCommand(JavaPlugin plugin) {
+    public InviteCommand(Plugin plugin, RewardDrainer rewards) {
         this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
+        this.rewards = rewards;
     }
 
     /**
      * Handles the "/invite <player>" command.
-     * Registers an invitation if the target player hasn't already been invited.
+     * Registers an invitation asynchronously if the target player hasn't already been invited,
+     * then reports the result to the player from the main thread. The registration is a single database transaction
+     * of several round trips: the insert, which checks both players, the read of their keys, and then, for a new
+     * invitation, the counter, reward, rollup and change log writes. A new invitation earns the player a reward,
+     * delivered shortly after. An invitation journaled while the database is unreachable is reported as pending,
+     * since whether it already exists is only known once it is replayed.
      *
      * @param sender  The entity that executed the command.
      * @param command The command that was executed.
@@ -55,18 +72,22 @@ public class InviteCommand implements CommandExecutor {
                 return false;
             }
 
-            try {
-                boolean alreadyInvited = DatabaseManager.getInstance().isAlreadyInvited(inviterName, inviteeName);
-                if (alreadyInvited) {
+            DatabaseManager.getInstance().registerInvitationAsync(inviterName, inviteeName).whenCompleteAsync((outcome, error) -> {
+                if (error != null) {
+                    player.sendMessage(inviteeName + " does not exist or is not an active player");
+                    logger.severe("Error inviting player " + inviteeName + " by " + inviterName + ": " + error.getMessage());
+                } else if (outcome == RegistrationOutcome.CREATED) {
+                    player.sendMessage("You have successfully invited " + inviteeName + ".");
+                    rewards.requestRewards(inviterName);
+                } else if (outcome == RegistrationOutcome.PENDING) {
+                    player.sendMessage("Your invitation of " + inviteeName
+                            + " has been recorded and will be confirmed once the database is available again.");
+                } else if (outcome == RegistrationOutcome.ALREADY_EXISTS) {
                     player.sendMessage(inviteeName + " has already been invited.");
                 } else {
-                    DatabaseManager.getInstance().registerInvitation(inviterName, inviteeName);
-                    player.sendMessage("You have successfully invited " + inviteeName + ".");
+                    player.sendMessage(inviteeName + " does not exist or is not an active player");
                 }
-            } catch (SQLException e) {
-                player.sendMessage(inviteeName + " does not exist or is not an active player");
-                logger.severe("Error inviting player " + inviteeName + " by " + inviterName + ": " + e.getMessage());
-            }
+            }, mainThread);
             return true;
         }
         return false;
@@ -0,0 +1,50 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class completes the player name of the "/invite" command.
+ * Every registered player is suggested, online or not, except the sender and the players they already invited.
+ * Suggestions are read from the in-memory indexes, so the database is never queried on a tab event.
+ */
+public class InviteTabCompleter implements TabCompleter {
+
+    // Maximum number of suggested names, the client cannot show many more
+    private static final int MAX_COMPLETIONS = 50;
+
+    private final OperationMetrics metrics = Metrics.getInstance().operation("tab.invite");
+
+    /**
+     * Suggests the registered usernames starting with what the player typed.
+     *
+     * @param sender  The entity that is typing the command.
+     * @param command The command being typed.
+     * @param label   The alias of the command.
+     * @param args    The arguments typed so far, the last one being the one to complete.
+     * @return The suggested usernames, or an empty list if the sender is not a player or is past the first argument.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player player) || args.length != 1) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<String> completions = DatabaseManager.getInstance().completeUsernames(args[0], player.getName(), MAX_COMPLETIONS);
+            failed = false;
+            return completions;
+        } finally {
+            metrics.record(System.nanoTime() - start, failed);
+        }
+    }
+}
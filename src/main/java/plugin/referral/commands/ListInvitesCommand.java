@@ -0,0 +1,72 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.others.MainThreadExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * This class handles the "/listInvites" command, allowing players to browse the players they have invited.
+ * The list is shown one page at a time; each page ends with the command to show the next one.
+ */
+public class ListInvitesCommand implements CommandExecutor {
+
+    // Number of invitees shown on each page
+    private static final int PAGE_SIZE = 10;
+
+    private final Logger logger;
+
+    // Executor used to reply to the player from the main thread
+    private final Executor mainThread;
+
+    /**
+     * Constructor for the ListInvitesCommand class.
+     * Initializes the logger and the main thread executor using the plugin instance.
+     *
+     * @param plugin The instance of the main plugin class to access the logger and the scheduler.
+     */
+    public ListInvitesCommand(Plugin plugin) {
+        this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
+    }
+
+    /**
+     * Handles the "/listInvites [after]" command.
+     * Retrieves the page of invitees following the given name asynchronously and sends it from the main thread.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return true if the command was executed successfully, false otherwise.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (sender instanceof Player player) {
+            String inviterName = player.getName();
+            String after = args.length > 0 ? args[0] : null;
+
+            DatabaseManager.getInstance().getInvitesPageAsync(inviterName, after, PAGE_SIZE).whenCompleteAsync((invites, error) -> {
+                if (error != null) {
+                    player.sendMessage("An error occurred while listing your invites. Please contact the staff.");
+                    logger.severe("Error listing invites for player " + inviterName + ": " + error.getMessage());
+                } else if (invites.isEmpty()) {
+                    player.sendMessage(after == null ? "You haven't invited any players yet." : "There are no more invited players.");
+                } else {
+                    player.sendMessage("Invited players: " + String.join(", ", invites));
+                    if (invites.size() == PAGE_SIZE) {
+                        player.sendMessage("Use /" + label + " " + invites.get(invites.size() - 1) + " to see more.");
+                    }
+                }
+            }, mainThread);
+            return true;
+        }
+        return false;
+    }
+}
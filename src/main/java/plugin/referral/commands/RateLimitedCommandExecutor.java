@@ -0,0 +1,59 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import plugin.referral.others.CommandRateLimiter;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+
+/**
+ * This class wraps a command executor to reject the calls of players who run the command too often,
+ * before the wrapped executor can reach the database. Rejected calls are counted in the metrics of the command.
+ * Commands run from the console are never limited.
+ */
+public class RateLimitedCommandExecutor implements CommandExecutor {
+
+    private final String name;
+    private final CommandExecutor executor;
+    private final CommandRateLimiter limiter;
+    private final OperationMetrics metrics;
+
+    /**
+     * Constructor for the RateLimitedCommandExecutor class.
+     *
+     * @param name     The name of the command, as declared in plugin.yml.
+     * @param executor The executor of the command.
+     * @param limiter  The rate limiter shared by the commands.
+     */
+    public RateLimitedCommandExecutor(String name, CommandExecutor executor, CommandRateLimiter limiter) {
+        this.name = name;
+        this.executor = executor;
+        this.limiter = limiter;
+        this.metrics = Metrics.getInstance().operation("command." + name);
+    }
+
+    /**
+     * Runs the wrapped executor if the player has a call left, otherwise tells them how long to wait.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return The result of the wrapped executor, or true if the call was rejected.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (sender instanceof Player player) {
+            long wait = limiter.tryAcquire(player.getUniqueId(), name);
+            if (wait > 0) {
+                metrics.recordRejection();
+                long seconds = Math.max(1, (wait + 999_999_999L) / 1_000_000_000L);
+                player.sendMessage("You are using this command too often. Try again in " + seconds + " second(s).");
+                return true;
+            }
+        }
+        return executor.onCommand(sender, command, label, args);
+    }
+}
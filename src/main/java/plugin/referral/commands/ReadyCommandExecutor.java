@@ -0,0 +1,42 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import plugin.referral.db.DatabaseManager;
+
+/**
+ * This class wraps a command executor to answer at once while the plugin is still starting,
+ * instead of letting the command wait for the database or read in-memory data that is not loaded yet.
+ */
+public class ReadyCommandExecutor implements CommandExecutor {
+
+    private final CommandExecutor executor;
+
+    /**
+     * Constructor for the ReadyCommandExecutor class.
+     *
+     * @param executor The executor of the command.
+     */
+    public ReadyCommandExecutor(CommandExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the wrapped executor if the plugin is ready, otherwise tells the sender to try again later.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return The result of the wrapped executor, or true if the plugin is not ready yet.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!DatabaseManager.getInstance().isReady()) {
+            sender.sendMessage("The referral system is warming up. Please try again in a few seconds.");
+            return true;
+        }
+        return executor.onCommand(sender, command, label, args);
+    }
+}
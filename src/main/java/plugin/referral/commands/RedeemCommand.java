@@ -0,0 +1,88 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.RegistrationOutcome;
+import plugin.referral.others.MainThreadExecutor;
+import plugin.referral.others.RewardDrainer;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * This class handles the "/redeem" command, allowing players to redeem the referral code of another player.
+ * The owner of the code is registered as the inviter of the player redeeming it.
+ */
+public class RedeemCommand implements CommandExecutor {
+
+    private final Logger logger;
+
+    // Executor used to reply to the player from the main thread
+    private final Executor mainThread;
+
+    // Delivery of the rewards, told when the owner of the code earns one
+    private final RewardDrainer rewards;
+
+    /**
+     * Constructor for the RedeemCommand class.
+     * Initializes the logger and the main thread executor using the plugin instance.
+     *
+     * @param plugin  The instance of the main plugin class to access the logger and the scheduler.
+     * @param rewards The delivery of the rewards earned by the inviters.
+     */
+    public RedeemCommand(Plugin plugin, RewardDrainer rewards) {
+        this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
+        this.rewards = rewards;
+    }
+
+    /**
+     * Handles the "/redeem <code>" command.
+     * Looks up the owner of the code, usually from memory, and registers the invitation asynchronously,
+     * then reports the result to the player from the main thread. A new invitation earns the owner of the code
+     * a reward, delivered shortly after if they are online.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return true if the command was executed successfully, false otherwise.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (sender instanceof Player player) {
+            if (args.length < 1) {
+                player.sendMessage("You must specify a referral code to redeem.");
+                return false;
+            }
+
+            String playerName = player.getName();
+            String referralCode = args[0];
+
+            DatabaseManager.getInstance().redeemReferralCodeAsync(playerName, referralCode).whenCompleteAsync((redemption, error) -> {
+                if (error != null) {
+                    player.sendMessage("An error occurred while redeeming the code. Please contact the staff.");
+                    logger.severe("Error redeeming code " + referralCode + " for player " + playerName + ": " + error.getMessage());
+                } else if (redemption.owner() == null) {
+                    player.sendMessage(referralCode + " is not a valid referral code.");
+                } else if (redemption.outcome() == null) {
+                    player.sendMessage("You cannot redeem your own referral code.");
+                } else if (redemption.outcome() == RegistrationOutcome.CREATED) {
+                    player.sendMessage("You have redeemed the referral code of " + redemption.owner() + ".");
+                    logger.info("Player " + playerName + " redeemed the referral code of " + redemption.owner() + ".");
+                    rewards.requestRewards(redemption.owner());
+                } else if (redemption.outcome() == RegistrationOutcome.ALREADY_EXISTS) {
+                    player.sendMessage("You have already redeemed the referral code of " + redemption.owner() + ".");
+                } else {
+                    player.sendMessage("Your referral data is not ready yet. Try reconnecting to the server.");
+                }
+            }, mainThread);
+            return true;
+        }
+        return false;
+    }
+}
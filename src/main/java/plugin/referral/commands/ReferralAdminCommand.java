@@ -0,0 +1,350 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.InvitationBucket;
+import plugin.referral.db.PoolStats;
+import plugin.referral.db.StatsGranularity;
+import plugin.referral.db.TransferDataset;
+import plugin.referral.db.TransferFormat;
+import plugin.referral.db.TransferResult;
+import plugin.referral.others.LatencyHistogram;
+import plugin.referral.others.MainThreadExecutor;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * This class handles the "/referral" administration command.
+ * The "stats" subcommand shows the call counts, errors, calls made from the main thread, rate-limited calls and latencies
+ * of every recorded operation, along with the connection pool counters.
+ * The "export" and "import" subcommands copy a table to or from a CSV or JSONL file of the "transfers" folder
+ * of the plugin, in the background, reporting their progress to the sender.
+ * The "activity" and "recruiters" subcommands show the invitations created during each of the latest hours or
+ * days, and the most active inviters over them, read from the rollups rather than from the invitations.
+ */
+public class ReferralAdminCommand implements CommandExecutor {
+
+    // Folder of the plugin holding the exported and imported files
+    private static final String TRANSFERS_FOLDER = "transfers";
+
+    // Most buckets listed by the "activity" subcommand, and most buckets covered by the "recruiters" subcommand
+    private static final int MAX_ACTIVITY_BUCKETS = 48;
+    private static final int MAX_RECRUITER_BUCKETS = 366;
+
+    // Number of inviters listed by the "recruiters" subcommand by default, and at most
+    private static final int DEFAULT_RECRUITERS = 10;
+    private static final int MAX_RECRUITERS = 50;
+
+    // Formats of the start of the hourly and daily buckets, which are aligned on UTC
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00", Locale.ROOT).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    private final Logger logger;
+
+    // Executor used to report to the sender from the main thread
+    private final Executor mainThread;
+
+    // Folder holding the exported and imported files
+    private final File transfersFolder;
+
+    // Number of rows stored at once by an import
+    private final int importChunkSize;
+
+    /**
+     * Constructor for the ReferralAdminCommand class.
+     *
+     * @param plugin          The instance of the main plugin class to access the logger, the scheduler and the data folder.
+     * @param importChunkSize The number of rows stored at once by an import.
+     */
+    public ReferralAdminCommand(Plugin plugin, int importChunkSize) {
+        this.logger = plugin.getLogger();
+        this.mainThread = new MainThreadExecutor(plugin);
+        this.transfersFolder = new File(plugin.getDataFolder(), TRANSFERS_FOLDER);
+        this.importChunkSize = importChunkSize;
+    }
+
+    /**
+     * Handles the "/referral stats", "/referral export <dataset> <file>", "/referral import <dataset> <file>",
+     * "/referral activity <hours|days> <count>" and "/referral recruiters <hours|days> <count> [size]" commands.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return true if the command was executed successfully, false otherwise.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+        if (args[0].equalsIgnoreCase("stats")) {
+            sendStats(sender);
+            return true;
+        }
+        if (args[0].equalsIgnoreCase("export") || args[0].equalsIgnoreCase("import")) {
+            return transfer(sender, args);
+        }
+        if (args[0].equalsIgnoreCase("activity")) {
+            sendActivity(sender, args);
+            return true;
+        }
+        if (args[0].equalsIgnoreCase("recruiters")) {
+            sendRecruiters(sender, args);
+            return true;
+        }
+        sender.sendMessage("Unknown subcommand: " + args[0]);
+        return false;
+    }
+
+    /**
+     * Sends the metrics of every recorded operation, and the connection pool counters if the storage uses a pool.
+     *
+     * @param sender The entity that executed the command.
+     */
+    private void sendStats(CommandSender sender) {
+        List<OperationMetrics> operations = Metrics.getInstance().getOperations();
+        if (operations.isEmpty()) {
+            sender.sendMessage("No operation has been recorded yet.");
+        } else {
+            sender.sendMessage("Operation: calls / errors / main thread / rate limited - p50 / p99 / max");
+            for (OperationMetrics operation : operations) {
+                LatencyHistogram latency = operation.getLatency();
+                sender.sendMessage(operation.getName() + ": "
+                        + operation.getCalls() + " / " + operation.getErrors() + " / " + operation.getMainThreadCalls()
+                        + " / " + operation.getRejections()
+                        + " - " + formatMillis(latency.percentileNanos(0.5))
+                        + " / " + formatMillis(latency.percentileNanos(0.99))
+                        + " / " + formatMillis(latency.getMaxNanos()));
+            }
+        }
+
+        PoolStats pool = DatabaseManager.getInstance().getPoolStats();
+        if (pool != null) {
+            sender.sendMessage("Connection pool: " + pool.active() + " active, " + pool.idle() + " idle, " + pool.waiting() + " waiting");
+        }
+    }
+
+    /**
+     * Starts an export or an import in the background. The sender is told when it starts, every few seconds
+     * while it runs, and when it ends.
+     *
+     * @param sender The entity that executed the command.
+     * @param args   The command arguments: the subcommand, the dataset and the file name.
+     * @return true if the arguments are valid, false otherwise.
+     */
+    private boolean transfer(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage("Usage: /referral " + args[0].toLowerCase(Locale.ROOT) + " <referrals|invitations> <file.csv|file.jsonl>");
+            return true;
+        }
+        TransferDataset dataset = TransferDataset.fromName(args[1]);
+        if (dataset == null) {
+            sender.sendMessage("Unknown dataset: " + args[1] + ". Use referrals or invitations.");
+            return true;
+        }
+        if (TransferFormat.fromFileName(args[2]) == null) {
+            sender.sendMessage("Unsupported file format: " + args[2] + ". Use a .csv or .jsonl file.");
+            return true;
+        }
+        Path folder = transfersFolder.toPath().toAbsolutePath().normalize();
+        Path path = folder.resolve(args[2]).normalize();
+        if (!path.startsWith(folder)) {
+            sender.sendMessage("The file must be inside the " + TRANSFERS_FOLDER + " folder of the plugin.");
+            return true;
+        }
+        File file = path.toFile();
+        boolean export = args[0].equalsIgnoreCase("export");
+        if (!export && !file.isFile()) {
+            sender.sendMessage("File not found: " + TRANSFERS_FOLDER + "/" + args[2]);
+            return true;
+        }
+        if (export && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            sender.sendMessage("Unable to create the folder of " + TRANSFERS_FOLDER + "/" + args[2]);
+            return true;
+        }
+
+        String verb = export ? "Exported" : "Read";
+        LongConsumer progress = rows -> {
+            logger.info(verb + " " + rows + " " + dataset + " rows (" + file.getName() + ").");
+            mainThread.execute(() -> notify(sender, verb + " " + rows + " " + dataset + " rows so far."));
+        };
+        CompletableFuture<TransferResult> future = export
+                ? DatabaseManager.getInstance().exportAsync(dataset, file, progress)
+                : DatabaseManager.getInstance().importAsync(dataset, file, importChunkSize, progress);
+        sender.sendMessage((export ? "Exporting " : "Importing ") + dataset + (export ? " to " : " from ") + file.getName() + "...");
+
+        future.whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                String message = errorMessage(error);
+                logger.warning((export ? "Export" : "Import") + " of " + dataset + " failed: " + message);
+                notify(sender, (export ? "Export" : "Import") + " of " + dataset + " failed: " + message);
+            } else if (export) {
+                logger.info("Export of " + dataset + " finished: " + result.written() + " rows written to " + file.getName() + ".");
+                notify(sender, "Export of " + dataset + " finished: " + result.written() + " rows written to " + file.getName() + ".");
+            } else {
+                String summary = "Import of " + dataset + " finished: " + result.rows() + " rows read, " + result.written()
+                        + " stored, " + result.resumed() + " already imported before the checkpoint.";
+                logger.info(summary);
+                notify(sender, summary);
+            }
+        }, mainThread);
+        return true;
+    }
+
+    /**
+     * Sends the number of invitations created during each of the latest hours or days, and their total.
+     *
+     * @param sender The entity that executed the command.
+     * @param args   The command arguments: the subcommand, the unit and the number of hours or days.
+     */
+    private void sendActivity(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage("Usage: /referral activity <hours|days> <1-" + MAX_ACTIVITY_BUCKETS + ">");
+            return;
+        }
+        StatsGranularity granularity = parseGranularity(sender, args[1]);
+        int buckets = granularity != null ? parseNumber(sender, args[2], MAX_ACTIVITY_BUCKETS) : 0;
+        if (buckets == 0) {
+            return;
+        }
+
+        DatabaseManager.getInstance().getInvitationCountsAsync(granularity, buckets).whenCompleteAsync((counts, error) -> {
+            if (error != null) {
+                logger.warning("Unable to read the invitation statistics: " + errorMessage(error));
+                notify(sender, "Unable to read the invitation statistics: " + errorMessage(error));
+                return;
+            }
+            DateTimeFormatter format = granularity == StatsGranularity.HOURLY ? HOUR_FORMAT : DAY_FORMAT;
+            int total = 0;
+            notify(sender, "Invitations over the last " + buckets + " " + granularity.unit() + " (UTC):");
+            for (InvitationBucket bucket : counts) {
+                notify(sender, format.format(bucket.start()) + " - " + bucket.invites());
+                total += bucket.invites();
+            }
+            notify(sender, "Total: " + total);
+        }, mainThread);
+    }
+
+    /**
+     * Sends the inviters who created the most invitations during the latest hours or days.
+     *
+     * @param sender The entity that executed the command.
+     * @param args   The command arguments: the subcommand, the unit, the number of hours or days
+     *               and optionally the number of inviters.
+     */
+    private void sendRecruiters(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage("Usage: /referral recruiters <hours|days> <1-" + MAX_RECRUITER_BUCKETS + "> [1-" + MAX_RECRUITERS + "]");
+            return;
+        }
+        StatsGranularity granularity = parseGranularity(sender, args[1]);
+        int buckets = granularity != null ? parseNumber(sender, args[2], MAX_RECRUITER_BUCKETS) : 0;
+        int limit = args.length > 3 ? parseNumber(sender, args[3], MAX_RECRUITERS) : DEFAULT_RECRUITERS;
+        if (buckets == 0 || limit == 0) {
+            return;
+        }
+
+        DatabaseManager.getInstance().getTopRecruitersAsync(granularity, buckets, limit).whenCompleteAsync((top, error) -> {
+            if (error != null) {
+                logger.warning("Unable to read the invitation statistics: " + errorMessage(error));
+                notify(sender, "Unable to read the invitation statistics: " + errorMessage(error));
+                return;
+            }
+            String period = "the last " + buckets + " " + granularity.unit();
+            if (top.isEmpty()) {
+                notify(sender, "Nobody has invited any players during " + period + ".");
+                return;
+            }
+            notify(sender, "Top inviters over " + period + ":");
+            for (int i = 0; i < top.size(); i++) {
+                notify(sender, "#" + (i + 1) + " " + top.get(i).username() + " - " + top.get(i).invites());
+            }
+        }, mainThread);
+    }
+
+    /**
+     * Parses the unit of a statistics subcommand, telling the sender if it is not supported.
+     *
+     * @param sender The entity that executed the command.
+     * @param unit   The unit, "hours" or "days".
+     * @return The granularity of the unit, or null if it is not supported.
+     */
+    private static StatsGranularity parseGranularity(CommandSender sender, String unit) {
+        StatsGranularity granularity = StatsGranularity.fromUnit(unit);
+        if (granularity == null) {
+            sender.sendMessage("Unknown unit: " + unit + ". Use hours or days.");
+        }
+        return granularity;
+    }
+
+    /**
+     * Parses a number of a statistics subcommand, telling the sender if it is not valid.
+     *
+     * @param sender The entity that executed the command.
+     * @param value  The number.
+     * @param max    The largest accepted number.
+     * @return The number, or 0 if it is not a number between 1 and the maximum.
+     */
+    private static int parseNumber(CommandSender sender, String value, int max) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= 1 && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below like a number out of range
+        }
+        sender.sendMessage(value + " is not a number between 1 and " + max + ".");
+        return 0;
+    }
+
+    /**
+     * Returns the message of the root cause of a failed operation.
+     *
+     * @param error The error the future of the operation completed with.
+     * @return The message of the error, or of its cause if it wraps one.
+     */
+    private static String errorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getCause() != null ? cause.getCause().getMessage() : cause.getMessage();
+    }
+
+    /**
+     * Sends a message to the sender of a transfer or of a statistics subcommand, unless they are a player who left the server.
+     *
+     * @param sender  The entity that started the transfer.
+     * @param message The message.
+     */
+    private static void notify(CommandSender sender, String message) {
+        if (!(sender instanceof Player player) || player.isOnline()) {
+            sender.sendMessage(message);
+        }
+    }
+
+    /**
+     * Formats a duration in milliseconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+    }
+}
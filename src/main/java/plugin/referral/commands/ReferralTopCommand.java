@@ -0,0 +1,63 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.LeaderboardEntry;
+
+import java.util.List;
+
+/**
+ * This class handles the "/referralTop" command, showing the players who invited the most players.
+ * The leaderboard is kept in memory, so the command is answered without querying the database.
+ */
+public class ReferralTopCommand implements CommandExecutor {
+
+    // Number of entries shown by default, and the most that can be requested
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 50;
+
+    /**
+     * Handles the "/referralTop [size]" command.
+     * Sends the top inviters and, to players, their own rank.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return true if the command was executed successfully, false otherwise.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        int limit = DEFAULT_LIMIT;
+        if (args.length > 0) {
+            try {
+                limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(args[0])));
+            } catch (NumberFormatException e) {
+                sender.sendMessage(args[0] + " is not a valid number.");
+                return false;
+            }
+        }
+
+        DatabaseManager database = DatabaseManager.getInstance();
+        List<LeaderboardEntry> top = database.getTopInviters(limit);
+        if (top.isEmpty()) {
+            sender.sendMessage("Nobody has invited any players yet.");
+        } else {
+            sender.sendMessage("Top inviters:");
+            for (LeaderboardEntry entry : top) {
+                sender.sendMessage("#" + database.getInviterRank(entry.username()) + " " + entry.username() + " - " + entry.invites());
+            }
+        }
+
+        if (sender instanceof Player player) {
+            int rank = database.getInviterRank(player.getName());
+            if (rank > 0) {
+                player.sendMessage("Your rank: #" + rank);
+            }
+        }
+        return true;
+    }
+}
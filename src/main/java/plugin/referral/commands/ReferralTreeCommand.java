@@ -0,0 +1,72 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import plugin.referral.db.DatabaseManager;
+
+import java.util.List;
+
+/**
+ * This class handles the "/referralTree" command, showing the referral chain of a player:
+ * who invited them, up the chain, and how many players they brought in at each level below them.
+ * The invitation graph is kept in memory, so the command is answered without querying the database.
+ */
+public class ReferralTreeCommand implements CommandExecutor {
+
+    // Number of levels shown by default, and the most that can be requested or counted, since the command
+    // runs on the main thread
+    private static final int DEFAULT_DEPTH = 3;
+    private static final int MAX_DEPTH = 10;
+
+    /**
+     * Handles the "/referralTree [player] [depth]" command.
+     * Without a player name, players see their own tree.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return true if the command was executed successfully, false otherwise.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        String playerName;
+        if (args.length > 0) {
+            playerName = args[0];
+        } else if (sender instanceof Player player) {
+            playerName = player.getName();
+        } else {
+            sender.sendMessage("You must specify a player.");
+            return false;
+        }
+
+        int depth = DEFAULT_DEPTH;
+        if (args.length > 1) {
+            try {
+                depth = Math.max(1, Math.min(MAX_DEPTH, Integer.parseInt(args[1])));
+            } catch (NumberFormatException e) {
+                sender.sendMessage(args[1] + " is not a valid number.");
+                return false;
+            }
+        }
+
+        DatabaseManager database = DatabaseManager.getInstance();
+        List<String> upline = database.getUpline(playerName, depth);
+        int[] levels = database.getDownlineLevels(playerName, depth);
+
+        sender.sendMessage("Referral tree of " + playerName + ":");
+        sender.sendMessage(upline.isEmpty() ? "Invited by: nobody" : "Invited by: " + String.join(" <- ", upline));
+        if (levels.length == 0) {
+            sender.sendMessage("No invited players.");
+        } else {
+            for (int level = 0; level < levels.length; level++) {
+                sender.sendMessage("Level " + (level + 1) + ": " + levels[level] + " players");
+            }
+            sender.sendMessage("Downline within " + MAX_DEPTH + " levels: "
+                    + database.getDownlineSize(playerName, MAX_DEPTH) + " players");
+        }
+        return true;
+    }
+}
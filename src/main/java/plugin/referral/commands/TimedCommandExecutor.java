@@ -0,0 +1,51 @@
+package plugin.referral.commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+
+/**
+ * This class wraps a command executor to record how long the command keeps the server main thread busy,
+ * and how many times it failed with an exception. The asynchronous part of the commands is recorded
+ * by the database operations they start.
+ */
+public class TimedCommandExecutor implements CommandExecutor {
+
+    private final CommandExecutor executor;
+    private final OperationMetrics metrics;
+
+    /**
+     * Constructor for the TimedCommandExecutor class.
+     *
+     * @param name     The name of the command, used to name its metrics.
+     * @param executor The executor of the command.
+     */
+    public TimedCommandExecutor(String name, CommandExecutor executor) {
+        this.executor = executor;
+        this.metrics = Metrics.getInstance().operation("command." + name);
+    }
+
+    /**
+     * Runs the wrapped executor and records its duration.
+     *
+     * @param sender  The entity that executed the command.
+     * @param command The command that was executed.
+     * @param label   The alias of the command.
+     * @param args    The command arguments.
+     * @return The result of the wrapped executor.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean result = executor.onCommand(sender, command, label, args);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(System.nanoTime() - start, failed);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package plugin.referral.db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+/**
+ * This class exports the tables of a storage to files and imports them back, one row per line.
+ * Exports stream the rows from the storage into a partial file, renamed once complete, so memory use does not
+ * depend on the size of the tables and a failed export never leaves a truncated file behind.
+ * Imports read the file line by line and store the rows in chunks, saving a checkpoint after every chunk:
+ * an interrupted import resumes after the last stored chunk. Storing a row twice is harmless,
+ * since existing rows are left untouched, so a chunk interrupted halfway can safely be stored again.
+ */
+final class BulkTransfer {
+
+    // Suffixes of the file being exported and of the checkpoint of an imported file
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    // Minimum time between two progress reports
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private BulkTransfer() {
+    }
+
+    /**
+     * Exports a table of the storage to a file, replacing it if it exists.
+     *
+     * @param storage  The storage to read.
+     * @param dataset  The table to export.
+     * @param file     The file to write, whose extension selects the format.
+     * @param progress The consumer receiving the number of rows written so far, every few seconds and at the end.
+     * @return The number of rows written.
+     * @throws SQLException If the rows cannot be read.
+     * @throws IOException  If the file cannot be written.
+     */
+    static TransferResult export(ReferralStorage storage, TransferDataset dataset, File file, LongConsumer progress)
+            throws SQLException, IOException {
+        TransferFormat format = format(file);
+        String[] columns = dataset.columns();
+        Path partial = Path.of(file.getPath() + PARTIAL_SUFFIX);
+        Progress counter = new Progress(progress);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            String header = format.header(columns);
+            if (header != null) {
+                writer.write(header);
+                writer.newLine();
+            }
+            Consumer<String[]> row = values -> {
+                try {
+                    writer.write(format.encode(columns, values));
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                counter.increment();
+            };
+
+            switch (dataset) {
+                case REFERRALS -> storage.forEachPlayer(player -> row.accept(new String[]{
+                        player.uuid() != null ? player.uuid().toString() : null, player.username(), player.referralCode()}));
+                case INVITATIONS -> storage.forEachInvitation((inviter, invitee) -> row.accept(new String[]{inviter, invitee}));
+            }
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(partial);
+            throw e.getCause();
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+
+        Files.move(partial, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        counter.finish();
+        return new TransferResult(counter.rows, counter.rows, 0);
+    }
+
+    /**
+     * Imports the rows of a file, resuming after the checkpoint of a previous import of the same file, if any.
+     * The checkpoint is deleted once the whole file has been imported.
+     *
+     * @param file      The file to read, whose extension selects the format.
+     * @param dataset   The table the rows belong to.
+     * @param chunkSize The number of rows stored at once.
+     * @param mapper    The function turning the values of a row into the item to store, or into null to skip the row.
+     *                  It throws an IllegalArgumentException for invalid values.
+     * @param writer    The writer storing a chunk of items.
+     * @param progress  The consumer receiving the number of rows read so far, every few seconds and at the end.
+     * @param <T>       The type of the stored items.
+     * @return The number of rows read, stored and skipped thanks to the checkpoint.
+     * @throws SQLException If a chunk cannot be stored.
+     * @throws IOException  If the file cannot be read or a line is malformed.
+     */
+    static <T> TransferResult importFile(File file, TransferDataset dataset, int chunkSize, Function<String[], T> mapper,
+                                         WriteBehindBuffer.BatchWriter<T> writer, LongConsumer progress)
+            throws SQLException, IOException {
+        TransferFormat format = format(file);
+        String[] columns = dataset.columns();
+        Path checkpoint = Path.of(file.getPath() + CHECKPOINT_SUFFIX);
+        long resumeAfter = readCheckpoint(checkpoint, file);
+        Progress counter = new Progress(progress);
+        long written = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            List<T> chunk = new ArrayList<>(chunkSize);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter || line.isBlank()) {
+                    continue;
+                }
+                if (lineNumber == 1 && format.header(columns) != null) {
+                    if (!line.equals(format.header(columns))) {
+                        throw new IOException("Line 1: expected the header " + format.header(columns));
+                    }
+                    continue;
+                }
+
+                T item;
+                try {
+                    item = mapper.apply(format.decode(columns, line));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+                }
+                if (item != null) {
+                    chunk.add(item);
+                }
+                counter.increment();
+                if (chunk.size() >= chunkSize) {
+                    written += store(writer, chunk);
+                    writeCheckpoint(checkpoint, file, lineNumber);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                written += store(writer, chunk);
+            }
+        }
+
+        Files.deleteIfExists(checkpoint);
+        counter.finish();
+        return new TransferResult(counter.rows, written, Math.max(0, resumeAfter - (format.header(columns) != null ? 1 : 0)));
+    }
+
+    /**
+     * Stores a chunk of items and clears it.
+     *
+     * @param writer The writer storing the chunk.
+     * @param chunk  The items to store.
+     * @param <T>    The type of the items.
+     * @return The number of items stored as new rows.
+     * @throws SQLException If the chunk cannot be stored.
+     */
+    private static <T> int store(WriteBehindBuffer.BatchWriter<T> writer, List<T> chunk) throws SQLException {
+        int created = 0;
+        for (RegistrationOutcome outcome : writer.write(chunk)) {
+            if (outcome == RegistrationOutcome.CREATED) {
+                created++;
+            }
+        }
+        chunk.clear();
+        return created;
+    }
+
+    /**
+     * Reads the checkpoint of an import. A checkpoint saved for a file of another size belongs to a previous
+     * version of the file and is ignored.
+     *
+     * @param checkpoint The checkpoint file.
+     * @param file       The imported file.
+     * @return The number of lines already imported, 0 if there is no valid checkpoint.
+     * @throws IOException If the checkpoint exists but cannot be read.
+     */
+    private static long readCheckpoint(Path checkpoint, File file) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return 0;
+        }
+        String[] fields = Files.readString(checkpoint, StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            if (fields.length == 2 && Long.parseLong(fields[0]) == file.length()) {
+                return Long.parseLong(fields[1]);
+            }
+        } catch (NumberFormatException e) {
+            // A corrupted checkpoint is ignored like a stale one
+        }
+        return 0;
+    }
+
+    /**
+     * Saves the checkpoint of an import, replacing the previous one atomically so that it is never left half written.
+     *
+     * @param checkpoint The checkpoint file.
+     * @param file       The imported file.
+     * @param lines      The number of lines imported so far.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    private static void writeCheckpoint(Path checkpoint, File file, long lines) throws IOException {
+        Path temporary = Path.of(checkpoint + PARTIAL_SUFFIX);
+        Files.writeString(temporary, file.length() + " " + lines, StandardCharsets.UTF_8);
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the format of a file from its extension.
+     *
+     * @param file The file.
+     * @return The format of the file.
+     * @throws IOException If the extension is not supported.
+     */
+    private static TransferFormat format(File file) throws IOException {
+        TransferFormat format = TransferFormat.fromFileName(file.getName());
+        if (format == null) {
+            throw new IOException("Unsupported file format: " + file.getName() + " (expected .csv or .jsonl)");
+        }
+        return format;
+    }
+
+    /**
+     * Counts the transferred rows and reports them every few seconds.
+     */
+    private static final class Progress {
+
+        private final LongConsumer consumer;
+        private long rows;
+        private long lastReport = System.nanoTime();
+
+        /**
+         * @param consumer The consumer receiving the number of rows transferred so far.
+         */
+        private Progress(LongConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Counts a row, reporting the count if the last report is old enough.
+         */
+        private void increment() {
+            rows++;
+            if ((rows & 1023) == 0 && System.nanoTime() - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                lastReport = System.nanoTime();
+                consumer.accept(rows);
+            }
+        }
+
+        /**
+         * Reports the final count.
+         */
+        private void finish() {
+            consumer.accept(rows);
+        }
+    }
+}
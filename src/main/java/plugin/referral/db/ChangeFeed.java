@@ -0,0 +1,111 @@
+package plugin.referral.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class tracks the position of a server in the change log. The sequences of the log are allocated when
+ * the changes are written, but become visible when their transactions commit, so a read may see a sequence
+ * before a smaller one. The sequences skipped by a read are therefore looked up again by the following reads,
+ * until they show up or a grace period elapses, the transaction that took them having been rolled back.
+ * Every change is accepted at most once.
+ */
+final class ChangeFeed {
+
+    // How long a skipped sequence is looked up, longer than any transaction writing the log should take
+    private static final long MISSING_GRACE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // Most skipped sequences looked up at once, for databases allocating the sequences in steps larger than 1
+    private static final int MAX_MISSING = 1000;
+
+    // How long a skipped sequence is looked up by this feed
+    private final long graceNanos;
+
+    // Largest sequence accepted so far
+    private long last;
+
+    // Skipped sequences still looked up, oldest first, with the time after which they are given up
+    private final LinkedHashMap<Long, Long> missing = new LinkedHashMap<>();
+
+    /**
+     * Constructor for the ChangeFeed class.
+     *
+     * @param start The sequence of the latest change already reflected in memory.
+     */
+    ChangeFeed(long start) {
+        this(start, MISSING_GRACE_NANOS);
+    }
+
+    /**
+     * Constructor for the ChangeFeed class, with a grace period other than the default one.
+     *
+     * @param start      The sequence of the latest change already reflected in memory.
+     * @param graceNanos How long a skipped sequence is looked up, in nanoseconds.
+     */
+    ChangeFeed(long start, long graceNanos) {
+        this.last = start;
+        this.graceNanos = graceNanos;
+    }
+
+    /**
+     * Returns the largest sequence accepted so far, after which the next read starts.
+     *
+     * @return The largest accepted sequence.
+     */
+    synchronized long last() {
+        return last;
+    }
+
+    /**
+     * Returns the skipped sequences still looked up, giving up the ones whose grace period elapsed.
+     *
+     * @return The skipped sequences.
+     */
+    synchronized List<Long> missing() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Long, Long>> iterator = missing.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() > 0) {
+                iterator.remove();
+            } else {
+                break; // The entries are ordered by deadline too
+            }
+        }
+        return new ArrayList<>(missing.keySet());
+    }
+
+    /**
+     * Accepts the changes of a read, recording the sequences it skipped.
+     *
+     * @param changes The changes read, in sequence order.
+     * @return The changes not accepted before, to be applied in order.
+     */
+    synchronized List<StoredChange> accept(List<StoredChange> changes) {
+        List<StoredChange> accepted = new ArrayList<>(changes.size());
+        long deadline = System.nanoTime() + graceNanos;
+        for (StoredChange change : changes) {
+            long sequence = change.sequence();
+            if (sequence <= last) {
+                if (missing.remove(sequence) != null) {
+                    accepted.add(change);
+                }
+                continue;
+            }
+            for (long skipped = Math.max(last + 1, sequence - MAX_MISSING); skipped < sequence; skipped++) {
+                missing.put(skipped, deadline);
+            }
+            last = sequence;
+            accepted.add(change);
+        }
+        Iterator<Long> oldest = missing.keySet().iterator();
+        while (missing.size() > MAX_MISSING) {
+            oldest.next();
+            oldest.remove();
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,160 @@
+package plugin.referral.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * This class stops the calls to the database while it is failing, so that they fail at once instead of each one
+ * waiting for a connection timeout.
+ * The outcome of the most recent calls is kept in a ring: when the share of failed or slow calls reaches the
+ * threshold, the breaker opens and every call is rejected. Once the open duration has elapsed, a single trial call
+ * is let through: the breaker closes if it succeeds, and opens again otherwise.
+ * Each admitted call holds a permit telling the closed period it was admitted in, or that it is the trial call,
+ * so that a call completing after the state changed is neither taken as the trial nor counted in a later period.
+ * The methods are synchronized, which is cheap next to the database calls they guard.
+ */
+final class CircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final CircuitBreakerSettings settings;
+    private final Logger logger;
+    private final long openNanos;
+
+    // Outcome of the most recent calls, true for a failure, and the number of failures among them
+    private final boolean[] window;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+
+    // Set while the trial call of the half-open state runs
+    private boolean probing;
+
+    // Number of the current closed period, incremented every time the breaker opens
+    private long period;
+
+    /**
+     * Constructor for the CircuitBreaker class. The breaker starts closed.
+     *
+     * @param settings The settings of the breaker.
+     * @param logger   The logger used to report the breaker opening and closing.
+     */
+    CircuitBreaker(CircuitBreakerSettings settings, Logger logger) {
+        this.settings = settings;
+        this.logger = logger;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(settings.openMillis());
+        this.window = new boolean[settings.windowSize()];
+    }
+
+    /**
+     * Asks to make a call. While the breaker is open, calls are rejected until the open duration has elapsed,
+     * then the first one is let through as a trial and the others are rejected until it completes.
+     *
+     * @return The permit of the call, to be passed with its outcome to record, or null if the call is rejected.
+     */
+    synchronized Permit tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return null;
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                return null;
+            }
+            probing = true;
+            return new Permit(period, true);
+        }
+        return new Permit(period, false);
+    }
+
+    /**
+     * Records the outcome of a call let through by tryAcquire. Only the trial call resolves the half-open state;
+     * a call admitted during a closed period that has ended since is ignored.
+     *
+     * @param permit The permit returned by tryAcquire for the call.
+     * @param failed Whether the call failed to reach the database or was too slow.
+     */
+    synchronized void record(Permit permit, boolean failed) {
+        if (permit.trial()) {
+            if (state == State.HALF_OPEN && permit.period() == period) {
+                probing = false;
+                if (failed) {
+                    open();
+                } else {
+                    close();
+                }
+            }
+            return;
+        }
+        if (state != State.CLOSED || permit.period() != period) {
+            return; // A call started before the breaker opened
+        }
+
+        if (recorded == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+
+        if (recorded >= settings.minimumCalls() && failures * 100 >= settings.failureRatePercent() * recorded) {
+            logger.warning("Database circuit breaker opened: " + failures + " of the last " + recorded
+                    + " calls failed. Calls fail fast for " + settings.openMillis() + "ms.");
+            open();
+        }
+    }
+
+    /**
+     * @return The current state of the breaker.
+     */
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return How long a call may take before it counts as failed, in nanoseconds.
+     */
+    long slowCallNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(settings.slowCallMillis());
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        period++;
+    }
+
+    private void close() {
+        logger.info("Database circuit breaker closed: the database is reachable again.");
+        state = State.CLOSED;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    /**
+     * The right to make a call, returned by tryAcquire.
+     *
+     * @param period The number of the closed period when the call was admitted.
+     * @param trial  Whether the call is the trial call of the half-open state.
+     */
+    record Permit(long period, boolean trial) {
+    }
+}
@@ -0,0 +1,34 @@
+package plugin.referral.db;
+
+/**
+ * This record holds the settings of the circuit breaker guarding the database, as read from the configuration file.
+ *
+ * @param windowSize         The number of most recent calls whose outcome is considered.
+ * @param minimumCalls       The number of calls recorded before the breaker may open.
+ * @param failureRatePercent The percentage of failed or slow calls of the window that opens the breaker.
+ * @param slowCallMillis     How long a call may take before it counts as failed.
+ * @param openMillis         How long the breaker stays open before letting a single trial call through.
+ */
+public record CircuitBreakerSettings(int windowSize,
+                                     int minimumCalls,
+                                     int failureRatePercent,
+                                     long slowCallMillis,
+                                     long openMillis) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If the window, the rate or the durations are not consistent.
+     */
+    public CircuitBreakerSettings {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Invalid circuit breaker window: size " + windowSize + ", minimum calls " + minimumCalls);
+        }
+        if (failureRatePercent < 1 || failureRatePercent > 100) {
+            throw new IllegalArgumentException("Invalid circuit breaker failure rate: " + failureRatePercent + "%");
+        }
+        if (slowCallMillis <= 0 || openMillis <= 0) {
+            throw new IllegalArgumentException("Circuit breaker durations must be positive.");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package plugin.referral.db;
+
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * This class guards a storage with a circuit breaker. Calls failing to reach the database, or taking longer than
+ * the slow call threshold, count as failures; errors reported by a reachable database, such as constraint
+ * violations, do not. While the breaker is open, every call throws a StorageUnavailableException at once.
+ * The streaming calls are not subject to the slow call threshold, since their duration depends on the data.
+ */
+public final class CircuitBreakingStorage implements ReferralStorage {
+
+    private final ReferralStorage storage;
+    private final CircuitBreaker breaker;
+
+    // Calls rejected while the breaker is open
+    private final OperationMetrics metrics = Metrics.getInstance().operation("storage.circuitBreaker");
+
+    /**
+     * Constructor for the CircuitBreakingStorage class. The breaker starts closed.
+     *
+     * @param storage  The storage to guard.
+     * @param settings The settings of the circuit breaker.
+     * @param logger   The logger used to report the breaker opening and closing.
+     */
+    public CircuitBreakingStorage(ReferralStorage storage, CircuitBreakerSettings settings, Logger logger) {
+        this.storage = storage;
+        this.breaker = new CircuitBreaker(settings, logger);
+    }
+
+    /**
+     * Opens the guarded storage directly: a database that cannot be reached at startup disables the plugin.
+     */
+    @Override
+    public void open() throws SQLException {
+        storage.open();
+    }
+
+    @Override
+    public String getReferralCode(String username) throws SQLException {
+        return guard(true, () -> storage.getReferralCode(username));
+    }
+
+    @Override
+    public StoredPlayer loadPlayer(UUID uuid, String username) throws SQLException {
+        return guard(true, () -> storage.loadPlayer(uuid, username));
+    }
+
+    @Override
+    public List<String> getInvitesPage(String inviter, String after, int limit) throws SQLException {
+        return guard(true, () -> storage.getInvitesPage(inviter, after, limit));
+    }
+
+    @Override
+    public int getInviteCount(String inviter) throws SQLException {
+        return guard(true, () -> storage.getInviteCount(inviter));
+    }
+
+    @Override
+    public boolean isAlreadyInvited(String inviter, String invitee) throws SQLException {
+        return guard(true, () -> storage.isAlreadyInvited(inviter, invitee));
+    }
+
+    @Override
+    public RegistrationOutcome insertInvitation(String inviter, String invitee) throws SQLException {
+        return guard(true, () -> storage.insertInvitation(inviter, invitee));
+    }
+
+    @Override
+    public RegistrationOutcome[] insertInvitations(List<Invitation> batch, boolean rewarded) throws SQLException {
+        return guard(true, () -> storage.insertInvitations(batch, rewarded));
+    }
+
+    @Override
+    public List<PendingReward> getPendingRewards(Collection<String> players, int limit) throws SQLException {
+        return guard(true, () -> storage.getPendingRewards(players, limit));
+    }
+
+    @Override
+    public void deleteRewards(Collection<Long> ids) throws SQLException {
+        guard(true, () -> {
+            storage.deleteRewards(ids);
+            return null;
+        });
+    }
+
+    @Override
+    public RegistrationOutcome insertReferral(UUID uuid, String username, String referralCode) throws SQLException {
+        return guard(true, () -> storage.insertReferral(uuid, username, referralCode));
+    }
+
+    @Override
+    public RegistrationOutcome[] insertReferrals(List<NewReferral> batch) throws SQLException {
+        return guard(true, () -> storage.insertReferrals(batch));
+    }
+
+    @Override
+    public String findCodeOwner(String referralCode) throws SQLException {
+        return guard(true, () -> storage.findCodeOwner(referralCode));
+    }
+
+    @Override
+    public void forEachReferral(BiConsumer<String, String> consumer) throws SQLException {
+        guard(false, () -> {
+            storage.forEachReferral(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachPlayer(Consumer<NewReferral> consumer) throws SQLException {
+        guard(false, () -> {
+            storage.forEachPlayer(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachInviteCount(ObjIntConsumer<String> consumer) throws SQLException {
+        guard(false, () -> {
+            storage.forEachInviteCount(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachInvitation(BiConsumer<String, String> consumer) throws SQLException {
+        guard(false, () -> {
+            storage.forEachInvitation(consumer);
+            return null;
+        });
+    }
+
+    @Override
+    public List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, long from, long to) throws SQLException {
+        return guard(true, () -> storage.getInvitationCounts(granularity, from, to));
+    }
+
+    @Override
+    public List<LeaderboardEntry> getTopInviters(StatsGranularity granularity, long from, long to, int limit) throws SQLException {
+        return guard(true, () -> storage.getTopInviters(granularity, from, to, limit));
+    }
+
+    @Override
+    public long getLatestChange() throws SQLException {
+        return guard(true, storage::getLatestChange);
+    }
+
+    @Override
+    public List<StoredChange> getChanges(long after, Collection<Long> missing, int limit) throws SQLException {
+        return guard(true, () -> storage.getChanges(after, missing, limit));
+    }
+
+    @Override
+    public int pruneChanges(long maxAgeSeconds) throws SQLException {
+        return guard(true, () -> storage.pruneChanges(maxAgeSeconds));
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return storage.getPoolStats();
+    }
+
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+    /**
+     * Tells whether the calls are currently rejected, or limited to a single trial call.
+     *
+     * @return true if the breaker is not closed.
+     */
+    public boolean isOpen() {
+        return breaker.getState() != CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Runs a call through the breaker and records its outcome.
+     *
+     * @param checkSlow Whether a call slower than the threshold counts as failed.
+     * @param call      The call to the guarded storage.
+     * @param <T>       The type of the result.
+     * @return The result of the call.
+     * @throws SQLException If the breaker rejects the call, or the call throws one.
+     */
+    private <T> T guard(boolean checkSlow, StorageCall<T> call) throws SQLException {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            metrics.recordRejection();
+            throw new StorageUnavailableException();
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.call();
+        } catch (SQLException e) {
+            failed = isUnreachable(e);
+            throw e;
+        } finally {
+            breaker.record(permit, failed || checkSlow && System.nanoTime() - start > breaker.slowCallNanos());
+        }
+    }
+
+    /**
+     * Tells whether an exception means that the database could not be reached, rather than that it refused the call.
+     * Timeouts, lost connections and the errors of the connection class of SQL states ("08") qualify.
+     *
+     * @param e The exception.
+     * @return true if the exception means that the database could not be reached.
+     */
+    static boolean isUnreachable(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || e instanceof SQLNonTransientConnectionException || state != null && state.startsWith("08");
+    }
+
+    /**
+     * A call to the guarded storage.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T call() throws SQLException;
+    }
+}
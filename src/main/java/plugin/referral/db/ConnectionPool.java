@@ -0,0 +1,347 @@
+package plugin.referral.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * This class is a bounded pool of JDBC connections owned by the MySqlStorage.
+ * Connections handed out by the pool are returned to it when closed, so callers keep using try-with-resources.
+ * Idle connections above the minimum size are evicted, connections are retired once they reach their maximum
+ * lifetime and, if enabled, validated before being handed out.
+ */
+final class ConnectionPool {
+
+    // How long a connection may take to answer a validation request, in seconds
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final Properties properties;
+    private final PoolSettings settings;
+    private final Logger logger;
+
+    // Idle connections, the most recently used first so that the oldest ones are the first to be evicted
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    // One permit for each connection that can be borrowed at the same time
+    private final Semaphore permits;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for the ConnectionPool class.
+     * Opens the minimum number of connections and starts the background eviction task.
+     *
+     * @param url        The JDBC url of the database.
+     * @param properties The driver properties, including the credentials.
+     * @param settings   The pool settings.
+     * @param logger     The logger used to report eviction failures.
+     * @throws SQLException If the initial connections cannot be opened.
+     */
+    ConnectionPool(String url, Properties properties, PoolSettings settings, Logger logger) throws SQLException {
+        this.url = url;
+        this.properties = properties;
+        this.settings = settings;
+        this.logger = logger;
+        this.permits = new Semaphore(settings.maxSize(), true);
+
+        fillToMinimum();
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "referral-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000L, Math.min(settings.idleTimeoutMillis(), settings.maxLifetimeMillis()) / 2);
+        housekeeper.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the connection timeout if all of them are in use.
+     * The connection must be closed to be returned to the pool.
+     *
+     * @return A connection from the pool.
+     * @throws SQLException If the pool is closed, the wait times out or a new connection cannot be opened.
+     */
+    Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(settings.connectionTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + settings.connectionTimeoutMillis()
+                        + "ms waiting for a database connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            PooledConnection pooled = takeUsable();
+            active.incrementAndGet();
+            return pooled.lend();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the current counters of the pool.
+     *
+     * @return The number of active and idle connections and of threads waiting for one.
+     */
+    PoolStats getStats() {
+        return new PoolStats(active.get(), idle.size(), waiting.get());
+    }
+
+    /**
+     * Closes the pool. New requests are rejected, borrowed connections are given the connection timeout to be
+     * returned, then every remaining connection is closed.
+     */
+    void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        try {
+            if (!permits.tryAcquire(settings.maxSize(), settings.connectionTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warning("Closing the connection pool with " + active.get() + " connections still in use.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Takes an idle connection that is still usable, or opens a new one if none is available.
+     *
+     * @return A usable connection.
+     * @throws SQLException If a new connection cannot be opened.
+     */
+    private PooledConnection takeUsable() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (pooled.isExpired(System.currentTimeMillis())) {
+                discard(pooled);
+            } else if (settings.validateOnBorrow() && !pooled.isValid()) {
+                discard(pooled);
+            } else {
+                return pooled;
+            }
+        }
+        return open();
+    }
+
+    /**
+     * Gives a connection back to the pool once the caller has closed it.
+     *
+     * @param pooled The connection being returned.
+     */
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || pooled.isExpired(System.currentTimeMillis()) || !pooled.reset()) {
+                discard(pooled);
+            } else {
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Periodically closes connections that have been idle too long or reached their maximum lifetime,
+     * then opens new ones if the pool fell below its minimum size.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            PooledConnection pooled = oldestFirst.next();
+            boolean idleTooLong = now - pooled.lastUsed > settings.idleTimeoutMillis() && total.get() > settings.minSize();
+            if ((idleTooLong || pooled.isExpired(now)) && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+
+        try {
+            fillToMinimum();
+        } catch (SQLException e) {
+            logger.warning("Unable to refill the connection pool: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens idle connections until the pool reaches its minimum size.
+     *
+     * @throws SQLException If a connection cannot be opened.
+     */
+    private void fillToMinimum() throws SQLException {
+        while (!closed && total.get() < settings.minSize()) {
+            idle.offerLast(open());
+        }
+    }
+
+    /**
+     * Opens a new physical connection.
+     *
+     * @return The new connection.
+     * @throws SQLException If the connection cannot be opened.
+     */
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, properties);
+        int isolation;
+        try {
+            isolation = physical.getTransactionIsolation();
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+        total.incrementAndGet();
+        return new PooledConnection(physical, isolation);
+    }
+
+    /**
+     * Closes a physical connection, ignoring any error.
+     *
+     * @param pooled The connection to close.
+     */
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException ignored) {
+            // The connection is being thrown away anyway
+        }
+    }
+
+    /**
+     * A physical connection together with its pool bookkeeping.
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        // The isolation level the connection was opened with, restored before it goes back to the pool
+        private final int isolation;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastUsed = createdAt;
+
+        private PooledConnection(Connection physical, int isolation) {
+            this.physical = physical;
+            this.isolation = isolation;
+        }
+
+        /**
+         * Creates the proxy handed out to the caller. Closing the proxy returns the connection to the pool.
+         *
+         * @return The proxy connection.
+         */
+        private Connection lend() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease());
+        }
+
+        private boolean isExpired(long now) {
+            return now - createdAt > settings.maxLifetimeMillis();
+        }
+
+        private boolean isValid() {
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Restores the default state of the connection before it goes back to the pool.
+         *
+         * @return false if the connection is broken and must be discarded.
+         */
+        private boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (physical.getTransactionIsolation() != isolation) {
+                    physical.setTransactionIsolation(isolation);
+                }
+                physical.clearWarnings();
+                lastUsed = System.currentTimeMillis();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Forwards the calls made on a lent connection to the physical one, until it is closed.
+         */
+        private final class Lease implements InvocationHandler {
+
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            release(PooledConnection.this);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "PooledConnection[" + physical + "]";
+                    default:
+                        break;
+                }
+                if (returned) {
+                    throw new SQLException("The connection has already been returned to the pool.");
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+}
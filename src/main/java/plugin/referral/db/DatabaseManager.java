@@ -1,79 +1,188 @@
 package plugin.referral.db;
 
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
 import plugin.referral.others.ReferralCodeGenerator;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
  * This class is responsible for managing the database operations for the referral system.
- * It provides methods to configure the database, handle referrals, and invitations between players.
+ * It provides methods to configure the storage, handle referrals, and invitations between players.
+ * The rows are stored by a pluggable ReferralStorage backend, while this class keeps the caches,
+ * the in-memory indexes and the write-behind buffers on top of it.
+ * Every operation is also available in an asynchronous form that runs on a dedicated executor,
+ * so that no JDBC call has to be made from the server main thread.
+ * Every operation records its latency, its failures and, for the blocking ones, the calls made from the main thread.
+ * When a journal is configured, the referrals and invitations registered while the database is unreachable are
+ * journaled and replayed once it recovers, and the reads fall back to the in-memory data.
+ * Servers sharing the database follow its change log, so that their in-memory data reflects the writes of the others.
  */
 public final class DatabaseManager {
 
-    private static DatabaseManager instance;
-    private static String dbHost;
-    private static int dbPort;
-    private static String dbName;
-    private static String dbUser;
-    private static String dbPassword;
+    // Executor running the asynchronous operations, one virtual thread per task
+    private static final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("referral-db-", 0).factory());
+
+    // Referral data of the players currently online
+    private static final ReferralCache cache = new ReferralCache();
+
+    // Owners of the referral codes, keyed on the packed codes
+    private static final ReferralCodeIndex codeIndex = new ReferralCodeIndex();
+
+    // Top inviters, updated on every new invitation
+    private static final InviteLeaderboard leaderboard = new InviteLeaderboard();
+
+    // Invitation graph, for multi-level referral queries
+    private static final ReferralGraph graph = new ReferralGraph();
+
+    // Usernames of the registered players, to reject unknown invitees without querying the database
+    private static final KnownPlayerIndex knownPlayers = new KnownPlayerIndex();
+
+    // Usernames of the registered players in alphabetical order, for tab completion
+    private static final UsernamePrefixIndex usernames = new UsernamePrefixIndex();
+
+    // Pool of pre-generated referral codes, refilled in the background
+    private static final ReferralCodeGenerator codeGenerator = new ReferralCodeGenerator(1024, executor);
+
+    // Number of codes tried before giving up on a registration, collisions being extremely rare
+    private static final int MAX_CODE_ATTEMPTS = 5;
+
+    // Latency and error counters of the operations
+    private static final Metrics metrics = Metrics.getInstance();
+
+    // Created eagerly, so that the instance is safely published to every thread
+    private static final DatabaseManager instance = new DatabaseManager();
+
+    // Storage backend and write-behind buffers, replaced as a whole by configure, null until configured
+    private static volatile Backend backend;
+
+    // Completed once the storage is open and the data of the players online at startup is loaded
+    private static final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    // Set while an export or an import runs, so that only one of them runs at a time
+    private static final AtomicBoolean transferRunning = new AtomicBoolean();
+
+    // Set while the journal is replayed, so that only one replay runs at a time
+    private static final AtomicBoolean replayRunning = new AtomicBoolean();
+
+    // Number of journaled writes replayed at once
+    private static final int REPLAY_CHUNK_SIZE = 100;
+
+    // Set while the change log is read, so that only one read runs at a time
+    private static final AtomicBoolean changePollRunning = new AtomicBoolean();
+
+    // Number of change log entries read at once
+    private static final int CHANGE_BATCH_SIZE = 500;
 
     /**
      * Private constructor to prevent instantiation outside the singleton pattern.
      */
-    private DatabaseManager() throws SQLException {
+    private DatabaseManager() {
     }
 
     /**
      * Retrieves the singleton instance of DatabaseManager.
      *
      * @return The singleton instance of DatabaseManager.
-     * @throws SQLException If any SQL error occurs during instantiation.
      */
-    public static DatabaseManager getInstance() throws SQLException {
-        if (instance == null) {
-            instance = new DatabaseManager();
-        }
+    public static DatabaseManager getInstance() {
         return instance;
     }
 
     /**
-     * Configures the database connection parameters and ensures that the necessary tables are created.
+     * Configures the storage backend, opening it and creating or upgrading its schema if needed.
+     * The storage previously configured, if any, is closed once its write-behind buffers have been flushed.
+     * The new storage and its buffers are published together, so operations never see a partial configuration.
+     * The writes left in the journal by a previous run are replayed by the next call to replayJournal.
+     * The change log is followed from its latest entry, the data loaded after this call being at least as recent.
      *
-     * @param host     The database host.
-     * @param port     The database port.
-     * @param name     The database name.
-     * @param user     The database username.
-     * @param password The database password.
-     * @throws SQLException If any SQL error occurs while configuring the database or creating tables.
+     * @param storage             The storage backend.
+     * @param writeBehindSettings The settings of the write-behind buffers.
+     * @param journal             The journal of the writes accepted while the storage is unreachable,
+     *                            or null if such writes fail.
+     * @param logger              The logger used to report write-behind problems.
+     * @throws SQLException If any SQL error occurs while opening the storage or the journal.
      */
-    public void configure(String host, int port, String name, String user, String password) throws SQLException {
-        dbHost = host;
-        dbPort = port;
-        dbName = name;
-        dbUser = user;
-        dbPassword = password;
+    public synchronized void configure(ReferralStorage storage, WriteBehindSettings writeBehindSettings, WriteJournal journal,
+                                       Logger logger) throws SQLException {
+        closeBackend();
+        storage.open();
+        ChangeFeed changes;
+        try {
+            changes = new ChangeFeed(storage.getLatestChange());
+            if (journal != null) {
+                journal.open();
+            }
+        } catch (SQLException e) {
+            storage.close();
+            throw e;
+        }
 
-        String sqlReferral = "CREATE TABLE IF NOT EXISTS Referral ("
-                + "username VARCHAR(255) PRIMARY KEY, "
-                + "referral_code CHAR(8) NOT NULL"
-                + ")";
+        WriteBehindBuffer<Invitation> invitationBuffer = null;
+        WriteBehindBuffer<NewReferral> referralBuffer = null;
+        if (writeBehindSettings.enabled()) {
+            invitationBuffer = new WriteBehindBuffer<>("invitation", writeBehindSettings, this::flushInvitations, logger);
+            referralBuffer = new WriteBehindBuffer<>("referral", writeBehindSettings, this::flushReferrals, logger);
+        }
+        backend = new Backend(storage, invitationBuffer, referralBuffer, journal, changes);
+    }
 
-        String sqlInvitations = "CREATE TABLE IF NOT EXISTS invitations ("
-                + "inviter VARCHAR(255), "
-                + "invitee VARCHAR(255), "
-                + "PRIMARY KEY (inviter, invitee), "
-                + "FOREIGN KEY (inviter) REFERENCES Referral(username) ON DELETE CASCADE, "
-                + "FOREIGN KEY (invitee) REFERENCES Referral(username) ON DELETE CASCADE"
-                + ")";
+    /**
+     * Tells whether the plugin finished starting: the storage is open and the data of the players online
+     * at startup is loaded. Commands run before that are answered at once instead of waiting for the database.
+     *
+     * @return true if the plugin is ready.
+     */
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
 
-        instance.executeUpdate(sqlReferral);
-        instance.executeUpdate(sqlInvitations);
+    /**
+     * Opens the readiness gate. Called once, at the end of the startup sequence.
+     */
+    public void markReady() {
+        ready.complete(null);
+    }
+
+    /**
+     * Waits for the readiness gate to open. This method is blocking and must be called off the main thread.
+     *
+     * @param timeoutMillis The maximum time to wait, in milliseconds.
+     * @return true if the plugin is ready, false if the timeout elapsed first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean awaitReady(long timeoutMillis) throws InterruptedException {
+        try {
+            ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
     }
 
     /**
@@ -84,43 +193,81 @@ public final class DatabaseManager {
      * @throws SQLException If any SQL error occurs while retrieving the referral code.
      */
     public String getReferralCode(String username) throws SQLException {
-        String query = "SELECT referral_code FROM Referral WHERE username = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, username);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("referral_code");
+        return timed("getReferralCode", () -> {
+            try {
+                return storage().getReferralCode(username);
+            } catch (SQLException e) {
+                ReferralCache.Session session = cache.get(username);
+                if (session == null || !CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
                 }
+                return session.getReferralCode();
             }
-        }
-        return null;
+        });
     }
 
     /**
-     * Retrieves a list of invitees invited by a specific inviter.
+     * Retrieves one page of the invitees invited by a specific inviter, in alphabetical order.
+     * Pages are read from the position of the previous one, so the cost of a page
+     * does not depend on how far into the list it is, and the full list is never loaded at once.
+     * While the database is unreachable, the page is read from the in-memory invitation graph.
      *
      * @param inviter The username of the inviter.
-     * @return A list of invitees invited by the inviter.
+     * @param after   The last invitee of the previous page, or null for the first page.
+     * @param limit   The maximum number of invitees to return.
+     * @return The invitees following the given one.
      * @throws SQLException If any SQL error occurs while retrieving the invitees.
      */
-    public List<String> getInvites(String inviter) throws SQLException {
-        List<String> invites = new ArrayList<>();
-        String query = "SELECT invitee FROM invitations WHERE inviter = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, inviter);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    invites.add(rs.getString("invitee"));
+    public List<String> getInvitesPage(String inviter, String after, int limit) throws SQLException {
+        return timed("getInvitesPage", () -> {
+            try {
+                return storage().getInvitesPage(inviter, after, limit);
+            } catch (SQLException e) {
+                if (!CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
                 }
+                List<String> invitees = graph.invitees(inviter);
+                invitees.sort(String.CASE_INSENSITIVE_ORDER);
+                List<String> page = new ArrayList<>(Math.min(limit, invitees.size()));
+                for (String invitee : invitees) {
+                    if (page.size() >= limit) {
+                        break;
+                    }
+                    if (after == null || String.CASE_INSENSITIVE_ORDER.compare(invitee, after) > 0) {
+                        page.add(invitee);
+                    }
+                }
+                return page;
             }
-        }
-        return invites;
+        });
+    }
+
+    /**
+     * Counts the players invited by a specific inviter.
+     * The count is read from the counter maintained on the inviter's row, without scanning the invitations.
+     * While the database is unreachable, the count is read from the cache or the in-memory invitation graph.
+     *
+     * @param inviter The username of the inviter.
+     * @return The number of invitees invited by the inviter.
+     * @throws SQLException If any SQL error occurs while counting the invitees.
+     */
+    public int getInviteCount(String inviter) throws SQLException {
+        return timed("getInviteCount", () -> {
+            try {
+                return storage().getInviteCount(inviter);
+            } catch (SQLException e) {
+                if (!CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
+                }
+                ReferralCache.Session session = cache.get(inviter);
+                return session != null ? session.getInviteCount() : graph.invitees(inviter).size();
+            }
+        });
     }
 
     /**
      * Checks if a specific invitee has already been invited by the inviter.
+     * While the database is unreachable, the invitation is looked up in the in-memory invitation graph and the journal.
      *
      * @param inviter The username of the inviter.
      * @param invitee The username of the invitee.
@@ -128,75 +275,1324 @@ public final class DatabaseManager {
      * @throws SQLException If any SQL error occurs while checking the invitation status.
      */
     public boolean isAlreadyInvited(String inviter, String invitee) throws SQLException {
-        String query = "SELECT COUNT(*) FROM invitations WHERE inviter = ? AND invitee = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, inviter);
-            stmt.setString(2, invitee);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;  // Return true if there is at least one record
+        return timed("isAlreadyInvited", () -> {
+            try {
+                return storage().isAlreadyInvited(inviter, invitee);
+            } catch (SQLException e) {
+                if (!CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
                 }
+                return isInvitedInMemory(inviter, invitee);
             }
-        }
-        return false;
+        });
     }
 
     /**
-     * Registers a new invitation from an inviter to an invitee in the database.
+     * Registers a new invitation from an inviter to an invitee, unless it already exists.
+     * The check and the insert are a single atomic statement, so concurrent invitations cannot race, and the invite
+     * counter of the inviter is incremented and a reward is added to the outbox in the same transaction.
+     * Players unknown to the in-memory index are rejected without querying the database.
+     * While the database is unreachable, or the journal still holds writes, the invitation is journaled instead,
+     * reported as pending, and the in-memory structures are updated once it is replayed.
      *
      * @param inviter The username of the inviter.
      * @param invitee The username of the invitee.
+     * @return The outcome of the registration.
      * @throws SQLException If any SQL error occurs while registering the invitation.
      */
-    public void registerInvitation(String inviter, String invitee) throws SQLException {
-        String query = "INSERT INTO invitations (inviter, invitee) VALUES (?, ?)";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            stmt.setString(1, inviter);
-            stmt.setString(2, invitee);
-            stmt.executeUpdate();
+    public RegistrationOutcome registerInvitation(String inviter, String invitee) throws SQLException {
+        return timed("registerInvitation", () -> {
+            if (!mightBeRegistered(inviter) || !mightBeRegistered(invitee)) {
+                return RegistrationOutcome.UNKNOWN_PLAYER;
+            }
+            Invitation invitation = new Invitation(inviter, invitee);
+            WriteJournal journal = journal();
+            if (journal != null && !journal.isEmpty()) {
+                return journalInvitation(journal, invitation);
+            }
+            RegistrationOutcome outcome;
+            try {
+                outcome = storage().insertInvitation(inviter, invitee);
+            } catch (SQLException e) {
+                if (journal == null || !CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
+                }
+                return journalInvitation(journal, invitation);
+            }
+            if (outcome == RegistrationOutcome.CREATED) {
+                invitationCreated(inviter, invitee);
+            }
+            return outcome;
+        });
+    }
+
+    /**
+     * Registers a new referral for a given username, generating a new referral code, unless the player already
+     * has one. The check and the insert are atomic. In the rare case where the generated code
+     * is already taken, the registration is retried with a new one.
+     * While the database is unreachable, or the journal still holds writes, the referral is journaled instead,
+     * reported as pending, and the player's code is cached once it is replayed.
+     *
+     * @param uuid     The unique id of the player to register the referral for.
+     * @param username The username of the player.
+     * @return The outcome of the registration.
+     * @throws SQLException If any SQL error occurs while registering the referral.
+     */
+    public RegistrationOutcome registerReferral(UUID uuid, String username) throws SQLException {
+        return timed("registerReferral", () -> {
+            WriteJournal journal = journal();
+            if (journal != null && !journal.isEmpty()) {
+                return journalReferral(journal, new NewReferral(uuid, username, codeGenerator.nextCode()));
+            }
+            try {
+                return insertReferral(uuid, username);
+            } catch (SQLException e) {
+                if (journal == null || !CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
+                }
+                return journalReferral(journal, new NewReferral(uuid, username, codeGenerator.nextCode()));
+            }
+        });
+    }
+
+    /**
+     * Replays the writes journaled while the database was unreachable, oldest first, in chunks.
+     * The replay stops once the database is unreachable again, and resumes from the same write on the next call.
+     * A chunk refused for another reason is replayed one write at a time, and the writes the database refuses
+     * are moved to the rejected file of the journal, so that they do not block the writes after them.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @return The number of writes replayed, 0 if there is no journal or another replay is running.
+     * @throws SQLException If the journal file or the rejected file cannot be written.
+     */
+    public int replayJournal() throws SQLException {
+        WriteJournal journal = journal();
+        if (journal == null || journal.isEmpty() || !replayRunning.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            return timed("replayJournal", () -> {
+                int replayed = 0;
+                List<WriteJournal.Entry> chunk;
+                while (!(chunk = journal.peek(REPLAY_CHUNK_SIZE)).isEmpty()) {
+                    try {
+                        replay(chunk);
+                        journal.remove(chunk.size());
+                        replayed += chunk.size();
+                        continue;
+                    } catch (SQLException e) {
+                        if (CircuitBreakingStorage.isUnreachable(e)) {
+                            break;
+                        }
+                    }
+                    for (WriteJournal.Entry entry : chunk) {
+                        try {
+                            replay(List.of(entry));
+                        } catch (SQLException e) {
+                            if (CircuitBreakingStorage.isUnreachable(e)) {
+                                return replayed;
+                            }
+                            journal.reject(e.getMessage());
+                            continue;
+                        }
+                        journal.remove(1);
+                        replayed++;
+                    }
+                }
+                return replayed;
+            });
+        } finally {
+            replayRunning.set(false);
+        }
+    }
+
+    /**
+     * Writes journaled writes of the same kind into the storage, the invitations being rewarded.
+     *
+     * @param entries The journaled writes, all referrals or all invitations.
+     * @throws SQLException If any SQL error occurs.
+     */
+    private void replay(List<WriteJournal.Entry> entries) throws SQLException {
+        if (entries.get(0).isReferral()) {
+            writeReferrals(entries.stream().map(WriteJournal.Entry::referral).toList());
+        } else {
+            writeInvitations(entries.stream().map(WriteJournal.Entry::invitation).toList(), true);
         }
     }
 
     /**
-     * Registers a new referral for a given username, generating a new referral code.
+     * Reads the entries of the change log written since the previous read, and applies the ones written by the other
+     * servers to the in-memory data: the caches of the players online, the code index, the indexes of usernames,
+     * the leaderboard and the invitation graph. The entries are read in batches until the end of the log.
+     * This method is blocking and must be called off the main thread.
      *
-     * @param username The username of the player to register the referral for.
+     * @return The number of changes applied, 0 if another read is running.
+     * @throws SQLException If any SQL error occurs while reading the change log.
+     */
+    public int pollChanges() throws SQLException {
+        Backend current = backend;
+        if (current == null || !changePollRunning.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            return timed("pollChanges", () -> {
+                ChangeFeed feed = current.changes();
+                int applied = 0;
+                List<StoredChange> changes;
+                do {
+                    changes = current.storage().getChanges(feed.last(), feed.missing(), CHANGE_BATCH_SIZE);
+                    for (StoredChange change : feed.accept(changes)) {
+                        if (!change.local() && change.type() != null) {
+                            applyChange(change);
+                            applied++;
+                        }
+                    }
+                } while (changes.size() >= CHANGE_BATCH_SIZE);
+                return applied;
+            });
+        } finally {
+            changePollRunning.set(false);
+        }
+    }
+
+    /**
+     * Deletes the entries of the change log older than a given age. The age must leave every server
+     * plenty of time to read them, including a server restarting, since it then reloads its data anyway.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param maxAgeSeconds The age of the oldest entries kept, in seconds.
+     * @return The number of deleted entries.
+     * @throws SQLException If any SQL error occurs while deleting the entries.
+     */
+    public int pruneChanges(long maxAgeSeconds) throws SQLException {
+        return timed("pruneChanges", () -> storage().pruneChanges(maxAgeSeconds));
+    }
+
+    /**
+     * Loads the referral code and invite count of a player who is logging in, so that they are served from memory
+     * until the player quits. Both values are read at once. If the player renamed themselves since they were last
+     * seen, the stored username and the in-memory indexes are updated.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param uuid     The unique id of the player.
+     * @param username The current username of the player.
+     * @throws SQLException If any SQL error occurs while loading the referral data.
+     */
+    public void preloadPlayer(UUID uuid, String username) throws SQLException {
+        timed("preloadPlayer", () -> {
+            StoredPlayer player = storage().loadPlayer(uuid, username);
+            if (player != null) {
+                if (player.previousUsername() != null) {
+                    indexCode(player.referralCode(), username);
+                    playerForgotten(player.previousUsername());
+                    leaderboard.rename(player.previousUsername(), username);
+                    graph.rename(player.previousUsername(), username);
+                }
+                playerKnown(username);
+                cache.load(username, player.referralCode(), player.inviteCount());
+            } else {
+                cache.load(username, null, 0);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Removes the cached referral data of a player who left the server.
+     *
+     * @param username The username of the player.
+     */
+    public void evictPlayer(String username) {
+        cache.evict(username);
+    }
+
+    /**
+     * Loads the invitation graph from the storage. The invitations are streamed into primitive arrays.
+     * The invitations and renames applied while the storage is scanned are kept in the loaded graph.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @return The number of invitations loaded.
+     * @throws SQLException If any SQL error occurs while reading the invitations.
+     */
+    public int loadReferralGraph() throws SQLException {
+        return timed("loadReferralGraph", () -> {
+            ReferralGraph.Builder builder = new ReferralGraph.Builder();
+            graph.beginLoad();
+            try {
+                storage().forEachInvitation(builder::add);
+            } catch (SQLException e) {
+                graph.cancelLoad();
+                throw e;
+            }
+            graph.load(builder);
+            return builder.edgeCount();
+        });
+    }
+
+    /**
+     * Loads the invite counts into the leaderboard, or reconciles it with the storage to pick up the invitations
+     * written by other servers. The counters are streamed from the storage, without aggregating the invitations.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @return The number of ranked inviters.
+     * @throws SQLException If any SQL error occurs while reading the counters.
+     */
+    public int refreshLeaderboard() throws SQLException {
+        return timed("refreshLeaderboard", () -> {
+            Map<String, Integer> counts = new HashMap<>();
+            storage().forEachInviteCount(counts::put);
+            leaderboard.merge(counts);
+            return leaderboard.size();
+        });
+    }
+
+    /**
+     * Reads the rewards waiting in the outbox for some players, oldest first.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param players The usernames of the players.
+     * @param limit   The maximum number of rewards to return.
+     * @return The pending rewards of the players.
+     * @throws SQLException If any SQL error occurs while reading the outbox.
+     */
+    public List<PendingReward> getPendingRewards(Collection<String> players, int limit) throws SQLException {
+        return timed("getPendingRewards", () -> storage().getPendingRewards(players, limit));
+    }
+
+    /**
+     * Removes delivered rewards from the outbox.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param ids The ids of the delivered rewards.
+     * @throws SQLException If any SQL error occurs while writing the outbox.
+     */
+    public void acknowledgeRewards(Collection<Long> ids) throws SQLException {
+        timed("acknowledgeRewards", () -> {
+            storage().deleteRewards(ids);
+            return null;
+        });
+    }
+
+    /**
+     * Reads the number of invitations created during each of the latest buckets, the current one included,
+     * from the rollups. Buckets without invitations are returned with a count of 0.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param buckets     The number of buckets to read, at least 1.
+     * @return The buckets, oldest first, the current one being the last.
+     * @throws SQLException If any SQL error occurs while reading the rollups.
+     */
+    public List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, int buckets) throws SQLException {
+        long to = granularity.bucket(Instant.now()) + 1;
+        long from = to - buckets;
+        List<InvitationBucket> stored = timed("getInvitationCounts", () -> storage().getInvitationCounts(granularity, from, to));
+
+        Map<Instant, Integer> counts = new HashMap<>();
+        for (InvitationBucket bucket : stored) {
+            counts.put(bucket.start(), bucket.invites());
+        }
+        List<InvitationBucket> result = new ArrayList<>(buckets);
+        for (long bucket = from; bucket < to; bucket++) {
+            Instant start = granularity.start(bucket);
+            result.add(new InvitationBucket(start, counts.getOrDefault(start, 0)));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the inviters who created the most invitations during the latest buckets, the current one included,
+     * from the rollups.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param buckets     The number of buckets to read, at least 1.
+     * @param limit       The maximum number of inviters to return.
+     * @return The inviters and their invitations created during the buckets, the most active first.
+     * @throws SQLException If any SQL error occurs while reading the rollups.
+     */
+    public List<LeaderboardEntry> getTopRecruiters(StatsGranularity granularity, int buckets, int limit) throws SQLException {
+        long to = granularity.bucket(Instant.now()) + 1;
+        return timed("getTopRecruiters", () -> storage().getTopInviters(granularity, to - buckets, to, limit));
+    }
+
+    /**
+     * Finds the owner of a referral code. The in-memory index is checked first,
+     * and the storage is only queried when the code is not indexed yet.
+     *
+     * @param referralCode The referral code, case-insensitive.
+     * @return The username of the owner, or null if the code is not valid or not owned by any player.
+     * @throws SQLException If any SQL error occurs while looking up the code.
+     */
+    public String findCodeOwner(String referralCode) throws SQLException {
+        return timed("findCodeOwner", () -> {
+            long packed = ReferralCodeGenerator.decode(referralCode);
+            if (packed < 0) {
+                return null;
+            }
+            String owner = codeIndex.get(packed);
+            if (owner == null) {
+                owner = storage().findCodeOwner(ReferralCodeGenerator.encode(packed));
+                if (owner != null) {
+                    codeIndex.put(packed, owner);
+                }
+            }
+            return owner;
+        });
+    }
+
+    /**
+     * Loads every referral code into the in-memory index, and every username into the index of known players
+     * and the index used for tab completion.
+     * The rows are streamed from the storage, so memory use does not depend on the size of the table.
+     * Once loaded, the index of known players rejects unknown invitees without querying the database.
+     * This method is blocking and must be called off the main thread.
+     *
+     * @return The number of indexed codes.
+     * @throws SQLException If any SQL error occurs while reading the codes.
+     */
+    public int warmUpCodeIndex() throws SQLException {
+        return timed("warmUpCodeIndex", () -> {
+            List<String> registered = new ArrayList<>();
+            storage().forEachReferral((username, referralCode) -> {
+                indexCode(referralCode, username);
+                knownPlayers.add(username);
+                registered.add(username);
+            });
+            knownPlayers.markLoaded();
+            usernames.load(registered);
+            return codeIndex.size();
+        });
+    }
+
+    /**
+     * Tells whether a username may belong to a registered player. The index of known players is kept in memory:
+     * this never queries the database. Until the index has been loaded at startup, every username is plausible.
+     *
+     * @param username The username.
+     * @return false if the username certainly does not belong to a registered player, true otherwise.
+     */
+    public boolean mightBeRegistered(String username) {
+        return knownPlayers.mightBeRegistered(username);
+    }
+
+    /**
+     * Returns the registered usernames starting with a prefix, ignoring case, for the tab completion of /invite.
+     * The sender and the players they already invited are left out. Both the usernames and the invitation graph
+     * are kept in memory: this never queries the database, so it can be called on the main thread.
+     *
+     * @param prefix The prefix typed by the sender.
+     * @param sender The username of the sender.
+     * @param limit  The maximum number of usernames to return.
+     * @return The matching usernames, in alphabetical order.
+     */
+    public List<String> completeUsernames(String prefix, String sender, int limit) {
+        Set<String> excluded = new HashSet<>();
+        excluded.add(normalize(sender));
+        for (String invitee : graph.invitees(sender)) {
+            excluded.add(normalize(invitee));
+        }
+        return usernames.complete(prefix, limit, excluded::contains);
+    }
+
+    /**
+     * Asynchronously configures the storage backend.
+     *
+     * @param storage             The storage backend.
+     * @param writeBehindSettings The settings of the write-behind buffers.
+     * @param journal             The journal of the writes accepted while the storage is unreachable, or null.
+     * @param logger              The logger used to report write-behind problems.
+     * @return A future completed once the storage is configured.
+     */
+    public CompletableFuture<Void> configureAsync(ReferralStorage storage, WriteBehindSettings writeBehindSettings,
+                                                  WriteJournal journal, Logger logger) {
+        return tracked("configureAsync", () -> submit(() -> {
+            configure(storage, writeBehindSettings, journal, logger);
+            return null;
+        }));
+    }
+
+    /**
+     * Asynchronously loads the referral code and invite count of a player, as preloadPlayer does.
+     *
+     * @param uuid     The unique id of the player.
+     * @param username The current username of the player.
+     * @return A future completed once the data of the player is loaded.
+     */
+    public CompletableFuture<Void> preloadPlayerAsync(UUID uuid, String username) {
+        return tracked("preloadPlayerAsync", () -> submit(() -> {
+            preloadPlayer(uuid, username);
+            return null;
+        }));
+    }
+
+    /**
+     * Returns the inviters with the most invites. The leaderboard is kept in memory: this never queries the database.
+     *
+     * @param limit The maximum number of entries.
+     * @return The top inviters, highest count first.
+     */
+    public List<LeaderboardEntry> getTopInviters(int limit) {
+        return leaderboard.top(limit);
+    }
+
+    /**
+     * Returns the leaderboard rank of an inviter. The leaderboard is kept in memory: this never queries the database.
+     *
+     * @param inviter The username of the inviter.
+     * @return The rank of the inviter, starting from 1, or 0 if they have not invited anyone.
+     */
+    public int getInviterRank(String inviter) {
+        return leaderboard.rank(inviter);
+    }
+
+    /**
+     * Returns the players above the given one in the referral chain: their inviters, the inviters of those, and so on.
+     * The invitation graph is kept in memory: this never queries the database.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk up.
+     * @return The usernames of the upline, nearest first.
+     */
+    public List<String> getUpline(String username, int maxDepth) {
+        return graph.upline(username, maxDepth);
+    }
+
+    /**
+     * Counts the players below the given one in the referral tree, level by level.
+     * The invitation graph is kept in memory: this never queries the database.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk down.
+     * @return The number of players at each level, index 0 being the players invited directly.
+     */
+    public int[] getDownlineLevels(String username, int maxDepth) {
+        return graph.downlineLevels(username, maxDepth);
+    }
+
+    /**
+     * Counts the players below the given one in the referral tree, down to a maximum depth.
+     * The invitation graph is kept in memory: this never queries the database.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk down, bounding the work of the call.
+     * @return The number of players in the downline within maxDepth levels, the player excluded.
+     */
+    public int getDownlineSize(String username, int maxDepth) {
+        return graph.downlineSize(username, maxDepth);
+    }
+
+    /**
+     * Asynchronously retrieves the referral code for a given username.
+     * The code of an online player is served from memory without querying the database.
+     *
+     * @param username The username of the player.
+     * @return A future with the referral code, or null if not found.
+     */
+    public CompletableFuture<String> getReferralCodeAsync(String username) {
+        return tracked("getReferralCodeAsync", () -> {
+            ReferralCache.Session session = cache.get(username);
+            if (session != null) {
+                return CompletableFuture.completedFuture(session.getReferralCode());
+            }
+            return submit(() -> getReferralCode(username));
+        });
+    }
+
+    /**
+     * Asynchronously retrieves one page of the invitees invited by a specific inviter, in alphabetical order.
+     *
+     * @param inviter The username of the inviter.
+     * @param after   The last invitee of the previous page, or null for the first page.
+     * @param limit   The maximum number of invitees to return.
+     * @return A future with the invitees following the given one.
+     */
+    public CompletableFuture<List<String>> getInvitesPageAsync(String inviter, String after, int limit) {
+        return tracked("getInvitesPageAsync", () -> submit(() -> getInvitesPage(inviter, after, limit)));
+    }
+
+    /**
+     * Asynchronously counts the players invited by a specific inviter.
+     * The count of an online player is served from memory without querying the database.
+     *
+     * @param inviter The username of the inviter.
+     * @return A future with the number of invitees invited by the inviter.
+     */
+    public CompletableFuture<Integer> getInviteCountAsync(String inviter) {
+        return tracked("getInviteCountAsync", () -> {
+            ReferralCache.Session session = cache.get(inviter);
+            if (session != null) {
+                return CompletableFuture.completedFuture(session.getInviteCount());
+            }
+            return submit(() -> getInviteCount(inviter));
+        });
+    }
+
+    /**
+     * Asynchronously checks if a specific invitee has already been invited by the inviter.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return A future with true if the invitee has already been invited, false otherwise.
+     */
+    public CompletableFuture<Boolean> isAlreadyInvitedAsync(String inviter, String invitee) {
+        return tracked("isAlreadyInvitedAsync", () -> submit(() -> isAlreadyInvited(inviter, invitee)));
+    }
+
+    /**
+     * Asynchronously registers a new invitation from an inviter to an invitee, unless it already exists.
+     * The invitation is written atomically. When write-behind is enabled the invitation is buffered and written together with other ones.
+     * Players unknown to the in-memory index are rejected at once, without reaching the executor or the database.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return A future with the outcome of the registration, completed once the invitation is stored.
+     */
+    public CompletableFuture<RegistrationOutcome> registerInvitationAsync(String inviter, String invitee) {
+        return tracked("registerInvitationAsync", () -> {
+            if (!mightBeRegistered(inviter) || !mightBeRegistered(invitee)) {
+                return CompletableFuture.completedFuture(RegistrationOutcome.UNKNOWN_PLAYER);
+            }
+            Backend current = backend;
+            WriteBehindBuffer<Invitation> buffer = current != null ? current.invitationBuffer() : null;
+            if (buffer != null) {
+                return submitAndWait(() -> buffer.enqueue(new Invitation(inviter, invitee)));
+            }
+            return submit(() -> registerInvitation(inviter, invitee));
+        });
+    }
+
+    /**
+     * Asynchronously registers a new referral for a given username, unless the player already has one.
+     * An online player whose code is cached is answered from memory without querying the database.
+     * When write-behind is enabled the referral is buffered and written together with other ones.
+     *
+     * @param uuid     The unique id of the player to register the referral for.
+     * @param username The username of the player.
+     * @return A future with the outcome of the registration, completed once the referral is stored.
+     */
+    public CompletableFuture<RegistrationOutcome> registerReferralAsync(UUID uuid, String username) {
+        return tracked("registerReferralAsync", () -> {
+            ReferralCache.Session session = cache.get(username);
+            if (session != null && session.getReferralCode() != null) {
+                return CompletableFuture.completedFuture(RegistrationOutcome.ALREADY_EXISTS);
+            }
+
+            Backend current = backend;
+            WriteBehindBuffer<NewReferral> buffer = current != null ? current.referralBuffer() : null;
+            if (buffer != null) {
+                return submitAndWait(() -> buffer.enqueue(new NewReferral(uuid, username, codeGenerator.nextCode())));
+            }
+            return submit(() -> registerReferral(uuid, username));
+        });
+    }
+
+    /**
+     * Asynchronously loads the invitation graph from the database.
+     *
+     * @return A future with the number of invitations loaded.
+     */
+    public CompletableFuture<Integer> loadReferralGraphAsync() {
+        return tracked("loadReferralGraphAsync", () -> submit(this::loadReferralGraph));
+    }
+
+    /**
+     * Asynchronously loads the invite counts into the leaderboard, or reconciles it with the database.
+     *
+     * @return A future with the number of ranked inviters.
+     */
+    public CompletableFuture<Integer> refreshLeaderboardAsync() {
+        return tracked("refreshLeaderboardAsync", () -> submit(this::refreshLeaderboard));
+    }
+
+    /**
+     * Asynchronously finds the owner of a referral code.
+     * Indexed codes are answered from memory without querying the database.
+     *
+     * @param referralCode The referral code, case-insensitive.
+     * @return A future with the username of the owner, or null if the code is not valid or not owned by any player.
+     */
+    public CompletableFuture<String> findCodeOwnerAsync(String referralCode) {
+        return tracked("findCodeOwnerAsync", () -> {
+            long packed = ReferralCodeGenerator.decode(referralCode);
+            if (packed < 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            String owner = codeIndex.get(packed);
+            if (owner != null) {
+                return CompletableFuture.completedFuture(owner);
+            }
+            return submit(() -> findCodeOwner(referralCode));
+        });
+    }
+
+    /**
+     * Asynchronously redeems a referral code: the owner of the code is registered as the inviter of the player.
+     * Players cannot redeem their own code.
+     *
+     * @param redeemer     The username of the player redeeming the code.
+     * @param referralCode The referral code, case-insensitive.
+     * @return A future with the owner of the code and the outcome of the invitation,
+     *         the outcome being null if the code is not valid or belongs to the redeemer.
+     */
+    public CompletableFuture<Redemption> redeemReferralCodeAsync(String redeemer, String referralCode) {
+        return tracked("redeemReferralCodeAsync", () -> {
+            CompletableFuture<Redemption> future = new CompletableFuture<>();
+            findCodeOwnerAsync(referralCode).whenComplete((owner, error) -> {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else if (owner == null || owner.equalsIgnoreCase(redeemer)) {
+                    future.complete(new Redemption(owner, null));
+                } else {
+                    registerInvitationAsync(owner, redeemer).whenComplete((outcome, registrationError) -> {
+                        if (registrationError != null) {
+                            future.completeExceptionally(registrationError);
+                        } else {
+                            future.complete(new Redemption(owner, outcome));
+                        }
+                    });
+                }
+            });
+            return future;
+        });
+    }
+
+    /**
+     * Asynchronously loads every referral code into the in-memory index.
+     *
+     * @return A future with the number of indexed codes.
+     */
+    public CompletableFuture<Integer> warmUpCodeIndexAsync() {
+        return tracked("warmUpCodeIndexAsync", () -> submit(this::warmUpCodeIndex));
+    }
+
+    /**
+     * Asynchronously reads the rewards waiting in the outbox for some players, oldest first.
+     *
+     * @param players The usernames of the players.
+     * @param limit   The maximum number of rewards to return.
+     * @return A future with the pending rewards of the players.
+     */
+    public CompletableFuture<List<PendingReward>> getPendingRewardsAsync(Collection<String> players, int limit) {
+        return tracked("getPendingRewardsAsync", () -> submit(() -> getPendingRewards(players, limit)));
+    }
+
+    /**
+     * Asynchronously removes delivered rewards from the outbox.
+     *
+     * @param ids The ids of the delivered rewards.
+     * @return A future completed once the rewards are removed.
+     */
+    public CompletableFuture<Void> acknowledgeRewardsAsync(Collection<Long> ids) {
+        return tracked("acknowledgeRewardsAsync", () -> submit(() -> {
+            acknowledgeRewards(ids);
+            return null;
+        }));
+    }
+
+    /**
+     * Asynchronously reads the number of invitations created during each of the latest buckets from the rollups.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param buckets     The number of buckets to read, at least 1.
+     * @return A future with the buckets, oldest first, the current one being the last.
+     */
+    public CompletableFuture<List<InvitationBucket>> getInvitationCountsAsync(StatsGranularity granularity, int buckets) {
+        return tracked("getInvitationCountsAsync", () -> submit(() -> getInvitationCounts(granularity, buckets)));
+    }
+
+    /**
+     * Asynchronously reads the inviters who created the most invitations during the latest buckets from the rollups.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param buckets     The number of buckets to read, at least 1.
+     * @param limit       The maximum number of inviters to return.
+     * @return A future with the inviters and their invitations created during the buckets, the most active first.
+     */
+    public CompletableFuture<List<LeaderboardEntry>> getTopRecruitersAsync(StatsGranularity granularity, int buckets, int limit) {
+        return tracked("getTopRecruitersAsync", () -> submit(() -> getTopRecruiters(granularity, buckets, limit)));
+    }
+
+    /**
+     * Asynchronously exports a table to a file, streaming the rows so that memory use does not depend on their number.
+     * Only one export or import runs at a time.
+     *
+     * @param dataset  The table to export.
+     * @param file     The file to write, ending in .csv or .jsonl.
+     * @param progress The consumer receiving the number of rows written so far, called from the executor.
+     * @return A future with the number of rows written, failed with an IllegalStateException
+     *         if another export or import is running.
+     */
+    public CompletableFuture<TransferResult> exportAsync(TransferDataset dataset, File file, LongConsumer progress) {
+        return tracked("exportAsync", () -> transfer(() -> BulkTransfer.export(storage(), dataset, file, progress)));
+    }
+
+    /**
+     * Asynchronously imports a file into a table, in chunks stored with multi-row inserts.
+     * Rows that already exist are left untouched, and referrals without a unique id are skipped.
+     * Imported referrals whose code is owned by another player get a new code.
+     * Imported invitations earn no reward, since their inviters were rewarded where they were first registered.
+     * The in-memory indexes are updated with the stored rows. An interrupted import resumes from its checkpoint.
+     * Only one export or import runs at a time.
+     *
+     * @param dataset   The table to import into.
+     * @param file      The file to read, ending in .csv or .jsonl.
+     * @param chunkSize The number of rows stored at once.
+     * @param progress  The consumer receiving the number of rows read so far, called from the executor.
+     * @return A future with the numbers of rows read, stored and skipped thanks to the checkpoint, failed with
+     *         an IllegalStateException if another export or import is running.
+     */
+    public CompletableFuture<TransferResult> importAsync(TransferDataset dataset, File file, int chunkSize, LongConsumer progress) {
+        return tracked("importAsync", () -> transfer(() -> switch (dataset) {
+            case REFERRALS -> BulkTransfer.importFile(file, dataset, chunkSize, values -> values[0] == null ? null
+                    : new NewReferral(UUID.fromString(values[0]), required(values[1], "username"),
+                    values[2] != null ? values[2] : codeGenerator.nextCode()), this::writeReferrals, progress);
+            case INVITATIONS -> BulkTransfer.importFile(file, dataset, chunkSize, values ->
+                    new Invitation(required(values[0], "inviter"), required(values[1], "invitee"), null),
+                    batch -> writeInvitations(batch, false), progress);
+        }));
+    }
+
+    /**
+     * Returns the current counters of the connection pool.
+     *
+     * @return The pool counters, or null if the storage has not been configured or does not use a pool.
+     */
+    public PoolStats getPoolStats() {
+        Backend current = backend;
+        return current != null ? current.storage().getPoolStats() : null;
+    }
+
+    /**
+     * Stops accepting new asynchronous operations, waits for the pending ones to complete,
+     * flushes the write-behind buffers and then closes the storage.
+     */
+    public synchronized void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        closeBackend();
+    }
+
+    /**
+     * Runs a blocking storage operation, recording its latency and whether it failed.
+     * Calls made from the server main thread are counted separately, since they stall the server while they run.
+     *
+     * @param operation The name of the operation.
+     * @param call      The operation to run.
+     * @param <T>       The type of the result.
+     * @return The result of the operation.
+     * @throws SQLException If the operation throws one.
+     */
+    private static <T> T timed(String operation, SqlCall<T> call) throws SQLException {
+        OperationMetrics stats = metrics.operation(operation);
+        if (metrics.isPrimaryThread()) {
+            stats.recordMainThreadCall();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            stats.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Starts an asynchronous operation, recording its latency from the call until its future completes,
+     * and whether it failed. Operations answered from memory are recorded too.
+     *
+     * @param operation The name of the operation.
+     * @param call      The operation to start.
+     * @param <T>       The type of the result.
+     * @return The future returned by the operation.
+     */
+    private static <T> CompletableFuture<T> tracked(String operation, Supplier<CompletableFuture<T>> call) {
+        OperationMetrics stats = metrics.operation(operation);
+        long start = System.nanoTime();
+        CompletableFuture<T> future = call.get();
+        if (future.isDone()) {
+            stats.record(System.nanoTime() - start, future.isCompletedExceptionally());
+        } else {
+            future.whenComplete((result, error) -> stats.record(System.nanoTime() - start, error != null));
+        }
+        return future;
+    }
+
+    /**
+     * Runs a database call on the executor.
+     * The returned future is completed with the exception thrown by the call, without wrapping it,
+     * so that callers can inspect the original SQLException.
+     *
+     * @param call The database call to run.
+     * @param <T>  The type of the result.
+     * @return A future with the result of the call.
+     */
+    private static <T> CompletableFuture<T> submit(SqlCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs a database call that returns a future on the executor, and waits for that future too.
+     * Like submit, the returned future is completed with the original exception.
+     *
+     * @param call The database call to run.
+     * @param <T>  The type of the result.
+     * @return A future with the result of the future returned by the call.
+     */
+    private static <T> CompletableFuture<T> submitAndWait(SqlCall<CompletableFuture<T>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submit(call).whenComplete((inner, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+                return;
+            }
+            inner.whenComplete((result, innerError) -> {
+                if (innerError != null) {
+                    future.completeExceptionally(innerError);
+                } else {
+                    future.complete(result);
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Runs an export or an import on the executor, unless another one is running.
+     *
+     * @param call The transfer to run.
+     * @return A future with the outcome of the transfer.
+     */
+    private static CompletableFuture<TransferResult> transfer(TransferCall call) {
+        if (!transferRunning.compareAndSet(false, true)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Another export or import is already running."));
+        }
+        CompletableFuture<TransferResult> future = submit(() -> {
+            try {
+                return call.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        future.whenComplete((result, error) -> transferRunning.set(false));
+        return future;
+    }
+
+    /**
+     * Checks that a value read from an imported file is present.
+     *
+     * @param value  The value.
+     * @param column The column of the value.
+     * @return The value.
+     * @throws IllegalArgumentException If the value is missing.
+     */
+    private static String required(String value, String column) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + column);
+        }
+        return value;
+    }
+
+    /**
+     * Unpublishes the configured backend, if any, then flushes and closes its write-behind buffers, its storage
+     * and its journal. The writes that could not be replayed stay in the journal file for the next run.
+     */
+    private static void closeBackend() {
+        Backend current = backend;
+        if (current == null) {
+            return;
+        }
+        backend = null;
+        if (current.invitationBuffer() != null) {
+            current.invitationBuffer().close();
+        }
+        if (current.referralBuffer() != null) {
+            current.referralBuffer().close();
+        }
+        current.storage().close();
+        if (current.journal() != null) {
+            current.journal().close();
+        }
+    }
+
+    /**
+     * Registers a new referral in the storage, retrying with a new code if the generated one is already taken.
+     *
+     * @param uuid     The unique id of the player.
+     * @param username The username of the player.
+     * @return The outcome of the registration.
      * @throws SQLException If any SQL error occurs while registering the referral.
      */
-    public void registerReferral(String username) throws SQLException {
-        String query = "INSERT INTO Referral (username, referral_code) VALUES (?, ?)";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-            ReferralCodeGenerator referralCode = new ReferralCodeGenerator();
-            stmt.setString(1, username);
-            stmt.setString(2, referralCode.getCode());
-            stmt.executeUpdate();
+    private static RegistrationOutcome insertReferral(UUID uuid, String username) throws SQLException {
+        ReferralStorage current = storage();
+        for (int attempt = 0; attempt < MAX_CODE_ATTEMPTS; attempt++) {
+            String referralCode = codeGenerator.nextCode();
+            RegistrationOutcome outcome = current.insertReferral(uuid, username, referralCode);
+            if (outcome == RegistrationOutcome.CREATED) {
+                cache.setReferralCode(username, referralCode);
+                indexCode(referralCode, username);
+                playerKnown(username);
+                return outcome;
+            }
+            if (outcome != null) {
+                cache.setReferralCode(username, current.getReferralCode(username));
+                playerKnown(username);
+                return outcome;
+            }
+        }
+        throw new SQLException("Unable to generate a unique referral code after " + MAX_CODE_ATTEMPTS + " attempts.");
+    }
+
+    /**
+     * Writes a batch of invitations flushed by the write-behind buffer. While the database is unreachable,
+     * or the journal still holds writes, the batch is journaled instead.
+     *
+     * @param batch The buffered invitations.
+     * @return The outcome of each invitation.
+     * @throws SQLException If any SQL error occurs while writing or journaling the batch.
+     */
+    private RegistrationOutcome[] flushInvitations(List<Invitation> batch) throws SQLException {
+        WriteJournal journal = journal();
+        if (journal == null || journal.isEmpty()) {
+            try {
+                return writeInvitations(batch, true);
+            } catch (SQLException e) {
+                if (journal == null || !CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
+                }
+            }
+        }
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            outcomes[i] = journalInvitation(journal, batch.get(i));
         }
+        return outcomes;
     }
 
     /**
-     * Establishes a connection to the MySQL database.
+     * Writes a batch of referrals flushed by the write-behind buffer. While the database is unreachable,
+     * or the journal still holds writes, the batch is journaled instead.
      *
-     * @return The database connection.
-     * @throws SQLException If any SQL error occurs while establishing the connection.
+     * @param batch The buffered referrals.
+     * @return The outcome of each referral.
+     * @throws SQLException If any SQL error occurs while writing or journaling the batch.
      */
-    private Connection getConnection() throws SQLException {
-        String connectionUrl = "jdbc:mysql://" + dbHost + ":" + dbPort + "/" + dbName + "?user=" + dbUser + "&password=" + dbPassword;
-        return DriverManager.getConnection(connectionUrl);
+    private RegistrationOutcome[] flushReferrals(List<NewReferral> batch) throws SQLException {
+        WriteJournal journal = journal();
+        if (journal == null || journal.isEmpty()) {
+            try {
+                return writeReferrals(batch);
+            } catch (SQLException e) {
+                if (journal == null || !CircuitBreakingStorage.isUnreachable(e)) {
+                    throw e;
+                }
+            }
+        }
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            outcomes[i] = journalReferral(journal, batch.get(i));
+        }
+        return outcomes;
     }
 
     /**
-     * Executes an update query to create or modify tables in the database.
+     * Journals an invitation, unless it is already known to be stored or journaled.
      *
-     * @param sql The SQL query to execute.
-     * @throws SQLException If any SQL error occurs while executing the update.
+     * @param journal    The journal.
+     * @param invitation The invitation.
+     * @return PENDING if the invitation was journaled, ALREADY_EXISTS otherwise.
+     * @throws SQLException If the invitation cannot be journaled.
      */
-    private void executeUpdate(String sql) throws SQLException {
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.executeUpdate();
+    private static RegistrationOutcome journalInvitation(WriteJournal journal, Invitation invitation) throws SQLException {
+        if (isInvitedInMemory(invitation.inviter(), invitation.invitee()) || !journal.appendInvitation(invitation)) {
+            return RegistrationOutcome.ALREADY_EXISTS;
         }
+        return RegistrationOutcome.PENDING;
+    }
+
+    /**
+     * Journals a referral, unless one is already journaled for the same player. The player is added to the
+     * index of known players at once, so that they can be invited before the referral is replayed.
+     *
+     * @param journal  The journal.
+     * @param referral The referral.
+     * @return PENDING if the referral was journaled, ALREADY_EXISTS otherwise.
+     * @throws SQLException If the referral cannot be journaled.
+     */
+    private static RegistrationOutcome journalReferral(WriteJournal journal, NewReferral referral) throws SQLException {
+        if (!journal.appendReferral(referral)) {
+            return RegistrationOutcome.ALREADY_EXISTS;
+        }
+        playerKnown(referral.username());
+        return RegistrationOutcome.PENDING;
+    }
+
+    /**
+     * Tells whether an invitation is in the in-memory invitation graph or waiting in the journal.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return true if the invitation is known to exist.
+     */
+    private static boolean isInvitedInMemory(String inviter, String invitee) {
+        WriteJournal journal = journal();
+        return isInGraph(inviter, invitee) || journal != null && journal.containsInvitation(inviter, invitee);
+    }
+
+    /**
+     * Tells whether an invitation is in the in-memory invitation graph.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return true if the graph holds the invitation.
+     */
+    private static boolean isInGraph(String inviter, String invitee) {
+        for (String known : graph.invitees(inviter)) {
+            if (known.equalsIgnoreCase(invitee)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies a change written by another server to the in-memory data, as if it had been written by this one.
+     * An invitation already in the graph, loaded after it was written, is not counted twice.
+     *
+     * @param change The change.
+     */
+    private static void applyChange(StoredChange change) {
+        switch (change.type()) {
+            case REFERRAL -> {
+                cache.setReferralCode(change.player(), change.code());
+                indexCode(change.code(), change.player());
+                playerKnown(change.player());
+            }
+            case INVITATION -> {
+                if (!isInGraph(change.player(), change.other())) {
+                    invitationCreated(change.player(), change.other());
+                }
+            }
+            case RENAME -> {
+                indexCode(change.code(), change.player());
+                playerForgotten(change.other());
+                playerKnown(change.player());
+                leaderboard.rename(change.other(), change.player());
+                graph.rename(change.other(), change.player());
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of buffered or imported invitations at once, and updates the in-memory structures
+     * with the created ones.
+     *
+     * @param batch    The invitations.
+     * @param rewarded Whether the inviters get a reward for the created invitations, false for imported ones.
+     * @return The outcome of each invitation.
+     * @throws SQLException If any SQL error occurs while writing the batch.
+     */
+    private RegistrationOutcome[] writeInvitations(List<Invitation> batch, boolean rewarded) throws SQLException {
+        return timed("writeInvitations", () -> {
+            RegistrationOutcome[] outcomes = storage().insertInvitations(batch, rewarded);
+            for (int i = 0; i < batch.size(); i++) {
+                if (outcomes[i] == RegistrationOutcome.CREATED) {
+                    invitationCreated(batch.get(i).inviter(), batch.get(i).invitee());
+                }
+            }
+            return outcomes;
+        });
+    }
+
+    /**
+     * Writes a batch of buffered referrals at once.
+     * Referrals whose code collided with another player's are retried with a new code.
+     * Usernames are compared case-insensitively, like the storage does.
+     *
+     * @param batch The buffered referrals.
+     * @return The outcome of each referral.
+     * @throws SQLException If any SQL error occurs while writing the batch.
+     */
+    private RegistrationOutcome[] writeReferrals(List<NewReferral> batch) throws SQLException {
+        return timed("writeReferrals", () -> {
+            RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+            Map<String, NewReferral> pending = new HashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                NewReferral referral = batch.get(i);
+                if (pending.putIfAbsent(normalize(referral.username()), referral) != null) {
+                    outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                }
+            }
+
+            ReferralStorage current = storage();
+            Map<String, RegistrationOutcome> resolved = new HashMap<>();
+            for (int attempt = 1; !pending.isEmpty(); attempt++) {
+                if (attempt > MAX_CODE_ATTEMPTS) {
+                    throw new SQLException("Unable to generate a unique referral code after " + MAX_CODE_ATTEMPTS + " attempts.");
+                }
+
+                List<NewReferral> attempted = new ArrayList<>(pending.values());
+                RegistrationOutcome[] results = current.insertReferrals(attempted);
+                Map<String, NewReferral> collided = new HashMap<>();
+                for (int i = 0; i < attempted.size(); i++) {
+                    NewReferral referral = attempted.get(i);
+                    String key = normalize(referral.username());
+                    if (results[i] == null) {
+                        collided.put(key, new NewReferral(referral.uuid(), referral.username(), codeGenerator.nextCode()));
+                        continue;
+                    }
+                    resolved.put(key, results[i]);
+                    if (results[i] == RegistrationOutcome.CREATED) {
+                        cache.setReferralCode(referral.username(), referral.referralCode());
+                        indexCode(referral.referralCode(), referral.username());
+                    }
+                    playerKnown(referral.username());
+                }
+                pending = collided;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (outcomes[i] == null) {
+                    outcomes[i] = resolved.get(normalize(batch.get(i).username()));
+                }
+            }
+            return outcomes;
+        });
+    }
+
+    /**
+     * Adds a registered player to the in-memory indexes of usernames.
+     *
+     * @param username The username of the player.
+     */
+    private static void playerKnown(String username) {
+        knownPlayers.add(username);
+        usernames.add(username);
+    }
+
+    /**
+     * Removes a username that is no longer held by any player, after a rename, from the in-memory indexes of usernames.
+     *
+     * @param username The previous username of the player.
+     */
+    private static void playerForgotten(String username) {
+        knownPlayers.remove(username);
+        usernames.remove(username);
+    }
+
+    /**
+     * Updates the in-memory structures after a new invitation has been stored.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     */
+    private static void invitationCreated(String inviter, String invitee) {
+        cache.incrementInvites(inviter);
+        leaderboard.increment(inviter);
+        graph.addEdge(inviter, invitee);
+    }
+
+    /**
+     * Adds a stored referral code to the in-memory index. Codes that are not valid are ignored.
+     *
+     * @param referralCode The referral code.
+     * @param username     The username of the owner.
+     */
+    private static void indexCode(String referralCode, String username) {
+        long packed = ReferralCodeGenerator.decode(referralCode);
+        if (packed >= 0) {
+            codeIndex.put(packed, username);
+        }
+    }
+
+    /**
+     * Normalizes a username for in-memory comparisons, matching the case-insensitive collation of the database.
+     *
+     * @param username The username.
+     * @return The normalized username.
+     */
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the configured storage backend.
+     *
+     * @return The storage backend.
+     * @throws SQLException If the storage has not been configured.
+     */
+    private static ReferralStorage storage() throws SQLException {
+        Backend current = backend;
+        if (current == null) {
+            throw new SQLException("The database has not been configured.");
+        }
+        return current.storage();
+    }
+
+    /**
+     * Returns the journal of the configured backend.
+     *
+     * @return The journal, or null if the storage has not been configured or has no journal.
+     */
+    private static WriteJournal journal() {
+        Backend current = backend;
+        return current != null ? current.journal() : null;
+    }
+
+    /**
+     * The configured storage backend, its write-behind buffers, its journal and the position in its change log,
+     * published at once.
+     *
+     * @param storage          The storage backend.
+     * @param invitationBuffer The write-behind buffer of the invitations, or null if they are written directly.
+     * @param referralBuffer   The write-behind buffer of the referrals, or null if they are written directly.
+     * @param journal          The journal of the writes accepted while the storage is unreachable, or null.
+     * @param changes          The position of this server in the change log of the storage.
+     */
+    private record Backend(ReferralStorage storage,
+                           WriteBehindBuffer<Invitation> invitationBuffer,
+                           WriteBehindBuffer<NewReferral> referralBuffer,
+                           WriteJournal journal,
+                           ChangeFeed changes) {
+    }
+
+    /**
+     * A database call that may throw an SQLException.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    private interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    /**
+     * An export or an import, which may also fail on the file it reads or writes.
+     */
+    @FunctionalInterface
+    private interface TransferCall {
+        TransferResult call() throws SQLException, IOException;
     }
 }
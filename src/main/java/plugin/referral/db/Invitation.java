@@ -0,0 +1,25 @@
+package plugin.referral.db;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * This record is an invitation waiting to be stored. The time it was accepted is kept, so that an invitation
+ * stored later, from the write-behind buffer or the journal, is counted in the rollup bucket it belongs to.
+ *
+ * @param inviter    The username of the inviter.
+ * @param invitee    The username of the invitee.
+ * @param acceptedAt The time the invitation was accepted, or null if it is unknown, as for an imported one.
+ */
+public record Invitation(String inviter, String invitee, Instant acceptedAt) {
+
+    /**
+     * Creates an invitation accepted now.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     */
+    public Invitation(String inviter, String invitee) {
+        this(inviter, invitee, Instant.now().truncatedTo(ChronoUnit.SECONDS));
+    }
+}
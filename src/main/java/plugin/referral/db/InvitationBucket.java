@@ -0,0 +1,12 @@
+package plugin.referral.db;
+
+import java.time.Instant;
+
+/**
+ * This record is a bucket of the invitation rollups: the invitations created during an hour or a day.
+ *
+ * @param start   The first instant of the bucket.
+ * @param invites The number of invitations created during the bucket.
+ */
+public record InvitationBucket(Instant start, int invites) {
+}
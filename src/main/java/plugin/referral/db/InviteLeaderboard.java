@@ -0,0 +1,172 @@
+package plugin.referral.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the top inviters leaderboard in memory.
+ * Inviters are kept sorted by invite count in a balanced tree, giving the top N in O(log n + N), while a Fenwick tree
+ * indexed by invite count gives the rank of any inviter in O(log m), m being the highest count.
+ * It is built once from the database and then updated incrementally, so reading it never queries the database.
+ */
+final class InviteLeaderboard {
+
+    // Highest counts first, then alphabetical order
+    private static final Comparator<LeaderboardEntry> ORDER = Comparator
+            .comparingInt(LeaderboardEntry::invites).reversed()
+            .thenComparing(entry -> entry.username().toLowerCase(Locale.ROOT));
+
+    private final TreeSet<LeaderboardEntry> ranking = new TreeSet<>(ORDER);
+    private final Map<String, LeaderboardEntry> entries = new HashMap<>();
+
+    // Number of inviters having each count, and the Fenwick tree built over it (both 1-based)
+    private int[] frequencies = new int[1024];
+    private int[] tree = new int[1024];
+
+    /**
+     * Records a new invitation of an inviter.
+     *
+     * @param inviter The username of the inviter.
+     */
+    synchronized void increment(String inviter) {
+        String key = inviter.toLowerCase(Locale.ROOT);
+        LeaderboardEntry previous = entries.get(key);
+        set(key, previous != null ? previous.username() : inviter, previous != null ? previous.invites() + 1 : 1);
+    }
+
+    /**
+     * Merges counts read from the database. Counts never decrease, so the higher of the stored and the known count
+     * is kept: this picks up invitations written by other servers without losing the ones recorded concurrently.
+     * Counts of zero are ignored, since only players who invited someone are ranked and the Fenwick tree is 1-based.
+     *
+     * @param counts The invite counts read from the database, keyed by username.
+     */
+    synchronized void merge(Map<String, Integer> counts) {
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (count.getValue() <= 0) {
+                continue;
+            }
+            String key = count.getKey().toLowerCase(Locale.ROOT);
+            LeaderboardEntry previous = entries.get(key);
+            if (previous == null || previous.invites() < count.getValue()) {
+                set(key, count.getKey(), count.getValue());
+            }
+        }
+    }
+
+    /**
+     * Moves the entry of an inviter who renamed themselves to their new username.
+     *
+     * @param previousUsername The previous username of the inviter.
+     * @param username         The new username of the inviter.
+     */
+    synchronized void rename(String previousUsername, String username) {
+        LeaderboardEntry previous = entries.remove(previousUsername.toLowerCase(Locale.ROOT));
+        if (previous != null) {
+            ranking.remove(previous);
+            update(previous.invites(), -1);
+            set(username.toLowerCase(Locale.ROOT), username, previous.invites());
+        }
+    }
+
+    /**
+     * Returns the inviters with the most invites.
+     *
+     * @param limit The maximum number of entries.
+     * @return The top inviters, highest count first.
+     */
+    synchronized List<LeaderboardEntry> top(int limit) {
+        List<LeaderboardEntry> top = new ArrayList<>(Math.min(limit, ranking.size()));
+        Iterator<LeaderboardEntry> iterator = ranking.iterator();
+        while (top.size() < limit && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    /**
+     * Returns the rank of an inviter. Inviters with the same count share the same rank.
+     *
+     * @param inviter The username of the inviter.
+     * @return The rank of the inviter, starting from 1, or 0 if they have not invited anyone.
+     */
+    synchronized int rank(String inviter) {
+        LeaderboardEntry entry = entries.get(inviter.toLowerCase(Locale.ROOT));
+        if (entry == null) {
+            return 0;
+        }
+        return entries.size() - prefixSum(entry.invites()) + 1;
+    }
+
+    /**
+     * @return The number of ranked inviters.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sets the count of an inviter. The count must be positive, index 0 of the Fenwick tree being unused.
+     */
+    private void set(String key, String username, int invites) {
+        LeaderboardEntry previous = entries.get(key);
+        if (previous != null) {
+            ranking.remove(previous);
+            update(previous.invites(), -1);
+        }
+        LeaderboardEntry entry = new LeaderboardEntry(username, invites);
+        entries.put(key, entry);
+        ranking.add(entry);
+        update(invites, 1);
+    }
+
+    /**
+     * Adds a delta to the number of inviters having the given count, growing the tree if needed.
+     */
+    private void update(int count, int delta) {
+        if (count >= tree.length) {
+            grow(count);
+        }
+        frequencies[count] += delta;
+        for (int i = count; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Returns the number of inviters having at most the given count.
+     */
+    private int prefixSum(int count) {
+        int sum = 0;
+        for (int i = Math.min(count, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Rebuilds the Fenwick tree with room for the given count.
+     */
+    private void grow(int count) {
+        int length = tree.length;
+        while (length <= count) {
+            length *= 2;
+        }
+        frequencies = Arrays.copyOf(frequencies, length);
+        tree = Arrays.copyOf(frequencies, length);
+        // Linear-time construction: each node adds its partial sum to its parent
+        for (int i = 1; i < length; i++) {
+            int parent = i + (i & -i);
+            if (parent < length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
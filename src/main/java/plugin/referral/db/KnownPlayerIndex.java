@@ -0,0 +1,184 @@
+package plugin.referral.db;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps the usernames of the registered players in memory, so that names that do not belong to any player
+ * can be rejected without querying the database.
+ * A Bloom filter sits in front of an exact case-insensitive set: most unknown names are rejected by the filter
+ * with a few bit reads, and only the names the filter lets through are looked up in the set.
+ * Lookups never lock. The filter is rebuilt twice as large when the set outgrows it.
+ * Until the index has been loaded from the database every name is considered plausible.
+ */
+final class KnownPlayerIndex {
+
+    // Bits per player and number of hash functions, for a false positive rate of about 1%
+    private static final int BITS_PER_PLAYER = 10;
+    private static final int HASHES = 7;
+
+    // Players the first filter is sized for
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Normalized usernames of the registered players
+    private final Set<String> players = ConcurrentHashMap.newKeySet();
+
+    private volatile Filter filter = new Filter(INITIAL_CAPACITY);
+    private volatile boolean loaded;
+
+    /**
+     * Adds a registered player.
+     *
+     * @param username The username of the player.
+     */
+    synchronized void add(String username) {
+        String key = normalize(username);
+        if (players.contains(key)) {
+            return;
+        }
+        Filter current = filter;
+        if (players.size() >= current.capacity) {
+            Filter larger = new Filter(current.capacity * 2);
+            for (String player : players) {
+                larger.add(player);
+            }
+            filter = current = larger;
+        }
+        current.add(key);
+        players.add(key);
+    }
+
+    /**
+     * Removes a username that is no longer held by any player, after a rename.
+     * The bits of the name stay set in the filter and are answered by the exact set.
+     *
+     * @param username The username.
+     */
+    synchronized void remove(String username) {
+        players.remove(normalize(username));
+    }
+
+    /**
+     * Marks the index as loaded: from now on, names that are not in the index are rejected.
+     */
+    void markLoaded() {
+        loaded = true;
+    }
+
+    /**
+     * Tells whether a username may belong to a registered player.
+     *
+     * @param username The username.
+     * @return false if the index is loaded and the username does not belong to any player known to it, true otherwise.
+     */
+    boolean mightBeRegistered(String username) {
+        if (!loaded) {
+            return true;
+        }
+        String key = normalize(username);
+        return filter.mightContain(key) && players.contains(key);
+    }
+
+    /**
+     * @return The number of known players.
+     */
+    int size() {
+        return players.size();
+    }
+
+    /**
+     * Normalizes a username, matching the case-insensitive collation of the database.
+     *
+     * @param username The username.
+     * @return The normalized username.
+     */
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A Bloom filter of fixed size. Bits are set atomically, so they can be read concurrently without locking.
+     */
+    private static final class Filter {
+
+        private final int capacity;
+        private final AtomicLongArray bits;
+        private final long mask;
+
+        /**
+         * @param capacity The number of players the filter is sized for.
+         */
+        private Filter(int capacity) {
+            this.capacity = capacity;
+            long bitCount = Long.highestOneBit((long) capacity * BITS_PER_PLAYER - 1) << 1;
+            this.bits = new AtomicLongArray((int) (bitCount >>> 6));
+            this.mask = bitCount - 1;
+        }
+
+        /**
+         * Sets the bits of a normalized username.
+         *
+         * @param key The normalized username.
+         */
+        private void add(String key) {
+            long hash = hash(key);
+            long step = mix(hash) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (hash + i * step) & mask;
+                long flag = 1L << bit;
+                int word = (int) (bit >>> 6);
+                bits.getAndAccumulate(word, flag, (value, set) -> value | set);
+            }
+        }
+
+        /**
+         * Checks the bits of a normalized username.
+         *
+         * @param key The normalized username.
+         * @return false if the username was never added, true if it may have been.
+         */
+        private boolean mightContain(String key) {
+            long hash = hash(key);
+            long step = mix(hash) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = (hash + i * step) & mask;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Computes the 64-bit FNV-1a hash of a string.
+         *
+         * @param key The string.
+         * @return The hash.
+         */
+        private static long hash(String key) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+            return hash;
+        }
+
+        /**
+         * Derives a second, independent hash from the first one, using the finalizer of MurmurHash3.
+         *
+         * @param hash The first hash.
+         * @return The second hash.
+         */
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
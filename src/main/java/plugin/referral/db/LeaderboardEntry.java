@@ -0,0 +1,10 @@
+package plugin.referral.db;
+
+/**
+ * This record is a row of the top inviters leaderboard.
+ *
+ * @param username The username of the inviter.
+ * @param invites  The number of players invited.
+ */
+public record LeaderboardEntry(String username, int invites) {
+}
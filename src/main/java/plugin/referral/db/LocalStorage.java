@@ -0,0 +1,866 @@
+package plugin.referral.db;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * This class stores the referral data in a single local file, for servers that do not have a MySQL database.
+ * The file is an append-only log with one line per referral, invitation, change of username or delivered reward;
+ * it is replayed into memory when the storage is opened, and every read is then served from the in-memory index.
+ * Referrals and invitations are never deleted, renames are rare and each reward is delivered once, so the log
+ * does not need to be compacted. An invitation and its reward are a single record, so they are written atomically.
+ * That record also holds the creation time of the invitation, from which the hourly and daily rollups of the
+ * invitations are rebuilt in memory when the log is replayed.
+ * <p>
+ * A record is applied in memory only once it has been appended to the file. A crash in the middle of a write can
+ * only leave a partial last line, which is discarded on the next start.
+ */
+public final class LocalStorage implements ReferralStorage {
+
+    // Record types, the first field of each line: referrals of players identified by unique id, referrals
+    // written before unique ids were stored, a unique id bound to a username, invitations, invitations
+    // earning a reward for the inviter, followed by their creation time in epoch seconds, and delivered rewards
+    private static final String PLAYER = "P";
+    private static final String LEGACY_REFERRAL = "R";
+    private static final String IDENTITY = "U";
+    private static final String INVITATION = "I";
+    private static final String REWARDED_INVITATION = "O";
+    private static final String REWARD_DELIVERED = "D";
+
+    private final File file;
+    private final boolean syncWrites;
+    private final Logger logger;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Stored players keyed by normalized username and by unique id, and the owner of each referral code
+    private final Map<String, Player> players = new HashMap<>();
+    private final Map<UUID, Player> playersByUuid = new HashMap<>();
+    private final Map<String, String> codeOwners = new HashMap<>();
+
+    // Pending rewards keyed by id, the ids being assigned in the order of the log
+    private final Map<Long, Reward> rewards = new HashMap<>();
+    private long nextRewardId = 1;
+
+    // Invitation rollups: for each granularity, the invitations created during each bucket
+    private final Map<StatsGranularity, TreeMap<Long, Rollup>> rollups = new EnumMap<>(StatsGranularity.class);
+
+    private RandomAccessFile log;
+
+    /**
+     * Constructor for the LocalStorage class. The file is not read until the storage is opened.
+     *
+     * @param file       The log file, created if it does not exist.
+     * @param syncWrites Whether every write is forced to the disk before it is acknowledged.
+     * @param logger     The logger used to report the recovery of a damaged file.
+     */
+    public LocalStorage(File file, boolean syncWrites, Logger logger) {
+        this.file = file;
+        this.syncWrites = syncWrites;
+        this.logger = logger;
+        for (StatsGranularity granularity : StatsGranularity.values()) {
+            rollups.put(granularity, new TreeMap<>());
+        }
+    }
+
+    /**
+     * Replays the log file into memory and opens it for appending.
+     *
+     * @throws SQLException If the file cannot be read or holds a corrupted record.
+     */
+    @Override
+    public void open() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            closeLog();
+            players.clear();
+            playersByUuid.clear();
+            codeOwners.clear();
+            rewards.clear();
+            nextRewardId = 1;
+            rollups.values().forEach(TreeMap::clear);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            long validLength = replay();
+            log = new RandomAccessFile(file, "rw");
+            if (log.length() > validLength) {
+                logger.warning("Discarding a partial record at the end of " + file.getName() + ".");
+                log.setLength(validLength);
+            }
+            log.seek(validLength);
+        } catch (IOException e) {
+            throw new SQLException("Unable to open the local storage file " + file + ".", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String getReferralCode(String username) {
+        lock.readLock().lock();
+        try {
+            Player player = players.get(normalize(username));
+            return player != null ? player.referralCode : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A renamed player, or a player stored before unique ids were, is updated by appending an identity record.
+     */
+    @Override
+    public StoredPlayer loadPlayer(UUID uuid, String username) throws SQLException {
+        checkUsername(username);
+        lock.writeLock().lock();
+        try {
+            Player player = playersByUuid.get(uuid);
+            if (player == null) {
+                player = players.get(normalize(username));
+                if (player == null || player.uuid != null) {
+                    return null;
+                }
+            } else if (player.username.equals(username)) {
+                return new StoredPlayer(player.referralCode, player.inviteCount(), null);
+            }
+
+            String previousUsername = player.uuid != null ? player.username : null;
+            append(record(IDENTITY, uuid.toString(), username));
+            applyIdentity(uuid, username);
+            return new StoredPlayer(player.referralCode, player.inviteCount(), previousUsername);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getInvitesPage(String inviter, String after, int limit) {
+        List<String> invites = new ArrayList<>(limit);
+        lock.readLock().lock();
+        try {
+            Player player = players.get(normalize(inviter));
+            if (player == null || player.invitees == null) {
+                return invites;
+            }
+            Map<String, Player> page = after != null ? player.invitees.tailMap(normalize(after), false) : player.invitees;
+            for (Player invitee : page.values()) {
+                if (invites.size() == limit) {
+                    break;
+                }
+                invites.add(invitee.username);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return invites;
+    }
+
+    @Override
+    public int getInviteCount(String inviter) {
+        lock.readLock().lock();
+        try {
+            Player player = players.get(normalize(inviter));
+            return player != null ? player.inviteCount() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isAlreadyInvited(String inviter, String invitee) {
+        lock.readLock().lock();
+        try {
+            Player player = players.get(normalize(inviter));
+            return player != null && player.invitees != null && player.invitees.containsKey(normalize(invitee));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public RegistrationOutcome insertInvitation(String inviter, String invitee) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            RegistrationOutcome outcome = checkInvitation(inviter, invitee);
+            if (outcome == RegistrationOutcome.CREATED) {
+                long now = Instant.now().getEpochSecond();
+                append(record(REWARDED_INVITATION, inviter, invitee, Long.toString(now)));
+                applyInvitation(inviter, invitee);
+                applyReward(inviter, invitee);
+                applyRollups(inviter, now);
+            }
+            return outcome;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The created invitations of the batch are appended with a single write, and a single sync if enabled.
+     * Rewarded invitations are recorded, and counted in the rollups, at the time they were accepted.
+     */
+    @Override
+    public RegistrationOutcome[] insertInvitations(List<Invitation> batch, boolean rewarded) throws SQLException {
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        long now = Instant.now().getEpochSecond();
+        lock.writeLock().lock();
+        try {
+            StringBuilder records = new StringBuilder();
+            List<Invitation> created = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                Invitation invitation = batch.get(i);
+                outcomes[i] = checkInvitation(invitation.inviter(), invitation.invitee());
+                if (outcomes[i] == RegistrationOutcome.CREATED
+                        && !seen.add(normalize(invitation.inviter()) + '\n' + normalize(invitation.invitee()))) {
+                    outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                }
+                if (outcomes[i] == RegistrationOutcome.CREATED) {
+                    records.append(rewarded
+                            ? record(REWARDED_INVITATION, invitation.inviter(), invitation.invitee(),
+                            Long.toString(createdAt(invitation, now)))
+                            : record(INVITATION, invitation.inviter(), invitation.invitee()));
+                    created.add(invitation);
+                }
+            }
+
+            if (!created.isEmpty()) {
+                append(records.toString());
+                for (Invitation invitation : created) {
+                    applyInvitation(invitation.inviter(), invitation.invitee());
+                    if (rewarded) {
+                        applyReward(invitation.inviter(), invitation.invitee());
+                        applyRollups(invitation.inviter(), createdAt(invitation, now));
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return outcomes;
+    }
+
+    /**
+     * A player stored before unique ids were is bound to the unique id, and a username still held by a player
+     * who renamed themselves is released, both by appending an identity record.
+     */
+    @Override
+    public RegistrationOutcome insertReferral(UUID uuid, String username, String referralCode) throws SQLException {
+        checkUsername(username);
+        lock.writeLock().lock();
+        try {
+            if (playersByUuid.containsKey(uuid)) {
+                return RegistrationOutcome.ALREADY_EXISTS;
+            }
+            Player holder = players.get(normalize(username));
+            if (holder != null && holder.uuid == null) {
+                append(record(IDENTITY, uuid.toString(), username));
+                applyIdentity(uuid, username);
+                return RegistrationOutcome.ALREADY_EXISTS;
+            }
+            if (codeOwners.containsKey(referralCode)) {
+                return null;
+            }
+            String records = record(PLAYER, uuid.toString(), username, referralCode);
+            if (holder != null) {
+                // The holder renamed themselves: it keeps a placeholder until it logs in again
+                records = record(IDENTITY, holder.uuid.toString(), "~" + holder.referralCode) + records;
+            }
+            append(records);
+            if (holder != null) {
+                applyIdentity(holder.uuid, "~" + holder.referralCode);
+            }
+            applyPlayer(uuid, username, referralCode);
+            return RegistrationOutcome.CREATED;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The new referrals of the batch are appended with a single write, and a single sync if enabled.
+     * Referrals that need an identity record, and the ones whose unique id or username already appeared earlier
+     * in the batch, are handled one by one once the others are stored, as the unique keys of the database do.
+     */
+    @Override
+    public RegistrationOutcome[] insertReferrals(List<NewReferral> batch) throws SQLException {
+        for (NewReferral referral : batch) {
+            checkUsername(referral.username());
+        }
+
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        lock.writeLock().lock();
+        try {
+            StringBuilder records = new StringBuilder();
+            List<NewReferral> created = new ArrayList<>();
+            Set<String> batchCodes = new HashSet<>();
+            Set<UUID> batchUuids = new HashSet<>();
+            Set<String> batchUsernames = new HashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                NewReferral referral = batch.get(i);
+                if (playersByUuid.containsKey(referral.uuid())) {
+                    outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                } else if (!players.containsKey(normalize(referral.username()))
+                        && !codeOwners.containsKey(referral.referralCode()) && !batchCodes.contains(referral.referralCode())
+                        && batchUuids.add(referral.uuid()) && batchUsernames.add(normalize(referral.username()))) {
+                    batchCodes.add(referral.referralCode());
+                    outcomes[i] = RegistrationOutcome.CREATED;
+                    records.append(record(PLAYER, referral.uuid().toString(), referral.username(), referral.referralCode()));
+                    created.add(referral);
+                }
+            }
+
+            if (!created.isEmpty()) {
+                append(records.toString());
+                for (NewReferral referral : created) {
+                    applyPlayer(referral.uuid(), referral.username(), referral.referralCode());
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (outcomes[i] == null) {
+                    NewReferral referral = batch.get(i);
+                    outcomes[i] = insertReferral(referral.uuid(), referral.username(), referral.referralCode());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return outcomes;
+    }
+
+    @Override
+    public String findCodeOwner(String referralCode) {
+        lock.readLock().lock();
+        try {
+            return codeOwners.get(referralCode);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The read lock is held while the consumer runs, so writes wait until the scan is over.
+     */
+    @Override
+    public void forEachReferral(BiConsumer<String, String> consumer) {
+        lock.readLock().lock();
+        try {
+            for (Player player : players.values()) {
+                consumer.accept(player.username, player.referralCode);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The read lock is held while the consumer runs, so writes wait until the scan is over.
+     */
+    @Override
+    public void forEachPlayer(Consumer<NewReferral> consumer) {
+        lock.readLock().lock();
+        try {
+            for (Player player : players.values()) {
+                consumer.accept(new NewReferral(player.uuid, player.username, player.referralCode));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The read lock is held while the consumer runs, so writes wait until the scan is over.
+     */
+    @Override
+    public void forEachInviteCount(ObjIntConsumer<String> consumer) {
+        lock.readLock().lock();
+        try {
+            for (Player player : players.values()) {
+                if (player.inviteCount() > 0) {
+                    consumer.accept(player.username, player.inviteCount());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The read lock is held while the consumer runs, so writes wait until the scan is over.
+     */
+    @Override
+    public void forEachInvitation(BiConsumer<String, String> consumer) {
+        lock.readLock().lock();
+        try {
+            for (Player player : players.values()) {
+                if (player.invitees != null) {
+                    for (Player invitee : player.invitees.values()) {
+                        consumer.accept(player.username, invitee.username);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, long from, long to) {
+        List<InvitationBucket> buckets = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Rollup> entry : rollups.get(granularity).subMap(from, to).entrySet()) {
+                buckets.add(new InvitationBucket(granularity.start(entry.getKey()), entry.getValue().total));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return buckets;
+    }
+
+    /**
+     * The counts of the inviters are summed over the buckets of the range, under the read lock.
+     */
+    @Override
+    public List<LeaderboardEntry> getTopInviters(StatsGranularity granularity, long from, long to, int limit) {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Map<Player, Integer> counts = new HashMap<>();
+            for (Rollup rollup : rollups.get(granularity).subMap(from, to).values()) {
+                rollup.inviters.forEach((player, invites) -> counts.merge(player, invites, Integer::sum));
+            }
+            counts.forEach((player, invites) -> entries.add(new LeaderboardEntry(player.username, invites)));
+        } finally {
+            lock.readLock().unlock();
+        }
+        entries.sort(Comparator.comparingInt(LeaderboardEntry::invites).reversed().thenComparing(LeaderboardEntry::username));
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    @Override
+    public List<PendingReward> getPendingRewards(Collection<String> players, int limit) {
+        List<PendingReward> pending = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String username : players) {
+                Player player = this.players.get(normalize(username));
+                if (player != null && player.rewards != null) {
+                    for (Reward reward : player.rewards) {
+                        pending.add(new PendingReward(reward.id, player.username, reward.invitee.username));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        pending.sort(Comparator.comparingLong(PendingReward::id));
+        return pending.size() > limit ? new ArrayList<>(pending.subList(0, limit)) : pending;
+    }
+
+    /**
+     * The delivered rewards are appended with a single write, naming the players by their current usernames.
+     */
+    @Override
+    public void deleteRewards(Collection<Long> ids) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            StringBuilder records = new StringBuilder();
+            Set<Reward> delivered = new LinkedHashSet<>();
+            for (Long id : ids) {
+                Reward reward = rewards.get(id);
+                if (reward != null && delivered.add(reward)) {
+                    records.append(record(REWARD_DELIVERED, reward.player.username, reward.invitee.username));
+                }
+            }
+            if (!delivered.isEmpty()) {
+                append(records.toString());
+                for (Reward reward : delivered) {
+                    removeReward(reward);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log file. The in-memory index is kept until the storage is opened again.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closeLog();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the log file and applies every complete record. Must be called while holding the write lock.
+     *
+     * @return The length of the complete records, a partial last line being excluded.
+     * @throws IOException  If the file cannot be read.
+     * @throws SQLException If a complete record is corrupted.
+     */
+    private long replay() throws IOException, SQLException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long position = 0;
+        long validLength = 0;
+        int lineNumber = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                lineNumber++;
+                apply(line.toString(StandardCharsets.UTF_8), lineNumber);
+                line.reset();
+                validLength = position;
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Applies a record read from the log file.
+     *
+     * @param record     The record, without its line terminator.
+     * @param lineNumber The line of the record, for the error message.
+     * @throws SQLException If the record is corrupted.
+     */
+    private void apply(String record, int lineNumber) throws SQLException {
+        String[] fields = record.split(" ");
+        try {
+            if (fields.length == 4 && fields[0].equals(PLAYER)) {
+                applyPlayer(UUID.fromString(fields[1]), fields[2], fields[3]);
+                return;
+            }
+            if (fields.length == 3 && fields[0].equals(LEGACY_REFERRAL)) {
+                applyPlayer(null, fields[1], fields[2]);
+                return;
+            }
+            if (fields.length == 3 && fields[0].equals(IDENTITY)) {
+                applyIdentity(UUID.fromString(fields[1]), fields[2]);
+                return;
+            }
+            // Rewarded invitations written before the creation time was recorded have no fourth field
+            if ((fields.length == 3 && (fields[0].equals(INVITATION) || fields[0].equals(REWARDED_INVITATION))
+                    || fields.length == 4 && fields[0].equals(REWARDED_INVITATION))
+                    && players.containsKey(normalize(fields[1])) && players.containsKey(normalize(fields[2]))) {
+                long createdAt = fields.length == 4 ? Long.parseLong(fields[3]) : -1;
+                applyInvitation(fields[1], fields[2]);
+                if (fields[0].equals(REWARDED_INVITATION)) {
+                    applyReward(fields[1], fields[2]);
+                }
+                if (createdAt >= 0) {
+                    applyRollups(fields[1], createdAt);
+                }
+                return;
+            }
+            if (fields.length == 3 && fields[0].equals(REWARD_DELIVERED)
+                    && players.containsKey(normalize(fields[1])) && players.containsKey(normalize(fields[2]))) {
+                applyRewardDelivered(fields[1], fields[2]);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // Malformed unique id, reported below
+        }
+        throw new SQLException("Corrupted record at line " + lineNumber + " of " + file.getName() + ".");
+    }
+
+    /**
+     * Checks if an invitation can be stored. Must be called while holding the write lock.
+     *
+     * @return CREATED if the invitation can be stored, otherwise the reason why it cannot.
+     */
+    private RegistrationOutcome checkInvitation(String inviter, String invitee) {
+        Player player = players.get(normalize(inviter));
+        if (player == null || !players.containsKey(normalize(invitee))) {
+            return RegistrationOutcome.UNKNOWN_PLAYER;
+        }
+        if (player.invitees != null && player.invitees.containsKey(normalize(invitee))) {
+            return RegistrationOutcome.ALREADY_EXISTS;
+        }
+        return RegistrationOutcome.CREATED;
+    }
+
+    private void applyPlayer(UUID uuid, String username, String referralCode) {
+        Player player = new Player(uuid, username, referralCode);
+        if (players.putIfAbsent(normalize(username), player) == null) {
+            if (uuid != null) {
+                playersByUuid.put(uuid, player);
+            }
+            codeOwners.put(referralCode, username);
+        }
+    }
+
+    /**
+     * Binds a unique id to a username: the player with that unique id is renamed, or, if there is none,
+     * the player stored by username only gets the unique id.
+     */
+    private void applyIdentity(UUID uuid, String username) {
+        Player player = playersByUuid.get(uuid);
+        if (player == null) {
+            player = players.get(normalize(username));
+            if (player != null && player.uuid == null) {
+                player.uuid = uuid;
+                playersByUuid.put(uuid, player);
+            }
+            return;
+        }
+
+        Player holder = players.get(normalize(username));
+        if (holder != null && holder != player) {
+            // The holder renamed themselves too: it keeps a placeholder until it logs in again
+            relabel(holder, "~" + holder.referralCode);
+        }
+        relabel(player, username);
+    }
+
+    /**
+     * Changes the username of a player, updating every map keyed by it.
+     */
+    private void relabel(Player player, String username) {
+        String oldKey = normalize(player.username);
+        players.remove(oldKey);
+        if (player.inviters != null) {
+            for (Player inviter : player.inviters) {
+                inviter.invitees.remove(oldKey);
+            }
+        }
+
+        player.username = username;
+        players.put(normalize(username), player);
+        codeOwners.put(player.referralCode, username);
+        if (player.inviters != null) {
+            for (Player inviter : player.inviters) {
+                inviter.invitees.put(normalize(username), player);
+            }
+        }
+    }
+
+    private void applyInvitation(String inviter, String invitee) {
+        Player player = players.get(normalize(inviter));
+        Player invited = players.get(normalize(invitee));
+        if (player.invitees == null) {
+            player.invitees = new TreeMap<>();
+        }
+        player.invitees.put(normalize(invitee), invited);
+        if (invited.inviters == null) {
+            invited.inviters = new ArrayList<>(1);
+        }
+        invited.inviters.add(player);
+    }
+
+    /**
+     * Adds a pending reward for the inviter of a stored invitation.
+     */
+    private void applyReward(String inviter, String invitee) {
+        Player player = players.get(normalize(inviter));
+        Reward reward = new Reward(nextRewardId++, player, players.get(normalize(invitee)));
+        if (player.rewards == null) {
+            player.rewards = new ArrayList<>(1);
+        }
+        player.rewards.add(reward);
+        rewards.put(reward.id, reward);
+    }
+
+    /**
+     * Returns the creation time of a rewarded invitation: the time it was accepted, or now if it is unknown.
+     *
+     * @param invitation The invitation.
+     * @param now        The current epoch second.
+     * @return The creation time, as an epoch second.
+     */
+    private static long createdAt(Invitation invitation, long now) {
+        return invitation.acceptedAt() != null ? invitation.acceptedAt().getEpochSecond() : now;
+    }
+
+    /**
+     * Counts an invitation in the buckets of the rollups holding its creation time.
+     */
+    private void applyRollups(String inviter, long createdAt) {
+        Player player = players.get(normalize(inviter));
+        Instant instant = Instant.ofEpochSecond(createdAt);
+        for (Map.Entry<StatsGranularity, TreeMap<Long, Rollup>> entry : rollups.entrySet()) {
+            Rollup rollup = entry.getValue().computeIfAbsent(entry.getKey().bucket(instant), bucket -> new Rollup());
+            rollup.total++;
+            rollup.inviters.merge(player, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Removes the pending reward of an invitation, if it is still pending.
+     */
+    private void applyRewardDelivered(String inviter, String invitee) {
+        Player player = players.get(normalize(inviter));
+        Player invited = players.get(normalize(invitee));
+        if (player.rewards != null) {
+            for (Reward reward : player.rewards) {
+                if (reward.invitee == invited) {
+                    removeReward(reward);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void removeReward(Reward reward) {
+        rewards.remove(reward.id);
+        reward.player.rewards.remove(reward);
+        if (reward.player.rewards.isEmpty()) {
+            reward.player.rewards = null;
+        }
+    }
+
+    /**
+     * Appends records to the log file, and forces them to the disk if enabled. If the write fails,
+     * the file is truncated back to its previous length so that no record is half-written.
+     * Must be called while holding the write lock.
+     *
+     * @param records The records to append, each one terminated by a new line.
+     * @throws SQLException If the records cannot be written.
+     */
+    private void append(String records) throws SQLException {
+        if (log == null) {
+            throw new SQLException("The local storage has not been opened.");
+        }
+        long length = -1;
+        try {
+            length = log.getFilePointer();
+            log.write(records.getBytes(StandardCharsets.UTF_8));
+            if (syncWrites) {
+                log.getFD().sync();
+            }
+        } catch (IOException e) {
+            try {
+                if (length >= 0) {
+                    log.setLength(length);
+                    log.seek(length);
+                }
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw new SQLException("Unable to write to the local storage file " + file + ".", e);
+        }
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.warning("Unable to close the local storage file: " + e.getMessage());
+            }
+            log = null;
+        }
+    }
+
+    /**
+     * Rejects the usernames that would break the line format of the log. Minecraft usernames never do.
+     */
+    private static void checkUsername(String username) throws SQLException {
+        for (int i = 0; i < username.length(); i++) {
+            if (Character.isWhitespace(username.charAt(i))) {
+                throw new SQLException("Usernames containing whitespace cannot be stored: '" + username + "'.");
+            }
+        }
+    }
+
+    private static String record(String type, String... fields) {
+        return type + ' ' + String.join(" ", fields) + '\n';
+    }
+
+    /**
+     * Normalizes a username, so that usernames are compared case-insensitively like the MySQL backend does.
+     */
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A stored player, with its invitees keyed by normalized username so that they are paged in alphabetical order,
+     * its inviters so that a rename can update the keys, and its pending rewards.
+     */
+    private static final class Player {
+
+        private UUID uuid;
+        private String username;
+        private final String referralCode;
+        private TreeMap<String, Player> invitees;
+        private List<Player> inviters;
+        private List<Reward> rewards;
+
+        private Player(UUID uuid, String username, String referralCode) {
+            this.uuid = uuid;
+            this.username = username;
+            this.referralCode = referralCode;
+        }
+
+        private int inviteCount() {
+            return invitees != null ? invitees.size() : 0;
+        }
+    }
+
+    /**
+     * A bucket of the rollups, holding its inviters rather than their usernames so that it follows their renames.
+     */
+    private static final class Rollup {
+
+        private int total;
+        private final Map<Player, Integer> inviters = new HashMap<>();
+    }
+
+    /**
+     * A pending reward, holding its players rather than their usernames so that it follows their renames.
+     */
+    private static final class Reward {
+
+        private final long id;
+        private final Player player;
+        private final Player invitee;
+
+        private Reward(long id, Player player, Player invitee) {
+            this.id = id;
+            this.player = player;
+            this.invitee = invitee;
+        }
+    }
+}
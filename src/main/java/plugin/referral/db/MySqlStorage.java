@@ -0,0 +1,1077 @@
+package plugin.referral.db;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.logging.Logger;
+
+/**
+ * This class stores the referral data in a MySQL database, through a pool of JDBC connections.
+ * Players are stored with an int surrogate key and their unique id as BINARY(16), and invitations reference
+ * the surrogate keys, which keeps the primary and foreign keys narrow and makes renames a single-row update.
+ * Invitations are written with single atomic statements, and the invite count of each player is kept
+ * in a counter column updated in the same transaction, so that it never has to be computed by a scan.
+ * Every write is also appended to the change log in its transaction, so that the other servers sharing the
+ * database can apply it to their in-memory state.
+ * New invitations are counted in hourly and daily rollup tables in the same transaction, so that the statistics
+ * over a time range are read from a few rollup rows instead of scanning the invitations.
+ */
+public final class MySqlStorage implements ReferralStorage {
+
+    // MySQL error raised when a foreign key references a missing row
+    private static final int ER_NO_REFERENCED_ROW = 1452;
+
+    // Number of change log entries deleted by each statement of a pruning, so that no statement locks the table for long
+    private static final int PRUNE_BATCH_SIZE = 10_000;
+
+    private final String url;
+    private final Properties properties;
+    private final PoolSettings poolSettings;
+    private final Logger logger;
+
+    // Random id of this server in the change log, telling its own changes from the ones of the other servers
+    private final byte[] node = toBytes(UUID.randomUUID());
+
+    private volatile ConnectionPool pool;
+
+    /**
+     * Constructor for the MySqlStorage class. No connection is opened until the storage is opened.
+     *
+     * @param host         The database host.
+     * @param port         The database port.
+     * @param name         The database name.
+     * @param user         The database username.
+     * @param password     The database password.
+     * @param poolSettings The settings of the connection pool.
+     * @param logger       The logger used to report connection pool problems.
+     */
+    public MySqlStorage(String host, int port, String name, String user, String password,
+                        PoolSettings poolSettings, Logger logger) {
+        this.url = "jdbc:mysql://" + host + ":" + port + "/" + name;
+        this.poolSettings = poolSettings;
+        this.logger = logger;
+
+        properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        // Driver-level prepared statement cache, shared by all the statements of a pooled connection
+        properties.setProperty("cachePrepStmts", Boolean.toString(poolSettings.statementCacheSize() > 0));
+        properties.setProperty("prepStmtCacheSize", Integer.toString(poolSettings.statementCacheSize()));
+        properties.setProperty("prepStmtCacheSqlLimit", "2048");
+        properties.setProperty("useServerPrepStmts", "true");
+        properties.setProperty("connectTimeout", Long.toString(poolSettings.connectionTimeoutMillis()));
+        // Report the rows actually changed, so that upserts can tell new rows from existing ones
+        properties.setProperty("useAffectedRows", "true");
+    }
+
+    /**
+     * Opens the connection pool and brings the schema up to date.
+     *
+     * @throws SQLException If any SQL error occurs while connecting or migrating the schema.
+     */
+    @Override
+    public void open() throws SQLException {
+        if (pool != null) {
+            pool.close();
+        }
+        pool = new ConnectionPool(url, properties, poolSettings, logger);
+        try (Connection conn = getConnection()) {
+            new SchemaMigrator(logger).migrate(conn);
+        }
+    }
+
+    @Override
+    public String getReferralCode(String username) throws SQLException {
+        String query = "SELECT referral_code FROM referral_players WHERE username = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, username);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString("referral_code");
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The player is looked up by unique id with a single query. A renamed player gets their new username,
+     * logged as a change, and a player migrated from the username-keyed schema is bound to their unique id.
+     */
+    @Override
+    public StoredPlayer loadPlayer(UUID uuid, String username) throws SQLException {
+        String query = "SELECT id, username, referral_code, invite_count FROM referral_players WHERE uuid = ?";
+        String claimQuery = "UPDATE referral_players SET uuid = ? WHERE username = ? AND uuid IS NULL";
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setBytes(1, toBytes(uuid));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        String storedUsername = rs.getString("username");
+                        StoredPlayer player = new StoredPlayer(rs.getString("referral_code"), rs.getInt("invite_count"),
+                                storedUsername.equals(username) ? null : storedUsername);
+                        if (player.previousUsername() != null) {
+                            conn.setAutoCommit(false);
+                            rename(conn, rs.getInt("id"), username);
+                            logChanges(conn, StoredChange.Type.RENAME,
+                                    List.<String[]>of(new String[]{username, storedUsername, player.referralCode()}));
+                            conn.commit();
+                        }
+                        return player;
+                    }
+                }
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(claimQuery)) {
+                stmt.setBytes(1, toBytes(uuid));
+                stmt.setString(2, username);
+                if (stmt.executeUpdate() == 0) {
+                    return null;
+                }
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setBytes(1, toBytes(uuid));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? new StoredPlayer(rs.getString("referral_code"), rs.getInt("invite_count"), null) : null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pages are read with keyset pagination on the username of the invitees, among the rows of the inviter
+     * in the primary key of the invitations, so the full list is never loaded at once.
+     */
+    @Override
+    public List<String> getInvitesPage(String inviter, String after, int limit) throws SQLException {
+        List<String> invites = new ArrayList<>(limit);
+        String query = "SELECT e.username FROM referral_players r "
+                + "JOIN invitations i ON i.inviter_id = r.id "
+                + "JOIN referral_players e ON e.id = i.invitee_id "
+                + "WHERE r.username = ? AND e.username > ? ORDER BY e.username LIMIT ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, inviter);
+            stmt.setString(2, after != null ? after : "");
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    invites.add(rs.getString("username"));
+                }
+            }
+        }
+        return invites;
+    }
+
+    /**
+     * The count is read from the counter maintained on the inviter's row, without scanning the invitations.
+     */
+    @Override
+    public int getInviteCount(String inviter) throws SQLException {
+        String query = "SELECT invite_count FROM referral_players WHERE username = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, inviter);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean isAlreadyInvited(String inviter, String invitee) throws SQLException {
+        String query = "SELECT COUNT(*) FROM invitations i "
+                + "JOIN referral_players r ON r.id = i.inviter_id "
+                + "JOIN referral_players e ON e.id = i.invitee_id "
+                + "WHERE r.username = ? AND e.username = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, inviter);
+            stmt.setString(2, invitee);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;  // Return true if there is at least one record
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The invitation is written by a single INSERT ... SELECT that looks up both players itself, so that the check
+     * and the insert are atomic and concurrent invitations cannot race. The surrogate keys are then read within
+     * the same transaction, to tell an unknown player from an existing invitation when no row was written, or to
+     * increment the invite counter of the inviter, add the reward to the outbox, update the rollups and log the
+     * change otherwise. The invitation is created now, by the clock of this server, as the invitations stored later are.
+     */
+    @Override
+    public RegistrationOutcome insertInvitation(String inviter, String invitee) throws SQLException {
+        Instant createdAt = Instant.now();
+        // With useAffectedRows the no-op update reports 0 rows for an existing invitation
+        String query = "INSERT INTO invitations (inviter_id, invitee_id, created_at) "
+                + "SELECT r.id, e.id, FROM_UNIXTIME(?) FROM referral_players r JOIN referral_players e ON e.username = ? "
+                + "WHERE r.username = ? ON DUPLICATE KEY UPDATE inviter_id = inviter_id";
+        String counterQuery = "UPDATE referral_players SET invite_count = invite_count + 1 WHERE id = ?";
+        String rewardQuery = "INSERT IGNORE INTO reward_outbox (player_id, invitee_id) VALUES (?, ?)";
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            boolean inserted;
+            Map<String, Integer> ids;
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    stmt.setLong(1, createdAt.getEpochSecond());
+                    stmt.setString(2, invitee);
+                    stmt.setString(3, inviter);
+                    inserted = stmt.executeUpdate() > 0;
+                }
+                ids = selectIds(conn, List.of(inviter, invitee));
+            } catch (SQLException e) {
+                conn.rollback();
+                if (e.getErrorCode() == ER_NO_REFERENCED_ROW) {
+                    return RegistrationOutcome.UNKNOWN_PLAYER;
+                }
+                throw e;
+            }
+            Integer inviterId = ids.get(normalize(inviter));
+            Integer inviteeId = ids.get(normalize(invitee));
+            if (!inserted || inviterId == null || inviteeId == null) {
+                conn.rollback();
+                return inviterId == null || inviteeId == null
+                        ? RegistrationOutcome.UNKNOWN_PLAYER : RegistrationOutcome.ALREADY_EXISTS;
+            }
+
+            try (PreparedStatement stmt = conn.prepareStatement(counterQuery)) {
+                stmt.setInt(1, inviterId);
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(rewardQuery)) {
+                stmt.setInt(1, inviterId);
+                stmt.setInt(2, inviteeId);
+                stmt.executeUpdate();
+            }
+            updateRollups(conn, List.of(inviterId), List.of(createdAt));
+            logChanges(conn, StoredChange.Type.INVITATION, List.<String[]>of(new String[]{inviter, invitee, null}));
+            conn.commit();
+        }
+        return RegistrationOutcome.CREATED;
+    }
+
+    /**
+     * The batch is written with a single multi-row INSERT, after reading the surrogate keys of the players
+     * and which invitations already exist. The rewards are added to the outbox, the rollups are updated and the
+     * changes are logged by further multi-row INSERTs in the same transaction. The invitations are created at the
+     * time they were accepted, so that the ones stored late are counted in the right rollup buckets. Imported
+     * invitations are written with a null creation time, their actual one being unknown.
+     * <p>
+     * The transaction runs in REPEATABLE READ, so that its reads see the snapshot taken by the first one.
+     * When the INSERT ignores some rows, another server wrote them since that snapshot: reading the batch again
+     * then returns only the rows inserted by this transaction, and the other ones are reported as existing.
+     */
+    @Override
+    public RegistrationOutcome[] insertInvitations(List<Invitation> batch, boolean rewarded) throws SQLException {
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        Instant now = Instant.now();
+        Set<String> players = new HashSet<>();
+        for (Invitation invitation : batch) {
+            players.add(invitation.inviter());
+            players.add(invitation.invitee());
+        }
+
+        try (Connection conn = getConnection()) {
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                Map<String, Integer> ids = selectIds(conn, players);
+                List<long[]> pairs = new ArrayList<>();
+                for (Invitation invitation : batch) {
+                    Integer inviterId = ids.get(normalize(invitation.inviter()));
+                    Integer inviteeId = ids.get(normalize(invitation.invitee()));
+                    if (inviterId != null && inviteeId != null) {
+                        pairs.add(new long[]{inviterId, inviteeId});
+                    }
+                }
+                Set<Long> existing = pairs.isEmpty() ? Set.of() : selectExistingInvitations(conn, pairs);
+
+                List<Integer> candidates = new ArrayList<>();
+                List<long[]> candidatePairs = new ArrayList<>();
+                Set<Long> seen = new HashSet<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    Invitation invitation = batch.get(i);
+                    Integer inviterId = ids.get(normalize(invitation.inviter()));
+                    Integer inviteeId = ids.get(normalize(invitation.invitee()));
+                    if (inviterId == null || inviteeId == null) {
+                        outcomes[i] = RegistrationOutcome.UNKNOWN_PLAYER;
+                        continue;
+                    }
+                    long key = key(inviterId, inviteeId);
+                    if (existing.contains(key) || !seen.add(key)) {
+                        outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                    } else {
+                        candidates.add(i);
+                        candidatePairs.add(new long[]{inviterId, inviteeId});
+                    }
+                }
+                if (candidates.isEmpty()) {
+                    conn.rollback();
+                    return outcomes;
+                }
+
+                // IGNORE covers rows written by another server since the snapshot
+                String query = "INSERT IGNORE INTO invitations (inviter_id, invitee_id, created_at) VALUES "
+                        + String.join(", ", Collections.nCopies(candidates.size(), "(?, ?, FROM_UNIXTIME(?))"));
+                int inserted;
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    int index = 1;
+                    for (int c = 0; c < candidates.size(); c++) {
+                        long[] pair = candidatePairs.get(c);
+                        Instant createdAt = createdAt(batch.get(candidates.get(c)), rewarded, now);
+                        stmt.setLong(index++, pair[0]);
+                        stmt.setLong(index++, pair[1]);
+                        if (createdAt != null) {
+                            stmt.setLong(index++, createdAt.getEpochSecond());
+                        } else {
+                            stmt.setNull(index++, Types.BIGINT);
+                        }
+                    }
+                    inserted = stmt.executeUpdate();
+                }
+                // The snapshot does not hold the rows committed by the other servers since, only the ones inserted above
+                Set<Long> stored = inserted == candidates.size() ? null : selectExistingInvitations(conn, candidatePairs);
+
+                List<Invitation> created = new ArrayList<>(inserted);
+                List<Integer> createdInviters = new ArrayList<>(inserted);
+                List<Instant> createdTimes = new ArrayList<>(inserted);
+                for (int c = 0; c < candidates.size(); c++) {
+                    int i = candidates.get(c);
+                    long[] pair = candidatePairs.get(c);
+                    if (stored == null || stored.contains(key(pair[0], pair[1]))) {
+                        outcomes[i] = RegistrationOutcome.CREATED;
+                        created.add(batch.get(i));
+                        createdInviters.add((int) pair[0]);
+                        createdTimes.add(createdAt(batch.get(i), rewarded, now));
+                    } else {
+                        outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                    }
+                }
+
+                if (!created.isEmpty()) {
+                    updateInviteCounters(conn, createdInviters);
+                    if (rewarded) {
+                        insertRewards(conn, created, ids);
+                        updateRollups(conn, createdInviters, createdTimes);
+                    }
+                    List<String[]> changes = new ArrayList<>(created.size());
+                    for (Invitation invitation : created) {
+                        changes.add(new String[]{invitation.inviter(), invitation.invitee(), null});
+                    }
+                    logChanges(conn, StoredChange.Type.INVITATION, changes);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * The check and the insert are a single atomic statement. When the row is ignored, the stored rows holding
+     * the unique id or the username tell an existing registration from a code collision. A username still held
+     * by a player who renamed themselves is released, and the insert is retried. A new referral is logged as a change
+     * in the same transaction.
+     */
+    @Override
+    public RegistrationOutcome insertReferral(UUID uuid, String username, String referralCode) throws SQLException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            RegistrationOutcome outcome = insertReferral(conn, uuid, username, referralCode);
+            conn.commit();
+            return outcome;
+        }
+    }
+
+    /**
+     * The batch is written with a single multi-row INSERT IGNORE. If some rows were ignored, the stored rows
+     * of the batch are read back by unique id; the referrals still unresolved are then retried one by one,
+     * once the transaction of the batch, which also logs the new referrals, is committed.
+     */
+    @Override
+    public RegistrationOutcome[] insertReferrals(List<NewReferral> batch) throws SQLException {
+        RegistrationOutcome[] outcomes = new RegistrationOutcome[batch.size()];
+        String query = "INSERT IGNORE INTO referral_players (uuid, username, referral_code) VALUES " + placeholders(batch.size(), 3);
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            int inserted;
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                int index = 1;
+                for (NewReferral referral : batch) {
+                    stmt.setBytes(index++, toBytes(referral.uuid()));
+                    stmt.setString(index++, referral.username());
+                    stmt.setString(index++, referral.referralCode());
+                }
+                inserted = stmt.executeUpdate();
+            }
+            Map<UUID, String> storedCodes = inserted < batch.size() ? selectReferralCodes(conn, batch) : Map.of();
+
+            List<String[]> changes = new ArrayList<>(inserted);
+            for (int i = 0; i < batch.size(); i++) {
+                NewReferral referral = batch.get(i);
+                String storedCode = inserted < batch.size() ? storedCodes.get(referral.uuid()) : referral.referralCode();
+                if (referral.referralCode().equals(storedCode)) {
+                    outcomes[i] = RegistrationOutcome.CREATED;
+                    changes.add(new String[]{referral.username(), null, referral.referralCode()});
+                } else if (storedCode != null) {
+                    outcomes[i] = RegistrationOutcome.ALREADY_EXISTS;
+                }
+            }
+            logChanges(conn, StoredChange.Type.REFERRAL, changes);
+            conn.commit();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (outcomes[i] == null) {
+                NewReferral referral = batch.get(i);
+                outcomes[i] = insertReferral(referral.uuid(), referral.username(), referral.referralCode());
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * The code is looked up through the unique index on the codes.
+     */
+    @Override
+    public String findCodeOwner(String referralCode) throws SQLException {
+        String query = "SELECT username FROM referral_players WHERE referral_code = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, referralCode);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("username") : null;
+            }
+        }
+    }
+
+    @Override
+    public void forEachReferral(BiConsumer<String, String> consumer) throws SQLException {
+        String query = "SELECT username, referral_code FROM referral_players";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = prepareStreaming(conn, query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(rs.getString("username"), rs.getString("referral_code"));
+            }
+        }
+    }
+
+    @Override
+    public void forEachPlayer(Consumer<NewReferral> consumer) throws SQLException {
+        String query = "SELECT uuid, username, referral_code FROM referral_players";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = prepareStreaming(conn, query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                byte[] uuid = rs.getBytes("uuid");
+                consumer.accept(new NewReferral(uuid != null ? toUuid(uuid) : null, rs.getString("username"), rs.getString("referral_code")));
+            }
+        }
+    }
+
+    /**
+     * The counters are streamed from the players table, without aggregating the invitations.
+     */
+    @Override
+    public void forEachInviteCount(ObjIntConsumer<String> consumer) throws SQLException {
+        String query = "SELECT username, invite_count FROM referral_players WHERE invite_count > 0";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = prepareStreaming(conn, query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(rs.getString("username"), rs.getInt("invite_count"));
+            }
+        }
+    }
+
+    @Override
+    public void forEachInvitation(BiConsumer<String, String> consumer) throws SQLException {
+        String query = "SELECT r.username AS inviter, e.username AS invitee FROM invitations i "
+                + "JOIN referral_players r ON r.id = i.inviter_id "
+                + "JOIN referral_players e ON e.id = i.invitee_id";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = prepareStreaming(conn, query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(rs.getString("inviter"), rs.getString("invitee"));
+            }
+        }
+    }
+
+    /**
+     * The rewards are joined with the players, so that they carry the current usernames of both players.
+     */
+    @Override
+    public List<PendingReward> getPendingRewards(Collection<String> players, int limit) throws SQLException {
+        List<PendingReward> rewards = new ArrayList<>();
+        if (players.isEmpty()) {
+            return rewards;
+        }
+        String query = "SELECT o.id, p.username AS player, e.username AS invitee FROM reward_outbox o "
+                + "JOIN referral_players p ON p.id = o.player_id "
+                + "JOIN referral_players e ON e.id = o.invitee_id "
+                + "WHERE p.username IN " + placeholders(1, players.size()) + " ORDER BY o.id LIMIT ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (String player : players) {
+                stmt.setString(index++, player);
+            }
+            stmt.setInt(index, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rewards.add(new PendingReward(rs.getLong("id"), rs.getString("player"), rs.getString("invitee")));
+                }
+            }
+        }
+        return rewards;
+    }
+
+    @Override
+    public void deleteRewards(Collection<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String query = "DELETE FROM reward_outbox WHERE id IN " + placeholders(1, ids.size());
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (Long id : ids) {
+                stmt.setLong(index++, id);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * The totals are read from the rows of inviter 0, one per bucket, through the primary key.
+     */
+    @Override
+    public List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, long from, long to) throws SQLException {
+        List<InvitationBucket> buckets = new ArrayList<>();
+        String query = "SELECT bucket, invites FROM " + rollupTable(granularity)
+                + " WHERE inviter_id = 0 AND bucket >= ? AND bucket < ? ORDER BY bucket";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setLong(1, from);
+            stmt.setLong(2, to);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    buckets.add(new InvitationBucket(granularity.start(rs.getLong("bucket")), rs.getInt("invites")));
+                }
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * The rows of the range are summed per inviter through the index on the bucket, so the cost depends on the
+     * number of inviters active during the range rather than on the number of invitations.
+     */
+    @Override
+    public List<LeaderboardEntry> getTopInviters(StatsGranularity granularity, long from, long to, int limit) throws SQLException {
+        List<LeaderboardEntry> entries = new ArrayList<>();
+        String query = "SELECT p.username, SUM(s.invites) AS invites FROM " + rollupTable(granularity) + " s "
+                + "JOIN referral_players p ON p.id = s.inviter_id "
+                + "WHERE s.bucket >= ? AND s.bucket < ? AND s.inviter_id <> 0 "
+                + "GROUP BY s.inviter_id, p.username ORDER BY invites DESC, p.username LIMIT ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setLong(1, from);
+            stmt.setLong(2, to);
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new LeaderboardEntry(rs.getString("username"), rs.getInt("invites")));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public long getLatestChange() throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT COALESCE(MAX(seq), 0) FROM referral_changes");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * The entries are read by primary key ranges, the missing ones being looked up in the same query.
+     */
+    @Override
+    public List<StoredChange> getChanges(long after, Collection<Long> missing, int limit) throws SQLException {
+        List<StoredChange> changes = new ArrayList<>();
+        String query = "SELECT seq, node, type, player, other, referral_code FROM referral_changes WHERE seq > ?"
+                + (missing.isEmpty() ? "" : " OR seq IN " + placeholders(1, missing.size())) + " ORDER BY seq LIMIT ?";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            stmt.setLong(index++, after);
+            for (Long sequence : missing) {
+                stmt.setLong(index++, sequence);
+            }
+            stmt.setInt(index, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    StoredChange.Type type = StoredChange.Type.fromSymbol(rs.getString("type").charAt(0));
+                    changes.add(new StoredChange(rs.getLong("seq"), type, rs.getString("player"), rs.getString("other"),
+                            rs.getString("referral_code"), Arrays.equals(rs.getBytes("node"), node)));
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * The entries are deleted in batches through the index on their creation time, which is compared with the
+     * clock of the database, so that the clocks of the servers do not matter.
+     */
+    @Override
+    public int pruneChanges(long maxAgeSeconds) throws SQLException {
+        String query = "DELETE FROM referral_changes WHERE created_at < NOW() - INTERVAL ? SECOND LIMIT " + PRUNE_BATCH_SIZE;
+        int pruned = 0;
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int deleted;
+            do {
+                stmt.setLong(1, maxAgeSeconds);
+                deleted = stmt.executeUpdate();
+                pruned += deleted;
+            } while (deleted == PRUNE_BATCH_SIZE);
+        }
+        return pruned;
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        ConnectionPool current = pool;
+        return current != null ? current.getStats() : null;
+    }
+
+    /**
+     * Drains the connection pool.
+     */
+    @Override
+    public void close() {
+        ConnectionPool current = pool;
+        if (current != null) {
+            current.close();
+            pool = null;
+        }
+    }
+
+    /**
+     * Prepares a query whose rows are streamed one by one instead of being loaded at once,
+     * so that memory use does not depend on the size of the table.
+     *
+     * @param conn  The connection to use.
+     * @param query The query to prepare.
+     * @return The prepared statement.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    private static PreparedStatement prepareStreaming(Connection conn, String query) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(Integer.MIN_VALUE); // Row-by-row streaming with the MySQL driver
+        return stmt;
+    }
+
+    /**
+     * Increments the invite counters of the inviters of a written batch.
+     *
+     * @param conn       The connection of the transaction writing the batch.
+     * @param inviterIds The surrogate keys of the inviters, once for each invitation inserted.
+     * @throws SQLException If any SQL error occurs while updating the counters.
+     */
+    private static void updateInviteCounters(Connection conn, List<Integer> inviterIds) throws SQLException {
+        Map<Integer, Integer> increments = new HashMap<>();
+        for (Integer inviterId : inviterIds) {
+            increments.merge(inviterId, 1, Integer::sum);
+        }
+
+        String query = "UPDATE referral_players SET invite_count = invite_count + ? WHERE id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (Map.Entry<Integer, Integer> entry : increments.entrySet()) {
+                stmt.setInt(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Adds the rewards of a written batch of invitations to the outbox.
+     * IGNORE keeps a single reward for an invitation whose reward is already in the outbox.
+     *
+     * @param conn        The connection of the transaction writing the batch.
+     * @param invitations The invitations written.
+     * @param ids         The surrogate keys of the players of the batch, keyed by normalized username.
+     * @throws SQLException If any SQL error occurs while writing the rewards.
+     */
+    private static void insertRewards(Connection conn, List<Invitation> invitations, Map<String, Integer> ids) throws SQLException {
+        String query = "INSERT IGNORE INTO reward_outbox (player_id, invitee_id) VALUES " + placeholders(invitations.size(), 2);
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (Invitation invitation : invitations) {
+                stmt.setInt(index++, ids.get(normalize(invitation.inviter())));
+                stmt.setInt(index++, ids.get(normalize(invitation.invitee())));
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the creation time to store for an invitation.
+     *
+     * @param invitation The invitation.
+     * @param rewarded   Whether the invitation is rewarded, that is accepted by a player rather than imported.
+     * @param now        The time the batch is written.
+     * @return The time the invitation was accepted; now if it is unknown and the invitation is rewarded,
+     *         null if it is unknown and the invitation is imported.
+     */
+    private static Instant createdAt(Invitation invitation, boolean rewarded, Instant now) {
+        return invitation.acceptedAt() != null || !rewarded ? invitation.acceptedAt() : now;
+    }
+
+    /**
+     * Counts written invitations in the hourly and daily buckets of their creation times, and in the totals of
+     * those buckets. The rows are written in the order of their primary key, the totals first, so that concurrent
+     * transactions lock them in the same order.
+     *
+     * @param conn       The connection of the transaction writing the invitations.
+     * @param inviterIds The surrogate keys of the inviters, once for each invitation written.
+     * @param createdAt  The creation times of the invitations, in the same order.
+     * @throws SQLException If any SQL error occurs while updating the rollups.
+     */
+    private static void updateRollups(Connection conn, List<Integer> inviterIds, List<Instant> createdAt) throws SQLException {
+        for (StatsGranularity granularity : StatsGranularity.values()) {
+            // Invites to add, by inviter then by bucket
+            Map<Integer, Map<Long, Integer>> increments = new TreeMap<>();
+            int rows = 0;
+            for (int i = 0; i < inviterIds.size(); i++) {
+                long bucket = granularity.bucket(createdAt.get(i));
+                for (int inviterId : new int[]{0, inviterIds.get(i)}) {
+                    if (increments.computeIfAbsent(inviterId, id -> new TreeMap<>()).merge(bucket, 1, Integer::sum) == 1) {
+                        rows++;
+                    }
+                }
+            }
+
+            String query = "INSERT INTO " + rollupTable(granularity) + " (inviter_id, bucket, invites) VALUES "
+                    + placeholders(rows, 3) + " ON DUPLICATE KEY UPDATE invites = invites + VALUES(invites)";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                int index = 1;
+                for (Map.Entry<Integer, Map<Long, Integer>> inviter : increments.entrySet()) {
+                    for (Map.Entry<Long, Integer> bucket : inviter.getValue().entrySet()) {
+                        stmt.setInt(index++, inviter.getKey());
+                        stmt.setLong(index++, bucket.getKey());
+                        stmt.setInt(index++, bucket.getValue());
+                    }
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Returns the rollup table of a granularity.
+     */
+    private static String rollupTable(StatsGranularity granularity) {
+        return switch (granularity) {
+            case HOURLY -> "invitation_stats_hourly";
+            case DAILY -> "invitation_stats_daily";
+        };
+    }
+
+    /**
+     * Inserts a referral within the transaction of the caller, as insertReferral does.
+     *
+     * @param conn         The connection of the transaction.
+     * @param uuid         The unique id of the player.
+     * @param username     The username of the player.
+     * @param referralCode The referral code to store.
+     * @return The outcome of the insert, or null if the code is already taken by another player.
+     * @throws SQLException If any SQL error occurs while inserting the referral.
+     */
+    private RegistrationOutcome insertReferral(Connection conn, UUID uuid, String username, String referralCode) throws SQLException {
+        String query = "INSERT IGNORE INTO referral_players (uuid, username, referral_code) VALUES (?, ?, ?)";
+        String lookupQuery = "SELECT id, uuid FROM referral_players WHERE uuid = ? OR username = ?";
+        String claimQuery = "UPDATE referral_players SET uuid = ? WHERE id = ? AND uuid IS NULL";
+        byte[] uuidBytes = toBytes(uuid);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setBytes(1, uuidBytes);
+                stmt.setString(2, username);
+                stmt.setString(3, referralCode);
+                if (stmt.executeUpdate() > 0) {
+                    logChanges(conn, StoredChange.Type.REFERRAL, List.<String[]>of(new String[]{username, null, referralCode}));
+                    return RegistrationOutcome.CREATED;
+                }
+            }
+
+            // The row was ignored: the player is registered, the username is held by another player or the code is taken
+            int legacyId = -1;
+            int holderId = -1;
+            try (PreparedStatement stmt = conn.prepareStatement(lookupQuery)) {
+                stmt.setBytes(1, uuidBytes);
+                stmt.setString(2, username);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] stored = rs.getBytes("uuid");
+                        if (stored == null) {
+                            legacyId = rs.getInt("id");
+                        } else if (Arrays.equals(stored, uuidBytes)) {
+                            return RegistrationOutcome.ALREADY_EXISTS;
+                        } else {
+                            holderId = rs.getInt("id");
+                        }
+                    }
+                }
+            }
+            if (legacyId >= 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(claimQuery)) {
+                    stmt.setBytes(1, uuidBytes);
+                    stmt.setInt(2, legacyId);
+                    stmt.executeUpdate();
+                }
+                return RegistrationOutcome.ALREADY_EXISTS;
+            }
+            if (holderId < 0) {
+                return null;
+            }
+            releaseUsername(conn, username, -1);
+        }
+        return null;
+    }
+
+    /**
+     * Appends changes to the log, within the transaction of the writes they describe.
+     *
+     * @param conn    The connection of the transaction.
+     * @param type    The kind of the changes.
+     * @param changes The changes, each one made of the player, the other username and the referral code,
+     *                the last two possibly null.
+     * @throws SQLException If any SQL error occurs while writing the changes.
+     */
+    private void logChanges(Connection conn, StoredChange.Type type, List<String[]> changes) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        String query = "INSERT INTO referral_changes (node, type, player, other, referral_code) VALUES " + placeholders(changes.size(), 5);
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (String[] change : changes) {
+                stmt.setBytes(index++, node);
+                stmt.setString(index++, String.valueOf(type.symbol()));
+                stmt.setString(index++, change[0]);
+                stmt.setString(index++, change[1]);
+                stmt.setString(index++, change[2]);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Selects the surrogate keys of the given players.
+     *
+     * @param conn      The connection to use.
+     * @param usernames The usernames to look up.
+     * @return The surrogate keys of the registered players, keyed by normalized username.
+     * @throws SQLException If any SQL error occurs while reading the players.
+     */
+    private static Map<String, Integer> selectIds(Connection conn, Collection<String> usernames) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        String query = "SELECT id, username FROM referral_players WHERE username IN " + placeholders(1, usernames.size());
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (String username : usernames) {
+                stmt.setString(index++, username);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(normalize(rs.getString("username")), rs.getInt("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Selects which of the given invitations are already stored.
+     *
+     * @param conn  The connection to use.
+     * @param pairs The invitations to look up, as inviter and invitee surrogate keys.
+     * @return The keys of the stored invitations.
+     * @throws SQLException If any SQL error occurs while reading the invitations.
+     */
+    private static Set<Long> selectExistingInvitations(Connection conn, List<long[]> pairs) throws SQLException {
+        Set<Long> existing = new HashSet<>();
+        String query = "SELECT inviter_id, invitee_id FROM invitations WHERE (inviter_id, invitee_id) IN " + placeholders(pairs.size(), 2);
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (long[] pair : pairs) {
+                stmt.setLong(index++, pair[0]);
+                stmt.setLong(index++, pair[1]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(key(rs.getInt("inviter_id"), rs.getInt("invitee_id")));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Selects the stored referral codes of the players of a batch, by unique id.
+     *
+     * @param conn  The connection to use.
+     * @param batch The referrals to look up.
+     * @return The referral codes, keyed by unique id.
+     * @throws SQLException If any SQL error occurs while reading the referral codes.
+     */
+    private static Map<UUID, String> selectReferralCodes(Connection conn, List<NewReferral> batch) throws SQLException {
+        Map<UUID, String> codes = new HashMap<>();
+        String query = "SELECT uuid, referral_code FROM referral_players WHERE uuid IN " + placeholders(1, batch.size());
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (NewReferral referral : batch) {
+                stmt.setBytes(index++, toBytes(referral.uuid()));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    codes.put(toUuid(rs.getBytes("uuid")), rs.getString("referral_code"));
+                }
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Gives a new username to a stored player, releasing it first if it is still held by another player.
+     *
+     * @param conn     The connection to use.
+     * @param id       The surrogate key of the player.
+     * @param username The new username.
+     * @throws SQLException If any SQL error occurs while updating the usernames.
+     */
+    private static void rename(Connection conn, int id, String username) throws SQLException {
+        releaseUsername(conn, username, id);
+        try (PreparedStatement stmt = conn.prepareStatement("UPDATE referral_players SET username = ? WHERE id = ?")) {
+            stmt.setString(1, username);
+            stmt.setInt(2, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Releases a username held by a player who renamed themselves but has not logged in since. The player is given
+     * a placeholder username, made of their unique referral code, until they log in again with their new username.
+     *
+     * @param conn      The connection to use.
+     * @param username  The username to release.
+     * @param keeperId  The surrogate key of the player allowed to keep the username, or -1.
+     * @throws SQLException If any SQL error occurs while updating the username.
+     */
+    private static void releaseUsername(Connection conn, String username, int keeperId) throws SQLException {
+        String query = "UPDATE referral_players SET username = CONCAT('~', referral_code) WHERE username = ? AND id <> ?";
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, username);
+            stmt.setInt(2, keeperId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Builds the placeholders of a multi-row statement, for example "(?, ?), (?, ?)" for two rows of two columns.
+     * With a single column per row, the placeholders form one list, for example "(?, ?, ?)".
+     *
+     * @param rows    The number of rows.
+     * @param columns The number of columns of each row.
+     * @return The placeholders.
+     */
+    static String placeholders(int rows, int columns) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return rows == 1 ? row : String.join(", ", Collections.nCopies(rows, row));
+    }
+
+    /**
+     * Returns a key identifying an invitation, made of the surrogate keys of its players.
+     */
+    private static long key(long inviterId, long inviteeId) {
+        return inviterId << 32 | inviteeId;
+    }
+
+    /**
+     * Turns a unique id into the 16 bytes stored in a BINARY(16) column.
+     */
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * Turns the 16 bytes stored in a BINARY(16) column back into a unique id.
+     */
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Normalizes a username for in-memory comparisons, matching the case-insensitive collation of the database.
+     *
+     * @param username The username.
+     * @return The normalized username.
+     */
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Borrows a connection to the MySQL database from the pool.
+     * Closing the connection returns it to the pool.
+     *
+     * @return The database connection.
+     * @throws SQLException If the storage has not been opened or no connection could be obtained.
+     */
+    private Connection getConnection() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null) {
+            throw new SQLException("The database has not been configured.");
+        }
+        return current.getConnection();
+    }
+}
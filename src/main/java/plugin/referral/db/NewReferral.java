@@ -0,0 +1,13 @@
+package plugin.referral.db;
+
+import java.util.UUID;
+
+/**
+ * This record is a referral waiting to be stored, with the code generated for it.
+ *
+ * @param uuid         The unique id of the player.
+ * @param username     The username of the player.
+ * @param referralCode The referral code generated for the player.
+ */
+public record NewReferral(UUID uuid, String username, String referralCode) {
+}
@@ -0,0 +1,11 @@
+package plugin.referral.db;
+
+/**
+ * This record is a reward waiting in the outbox to be handed to an inviter.
+ *
+ * @param id      The id of the reward in the outbox, used to acknowledge its delivery.
+ * @param player  The current username of the inviter receiving the reward.
+ * @param invitee The current username of the invited player the reward is for.
+ */
+public record PendingReward(long id, String player, String invitee) {
+}
@@ -0,0 +1,38 @@
+package plugin.referral.db;
+
+/**
+ * This record holds the settings of the database connection pool, as read from the configuration file.
+ *
+ * @param minSize                  The number of connections kept open even when the pool is idle.
+ * @param maxSize                  The maximum number of connections open at the same time.
+ * @param idleTimeoutMillis        How long an idle connection above the minimum size is kept before being closed.
+ * @param validateOnBorrow         Whether a connection is validated before being handed out.
+ * @param maxLifetimeMillis        The maximum lifetime of a connection, after which it is retired.
+ * @param connectionTimeoutMillis  How long a caller waits for a free connection before failing.
+ * @param statementCacheSize       The number of prepared statements cached by the driver for each connection.
+ */
+public record PoolSettings(int minSize,
+                           int maxSize,
+                           long idleTimeoutMillis,
+                           boolean validateOnBorrow,
+                           long maxLifetimeMillis,
+                           long connectionTimeoutMillis,
+                           int statementCacheSize) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If the sizes or timeouts are not consistent.
+     */
+    public PoolSettings {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        if (idleTimeoutMillis <= 0 || maxLifetimeMillis <= 0 || connectionTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Pool timeouts must be positive.");
+        }
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("The statement cache size cannot be negative.");
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package plugin.referral.db;
+
+/**
+ * This record is a snapshot of the counters of the database connection pool.
+ *
+ * @param active  The number of connections currently borrowed.
+ * @param idle    The number of open connections waiting in the pool.
+ * @param waiting The number of threads waiting for a connection.
+ */
+public record PoolStats(int active, int idle, int waiting) {
+}
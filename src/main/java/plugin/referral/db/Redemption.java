@@ -0,0 +1,10 @@
+package plugin.referral.db;
+
+/**
+ * This record describes the result of redeeming a referral code.
+ *
+ * @param owner   The username of the owner of the code, or null if no player owns it.
+ * @param outcome The outcome of the invitation registered for the redemption, or null if the code was not redeemed.
+ */
+public record Redemption(String owner, RegistrationOutcome outcome) {
+}
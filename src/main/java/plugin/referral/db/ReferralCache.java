@@ -0,0 +1,98 @@
+package plugin.referral.db;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class keeps the referral data of the players currently connected to the server.
+ * Entries are loaded when a player logs in and evicted when they quit; the DatabaseManager writes through it,
+ * so that while a player is online their referral code and invite count are always served from memory.
+ */
+final class ReferralCache {
+
+    // Cached sessions, keyed by username
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the referral data of a player who is logging in.
+     *
+     * @param username     The username of the player.
+     * @param referralCode The referral code of the player, or null if they do not have one yet.
+     * @param inviteCount  The number of players invited by the player.
+     */
+    void load(String username, String referralCode, int inviteCount) {
+        sessions.put(username, new Session(referralCode, inviteCount));
+    }
+
+    /**
+     * Removes the referral data of a player who left the server.
+     *
+     * @param username The username of the player.
+     */
+    void evict(String username) {
+        sessions.remove(username);
+    }
+
+    /**
+     * Returns the cached session of a player.
+     *
+     * @param username The username of the player.
+     * @return The session of the player, or null if the player is not cached.
+     */
+    Session get(String username) {
+        return sessions.get(username);
+    }
+
+    /**
+     * Updates the referral code of a cached player after it has been stored in the database.
+     *
+     * @param username     The username of the player.
+     * @param referralCode The new referral code.
+     */
+    void setReferralCode(String username, String referralCode) {
+        Session session = sessions.get(username);
+        if (session != null) {
+            session.referralCode = referralCode;
+        }
+    }
+
+    /**
+     * Increments the invite count of a cached player after a new invitation has been stored in the database.
+     *
+     * @param inviter The username of the inviter.
+     */
+    void incrementInvites(String inviter) {
+        Session session = sessions.get(inviter);
+        if (session != null) {
+            session.inviteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The referral data of a connected player.
+     */
+    static final class Session {
+
+        private volatile String referralCode;
+        private final AtomicInteger inviteCount;
+
+        private Session(String referralCode, int inviteCount) {
+            this.referralCode = referralCode;
+            this.inviteCount = new AtomicInteger(inviteCount);
+        }
+
+        /**
+         * @return The referral code of the player, or null if they do not have one yet.
+         */
+        String getReferralCode() {
+            return referralCode;
+        }
+
+        /**
+         * @return The number of players invited by the player.
+         */
+        int getInviteCount() {
+            return inviteCount.get();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package plugin.referral.db;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class maps referral codes to the usernames of their owners.
+ * Codes are keyed on their packed long form in an open-addressing table made of primitive arrays,
+ * so that neither lookups nor insertions box the keys.
+ */
+final class ReferralCodeIndex {
+
+    // Marks an empty slot, packed codes being never negative
+    private static final long EMPTY = -1L;
+
+    // Multiplier of the Fibonacci hashing used to spread the codes over the table
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] keys;
+    private String[] values;
+    private int size;
+    private int shift;
+
+    /**
+     * Constructor for the ReferralCodeIndex class.
+     */
+    ReferralCodeIndex() {
+        allocate(1024);
+    }
+
+    /**
+     * Returns the owner of a code.
+     *
+     * @param packed The packed referral code.
+     * @return The username of the owner, or null if the code is not indexed.
+     */
+    String get(long packed) {
+        lock.readLock().lock();
+        try {
+            for (int slot = slot(packed); ; slot = (slot + 1) & (keys.length - 1)) {
+                long key = keys[slot];
+                if (key == packed) {
+                    return values[slot];
+                }
+                if (key == EMPTY) {
+                    return null;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Associates a code with its owner, replacing any previous owner.
+     *
+     * @param packed   The packed referral code.
+     * @param username The username of the owner.
+     */
+    void put(long packed, String username) {
+        lock.writeLock().lock();
+        try {
+            if (insert(packed, username) && ++size > keys.length / 2) {
+                resize();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of indexed codes.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a mapping without checking the load factor.
+     *
+     * @return true if the code was not indexed yet.
+     */
+    private boolean insert(long packed, String username) {
+        for (int slot = slot(packed); ; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == EMPTY) {
+                keys[slot] = packed;
+                values[slot] = username;
+                return true;
+            }
+            if (keys[slot] == packed) {
+                values[slot] = username;
+                return false;
+            }
+        }
+    }
+
+    private int slot(long packed) {
+        return (int) ((packed * HASH_MULTIPLIER) >>> shift);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new String[capacity];
+        Arrays.fill(keys, EMPTY);
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        String[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package plugin.referral.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the invitation graph in memory, to answer multi-level referral queries without the database.
+ * Usernames are mapped to int ids and the edges are stored in primitive arrays in compressed sparse row form,
+ * once from inviters to invitees (downline) and once in reverse (upline).
+ * Edges added after the last rebuild are kept in per-node linked lists, also made of primitive arrays,
+ * and merged into the compressed rows once there are enough of them.
+ * <p>
+ * The graph is loaded from a scan of the storage. The invitations and renames applied while the scan runs
+ * are recorded, and applied again to the loaded graph, since the scan may have read the storage before them.
+ */
+final class ReferralGraph {
+
+    // Marks the end of a linked list of added edges
+    private static final int NONE = -1;
+
+    // Minimum number of added edges that triggers a rebuild of the compressed rows
+    private static final int MIN_REBUILD_EDGES = 4096;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Node ids, keyed by normalized username, and the username of each id
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[1024];
+    private int nodeCount;
+
+    // Compressed rows: the edges of node n are targets[offsets[n]] to targets[offsets[n + 1] - 1]
+    private Rows children = Rows.empty();
+    private Rows parents = Rows.empty();
+    private int compressedNodes;
+
+    // Edges added since the last rebuild: from[e] -> to[e], chained per node through the next arrays
+    private int[] addedFrom = new int[256];
+    private int[] addedTo = new int[256];
+    private int[] nextChild = new int[256];
+    private int[] nextParent = new int[256];
+    private int[] firstChild = filled(1024);
+    private int[] firstParent = filled(1024);
+    private int addedCount;
+
+    // Scratch space of the traversals, borrowed for the length of one since traversals run concurrently.
+    // The callers run on short-lived virtual threads, so the scratch spaces are pooled rather than kept per thread;
+    // the pool never holds more of them than the peak number of concurrent traversals
+    private final Queue<Scratch> scratchPool = new ConcurrentLinkedQueue<>();
+
+    // Invitations and renames applied since the running load started scanning the storage, null if none is running
+    private List<Change> changesDuringLoad;
+
+    /**
+     * Starts recording the invitations and renames, before a load scans the storage.
+     */
+    void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            changesDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops recording the invitations and renames, when a load failed to scan the storage.
+     */
+    void cancelLoad() {
+        lock.writeLock().lock();
+        try {
+            changesDuringLoad = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole graph with the edges collected by a builder, then applies again the invitations and
+     * renames recorded since beginLoad, the ones the scan already saw being left as they are.
+     *
+     * @param builder The builder holding the edges read from the database.
+     */
+    void load(Builder builder) {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+            ids.putAll(builder.ids);
+            names = Arrays.copyOf(builder.names, Math.max(1024, builder.names.length));
+            nodeCount = builder.nodeCount;
+            addedCount = 0;
+            firstChild = filled(names.length);
+            firstParent = filled(names.length);
+            rebuild(builder.from, builder.to, builder.edgeCount);
+
+            List<Change> changes = changesDuringLoad;
+            changesDuringLoad = null;
+            if (changes != null) {
+                for (Change change : changes) {
+                    if (change.rename()) {
+                        applyRename(change.first(), change.second());
+                    } else {
+                        int from = idOf(change.first());
+                        int to = idOf(change.second());
+                        if (!hasEdge(from, to)) {
+                            applyEdge(from, to);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a new invitation to the graph.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     */
+    void addEdge(String inviter, String invitee) {
+        lock.writeLock().lock();
+        try {
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(new Change(false, inviter, invitee));
+            }
+            applyEdge(idOf(inviter), idOf(invitee));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the node of a player who renamed themselves to their new username. If the new username already
+     * has a node, from invitations stored under it, both nodes belong to the same player and are merged.
+     *
+     * @param previousUsername The previous username of the player.
+     * @param username         The new username of the player.
+     */
+    void rename(String previousUsername, String username) {
+        lock.writeLock().lock();
+        try {
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(new Change(true, previousUsername, username));
+            }
+            applyRename(previousUsername, username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds an edge to the per-node linked lists, merging them into the compressed rows once there are enough.
+     * Must be called while holding the write lock.
+     *
+     * @param from The id of the inviter.
+     * @param to   The id of the invitee.
+     */
+    private void applyEdge(int from, int to) {
+        if (addedCount == addedFrom.length) {
+            int length = addedCount * 2;
+            addedFrom = Arrays.copyOf(addedFrom, length);
+            addedTo = Arrays.copyOf(addedTo, length);
+            nextChild = Arrays.copyOf(nextChild, length);
+            nextParent = Arrays.copyOf(nextParent, length);
+        }
+        int edge = addedCount++;
+        addedFrom[edge] = from;
+        addedTo[edge] = to;
+        nextChild[edge] = firstChild[from];
+        firstChild[from] = edge;
+        nextParent[edge] = firstParent[to];
+        firstParent[to] = edge;
+
+        if (addedCount >= Math.max(MIN_REBUILD_EDGES, children.targets.length / 4)) {
+            mergeAddedEdges();
+        }
+    }
+
+    /**
+     * Renames a node, merging it into the node of the new username if there is one.
+     * Must be called while holding the write lock.
+     *
+     * @param previousUsername The previous username of the player.
+     * @param username         The new username of the player.
+     */
+    private void applyRename(String previousUsername, String username) {
+        Integer id = ids.remove(normalize(previousUsername));
+        if (id == null) {
+            return;
+        }
+        Integer existing = ids.get(normalize(username));
+        if (existing != null && existing.intValue() != id.intValue()) {
+            mergeNodes(id, existing);
+            names[existing] = username;
+        } else {
+            names[id] = username;
+            ids.put(normalize(username), id);
+        }
+    }
+
+    /**
+     * Tells whether an edge is in the graph. Must be called while holding the lock.
+     *
+     * @param from The id of the inviter.
+     * @param to   The id of the invitee.
+     * @return true if the edge is in the compressed rows or among the added edges.
+     */
+    private boolean hasEdge(int from, int to) {
+        if (from < compressedNodes) {
+            for (int e = children.offsets[from]; e < children.offsets[from + 1]; e++) {
+                if (children.targets[e] == to) {
+                    return true;
+                }
+            }
+        }
+        for (int e = firstChild[from]; e != NONE; e = nextChild[e]) {
+            if (addedTo[e] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the players above the given one in the referral chain, nearest first.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk up.
+     * @return The usernames of the inviters, of their inviters and so on.
+     */
+    List<String> upline(String username, int maxDepth) {
+        List<String> upline = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Integer start = ids.get(normalize(username));
+            if (start != null) {
+                Scratch state = borrowScratch();
+                try {
+                    traverse(state, start, maxDepth, false);
+                    for (int i = 1; i < state.visited; i++) {
+                        upline.add(names[state.queue[i]]);
+                    }
+                } finally {
+                    scratchPool.offer(state);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return upline;
+    }
+
+    /**
+     * Counts the players below the given one in the referral tree, level by level.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk down.
+     * @return The number of distinct players found at each level, index 0 being the direct invitees.
+     */
+    int[] downlineLevels(String username, int maxDepth) {
+        lock.readLock().lock();
+        try {
+            Integer start = ids.get(normalize(username));
+            if (start == null) {
+                return new int[0];
+            }
+            Scratch state = borrowScratch();
+            try {
+                traverse(state, start, maxDepth, true);
+                int[] levels = new int[state.depth[state.visited - 1]];
+                for (int i = 1; i < state.visited; i++) {
+                    levels[state.depth[i] - 1]++;
+                }
+                return levels;
+            } finally {
+                scratchPool.offer(state);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the players below the given one in the referral tree.
+     *
+     * @param username The username of the player.
+     * @param maxDepth The maximum number of levels to walk down, Integer.MAX_VALUE for the whole subtree.
+     * @return The number of distinct players in the downline.
+     */
+    int downlineSize(String username, int maxDepth) {
+        lock.readLock().lock();
+        try {
+            Integer start = ids.get(normalize(username));
+            if (start == null) {
+                return 0;
+            }
+            Scratch state = borrowScratch();
+            try {
+                traverse(state, start, maxDepth, true);
+                return state.visited - 1;
+            } finally {
+                scratchPool.offer(state);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the players directly invited by the given one.
+     *
+     * @param username The username of the inviter.
+     * @return The usernames of the invitees.
+     */
+    List<String> invitees(String username) {
+        List<String> invitees = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Integer start = ids.get(normalize(username));
+            if (start != null) {
+                Scratch state = borrowScratch();
+                try {
+                    traverse(state, start, 1, true);
+                    for (int i = 1; i < state.visited; i++) {
+                        invitees.add(names[state.queue[i]]);
+                    }
+                } finally {
+                    scratchPool.offer(state);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return invitees;
+    }
+
+    /**
+     * Takes a scratch space from the pool, or creates one if every pooled one is in use.
+     * It must be offered back to the pool once the traversal results have been read.
+     *
+     * @return The scratch space.
+     */
+    private Scratch borrowScratch() {
+        Scratch state = scratchPool.poll();
+        return state != null ? state : new Scratch();
+    }
+
+    /**
+     * Walks the graph breadth-first from a node. Must be called while holding the read lock.
+     *
+     * @param state    The scratch space, filled with the visited nodes in queue[0..visited) and their depths.
+     * @param start    The id of the first node.
+     * @param maxDepth The maximum depth.
+     * @param down     true to follow the invitations, false to follow them in reverse.
+     */
+    private void traverse(Scratch state, int start, int maxDepth, boolean down) {
+        state.reset(nodeCount);
+        Rows rows = down ? children : parents;
+        int[] first = down ? firstChild : firstParent;
+        int[] next = down ? nextChild : nextParent;
+        int[] target = down ? addedTo : addedFrom;
+
+        state.visit(start, 0);
+        for (int head = 0; head < state.visited; head++) {
+            int node = state.queue[head];
+            int depth = state.depth[head];
+            if (depth >= maxDepth) {
+                continue;
+            }
+            if (node < compressedNodes) {
+                for (int e = rows.offsets[node]; e < rows.offsets[node + 1]; e++) {
+                    state.visit(rows.targets[e], depth + 1);
+                }
+            }
+            for (int e = first[node]; e != NONE; e = next[e]) {
+                state.visit(target[e], depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Merges the added edges into the compressed rows.
+     */
+    private void mergeAddedEdges() {
+        int existing = children.targets.length;
+        int[] from = new int[existing + addedCount];
+        int[] to = new int[existing + addedCount];
+        int edge = 0;
+        for (int node = 0; node < compressedNodes; node++) {
+            for (int e = children.offsets[node]; e < children.offsets[node + 1]; e++) {
+                from[edge] = node;
+                to[edge++] = children.targets[e];
+            }
+        }
+        System.arraycopy(addedFrom, 0, from, edge, addedCount);
+        System.arraycopy(addedTo, 0, to, edge, addedCount);
+
+        addedCount = 0;
+        Arrays.fill(firstChild, NONE);
+        Arrays.fill(firstParent, NONE);
+        rebuild(from, to, from.length);
+    }
+
+    /**
+     * Moves the edges of a node onto another one, leaving the first one without edges.
+     * The added edges are merged into the compressed rows first, which are then rebuilt with the node replaced.
+     *
+     * @param node The id of the node to merge.
+     * @param into The id of the node receiving its edges.
+     */
+    private void mergeNodes(int node, int into) {
+        mergeAddedEdges();
+        int[] from = new int[children.targets.length];
+        int[] to = new int[children.targets.length];
+        int edges = 0;
+        for (int source = 0; source < compressedNodes; source++) {
+            for (int e = children.offsets[source]; e < children.offsets[source + 1]; e++) {
+                int target = children.targets[e];
+                from[edges] = source == node ? into : source;
+                to[edges] = target == node ? into : target;
+                if (from[edges] != to[edges]) {
+                    edges++;
+                }
+            }
+        }
+        rebuild(from, to, edges);
+    }
+
+    /**
+     * Builds the compressed rows of both directions from a list of edges, with a counting sort.
+     */
+    private void rebuild(int[] from, int[] to, int edges) {
+        children = Rows.build(from, to, edges, nodeCount);
+        parents = Rows.build(to, from, edges, nodeCount);
+        compressedNodes = nodeCount;
+    }
+
+    /**
+     * Returns the id of a username, assigning a new one if needed.
+     */
+    private int idOf(String username) {
+        Integer id = ids.get(normalize(username));
+        if (id != null) {
+            return id;
+        }
+        int newId = nodeCount++;
+        if (newId == names.length) {
+            int length = names.length * 2;
+            names = Arrays.copyOf(names, length);
+            firstChild = Arrays.copyOf(firstChild, length);
+            firstParent = Arrays.copyOf(firstParent, length);
+            Arrays.fill(firstChild, newId, length, NONE);
+            Arrays.fill(firstParent, newId, length, NONE);
+        }
+        names[newId] = username;
+        ids.put(normalize(username), newId);
+        return newId;
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] filled(int length) {
+        int[] array = new int[length];
+        Arrays.fill(array, NONE);
+        return array;
+    }
+
+    /**
+     * An invitation or a rename applied while a load scans the storage.
+     *
+     * @param rename true for a rename, false for an invitation.
+     * @param first  The inviter, or the previous username.
+     * @param second The invitee, or the new username.
+     */
+    private record Change(boolean rename, String first, String second) {
+    }
+
+    /**
+     * Edges in compressed sparse row form.
+     */
+    private record Rows(int[] offsets, int[] targets) {
+
+        private static Rows empty() {
+            return new Rows(new int[1], new int[0]);
+        }
+
+        private static Rows build(int[] sources, int[] destinations, int edges, int nodes) {
+            // Counting sort of the edges by source node
+            int[] offsets = new int[nodes + 1];
+            for (int e = 0; e < edges; e++) {
+                offsets[sources[e] + 1]++;
+            }
+            for (int n = 0; n < nodes; n++) {
+                offsets[n + 1] += offsets[n];
+            }
+            int[] targets = new int[edges];
+            int[] cursor = Arrays.copyOf(offsets, nodes);
+            for (int e = 0; e < edges; e++) {
+                targets[cursor[sources[e]]++] = destinations[e];
+            }
+            return new Rows(offsets, targets);
+        }
+    }
+
+    /**
+     * Reusable state of a breadth-first traversal. Nodes are marked visited with a stamp,
+     * so that the marks do not need to be cleared between traversals.
+     */
+    private static final class Scratch {
+
+        private int[] stamps = new int[0];
+        private int[] queue = new int[0];
+        private int[] depth = new int[0];
+        private int stamp;
+        private int visited;
+
+        private void reset(int nodes) {
+            if (stamps.length < nodes) {
+                int length = Math.max(nodes, stamps.length * 2);
+                stamps = new int[length];
+                queue = new int[length];
+                depth = new int[length];
+                stamp = 0;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+            visited = 0;
+        }
+
+        private void visit(int node, int nodeDepth) {
+            if (stamps[node] != stamp) {
+                stamps[node] = stamp;
+                queue[visited] = node;
+                depth[visited++] = nodeDepth;
+            }
+        }
+    }
+
+    /**
+     * Collects the edges read from the database into primitive arrays, before they replace the graph.
+     */
+    static final class Builder {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] names = new String[1024];
+        private int nodeCount;
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private int edgeCount;
+
+        /**
+         * Adds an invitation.
+         *
+         * @param inviter The username of the inviter.
+         * @param invitee The username of the invitee.
+         */
+        void add(String inviter, String invitee) {
+            if (edgeCount == from.length) {
+                from = Arrays.copyOf(from, edgeCount * 2);
+                to = Arrays.copyOf(to, edgeCount * 2);
+            }
+            from[edgeCount] = idOf(inviter);
+            to[edgeCount++] = idOf(invitee);
+        }
+
+        /**
+         * @return The number of edges collected.
+         */
+        int edgeCount() {
+            return edgeCount;
+        }
+
+        private int idOf(String username) {
+            Integer id = ids.get(normalize(username));
+            if (id != null) {
+                return id;
+            }
+            if (nodeCount == names.length) {
+                names = Arrays.copyOf(names, nodeCount * 2);
+            }
+            names[nodeCount] = username;
+            ids.put(normalize(username), nodeCount);
+            return nodeCount++;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package plugin.referral.db;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * This interface is the storage backend of the referral system: it persists the referral codes of the players,
+ * the invitations between them and the outbox of the rewards earned by the inviters. A backend shared between
+ * servers also keeps a log of the changes, so that each server can update its in-memory state.
+ * The DatabaseManager keeps the caches, the in-memory indexes and the asynchronous API on top of it,
+ * so a backend only has to store and read rows.
+ * <p>
+ * Players are identified by their unique id, which does not change when they rename themselves; the commands
+ * still address them by username, which every backend compares case-insensitively and keeps up to date with the
+ * unique id of the player it belongs to. Implementations must be thread-safe,
+ * since the operations are called concurrently from the database executor and the write-behind buffers.
+ * Every operation is blocking and must be called off the main thread.
+ */
+public interface ReferralStorage {
+
+    /**
+     * Opens the storage, creating or upgrading the schema if needed.
+     *
+     * @throws SQLException If the storage cannot be opened.
+     */
+    void open() throws SQLException;
+
+    /**
+     * Retrieves the referral code of a player.
+     *
+     * @param username The username of the player.
+     * @return The referral code of the player, or null if the player is not registered.
+     * @throws SQLException If the referral code cannot be read.
+     */
+    String getReferralCode(String username) throws SQLException;
+
+    /**
+     * Retrieves the referral code and the invite count of a player who is logging in, at once.
+     * The username stored for the unique id is updated if the player renamed themselves, and a player stored
+     * by username only, before unique ids were stored, is bound to the given unique id.
+     *
+     * @param uuid     The unique id of the player.
+     * @param username The current username of the player.
+     * @return The stored data of the player, or null if the player is not registered.
+     * @throws SQLException If the player cannot be read or updated.
+     */
+    StoredPlayer loadPlayer(UUID uuid, String username) throws SQLException;
+
+    /**
+     * Retrieves one page of the invitees of an inviter, in alphabetical order.
+     *
+     * @param inviter The username of the inviter.
+     * @param after   The last invitee of the previous page, or null for the first page.
+     * @param limit   The maximum number of invitees to return.
+     * @return The invitees following the given one.
+     * @throws SQLException If the invitees cannot be read.
+     */
+    List<String> getInvitesPage(String inviter, String after, int limit) throws SQLException;
+
+    /**
+     * Counts the players invited by an inviter.
+     *
+     * @param inviter The username of the inviter.
+     * @return The number of invitees, 0 if the inviter is not registered.
+     * @throws SQLException If the count cannot be read.
+     */
+    int getInviteCount(String inviter) throws SQLException;
+
+    /**
+     * Checks if an invitation is stored.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return true if the invitation is stored, false otherwise.
+     * @throws SQLException If the invitation cannot be read.
+     */
+    boolean isAlreadyInvited(String inviter, String invitee) throws SQLException;
+
+    /**
+     * Stores an invitation, unless it already exists, increments the invite count of the inviter and adds
+     * a reward for the inviter to the outbox. The check and the writes are atomic.
+     * The invitation is accepted now: it is stamped with the current time and counted in the rollup buckets holding it.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return The outcome of the registration.
+     * @throws SQLException If the invitation cannot be written.
+     */
+    RegistrationOutcome insertInvitation(String inviter, String invitee) throws SQLException;
+
+    /**
+     * Stores a batch of invitations at once. Invitations whose players are not registered,
+     * or that already exist in the storage or earlier in the same batch, are not written.
+     * The rewards of the stored invitations, if any, are added to the outbox atomically with them.
+     * Rewarded invitations are stamped with their acceptance time, or the current time if it is unknown, and counted
+     * in the rollup buckets of that time, so that the ones stored late land in the buckets they were accepted in.
+     * Imported ones were usually created at an unknown time, so they are not counted in the rollups.
+     *
+     * @param batch    The invitations to store.
+     * @param rewarded Whether the inviters get a reward for the stored invitations, false for imported ones.
+     * @return The outcome of each invitation, in the order of the batch.
+     * @throws SQLException If the batch cannot be written.
+     */
+    RegistrationOutcome[] insertInvitations(List<Invitation> batch, boolean rewarded) throws SQLException;
+
+    /**
+     * Retrieves the rewards waiting in the outbox for some players, oldest first.
+     *
+     * @param players The usernames of the players.
+     * @param limit   The maximum number of rewards to return.
+     * @return The pending rewards of the players.
+     * @throws SQLException If the outbox cannot be read.
+     */
+    List<PendingReward> getPendingRewards(Collection<String> players, int limit) throws SQLException;
+
+    /**
+     * Removes delivered rewards from the outbox. Ids that are no longer in the outbox are ignored.
+     *
+     * @param ids The ids of the delivered rewards.
+     * @throws SQLException If the outbox cannot be written.
+     */
+    void deleteRewards(Collection<Long> ids) throws SQLException;
+
+    /**
+     * Stores the referral code of a player, unless the player already has one. The check and the write are atomic.
+     * A stored player still holding the username but with another unique id is a player who renamed themselves:
+     * their username is released for the new player.
+     *
+     * @param uuid         The unique id of the player.
+     * @param username     The username of the player.
+     * @param referralCode The new referral code.
+     * @return The outcome of the registration, or null if the code is already owned by another player,
+     *         in which case nothing has been written and the caller should retry with a new code.
+     * @throws SQLException If the referral cannot be written.
+     */
+    RegistrationOutcome insertReferral(UUID uuid, String username, String referralCode) throws SQLException;
+
+    /**
+     * Stores a batch of referral codes at once. The unique ids and the usernames of the batch must be distinct.
+     *
+     * @param batch The referrals to store.
+     * @return The outcome of each referral, in the order of the batch, null for the referrals whose code
+     *         is already owned by another player.
+     * @throws SQLException If the batch cannot be written.
+     */
+    RegistrationOutcome[] insertReferrals(List<NewReferral> batch) throws SQLException;
+
+    /**
+     * Finds the owner of a referral code.
+     *
+     * @param referralCode The referral code, in its canonical uppercase form.
+     * @return The username of the owner, or null if the code is not owned by any player.
+     * @throws SQLException If the code cannot be looked up.
+     */
+    String findCodeOwner(String referralCode) throws SQLException;
+
+    /**
+     * Streams every referral code, without loading them all at once.
+     *
+     * @param consumer The consumer receiving each username and referral code.
+     * @throws SQLException If the referral codes cannot be read.
+     */
+    void forEachReferral(BiConsumer<String, String> consumer) throws SQLException;
+
+    /**
+     * Streams the unique id, username and referral code of every player, without loading them all at once.
+     *
+     * @param consumer The consumer receiving each player, whose unique id is null if the player
+     *                 has not logged in since unique ids were introduced.
+     * @throws SQLException If the players cannot be read.
+     */
+    void forEachPlayer(Consumer<NewReferral> consumer) throws SQLException;
+
+    /**
+     * Streams the invite count of every player who invited at least one other player.
+     *
+     * @param consumer The consumer receiving each username and invite count.
+     * @throws SQLException If the counts cannot be read.
+     */
+    void forEachInviteCount(ObjIntConsumer<String> consumer) throws SQLException;
+
+    /**
+     * Streams every invitation, without loading them all at once.
+     *
+     * @param consumer The consumer receiving each inviter and invitee.
+     * @throws SQLException If the invitations cannot be read.
+     */
+    void forEachInvitation(BiConsumer<String, String> consumer) throws SQLException;
+
+    /**
+     * Reads the invitation rollups: the number of invitations created during each bucket of a range.
+     * The rollups are maintained as the invitations are stored, so the cost depends on the number of buckets only.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param from        The first bucket of the range.
+     * @param to          The bucket following the range.
+     * @return The buckets of the range holding at least one invitation, in chronological order.
+     * @throws SQLException If the rollups cannot be read.
+     */
+    List<InvitationBucket> getInvitationCounts(StatsGranularity granularity, long from, long to) throws SQLException;
+
+    /**
+     * Reads the inviters who created the most invitations during a range of buckets, from the rollups.
+     *
+     * @param granularity The granularity of the buckets.
+     * @param from        The first bucket of the range.
+     * @param to          The bucket following the range.
+     * @param limit       The maximum number of inviters to return.
+     * @return The inviters and their invitations created during the range, the most active first.
+     * @throws SQLException If the rollups cannot be read.
+     */
+    List<LeaderboardEntry> getTopInviters(StatsGranularity granularity, long from, long to, int limit) throws SQLException;
+
+    /**
+     * Returns the sequence of the latest entry of the change log, from which a server starts following it.
+     * Backends that cannot be shared between servers keep no change log.
+     *
+     * @return The latest sequence, 0 if the log is empty or not kept.
+     * @throws SQLException If the change log cannot be read.
+     */
+    default long getLatestChange() throws SQLException {
+        return 0;
+    }
+
+    /**
+     * Reads the entries of the change log following a sequence, together with some earlier ones that were
+     * missing from the previous reads, since the transactions writing them had not committed yet.
+     *
+     * @param after   The sequence of the latest entry read.
+     * @param missing The sequences of earlier entries still expected.
+     * @param limit   The maximum number of entries to return.
+     * @return The entries found, in sequence order, empty if the log is not kept.
+     * @throws SQLException If the change log cannot be read.
+     */
+    default List<StoredChange> getChanges(long after, Collection<Long> missing, int limit) throws SQLException {
+        return List.of();
+    }
+
+    /**
+     * Deletes the entries of the change log older than a given age.
+     *
+     * @param maxAgeSeconds The age of the oldest entries kept, in seconds.
+     * @return The number of deleted entries.
+     * @throws SQLException If the change log cannot be written.
+     */
+    default int pruneChanges(long maxAgeSeconds) throws SQLException {
+        return 0;
+    }
+
+    /**
+     * Returns the counters of the connection pool of the backend.
+     *
+     * @return The pool counters, or null if the backend does not use a connection pool.
+     */
+    default PoolStats getPoolStats() {
+        return null;
+    }
+
+    /**
+     * Closes the storage, releasing its connections or files.
+     */
+    void close();
+}
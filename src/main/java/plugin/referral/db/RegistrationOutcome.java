@@ -0,0 +1,22 @@
+package plugin.referral.db;
+
+/**
+ * This enum describes the result of storing a referral or an invitation.
+ */
+public enum RegistrationOutcome {
+
+    /** The row did not exist and has been created. */
+    CREATED,
+
+    /** The row already existed, nothing has been written. */
+    ALREADY_EXISTS,
+
+    /** One of the players involved is not registered, nothing has been written. */
+    UNKNOWN_PLAYER,
+
+    /**
+     * The database is unreachable and the write has been journaled. Whether it creates the row or finds it
+     * already stored is only known once the journal is replayed.
+     */
+    PENDING
+}
@@ -0,0 +1,551 @@
+package plugin.referral.db;
+
+import plugin.referral.others.ReferralCodeGenerator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class brings the MySQL schema of the referral system up to date.
+ * The installed version is recorded in the referral_schema_version table, and every migration newer than it is
+ * applied in order. A fresh database gets the latest schema directly.
+ * <p>
+ * Migrations that move data copy it into new tables in small batches, each one committed on its own, so that
+ * no table is locked for long, and then swap the tables with a single atomic RENAME TABLE. A copy interrupted
+ * by a crash is simply resumed on the next start, since the batches are idempotent.
+ * A named lock keeps servers sharing the same database from migrating it at the same time.
+ */
+final class SchemaMigrator {
+
+    // Version of the schema created by this version of the plugin
+    static final int LATEST_VERSION = 5;
+
+    // Number of rows copied by each batch of a data migration
+    private static final int BATCH_SIZE = 1000;
+
+    // Named lock held during the migration, and how long to wait for another server holding it
+    private static final String LOCK_NAME = "referral_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 300;
+
+    // Longest username copied to the compact schema, Minecraft usernames being at most 16 characters
+    private static final int MAX_USERNAME_LENGTH = 32;
+
+    private static final String CREATE_PLAYERS = "CREATE TABLE IF NOT EXISTS %s ("
+            + "id INT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+            + "uuid BINARY(16) NULL, "
+            + "username VARCHAR(" + MAX_USERNAME_LENGTH + ") NOT NULL, "
+            + "referral_code CHAR(8) NOT NULL, "
+            + "invite_count INT NOT NULL DEFAULT 0, "
+            + "UNIQUE KEY uk_players_uuid (uuid), "
+            + "UNIQUE KEY uk_players_username (username), "
+            + "UNIQUE KEY uk_players_referral_code (referral_code)"
+            + ")";
+
+    private static final String CREATE_INVITATIONS = "CREATE TABLE IF NOT EXISTS %s ("
+            + "inviter_id INT NOT NULL, "
+            + "invitee_id INT NOT NULL, "
+            + "PRIMARY KEY (inviter_id, invitee_id), "
+            + "KEY idx_invitations_invitee (invitee_id), "
+            + "CONSTRAINT fk_invitations_inviter FOREIGN KEY (inviter_id) REFERENCES %s(id) ON DELETE CASCADE, "
+            + "CONSTRAINT fk_invitations_invitee FOREIGN KEY (invitee_id) REFERENCES %s(id) ON DELETE CASCADE"
+            + ")";
+
+    // Rewards waiting to be handed to the inviters, deleted once delivered; the unique key makes a reward
+    // written twice for the same invitation, by servers racing on it, a single one
+    private static final String CREATE_REWARD_OUTBOX = "CREATE TABLE IF NOT EXISTS reward_outbox ("
+            + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+            + "player_id INT NOT NULL, "
+            + "invitee_id INT NOT NULL, "
+            + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+            + "UNIQUE KEY uk_reward_outbox_invitation (player_id, invitee_id), "
+            + "CONSTRAINT fk_reward_outbox_player FOREIGN KEY (player_id) REFERENCES referral_players(id) ON DELETE CASCADE, "
+            + "CONSTRAINT fk_reward_outbox_invitee FOREIGN KEY (invitee_id) REFERENCES referral_players(id) ON DELETE CASCADE"
+            + ")";
+
+    // Log of the writes, read by the servers sharing the database to update their in-memory state; the node
+    // identifies the server that wrote a change, and the index on the creation time serves the pruning
+    private static final String CREATE_CHANGE_LOG = "CREATE TABLE IF NOT EXISTS referral_changes ("
+            + "seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+            + "node BINARY(16) NOT NULL, "
+            + "type CHAR(1) NOT NULL, "
+            + "player VARCHAR(" + MAX_USERNAME_LENGTH + ") NOT NULL, "
+            + "other VARCHAR(" + MAX_USERNAME_LENGTH + ") NULL, "
+            + "referral_code CHAR(8) NULL, "
+            + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+            + "KEY idx_referral_changes_created (created_at)"
+            + ")";
+
+    // Invitations created during each hour and each day, keyed on the inviter and the number of the bucket counted
+    // from the Unix epoch; the rows of inviter 0 hold the totals of the buckets. The index on the bucket serves
+    // the reads of the most active inviters of a range
+    private static final String CREATE_ROLLUP = "CREATE TABLE IF NOT EXISTS %s ("
+            + "inviter_id INT NOT NULL, "
+            + "bucket INT NOT NULL, "
+            + "invites INT NOT NULL, "
+            + "PRIMARY KEY (inviter_id, bucket), "
+            + "KEY idx_%s_bucket (bucket)"
+            + ")";
+
+    private final Logger logger;
+
+    // Migrations, in version order
+    private final List<Migration> migrations = List.of(
+            new Migration(1, "username-keyed tables", this::upgradeLegacySchema),
+            new Migration(2, "compact tables keyed on unique ids and surrogate keys", this::migrateToSurrogateKeys),
+            new Migration(3, "outbox of the invitation rewards", SchemaMigrator::createRewardOutbox),
+            new Migration(4, "change log shared between servers", SchemaMigrator::createChangeLog),
+            new Migration(5, "invitation timestamps and rollups", SchemaMigrator::createInvitationRollups));
+
+    /**
+     * Constructor for the SchemaMigrator class.
+     *
+     * @param logger The logger used to report the progress of the migrations.
+     */
+    SchemaMigrator(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Applies the pending migrations, or creates the latest schema on a fresh database.
+     *
+     * @param conn The connection to use, kept for the whole migration since it holds the named lock.
+     * @throws SQLException If the lock cannot be acquired or a migration fails.
+     */
+    void migrate(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another server to migrate the referral schema.");
+                }
+            }
+        }
+
+        try {
+            execute(conn, "CREATE TABLE IF NOT EXISTS referral_schema_version ("
+                    + "version INT PRIMARY KEY, "
+                    + "description VARCHAR(255) NOT NULL, "
+                    + "installed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP"
+                    + ")");
+
+            int installed = installedVersion(conn);
+            if (installed == 0 && !tableExists(conn, "Referral")) {
+                createLatestSchema(conn);
+                recordVersion(conn, LATEST_VERSION, "fresh install");
+                return;
+            }
+
+            for (Migration migration : migrations) {
+                if (migration.version() > installed) {
+                    logger.info("Migrating the referral schema to version " + migration.version()
+                            + ": " + migration.description() + ".");
+                    migration.step().apply(conn);
+                    recordVersion(conn, migration.version(), migration.description());
+                }
+            }
+        } finally {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+                stmt.setString(1, LOCK_NAME);
+                stmt.executeQuery().close();
+            }
+        }
+    }
+
+    /**
+     * Creates the tables of the latest schema.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while creating the tables.
+     */
+    private static void createLatestSchema(Connection conn) throws SQLException {
+        execute(conn, String.format(CREATE_PLAYERS, "referral_players"));
+        execute(conn, String.format(CREATE_INVITATIONS, "invitations", "referral_players", "referral_players"));
+        execute(conn, CREATE_REWARD_OUTBOX);
+        execute(conn, CREATE_CHANGE_LOG);
+        createInvitationRollups(conn);
+    }
+
+    /**
+     * Version 1: the original tables keyed on usernames. They are upgraded with the unique index on the referral
+     * codes and the invite counters, which the data migration of version 2 relies on.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while upgrading the tables.
+     */
+    private void upgradeLegacySchema(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS invitations ("
+                + "inviter VARCHAR(255), "
+                + "invitee VARCHAR(255), "
+                + "PRIMARY KEY (inviter, invitee), "
+                + "FOREIGN KEY (inviter) REFERENCES Referral(username) ON DELETE CASCADE, "
+                + "FOREIGN KEY (invitee) REFERENCES Referral(username) ON DELETE CASCADE"
+                + ")");
+        ensureUniqueReferralCodes(conn);
+        ensureInviteCounters(conn);
+    }
+
+    /**
+     * Adds the unique index on the referral codes to tables created before it existed.
+     * Duplicated codes, which older versions could generate, are replaced first so that the index can be built.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while checking or creating the index.
+     */
+    private static void ensureUniqueReferralCodes(Connection conn) throws SQLException {
+        String indexQuery = "SELECT COUNT(*) FROM information_schema.statistics "
+                + "WHERE table_schema = DATABASE() AND table_name = 'Referral' AND index_name = 'uk_referral_code'";
+        String duplicatesQuery = "SELECT username FROM Referral r WHERE EXISTS ("
+                + "SELECT 1 FROM Referral d WHERE d.referral_code = r.referral_code AND d.username < r.username)";
+        String updateQuery = "UPDATE Referral SET referral_code = ? WHERE username = ?";
+
+        try (PreparedStatement stmt = conn.prepareStatement(indexQuery);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                return;
+            }
+        }
+
+        List<String> duplicates = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(duplicatesQuery);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                duplicates.add(rs.getString("username"));
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(updateQuery)) {
+            for (String username : duplicates) {
+                stmt.setString(1, ReferralCodeGenerator.randomCode());
+                stmt.setString(2, username);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        execute(conn, "ALTER TABLE Referral ADD UNIQUE INDEX uk_referral_code (referral_code)");
+    }
+
+    /**
+     * Adds the invite counter column to tables created before it existed,
+     * and initializes it from the invitations already stored.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while checking or creating the column.
+     */
+    private static void ensureInviteCounters(Connection conn) throws SQLException {
+        String columnQuery = "SELECT COUNT(*) FROM information_schema.columns "
+                + "WHERE table_schema = DATABASE() AND table_name = 'Referral' AND column_name = 'invite_count'";
+        try (PreparedStatement stmt = conn.prepareStatement(columnQuery);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next() && rs.getInt(1) > 0) {
+                return;
+            }
+        }
+
+        execute(conn, "ALTER TABLE Referral ADD COLUMN invite_count INT NOT NULL DEFAULT 0");
+        execute(conn, "UPDATE Referral r SET invite_count = "
+                + "(SELECT COUNT(*) FROM invitations i WHERE i.inviter = r.username)");
+    }
+
+    /**
+     * Version 2: moves the data to compact tables, where players get an int surrogate key and a BINARY(16) unique id,
+     * and invitations are keyed on the two surrogate keys instead of two usernames.
+     * The rows are copied in batches into new tables, which then replace the old ones in a single RENAME TABLE.
+     * The old tables are kept as Referral_v1 and invitations_v1, and can be dropped once the upgrade is verified.
+     * The unique ids of the migrated players are filled in when they next log in. A username too long for the compact
+     * schema stops the migration before anything is copied, so that no player and no invitation is left behind.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If a username is too long, or any SQL error occurs while copying the data or swapping the tables.
+     */
+    private void migrateToSurrogateKeys(Connection conn) throws SQLException {
+        if (!tableExists(conn, "Referral") && tableExists(conn, "referral_players")) {
+            return; // The tables were swapped, but the version was not recorded before a crash
+        }
+        checkUsernameLengths(conn);
+        execute(conn, String.format(CREATE_PLAYERS, "referral_players_new"));
+        execute(conn, String.format(CREATE_INVITATIONS, "invitations_new", "referral_players_new", "referral_players_new"));
+
+        long players = copyPlayers(conn);
+        logger.info("Copied " + players + " players to the compact schema.");
+        long invitations = copyInvitations(conn);
+        logger.info("Copied " + invitations + " invitations to the compact schema.");
+
+        execute(conn, "RENAME TABLE Referral TO Referral_v1, invitations TO invitations_v1, "
+                + "referral_players_new TO referral_players, invitations_new TO invitations");
+    }
+
+    /**
+     * Version 3: the outbox of the rewards earned by the inviters.
+     * The invitations stored before it existed earn no reward, so the table starts empty.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while creating the table.
+     */
+    private static void createRewardOutbox(Connection conn) throws SQLException {
+        execute(conn, CREATE_REWARD_OUTBOX);
+    }
+
+    /**
+     * Version 4: the log of the changes, through which servers sharing the database keep their in-memory state
+     * up to date. Servers start following it from its latest entry, so the table starts empty.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while creating the table.
+     */
+    private static void createChangeLog(Connection conn) throws SQLException {
+        execute(conn, CREATE_CHANGE_LOG);
+    }
+
+    /**
+     * Version 5: the creation time of the invitations, and the hourly and daily rollups of the invitations.
+     * The creation time of the invitations stored before is unknown, so it is left null and the rollups start empty.
+     * The column is added without a default first, so that the existing rows are not stamped with the time of
+     * the migration, then given the current time as default for the new rows.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If any SQL error occurs while altering or creating the tables.
+     */
+    private static void createInvitationRollups(Connection conn) throws SQLException {
+        String columnQuery = "SELECT COUNT(*) FROM information_schema.columns "
+                + "WHERE table_schema = DATABASE() AND table_name = 'invitations' AND column_name = 'created_at'";
+        boolean exists;
+        try (PreparedStatement stmt = conn.prepareStatement(columnQuery);
+             ResultSet rs = stmt.executeQuery()) {
+            exists = rs.next() && rs.getInt(1) > 0;
+        }
+        if (!exists) {
+            execute(conn, "ALTER TABLE invitations ADD COLUMN created_at TIMESTAMP NULL");
+        }
+        execute(conn, "ALTER TABLE invitations MODIFY COLUMN created_at TIMESTAMP NULL DEFAULT CURRENT_TIMESTAMP");
+        execute(conn, String.format(CREATE_ROLLUP, "invitation_stats_hourly", "invitation_stats_hourly"));
+        execute(conn, String.format(CREATE_ROLLUP, "invitation_stats_daily", "invitation_stats_daily"));
+    }
+
+    /**
+     * Checks that every username fits in the compact schema before anything is copied. A player who could not
+     * be copied would lose their invitations when the tables are swapped, so the migration fails instead,
+     * listing the usernames to shorten or remove.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException If a username is too long, or any SQL error occurs while reading the usernames.
+     */
+    private static void checkUsernameLengths(Connection conn) throws SQLException {
+        String query = "SELECT username FROM Referral WHERE CHAR_LENGTH(username) > ? ORDER BY username LIMIT 10";
+        List<String> tooLong = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setInt(1, MAX_USERNAME_LENGTH);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tooLong.add(rs.getString("username"));
+                }
+            }
+        }
+        if (!tooLong.isEmpty()) {
+            throw new SQLException("Unable to migrate the referral schema: some usernames are longer than "
+                    + MAX_USERNAME_LENGTH + " characters and must be shortened or removed from the Referral table first: "
+                    + String.join(", ", tooLong) + ".");
+        }
+    }
+
+    /**
+     * Copies the players to the new table, in batches read with keyset pagination on the username.
+     *
+     * @param conn The connection to use.
+     * @return The number of players read.
+     * @throws SQLException If any SQL error occurs while copying the players.
+     */
+    private long copyPlayers(Connection conn) throws SQLException {
+        String selectQuery = "SELECT username, referral_code, invite_count FROM Referral "
+                + "WHERE username > ? ORDER BY username LIMIT ?";
+        String last = "";
+        long copied = 0;
+        while (true) {
+            List<LegacyPlayer> rows = new ArrayList<>(BATCH_SIZE);
+            try (PreparedStatement stmt = conn.prepareStatement(selectQuery)) {
+                stmt.setString(1, last);
+                stmt.setInt(2, BATCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new LegacyPlayer(rs.getString("username"), rs.getString("referral_code"), rs.getInt("invite_count")));
+                    }
+                }
+            }
+            if (rows.isEmpty()) {
+                break;
+            }
+            last = rows.get(rows.size() - 1).username();
+
+            // IGNORE makes a batch idempotent, so that an interrupted copy can be resumed
+            String insertQuery = "INSERT IGNORE INTO referral_players_new (username, referral_code, invite_count) VALUES "
+                    + MySqlStorage.placeholders(rows.size(), 3);
+            try (PreparedStatement stmt = conn.prepareStatement(insertQuery)) {
+                int index = 1;
+                for (LegacyPlayer row : rows) {
+                    stmt.setString(index++, row.username());
+                    stmt.setString(index++, row.referralCode());
+                    stmt.setInt(index++, row.inviteCount());
+                }
+                stmt.executeUpdate();
+            }
+            copied += rows.size();
+        }
+        return copied;
+    }
+
+    /**
+     * Copies the invitations to the new table, in batches read with keyset pagination on their primary key.
+     * The usernames of each batch are turned into surrogate keys with a single lookup.
+     *
+     * @param conn The connection to use.
+     * @return The number of invitations read.
+     * @throws SQLException If any SQL error occurs while copying the invitations.
+     */
+    private long copyInvitations(Connection conn) throws SQLException {
+        String selectQuery = "SELECT inviter, invitee FROM invitations "
+                + "WHERE inviter > ? OR (inviter = ? AND invitee > ?) ORDER BY inviter, invitee LIMIT ?";
+        String lastInviter = "";
+        String lastInvitee = "";
+        long copied = 0;
+        while (true) {
+            List<Invitation> rows = new ArrayList<>(BATCH_SIZE);
+            try (PreparedStatement stmt = conn.prepareStatement(selectQuery)) {
+                stmt.setString(1, lastInviter);
+                stmt.setString(2, lastInviter);
+                stmt.setString(3, lastInvitee);
+                stmt.setInt(4, BATCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new Invitation(rs.getString("inviter"), rs.getString("invitee"), null));
+                    }
+                }
+            }
+            if (rows.isEmpty()) {
+                break;
+            }
+            lastInviter = rows.get(rows.size() - 1).inviter();
+            lastInvitee = rows.get(rows.size() - 1).invitee();
+
+            Map<String, Integer> ids = selectIds(conn, rows);
+            List<int[]> pairs = new ArrayList<>(rows.size());
+            for (Invitation row : rows) {
+                Integer inviterId = ids.get(row.inviter().toLowerCase(Locale.ROOT));
+                Integer inviteeId = ids.get(row.invitee().toLowerCase(Locale.ROOT));
+                if (inviterId != null && inviteeId != null) {
+                    pairs.add(new int[]{inviterId, inviteeId});
+                }
+            }
+            if (!pairs.isEmpty()) {
+                String insertQuery = "INSERT IGNORE INTO invitations_new (inviter_id, invitee_id) VALUES "
+                        + MySqlStorage.placeholders(pairs.size(), 2);
+                try (PreparedStatement stmt = conn.prepareStatement(insertQuery)) {
+                    int index = 1;
+                    for (int[] pair : pairs) {
+                        stmt.setInt(index++, pair[0]);
+                        stmt.setInt(index++, pair[1]);
+                    }
+                    stmt.executeUpdate();
+                }
+            }
+            copied += rows.size();
+        }
+        return copied;
+    }
+
+    /**
+     * Selects the surrogate keys of the players of a batch of invitations.
+     *
+     * @param conn The connection to use.
+     * @param rows The invitations.
+     * @return The surrogate keys, keyed by normalized username.
+     * @throws SQLException If any SQL error occurs while reading the keys.
+     */
+    private static Map<String, Integer> selectIds(Connection conn, List<Invitation> rows) throws SQLException {
+        Map<String, String> usernames = new HashMap<>();
+        for (Invitation row : rows) {
+            usernames.putIfAbsent(row.inviter().toLowerCase(Locale.ROOT), row.inviter());
+            usernames.putIfAbsent(row.invitee().toLowerCase(Locale.ROOT), row.invitee());
+        }
+
+        Map<String, Integer> ids = new HashMap<>();
+        String query = "SELECT id, username FROM referral_players_new WHERE username IN "
+                + MySqlStorage.placeholders(1, usernames.size());
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            for (String username : usernames.values()) {
+                stmt.setString(index++, username);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString("username").toLowerCase(Locale.ROOT), rs.getInt("id"));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static int installedVersion(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT MAX(version) FROM referral_schema_version");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void recordVersion(Connection conn, int version, String description) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO referral_schema_version (version, description) VALUES (?, ?)")) {
+            stmt.setInt(1, version);
+            stmt.setString(2, description);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM information_schema.tables "
+                + "WHERE table_schema = DATABASE() AND table_name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * A row of the username-keyed Referral table.
+     */
+    private record LegacyPlayer(String username, String referralCode, int inviteCount) {
+    }
+
+    /**
+     * A schema migration.
+     *
+     * @param version     The version the migration upgrades the schema to.
+     * @param description A short description of the schema of that version.
+     * @param step        The code applying the migration.
+     */
+    private record Migration(int version, String description, MigrationStep step) {
+    }
+
+    /**
+     * The code applying a migration.
+     */
+    @FunctionalInterface
+    private interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+}
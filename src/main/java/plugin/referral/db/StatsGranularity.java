@@ -0,0 +1,79 @@
+package plugin.referral.db;
+
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * This enum lists the granularities of the invitation rollups. Buckets are numbered from the Unix epoch,
+ * so that they do not depend on the time zone of the database or of the servers.
+ */
+public enum StatsGranularity {
+
+    // One bucket per hour
+    HOURLY(3600, "hours"),
+
+    // One bucket per day, starting at midnight UTC
+    DAILY(86_400, "days");
+
+    private final long seconds;
+    private final String unit;
+
+    /**
+     * @param seconds The length of a bucket, in seconds.
+     * @param unit    The unit of the buckets, in the plural.
+     */
+    StatsGranularity(long seconds, String unit) {
+        this.seconds = seconds;
+        this.unit = unit;
+    }
+
+    /**
+     * @return The length of a bucket, in seconds.
+     */
+    public long seconds() {
+        return seconds;
+    }
+
+    /**
+     * @return The unit of the buckets, "hours" or "days".
+     */
+    public String unit() {
+        return unit;
+    }
+
+    /**
+     * Returns the bucket holding an instant.
+     *
+     * @param instant The instant.
+     * @return The number of the bucket, counted from the Unix epoch.
+     */
+    public long bucket(Instant instant) {
+        return Math.floorDiv(instant.getEpochSecond(), seconds);
+    }
+
+    /**
+     * Returns the start of a bucket.
+     *
+     * @param bucket The number of the bucket, counted from the Unix epoch.
+     * @return The first instant of the bucket.
+     */
+    public Instant start(long bucket) {
+        return Instant.ofEpochSecond(bucket * seconds);
+    }
+
+    /**
+     * Finds a granularity by the unit of its buckets, ignoring case.
+     *
+     * @param unit The unit, "hours" or "days", in the singular or the plural.
+     * @return The granularity, or null if the unit is not supported.
+     */
+    public static StatsGranularity fromUnit(String unit) {
+        String name = unit.toLowerCase(Locale.ROOT);
+        for (StatsGranularity granularity : values()) {
+            if (granularity.unit.equals(name) || granularity.unit.equals(name + "s")) {
+                return granularity;
+            }
+        }
+        return null;
+    }
+}
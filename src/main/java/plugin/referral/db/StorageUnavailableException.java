@@ -0,0 +1,16 @@
+package plugin.referral.db;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * This exception is thrown at once, without reaching the database, while the circuit breaker guarding it is open.
+ */
+final class StorageUnavailableException extends SQLTransientConnectionException {
+
+    /**
+     * Constructor for the StorageUnavailableException class.
+     */
+    StorageUnavailableException() {
+        super("The database is unavailable: calls fail fast until it recovers.");
+    }
+}
@@ -0,0 +1,61 @@
+package plugin.referral.db;
+
+/**
+ * This record is an entry of the change log, through which servers sharing a database learn about the writes
+ * made by the other ones.
+ *
+ * @param sequence The position of the change in the log, increasing with every change.
+ * @param type     The kind of write.
+ * @param player   The username of the registered player, of the inviter, or the new username of a renamed player.
+ * @param other    The username of the invitee, the previous username of a renamed player, or null for a referral.
+ * @param code     The referral code of the registered or renamed player, or null for an invitation.
+ * @param local    Whether the change was written by this server, whose in-memory state already reflects it.
+ */
+public record StoredChange(long sequence, Type type, String player, String other, String code, boolean local) {
+
+    /**
+     * The kinds of writes recorded in the change log, each one stored as a single character.
+     */
+    public enum Type {
+
+        /** A player got a referral code. */
+        REFERRAL('R'),
+
+        /** A player invited another one. */
+        INVITATION('I'),
+
+        /** A player logged in with a new username. */
+        RENAME('N');
+
+        private final char symbol;
+
+        /**
+         * @param symbol The character stored in the change log.
+         */
+        Type(char symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return The character stored in the change log.
+         */
+        char symbol() {
+            return symbol;
+        }
+
+        /**
+         * Finds a type from the character stored in the change log.
+         *
+         * @param symbol The stored character.
+         * @return The type, or null if the character is unknown, for a change written by a newer version of the plugin.
+         */
+        static Type fromSymbol(char symbol) {
+            for (Type type : values()) {
+                if (type.symbol == symbol) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package plugin.referral.db;
+
+/**
+ * This record holds the stored referral data of a player.
+ *
+ * @param referralCode     The referral code of the player.
+ * @param inviteCount      The number of players invited by the player.
+ * @param previousUsername The username the player had before changing it, or null if it did not change
+ *                         since the player was last seen.
+ */
+public record StoredPlayer(String referralCode, int inviteCount, String previousUsername) {
+}
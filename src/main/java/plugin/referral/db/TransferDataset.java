@@ -0,0 +1,55 @@
+package plugin.referral.db;
+
+import java.util.Locale;
+
+/**
+ * This enum lists the tables that can be exported and imported, with the columns of their files.
+ * Players are written by username, so the files do not depend on the surrogate keys of a database.
+ */
+public enum TransferDataset {
+
+    // The registered players and their referral codes
+    REFERRALS("uuid", "username", "referral_code"),
+
+    // The invitations between players
+    INVITATIONS("inviter", "invitee");
+
+    private final String[] columns;
+
+    /**
+     * @param columns The columns of the files, in order.
+     */
+    TransferDataset(String... columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @return The columns of the files, in order. The array must not be modified.
+     */
+    String[] columns() {
+        return columns;
+    }
+
+    /**
+     * Finds a dataset by name, ignoring case.
+     *
+     * @param name The name of the dataset, for example "referrals".
+     * @return The dataset, or null if there is none with that name.
+     */
+    public static TransferDataset fromName(String name) {
+        for (TransferDataset dataset : values()) {
+            if (dataset.name().equalsIgnoreCase(name)) {
+                return dataset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The name of the dataset, in lower case.
+     */
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
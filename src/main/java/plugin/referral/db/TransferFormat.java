@@ -0,0 +1,162 @@
+package plugin.referral.db;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This enum lists the file formats of the exports and imports, one row per line.
+ * CSV files start with a header line naming the columns; JSONL files hold one JSON object per line.
+ * Empty values stand for missing ones, such as the unique id of a player who has not logged in for a long time.
+ */
+public enum TransferFormat {
+
+    CSV(".csv"),
+    JSONL(".jsonl");
+
+    private final String extension;
+
+    /**
+     * @param extension The extension of the files in this format.
+     */
+    TransferFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Finds the format of a file from its extension.
+     *
+     * @param fileName The name of the file.
+     * @return The format, or null if the extension is not supported.
+     */
+    public static TransferFormat fromFileName(String fileName) {
+        String lowerCase = fileName.toLowerCase(Locale.ROOT);
+        for (TransferFormat format : values()) {
+            if (lowerCase.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the line written before the rows.
+     *
+     * @param columns The columns of the rows.
+     * @return The header line, or null if the format has none.
+     */
+    String header(String[] columns) {
+        return this == CSV ? String.join(",", columns) : null;
+    }
+
+    /**
+     * Encodes a row into a line.
+     *
+     * @param columns The columns of the row.
+     * @param values  The values of the row, in the order of the columns, null for missing ones.
+     * @return The line, without the line separator.
+     */
+    String encode(String[] columns, String[] values) {
+        if (this == JSONL) {
+            JsonObject object = new JsonObject();
+            for (int i = 0; i < columns.length; i++) {
+                object.addProperty(columns[i], values[i] != null ? values[i] : "");
+            }
+            return object.toString();
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String value = values[i] != null ? values[i] : "";
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(value);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Decodes a line into a row.
+     *
+     * @param columns The columns of the row.
+     * @param line    The line, without the line separator.
+     * @return The values of the row, in the order of the columns, null for missing ones.
+     * @throws IllegalArgumentException If the line is malformed or lacks a column.
+     */
+    String[] decode(String[] columns, String line) {
+        String[] values = new String[columns.length];
+        if (this == JSONL) {
+            JsonObject object;
+            try {
+                object = JsonParser.parseString(line).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IllegalArgumentException("Malformed JSON object: " + e.getMessage());
+            }
+            for (int i = 0; i < columns.length; i++) {
+                JsonElement value = object.get(columns[i]);
+                if (value == null) {
+                    throw new IllegalArgumentException("Missing column " + columns[i]);
+                }
+                values[i] = value.isJsonNull() || value.getAsString().isEmpty() ? null : value.getAsString();
+            }
+            return values;
+        }
+
+        List<String> fields = splitCsv(line);
+        if (fields.size() != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " columns, found " + fields.size());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = fields.get(i).isEmpty() ? null : fields.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Splits a CSV line into its fields, unquoting the quoted ones.
+     *
+     * @param line The line.
+     * @return The fields.
+     * @throws IllegalArgumentException If a quoted field is not closed.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
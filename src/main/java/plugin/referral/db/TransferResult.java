@@ -0,0 +1,13 @@
+package plugin.referral.db;
+
+/**
+ * This record holds the outcome of an export or an import.
+ *
+ * @param rows    The number of rows read from the storage for an export, or from the file for an import,
+ *                the rows skipped thanks to a checkpoint excluded.
+ * @param written The number of rows written to the file for an export, or stored as new rows for an import,
+ *                rows that already existed or lacked a unique id being left out.
+ * @param resumed The number of rows skipped because a previous import had already stored them, 0 for an export.
+ */
+public record TransferResult(long rows, long written, long resumed) {
+}
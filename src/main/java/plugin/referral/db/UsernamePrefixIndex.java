@@ -0,0 +1,208 @@
+package plugin.referral.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * This class finds the registered usernames starting with a prefix, for tab completion.
+ * Usernames are kept in a sorted array, searched with a binary search, so a completion costs O(log n + k).
+ * Usernames registered since the array was built are kept in a small sorted map next to it,
+ * and merged into the array once there are enough of them, so that registrations do not copy the array.
+ */
+final class UsernamePrefixIndex {
+
+    // Minimum number of added usernames that triggers a merge into the sorted array
+    private static final int MIN_MERGE_SIZE = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Normalized usernames in ascending order, and the username of each
+    private String[] keys = new String[0];
+    private String[] names = new String[0];
+
+    // Usernames added since the last merge, and usernames of the array that were removed since, keyed by normalized username
+    private final TreeMap<String, String> added = new TreeMap<>();
+    private final Set<String> removed = new HashSet<>();
+
+    /**
+     * Replaces the sorted array with the usernames read from the database.
+     * The usernames added in the meantime are kept.
+     *
+     * @param usernames The usernames of the registered players.
+     */
+    void load(Collection<String> usernames) {
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (String username : usernames) {
+            sorted.put(normalize(username), username);
+        }
+        lock.writeLock().lock();
+        try {
+            sorted.putAll(added);
+            keys = sorted.keySet().toArray(new String[0]);
+            names = sorted.values().toArray(new String[0]);
+            added.clear();
+            removed.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a registered username.
+     *
+     * @param username The username.
+     */
+    void add(String username) {
+        String key = normalize(username);
+        lock.writeLock().lock();
+        try {
+            if (removed.remove(key) || Arrays.binarySearch(keys, key) >= 0) {
+                return;
+            }
+            added.put(key, username);
+            if (added.size() >= Math.max(MIN_MERGE_SIZE, keys.length / 8)) {
+                merge();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a username that is no longer held by any player, after a rename.
+     *
+     * @param username The username.
+     */
+    void remove(String username) {
+        String key = normalize(username);
+        lock.writeLock().lock();
+        try {
+            if (added.remove(key) == null && Arrays.binarySearch(keys, key) >= 0) {
+                removed.add(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the usernames starting with a prefix, ignoring case, in alphabetical order.
+     *
+     * @param prefix  The prefix.
+     * @param limit   The maximum number of usernames to return.
+     * @param exclude The normalized usernames to leave out.
+     * @return The matching usernames.
+     */
+    List<String> complete(String prefix, int limit, Predicate<String> exclude) {
+        String key = normalize(prefix);
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        lock.readLock().lock();
+        try {
+            int index = Arrays.binarySearch(keys, key);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            Iterator<Map.Entry<String, String>> recent = added.tailMap(key, true).entrySet().iterator();
+            Map.Entry<String, String> next = nextMatch(recent, key);
+
+            while (matches.size() < limit) {
+                boolean fromArray = index < keys.length && keys[index].startsWith(key);
+                if (!fromArray && next == null) {
+                    break;
+                }
+                if (fromArray && (next == null || keys[index].compareTo(next.getKey()) < 0)) {
+                    if (!removed.contains(keys[index]) && !exclude.test(keys[index])) {
+                        matches.add(names[index]);
+                    }
+                    index++;
+                } else {
+                    if (!exclude.test(next.getKey())) {
+                        matches.add(next.getValue());
+                    }
+                    next = nextMatch(recent, key);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * @return The number of indexed usernames.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return keys.length - removed.size() + added.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the next added username starting with the prefix. Must be called while holding the read lock.
+     */
+    private static Map.Entry<String, String> nextMatch(Iterator<Map.Entry<String, String>> recent, String key) {
+        if (recent.hasNext()) {
+            Map.Entry<String, String> entry = recent.next();
+            if (entry.getKey().startsWith(key)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges the added usernames into the sorted array, dropping the removed ones. Must be called while holding the write lock.
+     */
+    private void merge() {
+        int size = keys.length - removed.size() + added.size();
+        String[] mergedKeys = new String[size];
+        String[] mergedNames = new String[size];
+        int index = 0;
+        int merged = 0;
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            for (; index < keys.length && keys[index].compareTo(entry.getKey()) < 0; index++) {
+                if (!removed.contains(keys[index])) {
+                    mergedKeys[merged] = keys[index];
+                    mergedNames[merged++] = names[index];
+                }
+            }
+            mergedKeys[merged] = entry.getKey();
+            mergedNames[merged++] = entry.getValue();
+        }
+        for (; index < keys.length; index++) {
+            if (!removed.contains(keys[index])) {
+                mergedKeys[merged] = keys[index];
+                mergedNames[merged++] = names[index];
+            }
+        }
+
+        keys = mergedKeys;
+        names = mergedNames;
+        added.clear();
+        removed.clear();
+    }
+
+    /**
+     * Normalizes a username, matching the case-insensitive collation of the database.
+     *
+     * @param username The username.
+     * @return The normalized username.
+     */
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,174 @@
+package plugin.referral.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * This class buffers pending writes and flushes them to the database in batches.
+ * A batch is flushed as soon as it reaches the configured size, or once the first write in it has waited for the
+ * flush interval, so that concurrent registrations share a single statement (group commit).
+ * The buffer is bounded: when it is full, callers wait for space up to the offer timeout and then fail.
+ *
+ * @param <T> The type of the buffered writes.
+ */
+final class WriteBehindBuffer<T> {
+
+    private final String name;
+    private final WriteBehindSettings settings;
+    private final BatchWriter<T> writer;
+    private final Logger logger;
+    private final BlockingQueue<Pending<T>> queue;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor for the WriteBehindBuffer class. Starts the flusher thread.
+     *
+     * @param name     The name of the buffer, used for the thread name and the log messages.
+     * @param settings The write-behind settings.
+     * @param writer   The function writing a batch to the database.
+     * @param logger   The logger used to report failed batches.
+     */
+    WriteBehindBuffer(String name, WriteBehindSettings settings, BatchWriter<T> writer, Logger logger) {
+        this.name = name;
+        this.settings = settings;
+        this.writer = writer;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(settings.capacity());
+        this.flusher = new Thread(this::run, "referral-write-behind-" + name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Adds a write to the buffer, waiting up to the offer timeout if the buffer is full.
+     * This method may block and must be called off the main thread.
+     *
+     * @param item The write to buffer.
+     * @return A future completed with the outcome of the write once its batch has been flushed.
+     * @throws SQLException If the buffer is closed or still full after the offer timeout.
+     */
+    CompletableFuture<RegistrationOutcome> enqueue(T item) throws SQLException {
+        if (!running) {
+            throw new SQLException("The " + name + " write buffer is closed.");
+        }
+
+        Pending<T> pending = new Pending<>(item, new CompletableFuture<>());
+        try {
+            if (!queue.offer(pending, settings.offerTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLException("The " + name + " write buffer is full.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for space in the " + name + " write buffer.", e);
+        }
+        return pending.result;
+    }
+
+    /**
+     * Stops accepting writes and waits until every pending write has been flushed.
+     */
+    void close() {
+        running = false;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of the flusher thread. It keeps running after close() until the queue is empty.
+     */
+    private void run() {
+        List<Pending<T>> batch = new ArrayList<>(settings.batchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending<T> first = queue.poll(settings.flushIntervalMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Wait for the batch to fill up, unless the buffer is being closed
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.flushIntervalMillis());
+                while (batch.size() < settings.batchSize()) {
+                    if (queue.drainTo(batch, settings.batchSize() - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (!running || remaining <= 0) {
+                        break;
+                    }
+                    Pending<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Only close() stops the loop: keep flushing what has been accepted
+                Thread.interrupted();
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a batch and reports the outcome of each write to its caller.
+     *
+     * @param batch The pending writes to flush.
+     */
+    private void flush(List<Pending<T>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            items.add(pending.item);
+        }
+
+        try {
+            RegistrationOutcome[] outcomes = writer.write(items);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(outcomes[i]);
+            }
+        } catch (Throwable e) {
+            logger.severe("Error flushing " + batch.size() + " pending " + name + " writes: " + e.getMessage());
+            for (Pending<T> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of items to the database.
+     *
+     * @param <T> The type of the items.
+     */
+    @FunctionalInterface
+    interface BatchWriter<T> {
+
+        /**
+         * Writes the items and returns their outcomes.
+         *
+         * @param items The items to write.
+         * @return The outcome of each item, in the same order as the items.
+         * @throws SQLException If any SQL error occurs while writing the batch.
+         */
+        RegistrationOutcome[] write(List<T> items) throws SQLException;
+    }
+
+    /**
+     * A buffered write together with the future of its caller.
+     */
+    private record Pending<T>(T item, CompletableFuture<RegistrationOutcome> result) {
+    }
+}
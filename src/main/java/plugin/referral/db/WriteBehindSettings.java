@@ -0,0 +1,31 @@
+package plugin.referral.db;
+
+/**
+ * This record holds the settings of the write-behind buffers, as read from the configuration file.
+ *
+ * @param enabled             Whether registrations are buffered and written in batches.
+ * @param capacity            The maximum number of pending writes held by each buffer.
+ * @param batchSize           The maximum number of rows written by a single statement.
+ * @param flushIntervalMillis How long the first pending write waits for others before the batch is flushed.
+ * @param offerTimeoutMillis  How long a caller waits for space in a full buffer before failing.
+ */
+public record WriteBehindSettings(boolean enabled,
+                                  int capacity,
+                                  int batchSize,
+                                  long flushIntervalMillis,
+                                  long offerTimeoutMillis) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If the sizes or timeouts are not consistent.
+     */
+    public WriteBehindSettings {
+        if (capacity < 1 || batchSize < 1 || batchSize > capacity) {
+            throw new IllegalArgumentException("Invalid write-behind size: capacity " + capacity + ", batch " + batchSize);
+        }
+        if (flushIntervalMillis <= 0 || offerTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid write-behind timeouts.");
+        }
+    }
+}
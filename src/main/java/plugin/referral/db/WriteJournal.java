@@ -0,0 +1,459 @@
+package plugin.referral.db;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the writes accepted while the database was unavailable, until they are replayed into it.
+ * The writes are appended to a file, one per line, and kept in memory in the order they were accepted.
+ * Replaying them in that order keeps an invitation after the referrals of its players; since inserting a row
+ * that already exists leaves it untouched, a write replayed twice, after a crash during the replay, is harmless.
+ * The length of the head of the file already replayed is recorded in an offset file next to it, so that the writes
+ * replayed before a crash are not read again; the file is emptied once every write has been replayed.
+ * A write the database refuses for another reason than
+ * being unreachable is moved to a rejected file, next to the journal and in the same format, so that it does not
+ * block the writes after it.
+ * <p>
+ * The format of the lines is:
+ * <ul>
+ *     <li>"R uuid username code", a referral;</li>
+ *     <li>"I inviter invitee acceptedAt", an invitation accepted at the given epoch second, rewarded when it is
+ *     replayed; lines written before the acceptance time was recorded have no fourth field.</li>
+ * </ul>
+ */
+public final class WriteJournal {
+
+    // Types of the lines
+    private static final String REFERRAL = "R";
+    private static final String INVITATION = "I";
+
+    private final File file;
+    private final File offsetFile;
+    private final File rejectedFile;
+    private final boolean syncWrites;
+    private final Logger logger;
+
+    // Writes not replayed yet, oldest first, and the end of the line of each one in the file
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Deque<Long> ends = new ArrayDeque<>();
+
+    // Normalized usernames of the journaled referrals, and normalized "inviter invitee" pairs of the journaled
+    // invitations, so that a write accepted twice during an outage is journaled once
+    private final Set<String> referrals = new HashSet<>();
+    private final Set<String> invitations = new HashSet<>();
+
+    private RandomAccessFile out;
+
+    /**
+     * Constructor for the WriteJournal class. The file is not read until the journal is opened.
+     *
+     * @param file       The journal file.
+     * @param syncWrites Whether every write is forced to the disk before it is acknowledged.
+     * @param logger     The logger used to report a discarded partial line or a rejected write.
+     */
+    public WriteJournal(File file, boolean syncWrites, Logger logger) {
+        this.file = file;
+        this.offsetFile = new File(file.getPath() + ".offset");
+        this.rejectedFile = new File(file.getPath() + ".rejected");
+        this.syncWrites = syncWrites;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the writes left in the file by a previous run, skipping the ones it replayed, and opens it for appending.
+     * A partial last line, left by a crash during a write, is discarded.
+     *
+     * @throws SQLException If the file cannot be read or holds a corrupted line.
+     */
+    public synchronized void open() throws SQLException {
+        close();
+        entries.clear();
+        ends.clear();
+        referrals.clear();
+        invitations.clear();
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            long validLength = read(readOffset());
+            out = new RandomAccessFile(file, "rw");
+            if (out.length() > validLength) {
+                logger.warning("Discarding a partial write at the end of " + file.getName() + ".");
+                out.setLength(validLength);
+            }
+            out.seek(validLength);
+        } catch (IOException e) {
+            throw new SQLException("Unable to open the journal file " + file + ".", e);
+        }
+    }
+
+    /**
+     * Tells whether every journaled write has been replayed.
+     *
+     * @return true if the journal holds no write.
+     */
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns the number of writes waiting to be replayed.
+     *
+     * @return The number of journaled writes.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Journals a referral, unless one is already journaled for the same player.
+     *
+     * @param referral The referral.
+     * @return true if the referral was journaled, false if the player already has one in the journal.
+     * @throws SQLException If the referral cannot be written to the file.
+     */
+    synchronized boolean appendReferral(NewReferral referral) throws SQLException {
+        String key = normalize(referral.username());
+        if (referrals.contains(key)) {
+            return false;
+        }
+        Entry entry = new Entry(referral, null);
+        ends.add(append(line(entry)));
+        referrals.add(key);
+        entries.add(entry);
+        return true;
+    }
+
+    /**
+     * Journals an invitation, unless the same one is already journaled.
+     *
+     * @param invitation The invitation.
+     * @return true if the invitation was journaled, false if it already is.
+     * @throws SQLException If the invitation cannot be written to the file.
+     */
+    synchronized boolean appendInvitation(Invitation invitation) throws SQLException {
+        String key = key(invitation.inviter(), invitation.invitee());
+        if (invitations.contains(key)) {
+            return false;
+        }
+        Entry entry = new Entry(null, invitation);
+        ends.add(append(line(entry)));
+        invitations.add(key);
+        entries.add(entry);
+        return true;
+    }
+
+    /**
+     * Tells whether an invitation is waiting to be replayed.
+     *
+     * @param inviter The username of the inviter.
+     * @param invitee The username of the invitee.
+     * @return true if the invitation is journaled.
+     */
+    synchronized boolean containsInvitation(String inviter, String invitee) {
+        return invitations.contains(key(inviter, invitee));
+    }
+
+    /**
+     * Returns the oldest journaled writes of the same kind, to be replayed together.
+     *
+     * @param limit The maximum number of writes.
+     * @return The oldest writes, all referrals or all invitations, empty if the journal is.
+     */
+    synchronized List<Entry> peek(int limit) {
+        List<Entry> run = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (run.size() >= limit || !run.isEmpty() && run.get(0).isReferral() != entry.isReferral()) {
+                break;
+            }
+            run.add(entry);
+        }
+        return run;
+    }
+
+    /**
+     * Removes the oldest journaled writes once they have been replayed, recording the end of the last one in the
+     * offset file. The file is emptied, and the offset file deleted, once the journal is empty.
+     *
+     * @param count The number of replayed writes, as returned by peek.
+     * @throws SQLException If the offset cannot be recorded or the file cannot be emptied.
+     */
+    synchronized void remove(int count) throws SQLException {
+        long offset = -1;
+        for (int i = 0; i < count && !entries.isEmpty(); i++) {
+            Entry entry = entries.poll();
+            offset = ends.poll();
+            if (entry.isReferral()) {
+                referrals.remove(normalize(entry.referral().username()));
+            } else {
+                invitations.remove(key(entry.invitation().inviter(), entry.invitation().invitee()));
+            }
+        }
+        if (entries.isEmpty() && out != null) {
+            try {
+                // Emptied before the offset is deleted, so that a crash in between cannot replay the file again
+                out.setLength(0);
+                out.seek(0);
+                if (syncWrites) {
+                    out.getFD().sync();
+                }
+                Files.deleteIfExists(offsetFile.toPath());
+            } catch (IOException e) {
+                throw new SQLException("Unable to empty the journal file " + file + ".", e);
+            }
+        } else if (offset >= 0) {
+            writeOffset(offset);
+        }
+    }
+
+    /**
+     * Sets aside the oldest journaled write, which the database refuses, so that the writes after it can be replayed.
+     * The write is appended to the rejected file, where it can be inspected and journaled again by hand, then removed
+     * from the journal; only a crash between both steps can set it aside twice.
+     *
+     * @param reason The reason the database refuses the write, for the log.
+     * @throws SQLException If the write cannot be appended to the rejected file or removed from the journal.
+     */
+    synchronized void reject(String reason) throws SQLException {
+        Entry entry = entries.peek();
+        if (entry == null) {
+            return;
+        }
+        String line = line(entry);
+        try {
+            if (syncWrites) {
+                Files.writeString(rejectedFile.toPath(), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+            } else {
+                Files.writeString(rejectedFile.toPath(), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Unable to write to the rejected file " + rejectedFile + ".", e);
+        }
+        logger.warning("Journaled write '" + line.strip() + "' refused by the database, moved to " + rejectedFile
+                + ": " + reason);
+        remove(1);
+    }
+
+    /**
+     * Closes the file. The writes not replayed yet stay in it and are read again by the next open.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warning("Unable to close the journal file: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Reads the length of the head of the file already replayed. An offset beyond the end of the file is left by
+     * a crash between emptying the file and deleting the offset file, and means that nothing was replayed since.
+     *
+     * @return The length of the replayed head, 0 if there is no offset file.
+     * @throws IOException  If the offset file cannot be read.
+     * @throws SQLException If the offset file is corrupted.
+     */
+    private long readOffset() throws IOException, SQLException {
+        if (!offsetFile.exists()) {
+            return 0;
+        }
+        String content = Files.readString(offsetFile.toPath(), StandardCharsets.UTF_8).strip();
+        long offset;
+        try {
+            offset = Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new SQLException("Corrupted offset file " + offsetFile + ": '" + content + "'.");
+        }
+        return offset <= file.length() ? offset : 0;
+    }
+
+    /**
+     * Records the length of the head of the file already replayed. The offset is written to a temporary file
+     * which then replaces the offset file, so that a crash leaves either the previous or the new offset.
+     *
+     * @param offset The end of the last replayed line.
+     * @throws SQLException If the offset file cannot be written.
+     */
+    private void writeOffset(long offset) throws SQLException {
+        File temporary = new File(offsetFile.getPath() + ".tmp");
+        try {
+            if (syncWrites) {
+                Files.writeString(temporary.toPath(), Long.toString(offset), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                        StandardOpenOption.DSYNC);
+            } else {
+                Files.writeString(temporary.toPath(), Long.toString(offset), StandardCharsets.UTF_8);
+            }
+            Files.move(temporary.toPath(), offsetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SQLException("Unable to write the offset file " + offsetFile + ".", e);
+        }
+    }
+
+    /**
+     * Reads the complete lines of the file into memory, except the replayed head.
+     *
+     * @param offset The length of the replayed head.
+     * @return The length of the complete lines, a partial last line being excluded.
+     * @throws IOException  If the file cannot be read.
+     * @throws SQLException If a complete line is corrupted.
+     */
+    private long read(long offset) throws IOException, SQLException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long validLength = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c != '\n') {
+                    line.append((char) c);
+                    continue;
+                }
+                lineNumber++;
+                validLength += line.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+                if (validLength > offset) {
+                    restore(line.toString(), lineNumber, validLength);
+                }
+                line.setLength(0);
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Restores a write read from the file.
+     *
+     * @param line       The line, without its terminator.
+     * @param lineNumber The number of the line, for the error message.
+     * @param end        The end of the line in the file, its terminator included.
+     * @throws SQLException If the line is corrupted.
+     */
+    private void restore(String line, int lineNumber, long end) throws SQLException {
+        String[] fields = line.split(" ");
+        try {
+            if (fields.length == 4 && fields[0].equals(REFERRAL)) {
+                NewReferral referral = new NewReferral(UUID.fromString(fields[1]), fields[2], fields[3]);
+                if (referrals.add(normalize(referral.username()))) {
+                    entries.add(new Entry(referral, null));
+                    ends.add(end);
+                }
+                return;
+            }
+            if ((fields.length == 3 || fields.length == 4) && fields[0].equals(INVITATION)) {
+                Instant acceptedAt = fields.length == 4 ? Instant.ofEpochSecond(Long.parseLong(fields[3])) : null;
+                Invitation invitation = new Invitation(fields[1], fields[2], acceptedAt);
+                if (invitations.add(key(invitation.inviter(), invitation.invitee()))) {
+                    entries.add(new Entry(null, invitation));
+                    ends.add(end);
+                }
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below as a corrupted line
+        }
+        throw new SQLException("Corrupted line " + lineNumber + " in the journal file " + file + ": '" + line + "'.");
+    }
+
+    /**
+     * Appends a line to the file, and forces it to the disk if enabled. If the write fails,
+     * the file is truncated back to its previous length so that no line is half-written.
+     *
+     * @param line The line, terminated by a new line.
+     * @return The end of the line in the file.
+     * @throws SQLException If the line cannot be written.
+     */
+    private long append(String line) throws SQLException {
+        if (out == null) {
+            throw new SQLException("The journal has not been opened.");
+        }
+        long length = -1;
+        try {
+            length = out.getFilePointer();
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            if (syncWrites) {
+                out.getFD().sync();
+            }
+            return out.getFilePointer();
+        } catch (IOException e) {
+            try {
+                if (length >= 0) {
+                    out.setLength(length);
+                    out.seek(length);
+                }
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw new SQLException("Unable to write to the journal file " + file + ".", e);
+        }
+    }
+
+    private static String line(Entry entry) {
+        if (entry.isReferral()) {
+            NewReferral referral = entry.referral();
+            return line(REFERRAL, referral.uuid().toString(), referral.username(), referral.referralCode());
+        }
+        Invitation invitation = entry.invitation();
+        if (invitation.acceptedAt() == null) {
+            return line(INVITATION, invitation.inviter(), invitation.invitee());
+        }
+        return line(INVITATION, invitation.inviter(), invitation.invitee(),
+                Long.toString(invitation.acceptedAt().getEpochSecond()));
+    }
+
+    private static String line(String type, String... fields) {
+        return type + ' ' + String.join(" ", fields) + '\n';
+    }
+
+    private static String key(String inviter, String invitee) {
+        return normalize(inviter) + ' ' + normalize(invitee);
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A journaled write: either a referral or an invitation.
+     *
+     * @param referral   The referral, or null for an invitation.
+     * @param invitation The invitation, or null for a referral.
+     */
+    record Entry(NewReferral referral, Invitation invitation) {
+
+        /**
+         * @return true if the write is a referral.
+         */
+        boolean isReferral() {
+            return referral != null;
+        }
+    }
+}
@@ -4,10 +4,15 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.Plugin;
 import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.RegistrationOutcome;
+import plugin.referral.others.MainThreadExecutor;
+import plugin.referral.others.Metrics;
+import plugin.referral.others.OperationMetrics;
+import plugin.referral.others.RewardDrainer;
 
-import java.sql.SQLException;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 /**
@@ -17,36 +22,65 @@ public class PlayerJoinListener implements Listener {
 
     private final Logger logger;
 
+    // Executor used to message the player from the main thread
+    private final Executor mainThread;
+
+    // Delivery of the rewards, told when a player joins so that the rewards earned while away are handed out
+    private final RewardDrainer rewards;
+
+    // Time spent handling the event on the main thread
+    private final OperationMetrics metrics = Metrics.getInstance().operation("listener.playerJoin");
+
     /**
      * Constructor for the PlayerJoinListener.
      *
-     * @param plugin The instance of the main plugin class to access the logger.
+     * @param plugin  The instance of the main plugin class to access the logger and the scheduler.
+     * @param rewards The delivery of the rewards earned by the inviters.
      */
-    public PlayerJoinListener(JavaPlugin plugin) {
+    public PlayerJoinListener(Plugin plugin, RewardDrainer rewards) {
         this.logger = plugin.getLogger(); // Access the plugin's logger
+        this.mainThread = new MainThreadExecutor(plugin);
+        this.rewards = rewards;
     }
 
     /**
      * Event handler for PlayerJoinEvent.
-     * Registers a referral code for the player if they do not already have one.
-     * Logs any database errors encountered.
+     * Registers a referral code for the player asynchronously if they do not already have one,
+     * in a single transaction: an atomic insert and the change log write, plus a lookup of the conflicting rows
+     * and a retry when the insert is ignored (or no query at all if the code was preloaded).
+     * The player is notified from the main thread, if still online. Logs any database errors encountered.
+     * While the database is unreachable the registration is journaled, and the player is only told it is pending,
+     * since they may already have a code.
+     * The rewards the player earned while offline are read in the background and delivered shortly after.
+     * The time spent on the main thread is recorded; the registration itself is recorded by the DatabaseManager.
      *
      * @param event The player join event.
      */
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
-        String playerName = player.getName();
-
+        long start = System.nanoTime();
+        boolean failed = true;
         try {
-            String referralCode = DatabaseManager.getInstance().getReferralCode(playerName);
-            if (referralCode == null) {
-                DatabaseManager.getInstance().registerReferral(playerName);
-                player.sendMessage("Your referral code has been generated.");
-            }
-        } catch (SQLException e) {
-            player.sendMessage("An error occurred while accessing the database. Please contact the administrator.");
-            logger.severe("Error accessing database for player " + playerName + ": " + e.getMessage());
+            Player player = event.getPlayer();
+            String playerName = player.getName();
+
+            DatabaseManager.getInstance().registerReferralAsync(player.getUniqueId(), playerName).whenCompleteAsync((outcome, error) -> {
+                if (error != null) {
+                    logger.severe("Error accessing database for player " + playerName + ": " + error.getMessage());
+                    if (player.isOnline()) {
+                        player.sendMessage("An error occurred while accessing the database. Please contact the administrator.");
+                    }
+                } else if (outcome == RegistrationOutcome.CREATED && player.isOnline()) {
+                    player.sendMessage("Your referral code has been generated.");
+                } else if (outcome == RegistrationOutcome.PENDING && player.isOnline()) {
+                    player.sendMessage("The referral service is temporarily unavailable, "
+                            + "your referral code will be available shortly.");
+                }
+            }, mainThread);
+            rewards.requestRewards(playerName);
+            failed = false;
+        } finally {
+            metrics.record(System.nanoTime() - start, failed);
         }
     }
 }
@@ -0,0 +1,94 @@
+package plugin.referral.events;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.others.CommandRateLimiter;
+
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Listener class that keeps the referral data of connected players in memory.
+ * The data is loaded off the main thread while the player is logging in and evicted when they leave,
+ * along with their command rate limits.
+ */
+public class PlayerSessionListener implements Listener {
+
+    // Maximum time a login waits for the plugin to finish starting
+    private static final long READY_TIMEOUT_MILLIS = 10_000;
+
+    private final Logger logger;
+
+    // Rate limiter of the commands, whose state is dropped when players leave
+    private final CommandRateLimiter rateLimiter;
+
+    /**
+     * Constructor for the PlayerSessionListener.
+     *
+     * @param plugin      The instance of the main plugin class to access the logger.
+     * @param rateLimiter The rate limiter of the commands.
+     */
+    public PlayerSessionListener(Plugin plugin, CommandRateLimiter rateLimiter) {
+        this.logger = plugin.getLogger();
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Event handler for AsyncPlayerPreLoginEvent.
+     * Loads the referral data of the player before PlayerJoinEvent fires. The event runs on a login thread,
+     * so the blocking query does not affect the server tick. Logins denied by other plugins are ignored.
+     * Players logging in while the plugin is still starting wait for the database to be ready, up to a timeout.
+     *
+     * @param event The asynchronous pre-login event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        try {
+            if (!DatabaseManager.getInstance().awaitReady(READY_TIMEOUT_MILLIS)) {
+                logger.warning("Referral data of player " + event.getName() + " not preloaded: the plugin is still starting.");
+                return;
+            }
+            DatabaseManager.getInstance().preloadPlayer(event.getUniqueId(), event.getName());
+        } catch (SQLException e) {
+            // The commands fall back to the database when the player is not cached
+            logger.warning("Unable to preload referral data for player " + event.getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Event handler for PlayerLoginEvent.
+     * Evicts the preloaded data if the login was denied after the pre-login phase.
+     *
+     * @param event The player login event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            DatabaseManager.getInstance().evictPlayer(event.getPlayer().getName());
+        }
+    }
+
+    /**
+     * Event handler for PlayerQuitEvent.
+     * Evicts the referral data and the command rate limits of the player.
+     *
+     * @param event The player quit event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        DatabaseManager.getInstance().evictPlayer(event.getPlayer().getName());
+        rateLimiter.forget(event.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,98 @@
+package plugin.referral.others;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import plugin.referral.db.DatabaseManager;
+
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the in-memory data of the server up to date with the writes of the other servers sharing
+ * the database, by reading the change log of the database in the background, and prunes the old entries of the log.
+ * A failing read is reported once, and again only after a successful one, so that an outage does not flood the log.
+ */
+public final class ChangeLogFollower {
+
+    // Interval between two prunings of the change log, every 5 minutes
+    private static final long PRUNE_TICKS = 5 * 60 * 20L;
+
+    private final Plugin plugin;
+    private final Logger logger;
+    private final long pollTicks;
+    private final long retentionSeconds;
+
+    // Set after a failed read, until a read succeeds again
+    private volatile boolean failing;
+
+    private BukkitTask pollTask;
+    private BukkitTask pruneTask;
+
+    /**
+     * Constructor for the ChangeLogFollower class. Nothing is read until the follower is started.
+     *
+     * @param plugin           The instance of the main plugin class to access the logger and the scheduler.
+     * @param pollTicks        The interval between two reads of the change log, in ticks.
+     * @param retentionSeconds The age of the oldest entries kept in the change log, in seconds.
+     */
+    public ChangeLogFollower(Plugin plugin, long pollTicks, long retentionSeconds) {
+        this.plugin = plugin;
+        this.logger = plugin.getLogger();
+        this.pollTicks = pollTicks;
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    /**
+     * Starts reading and pruning the change log. Must be called once the plugin is ready.
+     */
+    public void start() {
+        pollTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::poll, pollTicks, pollTicks);
+        pruneTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::prune, PRUNE_TICKS, PRUNE_TICKS);
+    }
+
+    /**
+     * Stops reading and pruning the change log.
+     */
+    public void stop() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        if (pruneTask != null) {
+            pruneTask.cancel();
+            pruneTask = null;
+        }
+    }
+
+    /**
+     * Applies the changes written by the other servers since the previous read.
+     */
+    private void poll() {
+        try {
+            DatabaseManager.getInstance().pollChanges();
+            if (failing) {
+                failing = false;
+                logger.info("Reading the change log again.");
+            }
+        } catch (SQLException e) {
+            if (!failing) {
+                failing = true;
+                logger.warning("Unable to read the change log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the entries of the change log older than the retention.
+     */
+    private void prune() {
+        try {
+            int pruned = DatabaseManager.getInstance().pruneChanges(retentionSeconds);
+            if (pruned > 0) {
+                logger.info("Pruned " + pruned + " change log entries.");
+            }
+        } catch (SQLException e) {
+            logger.warning("Unable to prune the change log: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package plugin.referral.others;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class limits how often each player can run the commands that reach the database.
+ * Every player has a token bucket per limited command, stored as the time at which the bucket will be full again
+ * (the generic cell rate algorithm): a call is allowed if that time is less than a burst away, and pushes it
+ * one interval further. A bucket is a single long updated with compare-and-set, so checks never lock.
+ * The buckets of a player are created on their first limited command and dropped when they quit.
+ */
+public final class CommandRateLimiter {
+
+    // Slot of each limited command in the bucket arrays, keyed by lower-case command name
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    // Time to earn back one call, and the time a full burst takes to earn back, by slot
+    private final long[] intervals;
+    private final long[] tolerances;
+
+    // Buckets of the players who ran a limited command, one slot per command
+    private final ConcurrentHashMap<UUID, AtomicLongArray> players = new ConcurrentHashMap<>();
+
+    // Origin of the clock, so that the time of an empty slot (0) is always in the past
+    private final long origin = System.nanoTime();
+
+    /**
+     * Constructor for the CommandRateLimiter class.
+     *
+     * @param limits The rate limit of each limited command, keyed by command name. Other commands are not limited.
+     */
+    public CommandRateLimiter(Map<String, RateLimit> limits) {
+        intervals = new long[limits.size()];
+        tolerances = new long[limits.size()];
+        int slot = 0;
+        for (Map.Entry<String, RateLimit> entry : limits.entrySet()) {
+            RateLimit limit = entry.getValue();
+            slots.put(entry.getKey().toLowerCase(Locale.ROOT), slot);
+            intervals[slot] = limit.intervalNanos();
+            tolerances[slot] = limit.intervalNanos() * (limit.burst() - 1);
+            slot++;
+        }
+    }
+
+    /**
+     * Takes a call from the bucket of a player, if there is one left.
+     *
+     * @param player  The unique id of the player.
+     * @param command The name of the command.
+     * @return 0 if the call is allowed, otherwise how long the player has to wait before the next call, in nanoseconds.
+     */
+    public long tryAcquire(UUID player, String command) {
+        Integer slot = slots.get(command.toLowerCase(Locale.ROOT));
+        if (slot == null) {
+            return 0;
+        }
+        AtomicLongArray buckets = players.get(player);
+        if (buckets == null) {
+            buckets = players.computeIfAbsent(player, key -> new AtomicLongArray(intervals.length));
+        }
+
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long full = buckets.get(slot);
+            long wait = full - tolerances[slot] - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (buckets.compareAndSet(slot, full, Math.max(full, now) + intervals[slot])) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the buckets of a player who left the server.
+     *
+     * @param player The unique id of the player.
+     */
+    public void forget(UUID player) {
+        players.remove(player);
+    }
+
+    /**
+     * @return The number of players whose buckets are kept in memory.
+     */
+    public int size() {
+        return players.size();
+    }
+
+    /**
+     * Tells whether a command is limited.
+     *
+     * @param command The name of the command.
+     * @return true if the command has a rate limit.
+     */
+    public boolean isLimited(String command) {
+        return slots.containsKey(command.toLowerCase(Locale.ROOT));
+    }
+}
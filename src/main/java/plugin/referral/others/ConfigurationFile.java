@@ -2,9 +2,23 @@ package plugin.referral.others;
 
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
+import plugin.referral.db.CircuitBreakerSettings;
+import plugin.referral.db.CircuitBreakingStorage;
 import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.LocalStorage;
+import plugin.referral.db.MySqlStorage;
+import plugin.referral.db.PoolSettings;
+import plugin.referral.db.ReferralStorage;
+import plugin.referral.db.WriteBehindSettings;
+import plugin.referral.db.WriteJournal;
 
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class handles the configuration of the plugin's configuration file and the database connection settings.
@@ -12,12 +26,135 @@ import java.io.File;
  */
 public class ConfigurationFile {
 
+    // Configuration file paths for the storage backend settings
+    private static final String STORAGE_TYPE_FILEPATH = "storage.type";
+    private static final String LOCAL_FILE_FILEPATH = "storage.local.file";
+    private static final String LOCAL_SYNC_WRITES_FILEPATH = "storage.local.sync-writes";
+
     // Configuration file paths for database settings
     private static final String HOST_FILEPATH = "database.host";
     private static final String PORT_FILEPATH = "database.port";
     private static final String NAME_FILEPATH = "database.name";
     private static final String USER_FILEPATH = "database.user";
     private static final String PASSWORD_FILEPATH = "database.password";
+
+    // Configuration file paths for connection pool settings
+    private static final String POOL_MIN_SIZE_FILEPATH = "database.pool.min-size";
+    private static final String POOL_MAX_SIZE_FILEPATH = "database.pool.max-size";
+    private static final String POOL_IDLE_TIMEOUT_FILEPATH = "database.pool.idle-timeout-seconds";
+    private static final String POOL_VALIDATE_FILEPATH = "database.pool.validate-on-borrow";
+    private static final String POOL_MAX_LIFETIME_FILEPATH = "database.pool.max-lifetime-seconds";
+    private static final String POOL_CONNECTION_TIMEOUT_FILEPATH = "database.pool.connection-timeout-seconds";
+    private static final String POOL_STATEMENT_CACHE_FILEPATH = "database.pool.statement-cache-size";
+
+    // Configuration file paths for write-behind settings
+    private static final String WRITE_BEHIND_ENABLED_FILEPATH = "database.write-behind.enabled";
+    private static final String WRITE_BEHIND_CAPACITY_FILEPATH = "database.write-behind.capacity";
+    private static final String WRITE_BEHIND_BATCH_SIZE_FILEPATH = "database.write-behind.batch-size";
+    private static final String WRITE_BEHIND_FLUSH_INTERVAL_FILEPATH = "database.write-behind.flush-interval-millis";
+    private static final String WRITE_BEHIND_OFFER_TIMEOUT_FILEPATH = "database.write-behind.offer-timeout-millis";
+
+    // Configuration file paths for the circuit breaker guarding the MySQL database, and the journal of the writes
+    // accepted while it is open
+    private static final String BREAKER_ENABLED_FILEPATH = "database.circuit-breaker.enabled";
+    private static final String BREAKER_WINDOW_SIZE_FILEPATH = "database.circuit-breaker.window-size";
+    private static final String BREAKER_MINIMUM_CALLS_FILEPATH = "database.circuit-breaker.minimum-calls";
+    private static final String BREAKER_FAILURE_RATE_FILEPATH = "database.circuit-breaker.failure-rate-percent";
+    private static final String BREAKER_SLOW_CALL_FILEPATH = "database.circuit-breaker.slow-call-millis";
+    private static final String BREAKER_OPEN_FILEPATH = "database.circuit-breaker.open-seconds";
+    private static final String BREAKER_JOURNAL_FILEPATH = "database.circuit-breaker.journal-file";
+
+    // Configuration file paths for the change log through which servers sharing the database follow each other's writes
+    private static final String CHANGE_LOG_POLL_FILEPATH = "cluster.change-log.poll-interval-ticks";
+    private static final String CHANGE_LOG_RETENTION_FILEPATH = "cluster.change-log.retention-minutes";
+
+    // Configuration file path for the leaderboard settings
+    private static final String LEADERBOARD_RECONCILE_FILEPATH = "leaderboard.reconcile-interval-seconds";
+
+    // Configuration file paths for the metrics endpoint settings
+    private static final String METRICS_HTTP_ENABLED_FILEPATH = "metrics.http.enabled";
+    private static final String METRICS_HTTP_PORT_FILEPATH = "metrics.http.port";
+
+    // Configuration file path for the number of rows stored at once by an import
+    private static final String IMPORT_CHUNK_SIZE_FILEPATH = "transfer.import-chunk-size";
+
+    // Configuration file paths for the command rate limits, the limits being followed by the name of the command
+    private static final String RATE_LIMIT_ENABLED_FILEPATH = "rate-limit.enabled";
+    private static final String RATE_LIMIT_COMMANDS_FILEPATH = "rate-limit.commands.";
+    private static final String RATE_LIMIT_BURST_KEY = ".burst";
+    private static final String RATE_LIMIT_PER_MINUTE_KEY = ".per-minute";
+
+    // Configuration file paths for the rewards handed to the inviters
+    private static final String REWARD_COMMANDS_FILEPATH = "rewards.commands";
+    private static final String REWARD_MESSAGE_FILEPATH = "rewards.message";
+    private static final String REWARD_TICK_BUDGET_FILEPATH = "rewards.tick-budget-micros";
+    private static final String REWARD_POLL_INTERVAL_FILEPATH = "rewards.poll-interval-seconds";
+    private static final String REWARD_BATCH_SIZE_FILEPATH = "rewards.batch-size";
+
+    // Storage backends, and the default settings of the embedded one
+    private static final String STORAGE_MYSQL = "mysql";
+    private static final String STORAGE_LOCAL = "local";
+    private static final String DEFAULT_LOCAL_FILE = "referrals.log";
+    private static final boolean DEFAULT_LOCAL_SYNC_WRITES = true;
+
+    // Default connection pool settings, also used when an older configuration file lacks them
+    private static final int DEFAULT_POOL_MIN_SIZE = 2;
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final int DEFAULT_POOL_IDLE_TIMEOUT = 600;
+    private static final boolean DEFAULT_POOL_VALIDATE = true;
+    private static final int DEFAULT_POOL_MAX_LIFETIME = 1800;
+    private static final int DEFAULT_POOL_CONNECTION_TIMEOUT = 5;
+    private static final int DEFAULT_POOL_STATEMENT_CACHE = 250;
+
+    // Default write-behind settings
+    private static final boolean DEFAULT_WRITE_BEHIND_ENABLED = false;
+    private static final int DEFAULT_WRITE_BEHIND_CAPACITY = 10000;
+    private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+    private static final int DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL = 50;
+    private static final int DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT = 2000;
+
+    // Default circuit breaker settings: open when half of the last 20 calls failed or took more than 2 seconds
+    private static final boolean DEFAULT_BREAKER_ENABLED = true;
+    private static final int DEFAULT_BREAKER_WINDOW_SIZE = 20;
+    private static final int DEFAULT_BREAKER_MINIMUM_CALLS = 10;
+    private static final int DEFAULT_BREAKER_FAILURE_RATE = 50;
+    private static final int DEFAULT_BREAKER_SLOW_CALL = 2000;
+    private static final int DEFAULT_BREAKER_OPEN = 10;
+    private static final String DEFAULT_BREAKER_JOURNAL = "journal.log";
+
+    // Default change log settings: read every second, entries kept for an hour
+    private static final int DEFAULT_CHANGE_LOG_POLL = 20;
+    private static final int DEFAULT_CHANGE_LOG_RETENTION = 60;
+
+    // Default leaderboard settings
+    private static final int DEFAULT_LEADERBOARD_RECONCILE = 300;
+
+    // Default metrics endpoint settings
+    private static final boolean DEFAULT_METRICS_HTTP_ENABLED = false;
+    private static final int DEFAULT_METRICS_HTTP_PORT = 9464;
+
+    // Default and maximum number of rows stored at once by an import, the maximum keeping a chunk within the
+    // limit of 65535 parameters of a MySQL statement
+    private static final int DEFAULT_IMPORT_CHUNK_SIZE = 500;
+    private static final int MAX_IMPORT_CHUNK_SIZE = 5000;
+
+    // Default rate limits of the commands that reach the database or walk the invitation graph on the main thread,
+    // the only commands that can be limited
+    private static final boolean DEFAULT_RATE_LIMIT_ENABLED = true;
+    private static final Map<String, RateLimit> DEFAULT_RATE_LIMITS = new TreeMap<>(Map.of(
+            "getReferral", new RateLimit(3, 20),
+            "invite", new RateLimit(3, 10),
+            "checkInvites", new RateLimit(3, 20),
+            "redeem", new RateLimit(3, 10),
+            "listInvites", new RateLimit(5, 30),
+            "referralTree", new RateLimit(3, 20)));
+
+    // Default reward settings: no command, so that servers choose their own rewards, and at most 2 ms per tick
+    private static final String DEFAULT_REWARD_MESSAGE = "You received a reward for inviting %invitee%.";
+    private static final int DEFAULT_REWARD_TICK_BUDGET = 2000;
+    private static final int DEFAULT_REWARD_POLL_INTERVAL = 10;
+    private static final int DEFAULT_REWARD_BATCH_SIZE = 200;
+
     private static final String CONFIG_FILE_NAME = "config.yml";
 
     // Reference to the JavaPlugin instance
@@ -45,23 +182,175 @@ public class ConfigurationFile {
         }
         File configFile = new File(plugin.getDataFolder(), CONFIG_FILE_NAME);
         if (!configFile.exists()) {
+            config.addDefault(STORAGE_TYPE_FILEPATH, STORAGE_MYSQL);
+            config.addDefault(LOCAL_FILE_FILEPATH, DEFAULT_LOCAL_FILE);
+            config.addDefault(LOCAL_SYNC_WRITES_FILEPATH, DEFAULT_LOCAL_SYNC_WRITES);
             config.addDefault(HOST_FILEPATH, "localhost");
             config.addDefault(PORT_FILEPATH, 3306);
             config.addDefault(NAME_FILEPATH, "my_database");
             config.addDefault(USER_FILEPATH, "root");
             config.addDefault(PASSWORD_FILEPATH, "password");
+            config.addDefault(POOL_MIN_SIZE_FILEPATH, DEFAULT_POOL_MIN_SIZE);
+            config.addDefault(POOL_MAX_SIZE_FILEPATH, DEFAULT_POOL_MAX_SIZE);
+            config.addDefault(POOL_IDLE_TIMEOUT_FILEPATH, DEFAULT_POOL_IDLE_TIMEOUT);
+            config.addDefault(POOL_VALIDATE_FILEPATH, DEFAULT_POOL_VALIDATE);
+            config.addDefault(POOL_MAX_LIFETIME_FILEPATH, DEFAULT_POOL_MAX_LIFETIME);
+            config.addDefault(POOL_CONNECTION_TIMEOUT_FILEPATH, DEFAULT_POOL_CONNECTION_TIMEOUT);
+            config.addDefault(POOL_STATEMENT_CACHE_FILEPATH, DEFAULT_POOL_STATEMENT_CACHE);
+            config.addDefault(WRITE_BEHIND_ENABLED_FILEPATH, DEFAULT_WRITE_BEHIND_ENABLED);
+            config.addDefault(WRITE_BEHIND_CAPACITY_FILEPATH, DEFAULT_WRITE_BEHIND_CAPACITY);
+            config.addDefault(WRITE_BEHIND_BATCH_SIZE_FILEPATH, DEFAULT_WRITE_BEHIND_BATCH_SIZE);
+            config.addDefault(WRITE_BEHIND_FLUSH_INTERVAL_FILEPATH, DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL);
+            config.addDefault(WRITE_BEHIND_OFFER_TIMEOUT_FILEPATH, DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT);
+            config.addDefault(BREAKER_ENABLED_FILEPATH, DEFAULT_BREAKER_ENABLED);
+            config.addDefault(BREAKER_WINDOW_SIZE_FILEPATH, DEFAULT_BREAKER_WINDOW_SIZE);
+            config.addDefault(BREAKER_MINIMUM_CALLS_FILEPATH, DEFAULT_BREAKER_MINIMUM_CALLS);
+            config.addDefault(BREAKER_FAILURE_RATE_FILEPATH, DEFAULT_BREAKER_FAILURE_RATE);
+            config.addDefault(BREAKER_SLOW_CALL_FILEPATH, DEFAULT_BREAKER_SLOW_CALL);
+            config.addDefault(BREAKER_OPEN_FILEPATH, DEFAULT_BREAKER_OPEN);
+            config.addDefault(BREAKER_JOURNAL_FILEPATH, DEFAULT_BREAKER_JOURNAL);
+            config.addDefault(CHANGE_LOG_POLL_FILEPATH, DEFAULT_CHANGE_LOG_POLL);
+            config.addDefault(CHANGE_LOG_RETENTION_FILEPATH, DEFAULT_CHANGE_LOG_RETENTION);
+            config.addDefault(LEADERBOARD_RECONCILE_FILEPATH, DEFAULT_LEADERBOARD_RECONCILE);
+            config.addDefault(METRICS_HTTP_ENABLED_FILEPATH, DEFAULT_METRICS_HTTP_ENABLED);
+            config.addDefault(METRICS_HTTP_PORT_FILEPATH, DEFAULT_METRICS_HTTP_PORT);
+            config.addDefault(IMPORT_CHUNK_SIZE_FILEPATH, DEFAULT_IMPORT_CHUNK_SIZE);
+            config.addDefault(RATE_LIMIT_ENABLED_FILEPATH, DEFAULT_RATE_LIMIT_ENABLED);
+            for (Map.Entry<String, RateLimit> entry : DEFAULT_RATE_LIMITS.entrySet()) {
+                config.addDefault(RATE_LIMIT_COMMANDS_FILEPATH + entry.getKey() + RATE_LIMIT_BURST_KEY, entry.getValue().burst());
+                config.addDefault(RATE_LIMIT_COMMANDS_FILEPATH + entry.getKey() + RATE_LIMIT_PER_MINUTE_KEY, entry.getValue().perMinute());
+            }
+            config.addDefault(REWARD_COMMANDS_FILEPATH, List.of());
+            config.addDefault(REWARD_MESSAGE_FILEPATH, DEFAULT_REWARD_MESSAGE);
+            config.addDefault(REWARD_TICK_BUDGET_FILEPATH, DEFAULT_REWARD_TICK_BUDGET);
+            config.addDefault(REWARD_POLL_INTERVAL_FILEPATH, DEFAULT_REWARD_POLL_INTERVAL);
+            config.addDefault(REWARD_BATCH_SIZE_FILEPATH, DEFAULT_REWARD_BATCH_SIZE);
             config.options().copyDefaults(true);
             plugin.saveConfig();
         }
     }
 
     /**
-     * Configures the database connection by reading the settings from the configuration file.
-     * It retrieves the host, port, database name, username, and password and sets up the database connection accordingly.
+     * Configures the storage backend by reading the settings from the configuration file.
+     * With the MySQL backend, the default one, it retrieves the host, port, database name, username, password
+     * and connection pool settings; with the local backend, the file holding the data.
+     * The write-behind settings apply to both backends. Unless disabled, the MySQL backend is guarded by a
+     * circuit breaker, and the writes accepted while it is open are kept in a journal file until they are replayed.
+     * The settings are read at once, while the storage is opened and its schema verified in the background,
+     * so that the server startup does not wait for the database.
+     *
+     * @return A future completed once the storage is open and its schema verified.
+     * @throws Exception If any required parameter is missing or null, or the storage type is not supported.
+     */
+    public CompletableFuture<Void> configureDatabaseAsync() throws Exception {
+        FileConfiguration config = plugin.getConfig();
+        String storageType = config.getString(STORAGE_TYPE_FILEPATH, STORAGE_MYSQL).toLowerCase(Locale.ROOT);
+        ReferralStorage storage = switch (storageType) {
+            case STORAGE_MYSQL -> createMySqlStorage();
+            case STORAGE_LOCAL -> createLocalStorage();
+            default -> throw new Exception("Failed to configure the database: unknown storage type '" + storageType + "'.");
+        };
+        WriteJournal journal = null;
+        if (storageType.equals(STORAGE_MYSQL) && config.getBoolean(BREAKER_ENABLED_FILEPATH, DEFAULT_BREAKER_ENABLED)) {
+            storage = new CircuitBreakingStorage(storage, readCircuitBreakerSettings(), plugin.getLogger());
+            journal = new WriteJournal(dataFile(config.getString(BREAKER_JOURNAL_FILEPATH, DEFAULT_BREAKER_JOURNAL)),
+                    true, plugin.getLogger());
+        }
+
+        // Configure the storage using the DatabaseManager
+        return DatabaseManager.getInstance().configureAsync(storage, readWriteBehindSettings(), journal, plugin.getLogger())
+                .thenRun(() -> plugin.getLogger().info("Database successfully configured (" + storageType + " storage)."));
+    }
+
+    /**
+     * Returns the interval between two reconciliations of the leaderboard with the database.
+     *
+     * @return The interval in seconds, 0 if the reconciliation is disabled.
+     */
+    public long getLeaderboardReconcileSeconds() {
+        return plugin.getConfig().getLong(LEADERBOARD_RECONCILE_FILEPATH, DEFAULT_LEADERBOARD_RECONCILE);
+    }
+
+    /**
+     * Creates the follower of the change log, from its read interval and its retention.
+     *
+     * @return The change log follower, not started yet.
+     */
+    public ChangeLogFollower createChangeLogFollower() {
+        FileConfiguration config = plugin.getConfig();
+        long pollTicks = Math.max(1, config.getLong(CHANGE_LOG_POLL_FILEPATH, DEFAULT_CHANGE_LOG_POLL));
+        long retentionMinutes = Math.max(1, config.getLong(CHANGE_LOG_RETENTION_FILEPATH, DEFAULT_CHANGE_LOG_RETENTION));
+        return new ChangeLogFollower(plugin, pollTicks, retentionMinutes * 60L);
+    }
+
+    /**
+     * Returns the port of the metrics endpoint, which only listens on the loopback address.
+     *
+     * @return The port, 0 if the endpoint is disabled.
+     */
+    public int getMetricsPort() {
+        FileConfiguration config = plugin.getConfig();
+        if (!config.getBoolean(METRICS_HTTP_ENABLED_FILEPATH, DEFAULT_METRICS_HTTP_ENABLED)) {
+            return 0;
+        }
+        return config.getInt(METRICS_HTTP_PORT_FILEPATH, DEFAULT_METRICS_HTTP_PORT);
+    }
+
+    /**
+     * Returns the number of rows stored at once by an import, each chunk being written with multi-row inserts.
      *
+     * @return The chunk size, between 1 and 5000.
+     */
+    public int getImportChunkSize() {
+        int chunkSize = plugin.getConfig().getInt(IMPORT_CHUNK_SIZE_FILEPATH, DEFAULT_IMPORT_CHUNK_SIZE);
+        return Math.min(MAX_IMPORT_CHUNK_SIZE, Math.max(1, chunkSize));
+    }
+
+    /**
+     * Reads the rate limits of the commands that reach the database or walk the invitation graph,
+     * falling back to the defaults for missing values.
+     *
+     * @return The rate limit of each limited command, keyed by command name, or an empty map if rate limiting is disabled.
+     * @throws IllegalArgumentException If a burst or a rate is not positive.
+     */
+    public Map<String, RateLimit> getRateLimits() {
+        FileConfiguration config = plugin.getConfig();
+        Map<String, RateLimit> limits = new LinkedHashMap<>();
+        if (!config.getBoolean(RATE_LIMIT_ENABLED_FILEPATH, DEFAULT_RATE_LIMIT_ENABLED)) {
+            return limits;
+        }
+        for (Map.Entry<String, RateLimit> entry : DEFAULT_RATE_LIMITS.entrySet()) {
+            String path = RATE_LIMIT_COMMANDS_FILEPATH + entry.getKey();
+            limits.put(entry.getKey(), new RateLimit(
+                    config.getInt(path + RATE_LIMIT_BURST_KEY, entry.getValue().burst()),
+                    config.getInt(path + RATE_LIMIT_PER_MINUTE_KEY, entry.getValue().perMinute())));
+        }
+        return limits;
+    }
+
+    /**
+     * Reads the settings of the rewards handed to the inviters, falling back to the defaults for missing values.
+     *
+     * @return The reward settings.
+     * @throws IllegalArgumentException If the tick budget, the poll interval or the batch size is not positive.
+     */
+    public RewardSettings getRewardSettings() {
+        FileConfiguration config = plugin.getConfig();
+        return new RewardSettings(
+                config.getStringList(REWARD_COMMANDS_FILEPATH),
+                config.getString(REWARD_MESSAGE_FILEPATH, DEFAULT_REWARD_MESSAGE),
+                config.getLong(REWARD_TICK_BUDGET_FILEPATH, DEFAULT_REWARD_TICK_BUDGET),
+                config.getInt(REWARD_POLL_INTERVAL_FILEPATH, DEFAULT_REWARD_POLL_INTERVAL),
+                config.getInt(REWARD_BATCH_SIZE_FILEPATH, DEFAULT_REWARD_BATCH_SIZE));
+    }
+
+    /**
+     * Creates the MySQL storage backend from the database settings of the configuration file.
+     *
+     * @return The MySQL storage, not opened yet.
      * @throws Exception If any required parameter is missing or null.
      */
-    public void configureDatabase() throws Exception {
+    private ReferralStorage createMySqlStorage() throws Exception {
         FileConfiguration config = plugin.getConfig();
         String dbHost = config.getString(HOST_FILEPATH);
         int dbPort = config.getInt(PORT_FILEPATH);
@@ -72,9 +361,76 @@ public class ConfigurationFile {
         if (dbHost == null || dbName == null || dbUser == null || dbPassword == null) {
             throw new Exception("Failed to configure the database: one or more parameters are null.");
         }
+        return new MySqlStorage(dbHost, dbPort, dbName, dbUser, dbPassword, readPoolSettings(), plugin.getLogger());
+    }
 
-        // Configure the database connection using the DatabaseManager
-        DatabaseManager.getInstance().configure(dbHost, dbPort, dbName, dbUser, dbPassword);
-        plugin.getLogger().info("Database successfully configured.");
+    /**
+     * Creates the embedded storage backend, whose file is resolved relative to the plugin data folder.
+     *
+     * @return The local storage, not opened yet.
+     */
+    private ReferralStorage createLocalStorage() {
+        FileConfiguration config = plugin.getConfig();
+        File file = dataFile(config.getString(LOCAL_FILE_FILEPATH, DEFAULT_LOCAL_FILE));
+        return new LocalStorage(file, config.getBoolean(LOCAL_SYNC_WRITES_FILEPATH, DEFAULT_LOCAL_SYNC_WRITES), plugin.getLogger());
+    }
+
+    /**
+     * Resolves a file path of the configuration file relative to the plugin data folder.
+     *
+     * @param path The path, absolute or relative.
+     * @return The file.
+     */
+    private File dataFile(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(plugin.getDataFolder(), file.getPath());
+    }
+
+    /**
+     * Reads the circuit breaker settings from the configuration file, falling back to the defaults for missing values.
+     *
+     * @return The circuit breaker settings.
+     * @throws IllegalArgumentException If the settings are not consistent.
+     */
+    private CircuitBreakerSettings readCircuitBreakerSettings() {
+        FileConfiguration config = plugin.getConfig();
+        return new CircuitBreakerSettings(
+                config.getInt(BREAKER_WINDOW_SIZE_FILEPATH, DEFAULT_BREAKER_WINDOW_SIZE),
+                config.getInt(BREAKER_MINIMUM_CALLS_FILEPATH, DEFAULT_BREAKER_MINIMUM_CALLS),
+                config.getInt(BREAKER_FAILURE_RATE_FILEPATH, DEFAULT_BREAKER_FAILURE_RATE),
+                config.getLong(BREAKER_SLOW_CALL_FILEPATH, DEFAULT_BREAKER_SLOW_CALL),
+                config.getLong(BREAKER_OPEN_FILEPATH, DEFAULT_BREAKER_OPEN) * 1000L);
+    }
+
+    /**
+     * Reads the connection pool settings from the configuration file, falling back to the defaults for missing values.
+     *
+     * @return The connection pool settings.
+     */
+    private PoolSettings readPoolSettings() {
+        FileConfiguration config = plugin.getConfig();
+        return new PoolSettings(
+                config.getInt(POOL_MIN_SIZE_FILEPATH, DEFAULT_POOL_MIN_SIZE),
+                config.getInt(POOL_MAX_SIZE_FILEPATH, DEFAULT_POOL_MAX_SIZE),
+                config.getLong(POOL_IDLE_TIMEOUT_FILEPATH, DEFAULT_POOL_IDLE_TIMEOUT) * 1000L,
+                config.getBoolean(POOL_VALIDATE_FILEPATH, DEFAULT_POOL_VALIDATE),
+                config.getLong(POOL_MAX_LIFETIME_FILEPATH, DEFAULT_POOL_MAX_LIFETIME) * 1000L,
+                config.getLong(POOL_CONNECTION_TIMEOUT_FILEPATH, DEFAULT_POOL_CONNECTION_TIMEOUT) * 1000L,
+                config.getInt(POOL_STATEMENT_CACHE_FILEPATH, DEFAULT_POOL_STATEMENT_CACHE));
+    }
+
+    /**
+     * Reads the write-behind settings from the configuration file, falling back to the defaults for missing values.
+     *
+     * @return The write-behind settings.
+     */
+    private WriteBehindSettings readWriteBehindSettings() {
+        FileConfiguration config = plugin.getConfig();
+        return new WriteBehindSettings(
+                config.getBoolean(WRITE_BEHIND_ENABLED_FILEPATH, DEFAULT_WRITE_BEHIND_ENABLED),
+                config.getInt(WRITE_BEHIND_CAPACITY_FILEPATH, DEFAULT_WRITE_BEHIND_CAPACITY),
+                config.getInt(WRITE_BEHIND_BATCH_SIZE_FILEPATH, DEFAULT_WRITE_BEHIND_BATCH_SIZE),
+                config.getLong(WRITE_BEHIND_FLUSH_INTERVAL_FILEPATH, DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL),
+                config.getLong(WRITE_BEHIND_OFFER_TIMEOUT_FILEPATH, DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT));
     }
 }
@@ -0,0 +1,131 @@
+package plugin.referral.others;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records a distribution of latencies cheaply enough to sit on hot paths.
+ * Latencies are counted in log-linear buckets: each power of two of microseconds is split into four buckets,
+ * so percentiles are reported with a relative error below 25%. Every bucket is a LongAdder, which spreads
+ * concurrent increments over several cells instead of making threads contend on a single counter.
+ */
+public final class LatencyHistogram {
+
+    // Buckets per power of two, and its base-2 logarithm
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BITS = 2;
+
+    // Highest power of two of microseconds with its own buckets, about 19 hours; longer latencies share the last one
+    private static final int MAX_EXPONENT = 36;
+
+    private final LongAdder[] buckets = new LongAdder[MAX_EXPONENT * SUB_BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructor for the LatencyHistogram class.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[index(value / 1000)].increment();
+        count.increment();
+        sumNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * @return The number of recorded latencies.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of the recorded latencies, in nanoseconds.
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @return The highest recorded latency, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Estimates a percentile of the recorded latencies. Records made concurrently may or may not be included.
+     *
+     * @param quantile The quantile between 0 and 1, for example 0.99 for the 99th percentile.
+     * @return The upper bound of the bucket holding the percentile in nanoseconds, never above the maximum,
+     *         or 0 if nothing has been recorded.
+     */
+    public long percentileNanos(double quantile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long max = getMaxNanos();
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i) * 1000 + 999, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket of a latency.
+     *
+     * @param micros The latency in microseconds.
+     * @return The index of the bucket.
+     */
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return MAX_EXPONENT * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the highest latency counted in a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The highest latency in microseconds.
+     */
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
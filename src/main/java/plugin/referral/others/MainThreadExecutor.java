@@ -0,0 +1,41 @@
+package plugin.referral.others;
+
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.Executor;
+
+/**
+ * This class is an Executor that runs tasks on the server main thread through the Bukkit scheduler.
+ * It is used to hand the results of asynchronous database operations back to the main thread,
+ * where it is safe to interact with players and the rest of the Bukkit API.
+ */
+public final class MainThreadExecutor implements Executor {
+
+    // Reference to the plugin owning the scheduled tasks
+    private final Plugin plugin;
+
+    /**
+     * Constructor for the MainThreadExecutor class.
+     *
+     * @param plugin The plugin instance used to schedule the tasks.
+     */
+    public MainThreadExecutor(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Runs the task on the main thread: immediately if already called from it, for example when the result
+     * was served from memory, otherwise during the next server tick.
+     * Tasks submitted after the plugin has been disabled are discarded, since the scheduler would reject them.
+     *
+     * @param task The task to run.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (plugin.getServer().isPrimaryThread()) {
+            task.run();
+        } else if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package plugin.referral.others;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class is the registry of the metrics of the plugin, keyed by operation name.
+ * Operations are registered the first time they are recorded. The registry is a singleton
+ * shared by the database layer, the commands and the listeners.
+ */
+public final class Metrics {
+
+    private static final Metrics instance = new Metrics();
+
+    private final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    // Tells whether the current thread is the server main thread, always false until the plugin installs it
+    private volatile BooleanSupplier primaryThread = () -> false;
+
+    /**
+     * Private constructor to prevent instantiation outside the singleton pattern.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Retrieves the singleton instance of Metrics.
+     *
+     * @return The singleton instance of Metrics.
+     */
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Installs the check telling whether the current thread is the server main thread.
+     *
+     * @param primaryThread The check, usually the isPrimaryThread method of the server.
+     */
+    public void setPrimaryThreadCheck(BooleanSupplier primaryThread) {
+        this.primaryThread = primaryThread;
+    }
+
+    /**
+     * @return true if the current thread is the server main thread.
+     */
+    public boolean isPrimaryThread() {
+        return primaryThread.getAsBoolean();
+    }
+
+    /**
+     * Returns the metrics of an operation, registering it if needed.
+     *
+     * @param name The name of the operation.
+     * @return The metrics of the operation.
+     */
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        return metrics != null ? metrics : operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    /**
+     * @return The metrics of every registered operation, sorted by name.
+     */
+    public List<OperationMetrics> getOperations() {
+        Collection<OperationMetrics> values = operations.values();
+        return values.stream().sorted(Comparator.comparing(OperationMetrics::getName)).toList();
+    }
+}
@@ -0,0 +1,173 @@
+package plugin.referral.others;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.PoolStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the metrics of the plugin over HTTP in the Prometheus text format, on the "/metrics" path.
+ * The server only listens on the loopback address, so the metrics are not exposed outside of the machine,
+ * and answers requests on a single background thread, never on the server main thread.
+ */
+public final class MetricsHttpServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for the MetricsHttpServer class. Binds the port, without serving requests yet.
+     *
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MetricsHttpServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "referral-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, without waiting for the requests in progress.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers a request with the current metrics.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException If the response cannot be written.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text format.
+     *
+     * @return The metrics.
+     */
+    static String render() {
+        StringBuilder text = new StringBuilder();
+        Iterable<OperationMetrics> operations = Metrics.getInstance().getOperations();
+
+        header(text, "referral_operation_calls_total", "counter", "Number of calls of the operation.");
+        for (OperationMetrics operation : operations) {
+            sample(text, "referral_operation_calls_total", operation.getName(), null, operation.getCalls());
+        }
+        header(text, "referral_operation_errors_total", "counter", "Number of failed calls of the operation.");
+        for (OperationMetrics operation : operations) {
+            sample(text, "referral_operation_errors_total", operation.getName(), null, operation.getErrors());
+        }
+        header(text, "referral_operation_main_thread_calls_total", "counter",
+                "Number of blocking calls of the operation made from the server main thread.");
+        for (OperationMetrics operation : operations) {
+            sample(text, "referral_operation_main_thread_calls_total", operation.getName(), null, operation.getMainThreadCalls());
+        }
+        header(text, "referral_operation_rate_limited_total", "counter",
+                "Number of calls of the operation rejected because the player exceeded its rate limit.");
+        for (OperationMetrics operation : operations) {
+            sample(text, "referral_operation_rate_limited_total", operation.getName(), null, operation.getRejections());
+        }
+
+        header(text, "referral_operation_latency_seconds", "summary", "Latency of the operation.");
+        for (OperationMetrics operation : operations) {
+            LatencyHistogram latency = operation.getLatency();
+            sample(text, "referral_operation_latency_seconds", operation.getName(), "0.5", seconds(latency.percentileNanos(0.5)));
+            sample(text, "referral_operation_latency_seconds", operation.getName(), "0.99", seconds(latency.percentileNanos(0.99)));
+            sample(text, "referral_operation_latency_seconds_sum", operation.getName(), null, seconds(latency.getSumNanos()));
+            sample(text, "referral_operation_latency_seconds_count", operation.getName(), null, latency.getCount());
+        }
+        header(text, "referral_operation_latency_max_seconds", "gauge", "Highest latency of the operation.");
+        for (OperationMetrics operation : operations) {
+            sample(text, "referral_operation_latency_max_seconds", operation.getName(), null, seconds(operation.getLatency().getMaxNanos()));
+        }
+
+        PoolStats pool = DatabaseManager.getInstance().getPoolStats();
+        if (pool != null) {
+            header(text, "referral_pool_connections", "gauge", "Connections of the database pool, by state.");
+            text.append("referral_pool_connections{state=\"active\"} ").append(pool.active()).append('\n');
+            text.append("referral_pool_connections{state=\"idle\"} ").append(pool.idle()).append('\n');
+            header(text, "referral_pool_waiting_threads", "gauge", "Threads waiting for a database connection.");
+            text.append("referral_pool_waiting_threads ").append(pool.waiting()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of a metric.
+     *
+     * @param text The text being rendered.
+     * @param name The name of the metric.
+     * @param type The Prometheus type of the metric.
+     * @param help The description of the metric.
+     */
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a sample of a metric, labelled with the operation and, for summaries, the quantile.
+     *
+     * @param text      The text being rendered.
+     * @param name      The name of the metric.
+     * @param operation The name of the operation.
+     * @param quantile  The quantile of the sample, or null if the sample is not a quantile.
+     * @param value     The value of the sample.
+     */
+    private static void sample(StringBuilder text, String name, String operation, String quantile, Object value) {
+        text.append(name).append("{operation=\"").append(operation).append('"');
+        if (quantile != null) {
+            text.append(",quantile=\"").append(quantile).append('"');
+        }
+        text.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Formats a duration in seconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,95 @@
+package plugin.referral.others;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the metrics of a single operation: how many times it ran, how long it took,
+ * how many times it failed, how many times it was run on the server main thread
+ * and how many times it was rejected by a rate limit.
+ */
+public final class OperationMetrics {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder mainThreadCalls = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Constructor for the OperationMetrics class.
+     *
+     * @param name The name of the operation.
+     */
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param nanos  The duration of the call in nanoseconds.
+     * @param failed Whether the call failed.
+     */
+    public void record(long nanos, boolean failed) {
+        latency.record(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Records a call made on the server main thread.
+     */
+    public void recordMainThreadCall() {
+        mainThreadCalls.increment();
+    }
+
+    /**
+     * Records a call rejected because the caller exceeded its rate limit.
+     */
+    public void recordRejection() {
+        rejections.increment();
+    }
+
+    /**
+     * @return The name of the operation.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The latency distribution of the calls, failed ones included.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return The number of calls.
+     */
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    /**
+     * @return The number of failed calls.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return The number of calls made on the server main thread.
+     */
+    public long getMainThreadCalls() {
+        return mainThreadCalls.sum();
+    }
+
+    /**
+     * @return The number of calls rejected by a rate limit.
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+}
@@ -0,0 +1,29 @@
+package plugin.referral.others;
+
+/**
+ * This record holds the rate limit of a command, as read from the configuration file.
+ * A player may run the command burst times in a row, then once every 60 / perMinute seconds.
+ *
+ * @param burst     The number of calls a player may make in a row after being idle.
+ * @param perMinute The number of calls a player may sustain per minute.
+ */
+public record RateLimit(int burst, int perMinute) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If the burst or the rate is not positive.
+     */
+    public RateLimit {
+        if (burst < 1 || perMinute < 1) {
+            throw new IllegalArgumentException("Invalid rate limit: burst " + burst + ", per minute " + perMinute);
+        }
+    }
+
+    /**
+     * @return The time it takes to earn back one call, in nanoseconds.
+     */
+    public long intervalNanos() {
+        return 60_000_000_000L / perMinute;
+    }
+}
@@ -1,43 +1,179 @@
 package plugin.referral.others;
 
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * This class is responsible for generating unique referral codes,
+ * This class is responsible for generating referral codes,
  * consisting of a random combination of uppercase letters and digits.
  * The generated referral code has a fixed length of 8 characters.
+ * <p>
+ * A code is handled as a primitive long holding its base-36 value, and only turned into a String when it is stored.
+ * Codes are generated in bulk into blocks of ready-to-use values: callers take them with a single atomic increment,
+ * and the next block is generated in the background once half of the current one has been handed out,
+ * so a burst of new players never waits on code generation.
+ * Codes are random, not guaranteed unique: uniqueness is enforced by the database.
  */
 public final class ReferralCodeGenerator {
 
-    // The generated referral code
-    private final String code;
+    // Length of the referral code
+    public static final int CODE_LENGTH = 8;
+
+    // Valid characters, the index of each character being its base-36 digit value
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    // Number of distinct codes, 36^8
+    private static final long CODE_SPACE = 2_821_109_907_456L;
+
+    // Base-36 digit value of each ASCII character, -1 for characters that are not valid
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DIGITS[ALPHABET[i]] = (byte) i;
+            DIGITS[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private final int blockSize;
+    private final Executor refiller;
+    private final AtomicReference<Block> current;
+    private final AtomicReference<Block> next = new AtomicReference<>();
+    private final AtomicBoolean refilling = new AtomicBoolean();
 
     /**
      * Constructor for the ReferralCodeGenerator class.
-     * Generates a random 8-character alphanumeric referral code.
-     * The characters used are uppercase letters (A-Z) and digits (0-9).
+     * Generates the first block of codes immediately.
+     *
+     * @param blockSize The number of codes generated at once.
+     * @param refiller  The executor generating the next block in the background.
+     */
+    public ReferralCodeGenerator(int blockSize, Executor refiller) {
+        if (blockSize < 2) {
+            throw new IllegalArgumentException("The block size must be at least 2.");
+        }
+        this.blockSize = blockSize;
+        this.refiller = refiller;
+        this.current = new AtomicReference<>(new Block(blockSize));
+    }
+
+    /**
+     * Takes the next ready-to-use code, in its packed form.
+     *
+     * @return A random code between 0 and 36^8 - 1.
      */
-    public ReferralCodeGenerator() {
-        int length = 8;  // Length of the referral code
-        String characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";  // Valid characters
-        StringBuilder referralCode = new StringBuilder();  // StringBuilder for the code
-        Random random = new Random();  // Random number generator
+    public long nextPacked() {
+        while (true) {
+            Block block = current.get();
+            int index = block.cursor.getAndIncrement();
+            if (index < block.codes.length) {
+                if (index == block.codes.length / 2) {
+                    scheduleRefill();
+                }
+                return block.codes[index];
+            }
 
-        // Loop to generate 8 random characters
-        for (int i = 0; i < length; i++) {
-            referralCode.append(characters.charAt(random.nextInt(characters.length())));
+            // The block is exhausted: switch to the pre-generated one, or generate it here if it is not ready
+            Block replacement = next.getAndSet(null);
+            current.compareAndSet(block, replacement != null ? replacement : new Block(blockSize));
         }
+    }
+
+    /**
+     * Takes the next ready-to-use code.
+     *
+     * @return An 8-character alphanumeric code.
+     */
+    public String nextCode() {
+        return encode(nextPacked());
+    }
+
+    /**
+     * Generates a single code outside of the pre-generated blocks, for one-off uses such as schema upgrades.
+     *
+     * @return An 8-character alphanumeric code.
+     */
+    public static String randomCode() {
+        return encode(ThreadLocalRandom.current().nextLong(CODE_SPACE));
+    }
 
-        // Assign the generated code to the instance variable
-        this.code = referralCode.toString();
+    /**
+     * Turns a packed code into its 8-character representation.
+     *
+     * @param packed A code between 0 and 36^8 - 1.
+     * @return The 8-character alphanumeric code.
+     */
+    public static String encode(long packed) {
+        char[] chars = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (packed % ALPHABET.length)];
+            packed /= ALPHABET.length;
+        }
+        return new String(chars);
     }
 
     /**
-     * Returns the generated referral code.
+     * Turns an 8-character code into its packed form. Lowercase letters are accepted.
      *
-     * @return The generated referral code, an 8-character alphanumeric string.
+     * @param code The 8-character alphanumeric code.
+     * @return The packed code, or -1 if the text is not a valid code.
+     */
+    public static long decode(CharSequence code) {
+        if (code.length() != CODE_LENGTH) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            char c = code.charAt(i);
+            int digit = c < DIGITS.length ? DIGITS[c] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            packed = packed * ALPHABET.length + digit;
+        }
+        return packed;
+    }
+
+    /**
+     * Generates the next block in the background, unless it is already available or being generated.
      */
-    public String getCode() {
-        return this.code;
+    private void scheduleRefill() {
+        if (next.get() != null || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refiller.execute(() -> {
+                try {
+                    next.compareAndSet(null, new Block(blockSize));
+                } finally {
+                    refilling.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // The executor is shutting down: the block will be generated on demand
+            refilling.set(false);
+        }
+    }
+
+    /**
+     * A block of pre-generated codes, handed out in order.
+     */
+    private static final class Block {
+
+        private final long[] codes;
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        private Block(int size) {
+            codes = new long[size];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < size; i++) {
+                codes[i] = random.nextLong(CODE_SPACE);
+            }
+        }
     }
 }
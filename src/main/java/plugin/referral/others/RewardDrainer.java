@@ -0,0 +1,256 @@
+package plugin.referral.others;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import plugin.referral.db.DatabaseManager;
+import plugin.referral.db.PendingReward;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * This class hands the rewards waiting in the outbox to the players online.
+ * The outbox is read in the background, for all the players online every few seconds and for a single player
+ * when they join or earn a reward, and the rewards read are queued for the main thread. Every tick, the main thread
+ * delivers queued rewards until its time budget is spent, so that a large backlog is spread over many ticks
+ * instead of causing a lag spike, then acknowledges the delivered ones with a single background delete.
+ * <p>
+ * Delivery is at least once: a reward delivered just before a crash or a failed acknowledgement may be delivered
+ * again after a restart. Rewards of players who left are kept in the outbox until they join again.
+ * The reads and the acknowledgements of the outbox run one at a time, so that a read started before an
+ * acknowledgement cannot queue a reward again once it is acknowledged.
+ */
+public final class RewardDrainer {
+
+    private final Plugin plugin;
+    private final Logger logger;
+    private final RewardSettings settings;
+
+    // Time the main thread may spend delivering rewards during a single tick
+    private final long tickBudgetNanos;
+
+    // Rewards read from the outbox, waiting for the main thread
+    private final Queue<PendingReward> queue = new ConcurrentLinkedQueue<>();
+
+    // Ids of the rewards queued, or delivered but not acknowledged yet, so that they are never queued twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Ids of the delivered rewards whose acknowledgement failed, retried with the next poll
+    private final Queue<Long> unacknowledged = new ConcurrentLinkedQueue<>();
+
+    // Set while a poll of the players online is pending, so that a slow database does not pile polls up
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    // Time spent delivering rewards on the main thread, recorded for the ticks that delivered any
+    private final OperationMetrics metrics = Metrics.getInstance().operation("rewards.deliver");
+
+    // Tail of the chain running the reads and acknowledgements of the outbox one at a time
+    private CompletableFuture<Void> lane = CompletableFuture.completedFuture(null);
+
+    private BukkitTask drainTask;
+    private BukkitTask pollTask;
+
+    /**
+     * Constructor for the RewardDrainer class. Nothing is delivered until the drainer is started.
+     *
+     * @param plugin   The instance of the main plugin class to access the logger, the scheduler and the players.
+     * @param settings The settings of the rewards.
+     */
+    public RewardDrainer(Plugin plugin, RewardSettings settings) {
+        this.plugin = plugin;
+        this.logger = plugin.getLogger();
+        this.settings = settings;
+        this.tickBudgetNanos = TimeUnit.MICROSECONDS.toNanos(settings.tickBudgetMicros());
+    }
+
+    /**
+     * Starts delivering the rewards, every tick, and polling the outbox for the players online.
+     * Must be called from the main thread once the plugin is ready.
+     */
+    public void start() {
+        long pollTicks = settings.pollSeconds() * 20L;
+        drainTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+        pollTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::poll, 0L, pollTicks);
+    }
+
+    /**
+     * Stops delivering the rewards. The queued ones stay in the outbox and are delivered after the next start.
+     */
+    public void stop() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+    }
+
+    /**
+     * Reads the pending rewards of a player right away, when they join or earn a reward,
+     * instead of waiting for the next poll. Ignored while the plugin is still starting, since the first poll
+     * reads the rewards of every player online.
+     *
+     * @param username The username of the player.
+     */
+    public void requestRewards(String username) {
+        if (DatabaseManager.getInstance().isReady()) {
+            serialize(() -> fetch(List.of(username)));
+        }
+    }
+
+    /**
+     * Retries the failed acknowledgements, then polls the outbox for the players online,
+     * unless enough rewards are already queued or a poll is pending. Runs on the main thread.
+     */
+    private void poll() {
+        List<Long> retried = new ArrayList<>();
+        Long id;
+        while ((id = unacknowledged.poll()) != null) {
+            retried.add(id);
+        }
+        if (!retried.isEmpty()) {
+            serialize(() -> acknowledge(retried));
+        }
+
+        if (queue.size() >= settings.batchSize() || !polling.compareAndSet(false, true)) {
+            return;
+        }
+        List<String> online = new ArrayList<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            online.add(player.getName());
+        }
+        if (online.isEmpty()) {
+            polling.set(false);
+            return;
+        }
+        serialize(() -> fetch(online).whenComplete((ignored, error) -> polling.set(false)));
+    }
+
+    /**
+     * Reads the pending rewards of some players and queues the ones that are not queued yet.
+     *
+     * @param players The usernames of the players.
+     * @return A future completed once the rewards are queued, even if the outbox could not be read.
+     */
+    private CompletableFuture<Void> fetch(Collection<String> players) {
+        return DatabaseManager.getInstance().getPendingRewardsAsync(players, settings.batchSize()).handle((rewards, error) -> {
+            if (error != null) {
+                logger.warning("Unable to read the pending rewards: " + error.getMessage());
+                return null;
+            }
+            for (PendingReward reward : rewards) {
+                if (inFlight.add(reward.id())) {
+                    queue.add(reward);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Delivers queued rewards until the time budget of the tick is spent, then acknowledges the delivered ones.
+     * Runs on the main thread every tick. Rewards of players who left are dropped from the queue and stay in the outbox.
+     */
+    private void drain() {
+        if (queue.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean failed = false;
+        List<Long> delivered = new ArrayList<>();
+
+        PendingReward reward;
+        while (System.nanoTime() - start < tickBudgetNanos && (reward = queue.poll()) != null) {
+            Player player = plugin.getServer().getPlayerExact(reward.player());
+            if (player == null) {
+                inFlight.remove(reward.id());
+                continue;
+            }
+            failed |= !deliver(player, reward);
+            delivered.add(reward.id());
+        }
+
+        if (!delivered.isEmpty()) {
+            serialize(() -> acknowledge(delivered));
+        }
+        metrics.record(System.nanoTime() - start, failed);
+    }
+
+    /**
+     * Hands a reward to a player, running the configured commands from the console and sending the message.
+     * A failing command is reported, and the reward is still considered delivered, so that it is not retried forever.
+     *
+     * @param player The rewarded player.
+     * @param reward The reward.
+     * @return true if every command ran without failing.
+     */
+    private boolean deliver(Player player, PendingReward reward) {
+        boolean succeeded = true;
+        for (String command : settings.commands()) {
+            try {
+                plugin.getServer().dispatchCommand(plugin.getServer().getConsoleSender(), placeholders(command, player, reward));
+            } catch (RuntimeException e) {
+                succeeded = false;
+                logger.warning("Reward command failed for player " + player.getName() + ": " + e.getMessage());
+            }
+        }
+        if (!settings.message().isEmpty()) {
+            player.sendMessage(placeholders(settings.message(), player, reward));
+        }
+        return succeeded;
+    }
+
+    /**
+     * Removes delivered rewards from the outbox. Rewards whose removal fails are kept in flight,
+     * so that they are not delivered again, and retried with the next poll.
+     *
+     * @param ids The ids of the delivered rewards.
+     * @return A future completed once the acknowledgement is done, even if it failed.
+     */
+    private CompletableFuture<Void> acknowledge(List<Long> ids) {
+        return DatabaseManager.getInstance().acknowledgeRewardsAsync(ids).handle((ignored, error) -> {
+            if (error != null) {
+                logger.warning("Unable to acknowledge " + ids.size() + " delivered rewards: " + error.getMessage());
+                unacknowledged.addAll(ids);
+            } else {
+                ids.forEach(inFlight::remove);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Chains an operation on the outbox after the pending ones. An operation failing unexpectedly
+     * does not stop the following ones.
+     *
+     * @param operation The operation, whose future reports its own errors.
+     */
+    private synchronized void serialize(Supplier<CompletableFuture<Void>> operation) {
+        lane = lane.thenCompose(ignored -> operation.get()).exceptionally(error -> null);
+    }
+
+    /**
+     * Replaces the placeholders of a reward command or message.
+     *
+     * @param text   The command or message.
+     * @param player The rewarded player.
+     * @param reward The reward.
+     * @return The text with the player and the invitee names.
+     */
+    private static String placeholders(String text, Player player, PendingReward reward) {
+        return text.replace("%player%", player.getName()).replace("%invitee%", reward.invitee());
+    }
+}
@@ -0,0 +1,33 @@
+package plugin.referral.others;
+
+import java.util.List;
+
+/**
+ * This record holds the settings of the invitation rewards, as read from the configuration file.
+ * The commands and the message may use the %player% and %invitee% placeholders.
+ *
+ * @param commands         The console commands run for each reward.
+ * @param message          The message sent to the rewarded player, empty for none.
+ * @param tickBudgetMicros The time the main thread may spend handing out rewards during a single tick.
+ * @param pollSeconds      The interval between two checks of the outbox for the players online.
+ * @param batchSize        The maximum number of rewards read from the outbox at once.
+ */
+public record RewardSettings(List<String> commands,
+                             String message,
+                             long tickBudgetMicros,
+                             int pollSeconds,
+                             int batchSize) {
+
+    /**
+     * Validates the settings.
+     *
+     * @throws IllegalArgumentException If the budget, the interval or the batch size is not positive.
+     */
+    public RewardSettings {
+        if (tickBudgetMicros < 1 || pollSeconds < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid reward settings: tick budget " + tickBudgetMicros
+                    + " us, poll interval " + pollSeconds + " s, batch " + batchSize);
+        }
+        commands = List.copyOf(commands);
+    }
+}
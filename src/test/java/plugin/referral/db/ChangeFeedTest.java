@@ -0,0 +1,97 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class holds the tests of the position of a server in the change log, in particular of the sequences
+ * that commit out of order.
+ */
+class ChangeFeedTest {
+
+    @Test
+    void changesInOrderAreAcceptedOnce() {
+        ChangeFeed feed = new ChangeFeed(10);
+
+        assertEquals(List.of(change(11), change(12)), feed.accept(List.of(change(11), change(12))));
+        assertEquals(12, feed.last());
+        assertTrue(feed.missing().isEmpty());
+        assertTrue(feed.accept(List.of(change(12))).isEmpty());
+    }
+
+    @Test
+    void changesAlreadyReflectedAreSkipped() {
+        ChangeFeed feed = new ChangeFeed(10);
+
+        assertEquals(List.of(change(11)), feed.accept(List.of(change(9), change(10), change(11))));
+        assertTrue(feed.missing().isEmpty());
+    }
+
+    @Test
+    void skippedSequencesAreLookedUp() {
+        ChangeFeed feed = new ChangeFeed(10);
+
+        assertEquals(List.of(change(11), change(14)), feed.accept(List.of(change(11), change(14))));
+        assertEquals(14, feed.last());
+        assertEquals(List.of(12L, 13L), feed.missing());
+    }
+
+    @Test
+    void lateSequenceIsAcceptedExactlyOnce() {
+        ChangeFeed feed = new ChangeFeed(10);
+        feed.accept(List.of(change(11), change(14)));
+
+        // The next read returns the late sequence together with the ones after the last accepted
+        assertEquals(List.of(change(13), change(15)), feed.accept(List.of(change(13), change(15))));
+        assertEquals(List.of(12L), feed.missing());
+        assertTrue(feed.accept(List.of(change(13))).isEmpty());
+
+        assertEquals(List.of(change(12)), feed.accept(List.of(change(12))));
+        assertTrue(feed.missing().isEmpty());
+        assertTrue(feed.accept(List.of(change(12))).isEmpty());
+        assertEquals(15, feed.last());
+    }
+
+    @Test
+    void skippedSequencesAreGivenUpAfterTheGracePeriod() throws Exception {
+        ChangeFeed feed = new ChangeFeed(10, TimeUnit.MILLISECONDS.toNanos(1));
+        feed.accept(List.of(change(12)));
+        Thread.sleep(5);
+
+        assertTrue(feed.missing().isEmpty());
+        assertTrue(feed.accept(List.of(change(11))).isEmpty());
+    }
+
+    @Test
+    void skippedSequencesWithinTheGracePeriodAreKept() {
+        ChangeFeed feed = new ChangeFeed(10, TimeUnit.HOURS.toNanos(1));
+        feed.accept(List.of(change(12)));
+
+        assertEquals(List.of(11L), feed.missing());
+        assertEquals(List.of(change(11)), feed.accept(List.of(change(11))));
+    }
+
+    @Test
+    void oldestSkippedSequencesAreEvictedBeyondTheLimit() {
+        ChangeFeed feed = new ChangeFeed(0);
+        feed.accept(List.of(change(600)));
+        feed.accept(List.of(change(1200)));
+
+        List<Long> missing = feed.missing();
+        assertEquals(1000, missing.size());
+        // 1 to 599 and 601 to 1199 were skipped, the 198 oldest being evicted
+        assertEquals(LongStream.range(199, 1200).filter(sequence -> sequence != 600).boxed().toList(), missing);
+        assertTrue(feed.accept(List.of(change(100))).isEmpty());
+        assertEquals(List.of(change(1199)), feed.accept(List.of(change(1199))));
+    }
+
+    private static StoredChange change(long sequence) {
+        return new StoredChange(sequence, StoredChange.Type.INVITATION, "alice", "bob" + sequence, null, false);
+    }
+}
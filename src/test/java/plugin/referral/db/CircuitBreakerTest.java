@@ -0,0 +1,105 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class holds the tests of the circuit breaker guarding the database calls.
+ * The breaker stays open for a millisecond, so that the tests reach the half-open state by sleeping briefly.
+ */
+class CircuitBreakerTest {
+
+    private static final Logger LOGGER = Logger.getLogger("CircuitBreakerTest");
+
+    private final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerSettings(4, 2, 50, 1000, 1), LOGGER);
+
+    @Test
+    void opensOnceTheFailureRateIsReached() {
+        breaker.record(breaker.tryAcquire(), false);
+        breaker.record(breaker.tryAcquire(), false);
+        breaker.record(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.record(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void rejectsCallsWhileOpen() {
+        CircuitBreaker slow = new CircuitBreaker(new CircuitBreakerSettings(4, 2, 50, 1000, 60_000), LOGGER);
+        slow.record(slow.tryAcquire(), true);
+        slow.record(slow.tryAcquire(), true);
+
+        assertNull(slow.tryAcquire());
+    }
+
+    @Test
+    void letsASingleTrialCallThroughOnceHalfOpen() throws Exception {
+        open();
+
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        assertNotNull(trial);
+        assertTrue(trial.trial());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+
+        breaker.record(trial, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedTrialCallOpensAgain() throws Exception {
+        open();
+
+        breaker.record(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void lateCallDoesNotResolveTheHalfOpenState() throws Exception {
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        open();
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        breaker.record(late, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+
+        breaker.record(trial, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void lateCallIsNotCountedAfterTheBreakerClosed() throws Exception {
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        open();
+        breaker.record(breaker.tryAcquire(), false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Counted, the late failure would make 1 failure out of 2 calls and open the breaker
+        breaker.record(late, true);
+        breaker.record(breaker.tryAcquire(), false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(breaker.tryAcquire().trial());
+    }
+
+    /**
+     * Opens the breaker with two failed calls, and waits for the open duration to elapse.
+     *
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    private void open() throws InterruptedException {
+        breaker.record(breaker.tryAcquire(), true);
+        breaker.record(breaker.tryAcquire(), true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(5);
+    }
+}
@@ -0,0 +1,92 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class holds the tests of the in-memory leaderboard of the inviters.
+ */
+class InviteLeaderboardTest {
+
+    private final InviteLeaderboard leaderboard = new InviteLeaderboard();
+
+    @Test
+    void tiedInvitersShareTheirRank() {
+        leaderboard.merge(Map.of("alice", 5, "bob", 3, "carl", 3, "dave", 1));
+
+        assertEquals(1, leaderboard.rank("alice"));
+        assertEquals(2, leaderboard.rank("bob"));
+        assertEquals(2, leaderboard.rank("CARL"));
+        assertEquals(4, leaderboard.rank("dave"));
+        assertEquals(0, leaderboard.rank("erin"));
+        assertEquals(List.of(new LeaderboardEntry("alice", 5), new LeaderboardEntry("bob", 3), new LeaderboardEntry("carl", 3)),
+                leaderboard.top(3));
+    }
+
+    @Test
+    void incrementMovesTheInviterUp() {
+        leaderboard.merge(Map.of("alice", 2, "bob", 1));
+        leaderboard.increment("bob");
+        leaderboard.increment("Bob");
+
+        assertEquals(1, leaderboard.rank("bob"));
+        assertEquals(2, leaderboard.rank("alice"));
+        leaderboard.increment("carl");
+        assertEquals(3, leaderboard.size());
+        assertEquals(3, leaderboard.rank("carl"));
+    }
+
+    @Test
+    void mergeIgnoresZeroAndKeepsTheHighestCount() {
+        leaderboard.merge(Map.of("alice", 4));
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("alice", 2);
+        counts.put("bob", 0);
+        counts.put("carl", 3);
+        leaderboard.merge(counts);
+
+        assertEquals(2, leaderboard.size());
+        assertEquals(0, leaderboard.rank("bob"));
+        assertEquals(List.of(new LeaderboardEntry("alice", 4), new LeaderboardEntry("carl", 3)), leaderboard.top(10));
+
+        leaderboard.merge(Map.of("carl", 6));
+        assertEquals(1, leaderboard.rank("carl"));
+        assertEquals(2, leaderboard.rank("alice"));
+    }
+
+    @Test
+    void renameMovesTheEntry() {
+        leaderboard.merge(Map.of("alice", 2, "bob", 1));
+        leaderboard.rename("alice", "alicia");
+
+        assertEquals(0, leaderboard.rank("alice"));
+        assertEquals(1, leaderboard.rank("alicia"));
+        assertEquals(2, leaderboard.size());
+        assertEquals(List.of(new LeaderboardEntry("alicia", 2), new LeaderboardEntry("bob", 1)), leaderboard.top(10));
+
+        leaderboard.rename("nobody", "somebody");
+        assertEquals(2, leaderboard.size());
+    }
+
+    @Test
+    void countsBeyondTheInitialTreeAreRanked() {
+        leaderboard.merge(Map.of("alice", 1023, "bob", 5000, "carl", 1024, "dave", 1));
+
+        assertEquals(1, leaderboard.rank("bob"));
+        assertEquals(2, leaderboard.rank("carl"));
+        assertEquals(3, leaderboard.rank("alice"));
+        assertEquals(4, leaderboard.rank("dave"));
+
+        for (int i = 0; i < 5000; i++) {
+            leaderboard.increment("alice");
+        }
+        assertEquals(1, leaderboard.rank("alice"));
+        assertEquals(2, leaderboard.rank("bob"));
+        assertEquals(4, leaderboard.rank("dave"));
+    }
+}
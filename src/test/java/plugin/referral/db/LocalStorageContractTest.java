@@ -0,0 +1,20 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the storage contract against the local storage, on a file of a temporary folder.
+ */
+class LocalStorageContractTest extends ReferralStorageContractTest {
+
+    @TempDir
+    Path folder;
+
+    @Override
+    protected ReferralStorage createStorage() {
+        return new LocalStorage(folder.resolve("referrals.log").toFile(), false, Logger.getLogger("LocalStorageContractTest"));
+    }
+}
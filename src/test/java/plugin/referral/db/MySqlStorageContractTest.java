@@ -0,0 +1,55 @@
+package plugin.referral.db;
+
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the storage contract against the MySQL storage, on a database started in a container.
+ * The container is shared by the tests, and its tables are dropped before each one, so that every test
+ * starts from a fresh install of the schema. The tests are skipped when Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MySqlStorageContractTest extends ReferralStorageContractTest {
+
+    @Container
+    private static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+
+    @Override
+    protected ReferralStorage createStorage() throws Exception {
+        dropTables();
+        PoolSettings pool = new PoolSettings(1, 4, 60_000, false, 1_800_000, 5_000, 64);
+        return new MySqlStorage(MYSQL.getHost(), MYSQL.getMappedPort(MySQLContainer.MYSQL_PORT), MYSQL.getDatabaseName(),
+                MYSQL.getUsername(), MYSQL.getPassword(), pool, Logger.getLogger("MySqlStorageContractTest"));
+    }
+
+    /**
+     * Drops every table of the test database, left by the previous test.
+     *
+     * @throws Exception If the tables cannot be dropped.
+     */
+    private static void dropTables() throws Exception {
+        try (Connection conn = DriverManager.getConnection(MYSQL.getJdbcUrl(), MYSQL.getUsername(), MYSQL.getPassword());
+             Statement stmt = conn.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT table_name FROM information_schema.tables WHERE table_schema = DATABASE()")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            for (String table : tables) {
+                stmt.execute("DROP TABLE `" + table + "`");
+            }
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+        }
+    }
+}
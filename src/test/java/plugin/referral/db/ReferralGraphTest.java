@@ -0,0 +1,76 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class holds the tests of the in-memory invitation graph. The order of the invitees of a player
+ * is not specified, so they are compared as sets.
+ */
+class ReferralGraphTest {
+
+    private final ReferralGraph graph = new ReferralGraph();
+
+    @Test
+    void traversalsFollowTheAddedEdges() {
+        graph.addEdge("alice", "bob");
+        graph.addEdge("alice", "carl");
+        graph.addEdge("bob", "dave");
+
+        assertEquals(Set.of("bob", "carl"), Set.copyOf(graph.invitees("ALICE")));
+        assertEquals(List.of("bob", "alice"), graph.upline("dave", 5));
+        assertEquals(List.of("bob"), graph.upline("dave", 1));
+        assertArrayEquals(new int[]{2, 1}, graph.downlineLevels("alice", 5));
+        assertEquals(2, graph.downlineSize("alice", 1));
+        assertEquals(0, graph.downlineSize("nobody", 5));
+    }
+
+    @Test
+    void edgesAddedDuringALoadAreKept() {
+        graph.beginLoad();
+        ReferralGraph.Builder builder = new ReferralGraph.Builder();
+        builder.add("alice", "bob");
+        graph.addEdge("alice", "bob");
+        graph.addEdge("alice", "carl");
+        graph.addEdge("carl", "dave");
+        graph.rename("dave", "david");
+        graph.load(builder);
+
+        assertEquals(Set.of("bob", "carl"), Set.copyOf(graph.invitees("alice")));
+        assertEquals(List.of("david"), graph.invitees("carl"));
+        assertEquals(3, graph.downlineSize("alice", 5));
+    }
+
+    @Test
+    void edgesAddedBeforeALoadAreReplaced() {
+        graph.addEdge("alice", "bob");
+        graph.beginLoad();
+        ReferralGraph.Builder builder = new ReferralGraph.Builder();
+        builder.add("carl", "dave");
+        graph.load(builder);
+
+        assertTrue(graph.invitees("alice").isEmpty());
+        assertEquals(List.of("dave"), graph.invitees("carl"));
+    }
+
+    @Test
+    void renameOntoAnExistingNodeMergesThem() {
+        graph.addEdge("alice", "erin");
+        graph.addEdge("erin", "frank");
+        graph.addEdge("bob", "erin2");
+        graph.addEdge("erin2", "gina");
+        graph.rename("erin", "erin2");
+
+        assertEquals(Set.of("erin2", "alice", "bob"), Set.copyOf(graph.upline("frank", 5)));
+        assertEquals(2, graph.invitees("erin2").size());
+        assertEquals(3, graph.downlineSize("alice", 5));
+        assertEquals(3, graph.downlineSize("bob", 5));
+        assertTrue(graph.invitees("erin").isEmpty());
+    }
+}
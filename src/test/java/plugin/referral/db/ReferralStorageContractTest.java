@@ -0,0 +1,350 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class holds the tests of the ReferralStorage contract, which every backend must pass.
+ * Each backend has a subclass creating an empty storage for every test.
+ */
+abstract class ReferralStorageContractTest {
+
+    protected ReferralStorage storage;
+
+    /**
+     * Creates an empty storage, not opened yet.
+     *
+     * @return The storage to test.
+     * @throws Exception If the storage cannot be created.
+     */
+    protected abstract ReferralStorage createStorage() throws Exception;
+
+    @BeforeEach
+    void openStorage() throws Exception {
+        storage = createStorage();
+        storage.open();
+    }
+
+    @AfterEach
+    void closeStorage() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void insertReferralStoresTheCode() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(RegistrationOutcome.CREATED, storage.insertReferral(uuid, "alice", "AAAA0001"));
+        assertEquals("AAAA0001", storage.getReferralCode("alice"));
+        assertEquals("AAAA0001", storage.getReferralCode("ALICE"));
+        assertEquals("alice", storage.findCodeOwner("AAAA0001"));
+        assertNull(storage.getReferralCode("bob"));
+        assertNull(storage.findCodeOwner("ZZZZ9999"));
+    }
+
+    @Test
+    void insertReferralTwiceKeepsTheFirstCode() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        storage.insertReferral(uuid, "alice", "AAAA0001");
+        assertEquals(RegistrationOutcome.ALREADY_EXISTS, storage.insertReferral(uuid, "alice", "AAAA0002"));
+        assertEquals("AAAA0001", storage.getReferralCode("alice"));
+        assertNull(storage.findCodeOwner("AAAA0002"));
+    }
+
+    @Test
+    void insertReferralWithATakenCodeWritesNothing() throws Exception {
+        storage.insertReferral(UUID.randomUUID(), "alice", "AAAA0001");
+        assertNull(storage.insertReferral(UUID.randomUUID(), "bob", "AAAA0001"));
+        assertNull(storage.getReferralCode("bob"));
+        assertEquals("alice", storage.findCodeOwner("AAAA0001"));
+    }
+
+    @Test
+    void insertReferralsReportsEachOutcome() throws Exception {
+        UUID alice = UUID.randomUUID();
+        storage.insertReferral(alice, "alice", "AAAA0001");
+
+        RegistrationOutcome[] outcomes = storage.insertReferrals(List.of(
+                new NewReferral(alice, "alice", "AAAA0009"),
+                new NewReferral(UUID.randomUUID(), "bob", "BBBB0001"),
+                new NewReferral(UUID.randomUUID(), "carl", "AAAA0001")));
+
+        assertArrayEquals(new RegistrationOutcome[]{RegistrationOutcome.ALREADY_EXISTS, RegistrationOutcome.CREATED, null}, outcomes);
+        assertEquals("AAAA0001", storage.getReferralCode("alice"));
+        assertEquals("BBBB0001", storage.getReferralCode("bob"));
+        assertNull(storage.getReferralCode("carl"));
+    }
+
+    @Test
+    void insertReferralsResolvesDuplicatesWithinTheBatch() throws Exception {
+        UUID alice = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+
+        RegistrationOutcome[] outcomes = storage.insertReferrals(List.of(
+                new NewReferral(alice, "alice", "AAAA0001"),
+                new NewReferral(alice, "alice", "AAAA0002"),
+                new NewReferral(UUID.randomUUID(), "bob", "BBBB0001"),
+                new NewReferral(other, "BOB", "BBBB0002")));
+
+        // The second bob is registered after the first one, whose username is released as for a single insert
+        assertArrayEquals(new RegistrationOutcome[]{RegistrationOutcome.CREATED, RegistrationOutcome.ALREADY_EXISTS,
+                RegistrationOutcome.CREATED, RegistrationOutcome.CREATED}, outcomes);
+        assertEquals("AAAA0001", storage.getReferralCode("alice"));
+        assertNull(storage.findCodeOwner("AAAA0002"));
+        assertEquals("BBBB0002", storage.getReferralCode("bob"));
+        assertEquals("BOB", storage.findCodeOwner("BBBB0002"));
+        assertEquals("BBBB0002", storage.loadPlayer(other, "BOB").referralCode());
+    }
+
+    @Test
+    void insertInvitationCountsTheInvite() throws Exception {
+        register("alice", "bob");
+        assertEquals(RegistrationOutcome.CREATED, storage.insertInvitation("alice", "bob"));
+        assertTrue(storage.isAlreadyInvited("alice", "bob"));
+        assertTrue(storage.isAlreadyInvited("ALICE", "Bob"));
+        assertFalse(storage.isAlreadyInvited("bob", "alice"));
+        assertEquals(1, storage.getInviteCount("alice"));
+        assertEquals(0, storage.getInviteCount("bob"));
+    }
+
+    @Test
+    void insertInvitationTwiceCountsItOnce() throws Exception {
+        register("alice", "bob");
+        storage.insertInvitation("alice", "bob");
+        assertEquals(RegistrationOutcome.ALREADY_EXISTS, storage.insertInvitation("alice", "bob"));
+        assertEquals(1, storage.getInviteCount("alice"));
+        assertEquals(1, storage.getPendingRewards(List.of("alice"), 10).size());
+    }
+
+    @Test
+    void insertInvitationOfUnknownPlayersWritesNothing() throws Exception {
+        register("alice");
+        assertEquals(RegistrationOutcome.UNKNOWN_PLAYER, storage.insertInvitation("alice", "nobody"));
+        assertEquals(RegistrationOutcome.UNKNOWN_PLAYER, storage.insertInvitation("nobody", "alice"));
+        assertEquals(0, storage.getInviteCount("alice"));
+        assertTrue(storage.getPendingRewards(List.of("alice"), 10).isEmpty());
+    }
+
+    @Test
+    void insertInvitationsReportsEachOutcome() throws Exception {
+        register("alice", "bob", "carl", "dave");
+        storage.insertInvitation("alice", "bob");
+
+        RegistrationOutcome[] outcomes = storage.insertInvitations(List.of(
+                new Invitation("alice", "bob"),
+                new Invitation("alice", "carl"),
+                new Invitation("alice", "carl"),
+                new Invitation("alice", "nobody"),
+                new Invitation("bob", "dave")), true);
+
+        assertArrayEquals(new RegistrationOutcome[]{RegistrationOutcome.ALREADY_EXISTS, RegistrationOutcome.CREATED,
+                RegistrationOutcome.ALREADY_EXISTS, RegistrationOutcome.UNKNOWN_PLAYER, RegistrationOutcome.CREATED}, outcomes);
+        assertEquals(2, storage.getInviteCount("alice"));
+        assertEquals(1, storage.getInviteCount("bob"));
+        assertEquals(2, storage.getPendingRewards(List.of("alice"), 10).size());
+    }
+
+    @Test
+    void invitesArePagedInAlphabeticalOrder() throws Exception {
+        register("alice", "erin", "bob", "dave", "carl", "fred");
+        for (String invitee : List.of("erin", "bob", "dave", "carl", "fred")) {
+            storage.insertInvitation("alice", invitee);
+        }
+
+        List<String> all = new ArrayList<>();
+        String after = null;
+        List<String> page;
+        while (!(page = storage.getInvitesPage("alice", after, 2)).isEmpty()) {
+            assertTrue(page.size() <= 2);
+            all.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(List.of("bob", "carl", "dave", "erin", "fred"), all);
+        assertEquals(List.of("dave", "erin"), storage.getInvitesPage("alice", "carl", 2));
+        assertTrue(storage.getInvitesPage("bob", null, 10).isEmpty());
+        assertTrue(storage.getInvitesPage("nobody", null, 10).isEmpty());
+    }
+
+    @Test
+    void loadPlayerReturnsTheStoredData() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        storage.insertReferral(uuid, "alice", "AAAA0001");
+        register("bob");
+        storage.insertInvitation("alice", "bob");
+
+        StoredPlayer player = storage.loadPlayer(uuid, "alice");
+        assertNotNull(player);
+        assertEquals("AAAA0001", player.referralCode());
+        assertEquals(1, player.inviteCount());
+        assertNull(player.previousUsername());
+        assertNull(storage.loadPlayer(UUID.randomUUID(), "nobody"));
+    }
+
+    @Test
+    void loadPlayerFollowsARename() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        storage.insertReferral(uuid, "alice", "AAAA0001");
+        register("bob");
+        storage.insertInvitation("bob", "alice");
+        storage.insertInvitation("alice", "bob");
+
+        StoredPlayer player = storage.loadPlayer(uuid, "alicia");
+        assertNotNull(player);
+        assertEquals("alice", player.previousUsername());
+        assertEquals("AAAA0001", player.referralCode());
+        assertEquals("AAAA0001", storage.getReferralCode("alicia"));
+        assertNull(storage.getReferralCode("alice"));
+        assertEquals("alicia", storage.findCodeOwner("AAAA0001"));
+        assertEquals(1, storage.getInviteCount("alicia"));
+        assertEquals(List.of("alicia"), storage.getInvitesPage("bob", null, 10));
+        assertTrue(storage.isAlreadyInvited("alicia", "bob"));
+        assertNull(storage.loadPlayer(uuid, "alicia").previousUsername());
+    }
+
+    @Test
+    void registeringAHeldUsernameReleasesIt() throws Exception {
+        UUID first = UUID.randomUUID();
+        storage.insertReferral(first, "alice", "AAAA0001");
+
+        // The first player renamed themselves and another player took their username before they came back
+        assertEquals(RegistrationOutcome.CREATED, storage.insertReferral(UUID.randomUUID(), "alice", "AAAA0002"));
+        assertEquals("AAAA0002", storage.getReferralCode("alice"));
+
+        StoredPlayer player = storage.loadPlayer(first, "alicia");
+        assertNotNull(player);
+        assertEquals("AAAA0001", player.referralCode());
+        assertEquals("AAAA0001", storage.getReferralCode("alicia"));
+        assertEquals("AAAA0002", storage.getReferralCode("alice"));
+    }
+
+    @Test
+    void rewardsWaitInTheOutboxUntilDeleted() throws Exception {
+        register("alice", "bob", "carl");
+        storage.insertInvitation("alice", "bob");
+        storage.insertInvitations(List.of(new Invitation("alice", "carl")), true);
+
+        List<PendingReward> rewards = storage.getPendingRewards(List.of("alice", "bob"), 10);
+        assertEquals(2, rewards.size());
+        assertEquals("alice", rewards.get(0).player());
+        assertEquals("bob", rewards.get(0).invitee());
+        assertEquals("carl", rewards.get(1).invitee());
+        assertTrue(rewards.get(0).id() < rewards.get(1).id());
+        assertEquals(1, storage.getPendingRewards(List.of("alice"), 1).size());
+
+        storage.deleteRewards(List.of(rewards.get(0).id(), Long.MAX_VALUE));
+        List<PendingReward> remaining = storage.getPendingRewards(List.of("alice"), 10);
+        assertEquals(1, remaining.size());
+        assertEquals(rewards.get(1).id(), remaining.get(0).id());
+    }
+
+    @Test
+    void rewardsFollowARename() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        storage.insertReferral(uuid, "alice", "AAAA0001");
+        register("bob");
+        storage.insertInvitation("alice", "bob");
+        storage.loadPlayer(uuid, "alicia");
+
+        List<PendingReward> rewards = storage.getPendingRewards(List.of("alicia"), 10);
+        assertEquals(1, rewards.size());
+        assertEquals("alicia", rewards.get(0).player());
+    }
+
+    @Test
+    void importedInvitationsEarnNoReward() throws Exception {
+        register("alice", "bob");
+        storage.insertInvitations(List.of(new Invitation("alice", "bob")), false);
+        assertEquals(1, storage.getInviteCount("alice"));
+        assertTrue(storage.getPendingRewards(List.of("alice"), 10).isEmpty());
+    }
+
+    @Test
+    void rollupsCountTheNewInvitations() throws Exception {
+        register("alice", "bob", "carl", "dave", "erin");
+        storage.insertInvitation("alice", "bob");
+        storage.insertInvitations(List.of(new Invitation("alice", "carl"), new Invitation("bob", "dave"),
+                new Invitation("alice", "bob")), true);
+        storage.insertInvitations(List.of(new Invitation("carl", "erin")), false);
+
+        for (StatsGranularity granularity : StatsGranularity.values()) {
+            // One bucket of margin on each side, in case the clock crossed a bucket boundary during the test
+            long now = granularity.bucket(Instant.now());
+            List<InvitationBucket> buckets = storage.getInvitationCounts(granularity, now - 1, now + 2);
+            assertEquals(3, buckets.stream().mapToInt(InvitationBucket::invites).sum(), granularity.toString());
+            for (InvitationBucket bucket : buckets) {
+                assertEquals(bucket.start(), granularity.start(granularity.bucket(bucket.start())));
+            }
+            assertEquals(List.of(new LeaderboardEntry("alice", 2), new LeaderboardEntry("bob", 1)),
+                    storage.getTopInviters(granularity, now - 1, now + 2, 10));
+            assertEquals(List.of(new LeaderboardEntry("alice", 2)), storage.getTopInviters(granularity, now - 1, now + 2, 1));
+            assertTrue(storage.getInvitationCounts(granularity, now - 10, now - 1).isEmpty());
+            assertTrue(storage.getTopInviters(granularity, now - 10, now - 1, 10).isEmpty());
+        }
+    }
+
+    @Test
+    void rollupsCountLateInvitationsWhenTheyWereAccepted() throws Exception {
+        register("alice", "bob", "carl");
+        Instant accepted = Instant.now().minus(Duration.ofDays(3));
+        storage.insertInvitations(List.of(new Invitation("alice", "bob", accepted), new Invitation("alice", "carl")), true);
+        storage.close();
+        storage.open();
+
+        for (StatsGranularity granularity : StatsGranularity.values()) {
+            long then = granularity.bucket(accepted);
+            assertEquals(List.of(new InvitationBucket(granularity.start(then), 1)),
+                    storage.getInvitationCounts(granularity, then, then + 1), granularity.toString());
+            assertEquals(List.of(new LeaderboardEntry("alice", 1)), storage.getTopInviters(granularity, then, then + 1, 10));
+            long now = granularity.bucket(Instant.now());
+            assertEquals(1, storage.getInvitationCounts(granularity, now - 1, now + 2).stream()
+                    .mapToInt(InvitationBucket::invites).sum(), granularity.toString());
+        }
+    }
+
+    @Test
+    void dataSurvivesReopening() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        storage.insertReferral(uuid, "alice", "AAAA0001");
+        register("bob");
+        storage.insertInvitation("alice", "bob");
+        storage.close();
+        storage.open();
+
+        assertEquals("AAAA0001", storage.getReferralCode("alice"));
+        assertEquals(1, storage.getInviteCount("alice"));
+        assertTrue(storage.isAlreadyInvited("alice", "bob"));
+        assertEquals(1, storage.getPendingRewards(List.of("alice"), 10).size());
+        long now = StatsGranularity.DAILY.bucket(Instant.now());
+        assertEquals(1, storage.getInvitationCounts(StatsGranularity.DAILY, now - 1, now + 2).stream()
+                .mapToInt(InvitationBucket::invites).sum());
+    }
+
+    /**
+     * Registers players with distinct referral codes.
+     *
+     * @param usernames The usernames of the players.
+     * @throws Exception If a player cannot be stored.
+     */
+    private void register(String... usernames) throws Exception {
+        for (String username : usernames) {
+            String code = String.format("%-8s", username.toUpperCase(Locale.ROOT)).replace(' ', '0').substring(0, 8);
+            assertEquals(RegistrationOutcome.CREATED, storage.insertReferral(UUID.randomUUID(), username, code));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package plugin.referral.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class holds the tests of the journal of the writes accepted while the database is unreachable.
+ * A crash is simulated by opening a second journal on the same file without closing the first one.
+ */
+class WriteJournalTest {
+
+    private static final Logger LOGGER = Logger.getLogger("WriteJournalTest");
+
+    @TempDir
+    Path folder;
+
+    private File file;
+    private WriteJournal journal;
+
+    @BeforeEach
+    void openJournal() throws Exception {
+        file = folder.resolve("journal.log").toFile();
+        journal = reopen();
+    }
+
+    @AfterEach
+    void closeJournal() {
+        journal.close();
+    }
+
+    @Test
+    void appendSkipsTheWritesAlreadyJournaled() throws Exception {
+        assertTrue(journal.appendReferral(referral("alice")));
+        assertFalse(journal.appendReferral(referral("ALICE")));
+        assertTrue(journal.appendInvitation(new Invitation("alice", "bob")));
+        assertFalse(journal.appendInvitation(new Invitation("Alice", "BOB")));
+
+        assertEquals(2, journal.size());
+        assertTrue(journal.containsInvitation("ALICE", "bob"));
+        assertFalse(journal.containsInvitation("bob", "alice"));
+    }
+
+    @Test
+    void peekReturnsTheOldestWritesOfOneKind() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.appendReferral(referral("bob"));
+        journal.appendInvitation(new Invitation("alice", "bob"));
+        journal.appendReferral(referral("carl"));
+
+        List<WriteJournal.Entry> run = journal.peek(10);
+        assertEquals(2, run.size());
+        assertTrue(run.get(0).isReferral());
+        assertEquals("bob", run.get(1).referral().username());
+        assertEquals(1, journal.peek(1).size());
+
+        journal.remove(2);
+        run = journal.peek(10);
+        assertEquals(1, run.size());
+        assertEquals("bob", run.get(0).invitation().invitee());
+        assertFalse(journal.containsInvitation("carl", "alice"));
+    }
+
+    @Test
+    void writesSurviveReopening() throws Exception {
+        NewReferral alice = referral("alice");
+        Instant accepted = Instant.ofEpochSecond(1_700_000_000L);
+        journal.appendReferral(alice);
+        journal.appendInvitation(new Invitation("alice", "bob", accepted));
+        journal.close();
+        journal = reopen();
+
+        List<WriteJournal.Entry> entries = journal.peek(10);
+        assertEquals(List.of(new WriteJournal.Entry(alice, null)), entries);
+        journal.remove(1);
+        assertEquals(List.of(new WriteJournal.Entry(null, new Invitation("alice", "bob", accepted))), journal.peek(10));
+    }
+
+    @Test
+    void invitationLinesWithoutAcceptanceTimeAreRead() throws Exception {
+        journal.close();
+        Files.writeString(file.toPath(), "I alice bob\n", StandardCharsets.UTF_8);
+        journal = reopen();
+
+        assertEquals(List.of(new WriteJournal.Entry(null, new Invitation("alice", "bob", null))), journal.peek(10));
+    }
+
+    @Test
+    void replayedWritesAreNotReadAgainAfterACrash() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.appendReferral(referral("bob"));
+        journal.appendReferral(referral("carl"));
+        journal.remove(2);
+
+        WriteJournal recovered = reopen();
+        try {
+            assertEquals(1, recovered.size());
+            assertEquals("carl", recovered.peek(10).get(0).referral().username());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void rejectedWritesAreNotRejectedTwiceAfterACrash() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.appendReferral(referral("bob"));
+        journal.reject("duplicate");
+
+        WriteJournal recovered = reopen();
+        try {
+            assertEquals(1, recovered.size());
+            recovered.reject("duplicate");
+            assertTrue(recovered.isEmpty());
+        } finally {
+            recovered.close();
+        }
+        List<String> rejected = Files.readAllLines(folder.resolve("journal.log.rejected"), StandardCharsets.UTF_8);
+        assertEquals(2, rejected.size());
+        assertTrue(rejected.get(0).contains(" alice "));
+        assertTrue(rejected.get(1).contains(" bob "));
+    }
+
+    @Test
+    void fileIsEmptiedOnceEveryWriteIsReplayed() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.appendReferral(referral("bob"));
+        journal.remove(1);
+        assertTrue(Files.exists(folder.resolve("journal.log.offset")));
+
+        journal.remove(1);
+        assertEquals(0, file.length());
+        assertFalse(Files.exists(folder.resolve("journal.log.offset")));
+
+        journal.appendReferral(referral("carl"));
+        journal.close();
+        journal = reopen();
+        assertEquals(1, journal.size());
+    }
+
+    @Test
+    void offsetBeyondTheFileIsIgnored() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.close();
+        Files.writeString(folder.resolve("journal.log.offset"), "100000", StandardCharsets.UTF_8);
+        journal = reopen();
+
+        assertEquals(1, journal.size());
+    }
+
+    @Test
+    void partialLastLineIsDiscarded() throws Exception {
+        journal.appendReferral(referral("alice"));
+        journal.close();
+        long length = file.length();
+        Files.writeString(file.toPath(), "I alice b", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        journal = reopen();
+
+        assertEquals(1, journal.size());
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    void corruptedLineFailsTheOpen() throws Exception {
+        journal.close();
+        Files.writeString(file.toPath(), "X something\n", StandardCharsets.UTF_8);
+
+        assertThrows(SQLException.class, this::reopen);
+    }
+
+    /**
+     * Opens a journal on the file of the test.
+     *
+     * @return The opened journal.
+     * @throws SQLException If the journal cannot be opened.
+     */
+    private WriteJournal reopen() throws SQLException {
+        WriteJournal opened = new WriteJournal(file, false, LOGGER);
+        opened.open();
+        return opened;
+    }
+
+    private static NewReferral referral(String username) {
+        return new NewReferral(UUID.randomUUID(), username, username.toUpperCase(Locale.ROOT) + "0001");
+    }
+}